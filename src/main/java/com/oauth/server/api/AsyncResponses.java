@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers for endpoints that complete asynchronously.
+ *
+ * @author Lucun Cai
+ */
+final class AsyncResponses {
+
+    private AsyncResponses() {
+    }
+
+    /**
+     * Complete with the exception thrown by a stage rather than the {@link CompletionException} wrapping it, so that
+     * Spring MVC resolves the same exception as a synchronous endpoint would throw.
+     *
+     * @param future future returned by the endpoint.
+     * @return future completed with the same value, or with the unwrapped exception.
+     */
+    static <T> CompletableFuture<T> unwrapped(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (error instanceof CompletionException && error.getCause() != null) {
+                result.completeExceptionally(error.getCause());
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+}
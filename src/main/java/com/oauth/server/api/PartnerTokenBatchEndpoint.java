@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+
+package com.oauth.server.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.oauth.server.token.PartnerTokenService;
+import com.oauth.server.token.UserAccessToken;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Rest Controller for the batch partner token endpoint.
+ *
+ * <p>
+ * This endpoint is called by admin clients to retrieve the access tokens received from a partner OAuth provider (e.g.
+ * LWA) for many users at once, for instance to send events to all of them. The results are streamed as they are
+ * known, one JSON object per line, with either the {@code access_token} of the user or an {@code error} and
+ * {@code error_description}. The tokens are provided by the {@link PartnerTokenService}, which reads them in batches
+ * and only refreshes the expiring ones.
+ * </p>
+ *
+ * <p>
+ * Results are completed on DynamoDB client and partner exchange threads, which must not wait for a slow client. The
+ * lines of a request are written one after the other on the batch write executor instead. Once the response times
+ * out or the client disconnects, the next result fails, which stops the remaining batches of the request.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@RestController
+public class PartnerTokenBatchEndpoint {
+
+    @Autowired
+    private PartnerTokenService partnerTokenService;
+
+    @Autowired
+    @Qualifier("partnerTokenBatchWriteExecutor")
+    private Executor writeExecutor;
+
+    @Value("${oauth.partner-token.batch.max-users:10000}")
+    private int maxUsers;
+
+    @Value("${oauth.partner-token.batch.timeout:PT30M}")
+    private Duration timeout;
+
+    /**
+     * Endpoint to retrieve the partner tokens of many users.
+     */
+    @RequestMapping(value = "/api/partner/tokens", method = RequestMethod.POST,
+        produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public ResponseBodyEmitter getPartnerTokens(final @RequestBody BatchRequest request) {
+        if (request.getPartnerId() == null || request.getUserIds() == null || request.getUserIds().isEmpty()) {
+            throw new InvalidRequestException("partner_id and user_ids are required");
+        }
+        if (request.getUserIds().size() > maxUsers) {
+            throw new InvalidRequestException("At most " + maxUsers + " user_ids are allowed per request");
+        }
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeout.toMillis());
+        LineWriter writer = new LineWriter(emitter, writeExecutor);
+        emitter.onTimeout(writer::close);
+        emitter.onError(error -> writer.close());
+        emitter.onCompletion(writer::close);
+        partnerTokenService.getAccessTokens(request.getPartnerId(), request.getUserIds(), writer::write)
+            .whenComplete((ignored, error) -> writer.complete(error instanceof CompletionException
+                && error.getCause() != null ? error.getCause() : error));
+        return emitter;
+    }
+
+    /**
+     * Send the result of a user as a line of JSON.
+     */
+    private static void send(ResponseBodyEmitter emitter, UserAccessToken result) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("user_id", result.getUserId());
+        if (result.getAccessToken() != null) {
+            line.put("access_token", result.getAccessToken());
+        } else if (result.getError() instanceof OAuth2Exception) {
+            line.put("error", ((OAuth2Exception) result.getError()).getOAuth2ErrorCode());
+            line.put("error_description", result.getError().getMessage());
+        } else {
+            line.put("error", "server_error");
+            line.put("error_description", "Failed to get the token of the user");
+        }
+
+        try {
+            emitter.send(line, MediaType.APPLICATION_JSON);
+            emitter.send("\n", MediaType.TEXT_PLAIN);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the lines of a request one after the other on the write executor, and completes the response after the
+     * last line.
+     */
+    private static final class LineWriter {
+
+        private final ResponseBodyEmitter emitter;
+
+        private final Executor executor;
+
+        private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+
+        private volatile boolean closed;
+
+        LineWriter(ResponseBodyEmitter emitter, Executor executor) {
+            this.emitter = emitter;
+            this.executor = executor;
+        }
+
+        /**
+         * Queue the line of a result. Fails once a line failed to be written or the response is closed, which stops
+         * the batch.
+         */
+        synchronized void write(UserAccessToken result) {
+            if (closed) {
+                throw new CancellationException("The response is closed");
+            }
+            if (writes.isCompletedExceptionally()) {
+                writes.join();
+            }
+            writes = writes.thenRunAsync(() -> {
+                if (!closed) {
+                    send(emitter, result);
+                }
+            }, executor);
+        }
+
+        /**
+         * Stop writing once the response timed out, failed or completed.
+         */
+        void close() {
+            closed = true;
+        }
+
+        synchronized void complete(Throwable error) {
+            writes.whenComplete((ignored, writeError) -> {
+                if (closed) {
+                    return;
+                }
+                if (error == null && writeError == null) {
+                    emitter.complete();
+                } else {
+                    emitter.completeWithError(error != null ? error : writeError);
+                }
+            });
+        }
+    }
+
+    @Data
+    public static class BatchRequest {
+
+        @JsonProperty("partner_id")
+        private String partnerId;
+
+        @JsonProperty("user_ids")
+        private List<String> userIds;
+    }
+}
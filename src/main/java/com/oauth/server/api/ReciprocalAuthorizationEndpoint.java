@@ -5,19 +5,23 @@
  */
 package com.oauth.server.api;
 
-import com.oauth.server.dao.DynamoDBPartnerTokenDAO;
-import com.oauth.server.dto.OAuthPartner;
-import com.oauth.server.dao.DynamoDBPartnerDetailsDAO;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
+import com.oauth.server.token.PartnerExchangeGuard;
+import com.oauth.server.token.ReciprocalExchangeQueue;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
 import org.springframework.security.oauth2.client.token.AccessTokenRequest;
 import org.springframework.security.oauth2.client.token.DefaultAccessTokenRequest;
-import org.springframework.security.oauth2.client.token.grant.code.AuthorizationCodeAccessTokenProvider;
-import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
 import org.springframework.security.oauth2.common.exceptions.UnsupportedGrantTypeException;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -33,6 +37,10 @@ import org.springframework.web.bind.annotation.RestController;
  * This endpoint is used for reciprocal account linking by Alexa, and will be invoked with authorization codes that can be
  * exchanged for access tokens (from other OAuth server).
  * This endpoint is introduced by Alexa but can also be used by other OAuth servers.
+ * The request completes asynchronously, with the code exchange running on the partner exchange executor over the
+ * pooled partner connections, within the limits of the {@link PartnerExchangeGuard} of the partner. With the
+ * {@link ReciprocalExchangeQueue}, the request is answered with 202 once the code is queued, and the code is exchanged
+ * afterwards, with retries.
  * https://w.amazon.com/index.php/Alexa%20Skills%20Kit/Permissions%20Framework/Reciprocal%20Authorization/SPI
  * </p>
  *
@@ -44,13 +52,28 @@ public class ReciprocalAuthorizationEndpoint {
     private static final String GRANT_TYPE = "reciprocal_authorization_code";
 
     @Autowired
-    private DynamoDBPartnerTokenDAO partnerTokenRepository;
+    private DynamoDBPartnerTokenAsyncDAO partnerTokenRepository;
 
     @Autowired
-    private DynamoDBPartnerDetailsDAO partnerDetailsRepository;
+    private DynamoDBPartnerDetailsAsyncDAO partnerDetailsRepository;
+
+    @Autowired
+    @Qualifier("partnerExchangeExecutor")
+    private Executor partnerExchangeExecutor;
+
+    @Autowired
+    @Qualifier("partnerAccessTokenProvider")
+    private AccessTokenProvider tokenProvider;
+
+    @Autowired
+    private PartnerExchangeGuard exchangeGuard;
+
+    @Autowired(required = false)
+    private ReciprocalExchangeQueue reciprocalExchangeQueue;
 
     @RequestMapping(value = "/api/reciprocal/authorize", method = RequestMethod.POST)
-    public void postReciprocalCode(final @RequestBody @RequestParam Map<String, String> parameters) {
+    public CompletableFuture<ResponseEntity<Void>> postReciprocalCode(
+        final @RequestBody @RequestParam Map<String, String> parameters) {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
 
         String grantType = parameters.get("grant_type");
@@ -62,21 +85,39 @@ public class ReciprocalAuthorizationEndpoint {
             throw new UnsupportedGrantTypeException("Only reciprocal_authorization_code is supported in this endpoint");
         }
 
-        OAuthPartner partner = partnerDetailsRepository.loadPartnerByPartnerId(partnerId);
-
-        if (partner == null) {
-            throw new NoSuchClientException("Invalid partner id: " + partnerId);
+        if (reciprocalExchangeQueue != null) {
+            if (StringUtils.isEmpty(authorizationCode)) {
+                throw new InvalidRequestException("An authorization code must be supplied.");
+            }
+
+            CompletableFuture<ResponseEntity<Void>> queued = partnerDetailsRepository
+                .loadResourceDetailsByPartnerId(partnerId)
+                .thenCompose(resourceDetails -> {
+                    if (resourceDetails == null) {
+                        throw new NoSuchClientException("Invalid partner id: " + partnerId);
+                    }
+                    return reciprocalExchangeQueue.enqueue(partnerId, auth.getName(), authorizationCode);
+                })
+                .thenApply(ignored -> ResponseEntity.accepted().build());
+
+            return AsyncResponses.unwrapped(queued);
         }
 
-        OAuth2ProtectedResourceDetails resourceDetails = partner.toProtectedResourceDetails();
-
-        AuthorizationCodeAccessTokenProvider tokenProvider = new AuthorizationCodeAccessTokenProvider();
-        tokenProvider.setStateMandatory(false);
-
-        OAuth2AccessToken accessToken = tokenProvider.obtainAccessToken(resourceDetails,
-            createAccessTokenRequest(authorizationCode));
-
-        partnerTokenRepository.saveAccessToken(resourceDetails, auth, accessToken);
+        CompletableFuture<ResponseEntity<Void>> exchange = partnerDetailsRepository
+            .loadResourceDetailsByPartnerId(partnerId)
+            .thenCompose(resourceDetails -> {
+                if (resourceDetails == null) {
+                    throw new NoSuchClientException("Invalid partner id: " + partnerId);
+                }
+
+                return exchangeGuard.execute(partnerId, () -> tokenProvider.obtainAccessToken(resourceDetails,
+                    createAccessTokenRequest(authorizationCode)), partnerExchangeExecutor)
+                    .thenCompose(accessToken -> partnerTokenRepository.saveAccessToken(resourceDetails, auth,
+                        accessToken));
+            })
+            .thenApply(ignored -> ResponseEntity.ok().build());
+
+        return AsyncResponses.unwrapped(exchange);
     }
 
     /**
@@ -5,16 +5,14 @@
  */
 package com.oauth.server.authentication;
 
-import com.google.common.collect.ImmutableList;
-import java.util.List;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -22,25 +20,21 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 /**
- * An customized AuthenticationProvider.
+ * An customized AuthenticationProvider, authenticating the users of a {@link UserDirectory}.
  *
  * <p>
- *     TODO: Replace the sample users in this class with the actual authentication server or user DB.
+ * Passwords hashed with outdated parameters are hashed again and replaced in the directory once the user signed in
+ * with them.
  * </p>
  *
  * @author Lucun Cai
  */
+@Log4j2
 @RequiredArgsConstructor
 public class AuthenticationServiceProvider implements AuthenticationProvider, AuthenticationManager,
     UserDetailsService {
 
-    private static final List<User> mockUsers = ImmutableList.of(
-        new User("user", "$2a$10$tNrknh3ZtTQ4IWq.P1KSaOwIar7ToOM1TjQTmuxGIIjYCJvy.55uS",
-            ImmutableList.of()),
-        new User("user2", "$2a$10$tNrknh3ZtTQ4IWq.P1KSaOwIar7ToOM1TjQTmuxGIIjYCJvy.55uS",
-            ImmutableList.of()),
-        new User("admin", "$2a$10$tNrknh3ZtTQ4IWq.P1KSaOwIar7ToOM1TjQTmuxGIIjYCJvy.55uS",
-            ImmutableList.of(new SimpleGrantedAuthority(RoleEnum.ROLE_USER_ADMIN.name()))));
+    private final UserDirectory userDirectory;
 
     private final PasswordEncoder passwordEncoder;
 
@@ -51,7 +45,12 @@ public class AuthenticationServiceProvider implements AuthenticationProvider, Au
 
         UserDetails user = loadUserByUsername(username);
         if (passwordEncoder.matches(password, user.getPassword())) {
-            return new UsernamePasswordAuthenticationToken(user, user.getPassword(), user.getAuthorities());
+            if (passwordEncoder.upgradeEncoding(user.getPassword())) {
+                upgradePassword(user, password);
+            }
+            // A copy, as the credentials of the principal are erased after authentication.
+            User principal = new User(user.getUsername(), user.getPassword(), user.getAuthorities());
+            return new UsernamePasswordAuthenticationToken(principal, user.getPassword(), user.getAuthorities());
         } else {
             throw new BadCredentialsException("Invalid credential for user " + username);
         }
@@ -59,13 +58,11 @@ public class AuthenticationServiceProvider implements AuthenticationProvider, Au
 
     @Override
     public UserDetails loadUserByUsername(final String username) throws UsernameNotFoundException {
-
-        //TODO: Integrate with your authentication system in replace the mock users.
-        return mockUsers.stream()
-            .filter(u -> u.getUsername().equals(username))
-            .findAny()
-            .map(u -> new User(u.getUsername(), u.getPassword(), u.getAuthorities()))
-            .orElseThrow(() -> new UsernameNotFoundException("User " + username + " cannot be found"));
+        UserDetails user = userDirectory.findUser(username);
+        if (user == null) {
+            throw new UsernameNotFoundException("User " + username + " cannot be found");
+        }
+        return user;
     }
 
     @Override
@@ -74,4 +71,12 @@ public class AuthenticationServiceProvider implements AuthenticationProvider, Au
             UsernamePasswordAuthenticationToken.class);
     }
 
+    private void upgradePassword(UserDetails user, String password) {
+        try {
+            userDirectory.updatePassword(user, passwordEncoder.encode(password));
+        } catch (RuntimeException e) {
+            log.warn("Failed to upgrade the password hash of user {}", user.getUsername(), e);
+        }
+    }
+
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.NonNull;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * A {@link PasswordEncoder} verifying passwords on a dedicated, bounded executor, so that bursts of logins and client
+ * authentications cannot take every core away from the requests that do not hash.
+ *
+ * <p>
+ * A verification that cannot be queued is rejected at once with {@link HttpStatus#TOO_MANY_REQUESTS}, and one that
+ * waits in the queue longer than the queue time budget is withdrawn and rejected with
+ * {@link HttpStatus#SERVICE_UNAVAILABLE}, by throwing a {@link PasswordVerificationRejectedException}. Verifications
+ * that have started always complete. The queue depth, the time spent in the queue and the rejections are published as
+ * the {@code oauth.password.verification.*} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, MeterBinder {
+
+    private final PasswordEncoder delegate;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long queueTimeBudgetNanos;
+
+    private final AtomicLong queueFullRejections = new AtomicLong();
+
+    private final AtomicLong queueTimeRejections = new AtomicLong();
+
+    private volatile Timer queueWait = new SimpleMeterRegistry().timer("oauth.password.verification.queue.wait");
+
+    public BoundedPasswordEncoder(@NonNull PasswordEncoder delegate, @NonNull ThreadPoolExecutor executor,
+                                  @NonNull Duration queueTimeBudget) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.queueTimeBudgetNanos = queueTimeBudget.toNanos();
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        long queuedAt = System.nanoTime();
+        AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<Boolean> verification = new FutureTask<>(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            queueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            return delegate.matches(rawPassword, encodedPassword);
+        });
+
+        try {
+            executor.execute(verification);
+        } catch (RejectedExecutionException e) {
+            queueFullRejections.incrementAndGet();
+            throw new PasswordVerificationRejectedException("Too many credentials waiting for verification.",
+                HttpStatus.TOO_MANY_REQUESTS);
+        }
+
+        try {
+            try {
+                return verification.get(queueTimeBudgetNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    executor.remove(verification);
+                    queueTimeRejections.incrementAndGet();
+                    throw new PasswordVerificationRejectedException(
+                        "Credentials could not be verified within the queue time budget.",
+                        HttpStatus.SERVICE_UNAVAILABLE);
+                }
+                return verification.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to verify credentials.", e.getCause());
+        } catch (InterruptedException e) {
+            claimed.set(true);
+            executor.remove(verification);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while verifying credentials.", e);
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        queueWait = Timer.builder("oauth.password.verification.queue.wait")
+            .description("Time verifications waited for a verification thread")
+            .register(registry);
+        Gauge.builder("oauth.password.verification.queue.depth", executor, pool -> pool.getQueue().size())
+            .description("Verifications waiting for a verification thread")
+            .register(registry);
+        Gauge.builder("oauth.password.verification.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Verifications running")
+            .register(registry);
+        FunctionCounter.builder("oauth.password.verification.rejected", queueFullRejections, AtomicLong::get)
+            .description("Verifications rejected")
+            .tag("reason", "queue_full")
+            .register(registry);
+        FunctionCounter.builder("oauth.password.verification.rejected", queueTimeRejections, AtomicLong::get)
+            .description("Verifications rejected")
+            .tag("reason", "queue_time")
+            .register(registry);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.NonNull;
+import lombok.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * A {@link PasswordEncoder} remembering the passwords it has verified, so that a client presenting the same secret
+ * again is not verified with the slow delegate encoder every time.
+ *
+ * <p>
+ * Successful verifications are kept in a bounded cache for a short time to live, keyed by an HMAC of the stored hash
+ * and the presented password with a key generated for this process, so that the cache never holds a password and
+ * cannot be checked against outside the process. As the stored hash is part of the key, a changed password never
+ * matches a verification of the previous one. Failed verifications are not cached. Hit and miss statistics are
+ * published under the {@code cache.*} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class CachingPasswordEncoder implements PasswordEncoder, MeterBinder {
+
+    private static final String CACHE_NAME = "verifiedSecretCache";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+
+    private final Cache<Verification, Boolean> verifications;
+
+    private final ThreadLocal<Mac> macs;
+
+    public CachingPasswordEncoder(@NonNull PasswordEncoder delegate, long maximumSize,
+                                  @NonNull Duration timeToLive) {
+        this.delegate = delegate;
+        this.verifications = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC_ALGORITHM + " not available.  Fatal (should be in the JDK).", e);
+            }
+        });
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return delegate.matches(rawPassword, encodedPassword);
+        }
+
+        Verification verification = new Verification(encodedPassword, mac(encodedPassword, rawPassword));
+        if (verifications.getIfPresent(verification) != null) {
+            return true;
+        }
+
+        boolean matches = delegate.matches(rawPassword, encodedPassword);
+        if (matches) {
+            verifications.put(verification, Boolean.TRUE);
+        }
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Forget the verifications of the stored hash, when the password it was computed from is replaced or removed.
+     *
+     * @param encodedPassword stored hash.
+     */
+    public void invalidate(String encodedPassword) {
+        if (encodedPassword != null) {
+            verifications.asMap().keySet()
+                .removeIf(verification -> verification.getEncodedPassword().equals(encodedPassword));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, verifications, CACHE_NAME, Collections.emptyList());
+    }
+
+    private String mac(String encodedPassword, CharSequence rawPassword) {
+        Mac mac = macs.get();
+        mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    @Value
+    private static class Verification {
+        String encodedPassword;
+        String mac;
+    }
+}
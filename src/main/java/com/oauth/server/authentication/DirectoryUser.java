@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import lombok.NonNull;
+import lombok.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * An immutable user returned by a {@link UserDirectory}.
+ *
+ * <p>
+ * Unlike {@link org.springframework.security.core.userdetails.User}, its credentials are never erased after
+ * authentication, so a single instance can be returned to every caller.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Value
+public class DirectoryUser implements UserDetails {
+
+    private static final long serialVersionUID = 1L;
+
+    String username;
+
+    String password;
+
+    ImmutableSet<GrantedAuthority> authorities;
+
+    public DirectoryUser(@NonNull String username, @NonNull String password,
+                         @NonNull Collection<? extends GrantedAuthority> authorities) {
+        this.username = username;
+        this.password = password;
+        this.authorities = ImmutableSet.copyOf(authorities);
+    }
+
+    /**
+     * Copy this user with another password hash.
+     *
+     * @param encodedPassword password hash.
+     * @return the user with the password hash.
+     */
+    public DirectoryUser withPassword(String encodedPassword) {
+        return new DirectoryUser(username, encodedPassword, authorities);
+    }
+
+    /**
+     * Copy a user.
+     *
+     * @param user user.
+     * @return the immutable user.
+     */
+    public static DirectoryUser copyOf(UserDetails user) {
+        if (user instanceof DirectoryUser) {
+            return (DirectoryUser) user;
+        }
+        return new DirectoryUser(user.getUsername(), user.getPassword(), user.getAuthorities());
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.NonNull;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * A {@link UserDirectory} holding its users in memory, indexed by username.
+ *
+ * @author Lucun Cai
+ */
+public class InMemoryUserDirectory implements UserDirectory {
+
+    private final Map<String, DirectoryUser> users = new ConcurrentHashMap<>();
+
+    public InMemoryUserDirectory(@NonNull Collection<? extends UserDetails> users) {
+        users.forEach(user -> this.users.put(user.getUsername(), DirectoryUser.copyOf(user)));
+    }
+
+    @Override
+    public UserDetails findUser(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        DirectoryUser updated = users.computeIfPresent(user.getUsername(),
+            (username, current) -> current.withPassword(newPassword));
+        return updated == null ? user : updated;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a password or client secret cannot be verified because the verification executor is overloaded. The
+ * credentials have not been checked, so this is not an authentication failure, and the request should be retried
+ * later.
+ *
+ * @author Lucun Cai
+ */
+@Getter
+public class PasswordVerificationRejectedException extends RuntimeException {
+
+    /**
+     * Status of the response to the rejected request.
+     */
+    private final HttpStatus status;
+
+    public PasswordVerificationRejectedException(String message, HttpStatus status) {
+        super(message);
+        this.status = status;
+    }
+}
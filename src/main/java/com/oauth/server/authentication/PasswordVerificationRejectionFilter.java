@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Filter answering requests whose credentials could not be verified because of overload with the status of the
+ * {@link PasswordVerificationRejectedException} and a {@code Retry-After} header, instead of an internal server error.
+ * It must run before the security filter chain, which does not handle this exception.
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class PasswordVerificationRejectionFilter extends OncePerRequestFilter {
+
+    private final String retryAfterSeconds;
+
+    public PasswordVerificationRejectionFilter(long retryAfterSeconds) {
+        this.retryAfterSeconds = Long.toString(retryAfterSeconds);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } catch (RuntimeException | ServletException e) {
+            PasswordVerificationRejectedException rejection = findRejection(e);
+            if (rejection == null || response.isCommitted()) {
+                throw e;
+            }
+            log.warn("Rejected {} {}: {}", request.getMethod(), request.getRequestURI(), rejection.getMessage());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            response.sendError(rejection.getStatus().value(), rejection.getMessage());
+        }
+    }
+
+    private static PasswordVerificationRejectedException findRejection(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PasswordVerificationRejectedException) {
+                return (PasswordVerificationRejectedException) cause;
+            }
+        }
+        return null;
+    }
+}
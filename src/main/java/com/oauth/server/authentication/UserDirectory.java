@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.authentication;
+
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
+
+/**
+ * The store of the users signing in to this server, looked up by {@link AuthenticationServiceProvider}.
+ *
+ * <p>
+ * Implement this interface to integrate with your user database or authentication system. Lookups happen on every
+ * sign in and refresh token grant, so they should not depend on the number of users. The users returned may be shared
+ * between callers and must not be modified. {@link #updatePassword} replaces the stored hash of a password that was
+ * hashed with outdated parameters, after the user signed in with it.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public interface UserDirectory extends UserDetailsPasswordService {
+
+    /**
+     * Find a user by username.
+     *
+     * @param username username.
+     * @return the user, or null if there is no such user.
+     */
+    UserDetails findUser(String username);
+}
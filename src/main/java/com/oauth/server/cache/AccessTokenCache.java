@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.oauth.server.dto.OAuthAccessToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * A bounded in-process cache of {@link OAuthAccessToken} items keyed by the hashed token id.
+ *
+ * <p>
+ * Each entry lives at most for the configured time to live, and never beyond the expiration of the token it holds.
+ * Concurrent misses for the same token id are collapsed into a single load. Hit and miss statistics are published to
+ * the actuator metrics endpoint under the {@code cache.*} meters.
+ * </p>
+ *
+ * <p>
+ * Every caller gets its own copy of the item, as the authentication of a token is changed per request by the
+ * {@link org.springframework.security.oauth2.provider.authentication.OAuth2AuthenticationManager}. Entries are only
+ * evicted on the node revoking the token: the other nodes accept a revoked token until their entry expires, so the
+ * time to live is the longest a revoked token stays valid.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class AccessTokenCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "accessTokenCache";
+
+    private final Cache<String, Entry> cache;
+
+    private final Duration timeToLive;
+
+    private final Clock clock;
+
+    public AccessTokenCache(long maximumSize, @NonNull Duration timeToLive) {
+        this(maximumSize, timeToLive, Clock.systemUTC());
+    }
+
+    public AccessTokenCache(long maximumSize, @NonNull Duration timeToLive, @NonNull Clock clock) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the access token item for the token id, loading it with the loader provided on a miss.
+     *
+     * @param tokenId hashed token id.
+     * @param loader loader for the access token item, may return null if the item does not exist.
+     * @return copy of the access token item or null if not found.
+     */
+    public OAuthAccessToken get(@NonNull String tokenId, @NonNull Function<String, OAuthAccessToken> loader) {
+        Entry entry = getOrLoad(tokenId, loader);
+
+        if (entry.isExpired(clock.millis())) {
+            cache.asMap().remove(tokenId, entry);
+            entry = getOrLoad(tokenId, loader);
+        }
+
+        if (entry.getItem() == null || entry.isExpired(clock.millis())) {
+            // Unknown and expired tokens are not kept, the next lookup goes to the database again.
+            cache.asMap().remove(tokenId, entry);
+        }
+
+        return copyOf(entry.getItem());
+    }
+
+    /**
+     * Evict the access token item for the token id.
+     *
+     * @param tokenId hashed token id.
+     */
+    public void invalidate(String tokenId) {
+        if (tokenId != null) {
+            cache.invalidate(tokenId);
+        }
+    }
+
+    /**
+     * Evict the access token items for all the token ids.
+     *
+     * @param tokenIds hashed token ids.
+     */
+    public void invalidateAll(Iterable<String> tokenIds) {
+        cache.invalidateAll(tokenIds);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME, Collections.emptyList());
+    }
+
+    private Entry getOrLoad(String tokenId, Function<String, OAuthAccessToken> loader) {
+        try {
+            return cache.get(tokenId, () -> newEntry(loader.apply(tokenId)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to load access token " + tokenId, e.getCause());
+        }
+    }
+
+    private static OAuthAccessToken copyOf(OAuthAccessToken item) {
+        return item != null ? item.copy() : null;
+    }
+
+    private Entry newEntry(OAuthAccessToken item) {
+        long expiresAt = clock.millis() + timeToLive.toMillis();
+
+        OAuth2AccessToken token = item != null ? item.getToken() : null;
+        if (token != null && token.getExpiration() != null) {
+            expiresAt = Math.min(expiresAt, token.getExpiration().getTime());
+        }
+
+        return new Entry(item, expiresAt);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final OAuthAccessToken item;
+        private final long expiresAt;
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
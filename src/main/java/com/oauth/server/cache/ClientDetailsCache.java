@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.oauth.server.dto.ImmutableClientDetails;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.oauth2.provider.ClientDetails;
+
+/**
+ * A bounded in-process cache of {@link ClientDetails} keyed by client id.
+ *
+ * <p>
+ * Entries hold {@link ImmutableClientDetails} built once per load, so lookups neither read DynamoDB nor parse the
+ * stored registration. Unknown client ids are cached as well, so that requests with a wrong client id do not reach the
+ * database either. An entry older than the refresh interval is still returned, and reloaded in the background, so
+ * that lookups do not wait for the database when registrations are refreshed. Entries are evicted after the time to
+ * live if not refreshed, and immediately when the registration is changed through this server.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class ClientDetailsCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "clientDetailsCache";
+
+    private final Cache<String, Entry> cache;
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final Duration refreshInterval;
+
+    private final Clock clock;
+
+    public ClientDetailsCache(long maximumSize, @NonNull Duration refreshInterval, @NonNull Duration timeToLive) {
+        this(maximumSize, refreshInterval, timeToLive, Clock.systemUTC());
+    }
+
+    public ClientDetailsCache(long maximumSize, @NonNull Duration refreshInterval, @NonNull Duration timeToLive,
+                              @NonNull Clock clock) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+        this.refreshInterval = refreshInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the client details for the client id, loading them with the loader provided on a miss. Stale client details
+     * are returned and reloaded in the background with the refresh loader.
+     *
+     * @param clientId client id.
+     * @param loader loader for the client details, may return null if the client does not exist.
+     * @param refreshLoader asynchronous loader for the client details, may complete with null if the client does not
+     *     exist.
+     * @return client details or null if not found.
+     */
+    public ClientDetails get(@NonNull String clientId, @NonNull Function<String, ClientDetails> loader,
+                             @NonNull Function<String, CompletableFuture<ClientDetails>> refreshLoader) {
+        Entry entry;
+        try {
+            entry = cache.get(clientId, () -> newEntry(loader.apply(clientId)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to load client " + clientId, e.getCause());
+        }
+
+        refreshIfStale(clientId, entry, refreshLoader);
+        return entry.getClientDetails();
+    }
+
+    /**
+     * Evict the client details for the client id.
+     *
+     * @param clientId client id.
+     */
+    public void invalidate(String clientId) {
+        if (clientId != null) {
+            cache.invalidate(clientId);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME, Collections.emptyList());
+    }
+
+    private void refreshIfStale(String clientId, Entry entry,
+                                Function<String, CompletableFuture<ClientDetails>> refreshLoader) {
+        if (clock.millis() < entry.getRefreshAt() || !refreshing.add(clientId)) {
+            return;
+        }
+
+        CompletableFuture<ClientDetails> reload;
+        try {
+            reload = refreshLoader.apply(clientId);
+        } catch (RuntimeException e) {
+            refreshing.remove(clientId);
+            log.warn("Failed to refresh client {}, serving the cached client details.", clientId, e);
+            return;
+        }
+
+        reload.whenComplete((clientDetails, error) -> {
+            if (error == null) {
+                // An entry invalidated during the reload is not restored, the next lookup loads it again.
+                cache.asMap().replace(clientId, entry, newEntry(clientDetails));
+            } else {
+                log.warn("Failed to refresh client {}, serving the cached client details.", clientId, error);
+            }
+            refreshing.remove(clientId);
+        });
+    }
+
+    private Entry newEntry(ClientDetails clientDetails) {
+        return new Entry(clientDetails != null ? ImmutableClientDetails.copyOf(clientDetails) : null,
+            clock.millis() + refreshInterval.toMillis());
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final ClientDetails clientDetails;
+        private final long refreshAt;
+    }
+}
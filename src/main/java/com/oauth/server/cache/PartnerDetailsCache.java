@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.oauth.server.dto.ImmutablePartnerResourceDetails;
+import com.oauth.server.dto.OAuthPartner;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A bounded in-process cache of partner definitions keyed by partner id.
+ *
+ * <p>
+ * Entries hold the {@link ImmutablePartnerResourceDetails} built once per load, so partner token and reciprocal
+ * requests neither read DynamoDB nor build the resource details of the partner. Unknown partner ids are cached as
+ * well. An entry older than the refresh interval is still returned, and reloaded in the background, so that lookups do
+ * not wait for the database when partners are refreshed. Entries are evicted after the time to live if not refreshed,
+ * and immediately when the partner is changed through this server. A load started before an invalidation does not
+ * cache what it read, since the partner may have changed after it was read.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class PartnerDetailsCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "partnerDetailsCache";
+
+    private final Cache<String, Entry> cache;
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of invalidations, checked by the loads started before them.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Duration refreshInterval;
+
+    private final Clock clock;
+
+    public PartnerDetailsCache(long maximumSize, @NonNull Duration refreshInterval, @NonNull Duration timeToLive) {
+        this(maximumSize, refreshInterval, timeToLive, Clock.systemUTC());
+    }
+
+    public PartnerDetailsCache(long maximumSize, @NonNull Duration refreshInterval, @NonNull Duration timeToLive,
+                               @NonNull Clock clock) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+        this.refreshInterval = refreshInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the resource details of the partner, loading the partner asynchronously with the loader provided on a miss.
+     * Stale resource details are returned and reloaded in the background with the same loader.
+     *
+     * @param partnerId partner id.
+     * @param loader asynchronous loader for the partner, may complete with null if the partner does not exist.
+     * @return future of the resource details, or of null if not found.
+     */
+    public CompletableFuture<ImmutablePartnerResourceDetails> getAsync(
+        @NonNull String partnerId, @NonNull Function<String, CompletableFuture<OAuthPartner>> loader) {
+        Entry entry = cache.getIfPresent(partnerId);
+        if (entry != null) {
+            refreshIfStale(partnerId, entry, loader);
+            return CompletableFuture.completedFuture(entry.getResourceDetails());
+        }
+
+        long invalidationsBeforeLoad = invalidations.get();
+        return loader.apply(partnerId).thenApply(partner -> {
+            Entry loaded = newEntry(partner);
+            if (invalidations.get() == invalidationsBeforeLoad) {
+                cache.asMap().putIfAbsent(partnerId, loaded);
+            }
+            return loaded.getResourceDetails();
+        });
+    }
+
+    /**
+     * Evict the resource details of the partner.
+     *
+     * @param partnerId partner id.
+     */
+    public void invalidate(String partnerId) {
+        if (partnerId != null) {
+            invalidations.incrementAndGet();
+            cache.invalidate(partnerId);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME, Collections.emptyList());
+    }
+
+    private void refreshIfStale(String partnerId, Entry entry,
+                                Function<String, CompletableFuture<OAuthPartner>> loader) {
+        if (clock.millis() < entry.getRefreshAt() || !refreshing.add(partnerId)) {
+            return;
+        }
+
+        CompletableFuture<OAuthPartner> reload;
+        try {
+            reload = loader.apply(partnerId);
+        } catch (RuntimeException e) {
+            refreshing.remove(partnerId);
+            log.warn("Failed to refresh partner {}, serving the cached partner.", partnerId, e);
+            return;
+        }
+
+        reload.whenComplete((partner, error) -> {
+            if (error == null) {
+                // An entry invalidated during the reload is not restored, the next lookup loads it again.
+                cache.asMap().replace(partnerId, entry, newEntry(partner));
+            } else {
+                log.warn("Failed to refresh partner {}, serving the cached partner.", partnerId, error);
+            }
+            refreshing.remove(partnerId);
+        });
+    }
+
+    private Entry newEntry(OAuthPartner partner) {
+        return new Entry(partner != null ? ImmutablePartnerResourceDetails.of(partner) : null,
+            clock.millis() + refreshInterval.toMillis());
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Entry {
+        private final ImmutablePartnerResourceDetails resourceDetails;
+        private final long refreshAt;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import lombok.NonNull;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * A bounded in-process cache of {@link UserDetails} keyed by username.
+ *
+ * <p>
+ * Unknown usernames are cached as well, so that sign in attempts with a wrong username do not reach the user store
+ * either. Concurrent misses for the same username are collapsed into a single load. Hit and miss statistics are
+ * published under the {@code cache.*} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class UserDetailsCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "userDetailsCache";
+
+    private final Cache<String, Optional<UserDetails>> cache;
+
+    public UserDetailsCache(long maximumSize, @NonNull Duration timeToLive) {
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Get the user for the username, loading it with the loader provided on a miss.
+     *
+     * @param username username.
+     * @param loader loader for the user, may return null if the user does not exist.
+     * @return user or null if not found.
+     */
+    public UserDetails get(@NonNull String username, @NonNull Function<String, UserDetails> loader) {
+        try {
+            return cache.get(username, () -> Optional.ofNullable(loader.apply(username))).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to load user " + username, e.getCause());
+        }
+    }
+
+    /**
+     * Evict the user for the username.
+     *
+     * @param username username.
+     */
+    public void invalidate(String username) {
+        if (username != null) {
+            cache.invalidate(username);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME, Collections.emptyList());
+    }
+}
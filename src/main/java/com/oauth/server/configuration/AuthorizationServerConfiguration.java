@@ -5,30 +5,93 @@
  */
 package com.oauth.server.configuration;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.oauth.server.cache.AccessTokenCache;
+import com.oauth.server.cache.ClientDetailsCache;
+import com.oauth.server.cache.PartnerDetailsCache;
+import com.oauth.server.cache.UserDetailsCache;
+import com.oauth.server.dao.DynamoDBApprovalStore;
+import com.oauth.server.dao.DynamoDBAsyncMapper;
 import com.oauth.server.dao.DynamoDBClientDetailsDAO;
+import com.oauth.server.dao.DynamoDBExpiredItemSweeper;
+import com.oauth.server.dao.DynamoDBLeaseDAO;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
 import com.oauth.server.dao.DynamoDBPartnerTokenDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenMigration;
+import com.oauth.server.dao.DynamoDBReciprocalExchangeDAO;
+import com.oauth.server.dao.DynamoDBStreamsChangeFeed;
+import com.oauth.server.dao.DynamoDBTableReplica;
 import com.oauth.server.dao.DynamoDBTokenDAO;
+import com.oauth.server.dao.DynamoDBUserDirectory;
 import com.oauth.server.authentication.AuthenticationServiceProvider;
+import com.oauth.server.authentication.BoundedPasswordEncoder;
+import com.oauth.server.authentication.CachingPasswordEncoder;
+import com.oauth.server.authentication.DirectoryUser;
+import com.oauth.server.authentication.InMemoryUserDirectory;
+import com.oauth.server.authentication.RoleEnum;
+import com.oauth.server.authentication.UpgradingBCryptPasswordEncoder;
+import com.oauth.server.authentication.UserDirectory;
 import com.oauth.server.dao.DynamoDBAuthorizationCodeDAO;
 import com.oauth.server.dao.DynamoDBPartnerDetailsDAO;
+import com.oauth.server.dto.ImmutableClientDetails;
+import com.oauth.server.dto.OAuthAccessToken;
+import com.oauth.server.dto.OAuthApproval;
+import com.oauth.server.dto.OAuthClientDetails;
+import com.oauth.server.dto.OAuthCode;
+import com.oauth.server.dto.OAuthLease;
+import com.oauth.server.dto.OAuthPartner;
+import com.oauth.server.dto.OAuthPartnerToken;
+import com.oauth.server.dto.OAuthReciprocalExchange;
+import com.oauth.server.dto.OAuthRefreshToken;
+import com.oauth.server.dto.OAuthRevokedToken;
+import com.oauth.server.token.AccessTokenRevocationList;
+import com.oauth.server.token.DynamoDBResourceServerTokenServices;
+import com.oauth.server.token.DynamoDBTokenServices;
+import com.oauth.server.token.PartnerExchangeGuard;
+import com.oauth.server.token.PartnerExchangeMetricsInterceptor;
+import com.oauth.server.token.PartnerHttpRequestFactory;
+import com.oauth.server.token.PartnerTokenRefreshScheduler;
+import com.oauth.server.token.PartnerTokenService;
+import com.oauth.server.token.ReciprocalExchangeQueue;
+import com.oauth.server.token.RotatingJwtAccessTokenConverter;
+import com.oauth.server.token.SignedResourceServerTokenServices;
+import com.oauth.server.token.SigningKeyRing;
+import com.oauth.server.token.TokenKeyHasher;
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Function;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetailsByNameServiceWrapper;
 import org.springframework.security.oauth2.client.token.ClientTokenServices;
+import org.springframework.security.oauth2.client.token.grant.code.AuthorizationCodeAccessTokenProvider;
 import org.springframework.security.oauth2.config.annotation.configurers.ClientDetailsServiceConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.AuthorizationServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableAuthorizationServer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerEndpointsConfigurer;
 import org.springframework.security.oauth2.config.annotation.web.configurers.AuthorizationServerSecurityConfigurer;
+import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.approval.ApprovalStore;
 import org.springframework.security.oauth2.provider.approval.TokenApprovalStore;
 import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
 
 /**
  * Configuration for authorization server.
@@ -39,58 +102,746 @@ import org.springframework.security.oauth2.provider.token.TokenStore;
 @EnableAuthorizationServer
 public class AuthorizationServerConfiguration extends AuthorizationServerConfigurerAdapter {
 
+    /**
+     * BCrypt encoder of client secrets, remembering the secrets it has verified for a short time, so that clients
+     * authenticating repeatedly are not verified with BCrypt every time. User passwords are not cached.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public CachingPasswordEncoder clientSecretEncoder() {
+        return new CachingPasswordEncoder(passwordVerifier(), verifiedSecretCacheMaximumSize,
+            verifiedSecretCacheTimeToLive);
+    }
+
+    /**
+     * BCrypt password encoder verifying passwords and client secrets on the bounded verification executor, rejecting
+     * them when they cannot start within the queue time budget.
+     */
+    @Bean
+    @Primary
+    public BoundedPasswordEncoder passwordVerifier() {
+        return new BoundedPasswordEncoder(new UpgradingBCryptPasswordEncoder(bcryptStrength),
+            passwordVerificationExecutor().getThreadPoolExecutor(), passwordVerificationQueueTimeBudget);
     }
 
+    @Autowired
+    private AmazonDynamoDB amazonDynamoDB;
+
     @Autowired
     private DynamoDBMapper dynamoDBMapper;
 
+    @Autowired
+    private DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    @Autowired(required = false)
+    private AmazonDynamoDBStreams amazonDynamoDBStreams;
+
+    @Value("${oauth.access-token-cache.maximum-size:10000}")
+    private long accessTokenCacheMaximumSize;
+
+    @Value("${oauth.access-token-cache.time-to-live:PT30S}")
+    private Duration accessTokenCacheTimeToLive;
+
+    @Value("${oauth.verified-secret-cache.maximum-size:10000}")
+    private long verifiedSecretCacheMaximumSize;
+
+    @Value("${oauth.verified-secret-cache.time-to-live:PT5M}")
+    private Duration verifiedSecretCacheTimeToLive;
+
+    @Value("${oauth.password-verification.bcrypt-strength:10}")
+    private int bcryptStrength;
+
+    @Value("${oauth.password-verification.threads:2}")
+    private int passwordVerificationThreads;
+
+    @Value("${oauth.password-verification.queue-capacity:100}")
+    private int passwordVerificationQueueCapacity;
+
+    @Value("${oauth.password-verification.queue-time-budget:PT0.5S}")
+    private Duration passwordVerificationQueueTimeBudget;
+
+    @Value("${oauth.user-directory.dynamodb:false}")
+    private boolean dynamoDBUserDirectory;
+
+    @Value("${oauth.approval-store.dynamodb:false}")
+    private boolean dynamoDBApprovalStoreEnabled;
+
+    @Value("${oauth.user-directory.cache.maximum-size:10000}")
+    private long userDetailsCacheMaximumSize;
+
+    @Value("${oauth.user-directory.cache.time-to-live:PT5M}")
+    private Duration userDetailsCacheTimeToLive;
+
+    @Value("${oauth.client-details-cache.maximum-size:1000}")
+    private long clientDetailsCacheMaximumSize;
+
+    @Value("${oauth.client-details-cache.refresh-interval:PT1M}")
+    private Duration clientDetailsCacheRefreshInterval;
+
+    @Value("${oauth.client-details-cache.time-to-live:PT1H}")
+    private Duration clientDetailsCacheTimeToLive;
+
+    @Value("${oauth.partner-details-cache.maximum-size:1000}")
+    private long partnerDetailsCacheMaximumSize;
+
+    @Value("${oauth.partner-details-cache.refresh-interval:PT1M}")
+    private Duration partnerDetailsCacheRefreshInterval;
+
+    @Value("${oauth.partner-details-cache.time-to-live:PT1H}")
+    private Duration partnerDetailsCacheTimeToLive;
+
+    @Value("${oauth.registry.enabled:false}")
+    private boolean registryEnabled;
+
+    @Value("${oauth.registry.load-segments:4}")
+    private int registryLoadSegments;
+
+    @Value("${oauth.registry.sync-interval:PT10S}")
+    private Duration registrySyncInterval;
+
+    @Value("${oauth.token-key.algorithm:MD5}")
+    private TokenKeyHasher.Algorithm tokenKeyAlgorithm;
+
+    @Value("${oauth.token-key.legacy-algorithm:}")
+    private TokenKeyHasher.Algorithm tokenKeyLegacyAlgorithm;
+
+    @Value("${oauth.authorization-code.validity:PT10M}")
+    private Duration authorizationCodeValidity;
+
+    @Value("${oauth.partner-token.refreshable-token-retention:P90D}")
+    private Duration partnerTokenRetention;
+
+    @Value("${oauth.partner-token.refresh-margin:PT5M}")
+    private Duration partnerTokenRefreshMargin;
+
+    @Value("${oauth.partner-token.batch.refresh-concurrency:4}")
+    private int partnerTokenBatchRefreshConcurrency;
+
+    @Value("${oauth.partner-token.batch.write-threads:4}")
+    private int partnerTokenBatchWriteThreads;
+
+    @Value("${oauth.partner-token.refresh-lease.enabled:false}")
+    private boolean partnerTokenRefreshLeaseEnabled;
+
+    @Value("${oauth.partner-token.refresh-lease.duration:PT10S}")
+    private Duration partnerTokenRefreshLeaseDuration;
+
+    @Value("${oauth.partner-token.refresh-lease.wait:PT3S}")
+    private Duration partnerTokenRefreshLeaseWait;
+
+    @Value("${oauth.partner-token.refresh-lease.poll-interval:PT0.2S}")
+    private Duration partnerTokenRefreshLeasePollInterval;
+
+    @Value("${oauth.partner-token.proactive-refresh.interval:PT1M}")
+    private Duration partnerTokenRefreshInterval;
+
+    @Value("${oauth.partner-token.proactive-refresh.look-ahead:PT10M}")
+    private Duration partnerTokenRefreshLookAhead;
+
+    @Value("${oauth.partner-token.proactive-refresh.look-behind:PT1H}")
+    private Duration partnerTokenRefreshLookBehind;
+
+    @Value("${oauth.partner-token.proactive-refresh.partner-threads:4}")
+    private int partnerTokenRefreshThreads;
+
+    @Value("${oauth.partner-token.proactive-refresh.refreshes-per-second:10}")
+    private double partnerTokenRefreshesPerSecond;
+
+    @Value("${oauth.partner-token.proactive-refresh.refreshes-in-flight:4}")
+    private int partnerTokenRefreshesInFlight;
+
+    @Value("${oauth.partner-token.migration.enabled:false}")
+    private boolean partnerTokenMigrationEnabled;
+
+    @Value("${oauth.partner-token.migration.segments:4}")
+    private int partnerTokenMigrationSegments;
+
+    @Value("${oauth.partner-token.migration.writes-per-second:100}")
+    private double partnerTokenMigrationWritesPerSecond;
+
+    @Value("${oauth.expired-item-sweeper.interval:PT1H}")
+    private Duration expiredItemSweepInterval;
+
+    @Value("${oauth.expired-item-sweeper.segments:4}")
+    private int expiredItemSweepSegments;
+
+    @Value("${oauth.expired-item-sweeper.deletes-per-second:100}")
+    private double expiredItemDeletesPerSecond;
+
+    @Value("${oauth.partner-exchange.threads:16}")
+    private int partnerExchangeThreads;
+
+    @Value("${oauth.partner-exchange.queue-capacity:1000}")
+    private int partnerExchangeQueueCapacity;
+
+    @Value("${oauth.partner-exchange.http.max-connections:200}")
+    private int partnerHttpMaxConnections;
+
+    @Value("${oauth.partner-exchange.http.max-connections-per-partner:50}")
+    private int partnerHttpMaxConnectionsPerPartner;
+
+    @Value("${oauth.partner-exchange.http.connect-timeout:PT2S}")
+    private Duration partnerHttpConnectTimeout;
+
+    @Value("${oauth.partner-exchange.http.read-timeout:PT5S}")
+    private Duration partnerHttpReadTimeout;
+
+    @Value("${oauth.partner-exchange.http.connection-request-timeout:PT1S}")
+    private Duration partnerHttpConnectionRequestTimeout;
+
+    @Value("${oauth.partner-exchange.http.keep-alive:PT60S}")
+    private Duration partnerHttpKeepAlive;
+
+    @Value("${oauth.partner-exchange.max-concurrent-per-partner:8}")
+    private int partnerExchangeMaxConcurrent;
+
+    @Value("${oauth.partner-exchange.circuit-breaker.failure-rate-threshold:0.5}")
+    private double partnerCircuitFailureRateThreshold;
+
+    @Value("${oauth.partner-exchange.circuit-breaker.window-size:20}")
+    private int partnerCircuitWindowSize;
+
+    @Value("${oauth.partner-exchange.circuit-breaker.minimum-exchanges:10}")
+    private int partnerCircuitMinimumExchanges;
+
+    @Value("${oauth.partner-exchange.circuit-breaker.open-duration:PT30S}")
+    private Duration partnerCircuitOpenDuration;
+
+    @Value("${oauth.partner-exchange.circuit-breaker.probe-exchanges:3}")
+    private int partnerCircuitProbeExchanges;
+
+    @Value("${oauth.reciprocal-exchange.queue.workers:8}")
+    private int reciprocalExchangeWorkers;
+
+    @Value("${oauth.reciprocal-exchange.queue.max-attempts:5}")
+    private int reciprocalExchangeMaxAttempts;
+
+    @Value("${oauth.reciprocal-exchange.queue.initial-backoff:PT1S}")
+    private Duration reciprocalExchangeInitialBackoff;
+
+    @Value("${oauth.reciprocal-exchange.queue.max-backoff:PT30S}")
+    private Duration reciprocalExchangeMaxBackoff;
+
+    @Value("${oauth.reciprocal-exchange.queue.visibility-timeout:PT30S}")
+    private Duration reciprocalExchangeVisibilityTimeout;
+
+    @Value("${oauth.reciprocal-exchange.queue.poll-interval:PT5S}")
+    private Duration reciprocalExchangePollInterval;
+
+    @Value("${oauth.reciprocal-exchange.queue.depth-interval:PT1M}")
+    private Duration reciprocalExchangeDepthInterval;
+
+    @Value("${oauth.reciprocal-exchange.queue.retention:P7D}")
+    private Duration reciprocalExchangeRetention;
+
+    @Value("${oauth.signed-access-token.enabled:false}")
+    private boolean signedAccessTokenEnabled;
+
+    @Value("${oauth.signed-access-token.signing-keys:}")
+    private String[] signingKeys;
+
+    @Value("${oauth.signed-access-token.key-rotation-interval:PT24H}")
+    private Duration signingKeyRotationInterval;
+
+    @Value("${oauth.signed-access-token.key-retention:PT24H}")
+    private Duration signingKeyRetention;
+
+    @Value("${oauth.signed-access-token.revocation-refresh-interval:PT30S}")
+    private Duration revocationListRefreshInterval;
+
     @Bean
     public AuthenticationServiceProvider authenticationServiceProvider() {
-        return new AuthenticationServiceProvider(passwordEncoder());
+        return new AuthenticationServiceProvider(userDirectory(), passwordVerifier());
+    }
+
+    /**
+     * The users signing in, read from the OAuthUser table, or the sample users (user/password, user2/password and
+     * admin/password) for testing.
+     *
+     * <p>
+     * TODO: Replace with a {@link UserDirectory} integrating your authentication server or user DB.
+     * </p>
+     */
+    @Bean
+    public UserDirectory userDirectory() {
+        if (dynamoDBUserDirectory) {
+            return new DynamoDBUserDirectory(dynamoDBMapper, userDetailsCache());
+        }
+
+        String samplePassword = "$2a$10$tNrknh3ZtTQ4IWq.P1KSaOwIar7ToOM1TjQTmuxGIIjYCJvy.55uS";
+        return new InMemoryUserDirectory(ImmutableList.of(
+            new DirectoryUser("user", samplePassword, Collections.emptyList()),
+            new DirectoryUser("user2", samplePassword, Collections.emptyList()),
+            new DirectoryUser("admin", samplePassword,
+                AuthorityUtils.createAuthorityList(RoleEnum.ROLE_USER_ADMIN.name()))));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.user-directory.dynamodb", havingValue = "true")
+    public UserDetailsCache userDetailsCache() {
+        return new UserDetailsCache(userDetailsCacheMaximumSize, userDetailsCacheTimeToLive);
     }
 
     @Bean
     @Scope(proxyMode = ScopedProxyMode.INTERFACES)
     public ClientTokenServices clientTokenServices() {
-        return new DynamoDBPartnerTokenDAO(dynamoDBMapper);
+        return dynamoDBPartnerTokenService();
+    }
+
+    @Bean
+    public AccessTokenCache accessTokenCache() {
+        return new AccessTokenCache(accessTokenCacheMaximumSize, accessTokenCacheTimeToLive);
+    }
+
+    @Bean
+    public ClientDetailsCache clientDetailsCache() {
+        return new ClientDetailsCache(clientDetailsCacheMaximumSize, clientDetailsCacheRefreshInterval,
+            clientDetailsCacheTimeToLive);
+    }
+
+    @Bean
+    public PartnerDetailsCache partnerDetailsCache() {
+        return new PartnerDetailsCache(partnerDetailsCacheMaximumSize, partnerDetailsCacheRefreshInterval,
+            partnerDetailsCacheTimeToLive);
+    }
+
+    @Bean
+    public TokenKeyHasher tokenKeyHasher() {
+        return new TokenKeyHasher(tokenKeyAlgorithm, tokenKeyLegacyAlgorithm);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(4);
+        taskScheduler.setThreadNamePrefix("oauth-scheduler-");
+        return taskScheduler;
+    }
+
+    /**
+     * Executor for the blocking HTTP exchanges with partner OAuth servers, so that asynchronous API requests never
+     * run them on request threads or on DynamoDB client threads.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor partnerExchangeExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(partnerExchangeThreads);
+        executor.setMaxPoolSize(partnerExchangeThreads);
+        executor.setQueueCapacity(partnerExchangeQueueCapacity);
+        executor.setThreadNamePrefix("partner-exchange-");
+        return executor;
+    }
+
+    /**
+     * Executor writing the results of batch partner token requests to the clients, so that a slow client never blocks
+     * the DynamoDB client threads or the partner exchange threads completing the results.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor partnerTokenBatchWriteExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(partnerTokenBatchWriteThreads);
+        executor.setMaxPoolSize(partnerTokenBatchWriteThreads);
+        executor.setThreadNamePrefix("partner-token-batch-write-");
+        return executor;
+    }
+
+    /**
+     * Executor for password and client secret verification, so that BCrypt never runs on more than a few cores at a
+     * time, whatever the number of request threads.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor passwordVerificationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(passwordVerificationThreads);
+        executor.setMaxPoolSize(passwordVerificationThreads);
+        executor.setQueueCapacity(passwordVerificationQueueCapacity);
+        executor.setThreadNamePrefix("password-verification-");
+        return executor;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.expired-item-sweeper.enabled", havingValue = "true")
+    public ThreadPoolTaskExecutor expiredItemSweeperExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(expiredItemSweepSegments);
+        executor.setMaxPoolSize(expiredItemSweepSegments);
+        executor.setThreadNamePrefix("expired-item-sweeper-");
+        return executor;
+    }
+
+    /**
+     * Sweeper deleting expired items, for environments without DynamoDB time to live.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.expired-item-sweeper.enabled", havingValue = "true")
+    public DynamoDBExpiredItemSweeper expiredItemSweeper() {
+        DynamoDBExpiredItemSweeper sweeper = new DynamoDBExpiredItemSweeper(amazonDynamoDB,
+            Arrays.asList(OAuthAccessToken.class, OAuthRefreshToken.class, OAuthCode.class, OAuthPartnerToken.class,
+                OAuthRevokedToken.class, OAuthLease.class, OAuthReciprocalExchange.class,
+                OAuthApproval.class),
+            expiredItemSweepSegments, expiredItemDeletesPerSecond, expiredItemSweeperExecutor());
+        return sweeper;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.expired-item-sweeper.enabled", havingValue = "true")
+    public ScheduledTask expiredItemSweep() {
+        return ScheduledTask.withFixedDelay(taskScheduler(), expiredItemSweeper()::sweep, expiredItemSweepInterval);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public ThreadPoolTaskExecutor registryLoadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(registryLoadSegments);
+        executor.setMaxPoolSize(registryLoadSegments);
+        executor.setThreadNamePrefix("registry-load-");
+        return executor;
+    }
+
+    /**
+     * In-memory copy of the client registrations, kept up to date from the table stream.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public DynamoDBTableReplica<OAuthClientDetails, ClientDetails> clientDetailsReplica() {
+        return newReplica(OAuthClientDetails.class, item -> ImmutableClientDetails.copyOf(item.toClientDetails()));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public ScheduledTask clientDetailsReplicaSync() {
+        return replicaSync(clientDetailsReplica());
+    }
+
+    /**
+     * In-memory copy of the partners, kept up to date from the table stream.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public DynamoDBTableReplica<OAuthPartner, OAuthPartner> partnerReplica() {
+        return newReplica(OAuthPartner.class, Function.identity());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public ScheduledTask partnerReplicaSync() {
+        return replicaSync(partnerReplica());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.signed-access-token.enabled", havingValue = "true")
+    public SigningKeyRing signingKeyRing() {
+        return new SigningKeyRing(Arrays.asList(signingKeys), signingKeyRetention);
+    }
+
+    /**
+     * Rotation of the generated signing keys. Configured keys are rotated by changing the configuration.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.signed-access-token.enabled", havingValue = "true")
+    public ScheduledTask signingKeyRotation() {
+        SigningKeyRing signingKeyRing = signingKeyRing();
+        return ScheduledTask.atFixedRate(taskScheduler(), () -> {
+            if (signingKeyRing.isGenerated()) {
+                signingKeyRing.rotate();
+            }
+        }, signingKeyRotationInterval);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.signed-access-token.enabled", havingValue = "true")
+    public RotatingJwtAccessTokenConverter accessTokenConverter() {
+        return new RotatingJwtAccessTokenConverter(signingKeyRing());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.signed-access-token.enabled", havingValue = "true")
+    public AccessTokenRevocationList accessTokenRevocationList() {
+        return new AccessTokenRevocationList(dynamoDBMapper);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.signed-access-token.enabled", havingValue = "true")
+    public ScheduledTask accessTokenRevocationListRefresh() {
+        return ScheduledTask.withFixedDelay(taskScheduler(), accessTokenRevocationList()::refresh,
+            revocationListRefreshInterval);
     }
 
     @Bean
     @Scope(proxyMode = ScopedProxyMode.INTERFACES)
     public TokenStore tokenStore() {
-        return new DynamoDBTokenDAO(dynamoDBMapper);
+        return dynamoDBTokenService();
+    }
+
+    @Bean
+    public DynamoDBTokenDAO dynamoDBTokenService() {
+        DynamoDBTokenDAO tokenDAO = new DynamoDBTokenDAO(dynamoDBMapper, accessTokenCache(), tokenKeyHasher());
+        if (signedAccessTokenEnabled) {
+            tokenDAO.setAccessTokenRevocationList(accessTokenRevocationList());
+        }
+        return tokenDAO;
+    }
+
+    /**
+     * Token services for the token endpoint, configured as the endpoints configurer would configure its default ones.
+     */
+    @Bean
+    public DynamoDBTokenServices dynamoDBTokenServices() {
+        PreAuthenticatedAuthenticationProvider authenticationProvider = new PreAuthenticatedAuthenticationProvider();
+        authenticationProvider.setPreAuthenticatedUserDetailsService(
+            new UserDetailsByNameServiceWrapper<>(authenticationServiceProvider()));
+
+        DynamoDBTokenServices tokenServices = new DynamoDBTokenServices(dynamoDBTokenService());
+        tokenServices.setClientDetailsService(dynamoDBClientDetailsService());
+        tokenServices.setSupportRefreshToken(true);
+        tokenServices.setAuthenticationManager(
+            new ProviderManager(Collections.singletonList(authenticationProvider)));
+        if (signedAccessTokenEnabled) {
+            tokenServices.setTokenEnhancer(accessTokenConverter());
+        }
+        return tokenServices;
+    }
+
+    /**
+     * Token services validating bearer tokens. Primary, as the token endpoint services are resource server token
+     * services too.
+     */
+    @Bean
+    @Primary
+    public ResourceServerTokenServices resourceServerTokenServices() {
+        ResourceServerTokenServices tokenServices =
+            new DynamoDBResourceServerTokenServices(dynamoDBTokenService(), dynamoDBClientDetailsService());
+        if (!signedAccessTokenEnabled) {
+            return tokenServices;
+        }
+        return new SignedResourceServerTokenServices(accessTokenConverter(), accessTokenRevocationList(),
+            tokenServices, dynamoDBClientDetailsService());
     }
 
     @Bean
     @Scope(proxyMode = ScopedProxyMode.INTERFACES)
     public ApprovalStore approvalStore() {
+        if (dynamoDBApprovalStoreEnabled) {
+            return dynamoDBApprovalStore();
+        }
+
         TokenApprovalStore approvalStore = new TokenApprovalStore();
         approvalStore.setTokenStore(tokenStore());
         return approvalStore;
     }
 
+    @Bean
+    @ConditionalOnProperty(name = "oauth.approval-store.dynamodb", havingValue = "true")
+    public DynamoDBApprovalStore dynamoDBApprovalStore() {
+        return new DynamoDBApprovalStore(dynamoDBMapper);
+    }
+
     @Bean
     @Scope(proxyMode = ScopedProxyMode.INTERFACES)
     public AuthorizationCodeServices authorizationCodeServices() {
-        return new DynamoDBAuthorizationCodeDAO(dynamoDBMapper);
+        return new DynamoDBAuthorizationCodeDAO(amazonDynamoDB, dynamoDBMapper, authorizationCodeValidity);
     }
 
     @Bean
     public DynamoDBClientDetailsDAO dynamoDBClientDetailsService() {
-        return new DynamoDBClientDetailsDAO(dynamoDBMapper, passwordEncoder());
+        DynamoDBClientDetailsDAO clientDetailsDAO = new DynamoDBClientDetailsDAO(dynamoDBMapper, clientSecretEncoder(),
+            clientDetailsCache(), taskScheduler());
+        if (registryEnabled) {
+            clientDetailsDAO.setClientDetailsReplica(clientDetailsReplica());
+        }
+        return clientDetailsDAO;
     }
 
     @Bean
     public DynamoDBPartnerDetailsDAO dynamoDBPartnerDetailsService() {
-        return new DynamoDBPartnerDetailsDAO(dynamoDBMapper);
+        DynamoDBPartnerDetailsDAO partnerDetailsDAO = new DynamoDBPartnerDetailsDAO(dynamoDBMapper,
+            partnerDetailsCache());
+        if (registryEnabled) {
+            partnerDetailsDAO.setPartnerReplica(partnerReplica());
+        }
+        return partnerDetailsDAO;
+    }
+
+    @Bean
+    public DynamoDBPartnerDetailsAsyncDAO dynamoDBPartnerDetailsAsyncService() {
+        DynamoDBPartnerDetailsAsyncDAO partnerDetailsDAO = new DynamoDBPartnerDetailsAsyncDAO(dynamoDBAsyncMapper,
+            partnerDetailsCache());
+        if (registryEnabled) {
+            partnerDetailsDAO.setPartnerReplica(partnerReplica());
+        }
+        return partnerDetailsDAO;
     }
 
     @Bean
     public DynamoDBPartnerTokenDAO dynamoDBPartnerTokenService() {
-        return new DynamoDBPartnerTokenDAO(dynamoDBMapper);
+        DynamoDBPartnerTokenDAO partnerTokenDAO = new DynamoDBPartnerTokenDAO(dynamoDBMapper, partnerTokenRetention);
+        partnerTokenDAO.setLegacyFallback(partnerTokenMigrationEnabled);
+        return partnerTokenDAO;
+    }
+
+    @Bean
+    public DynamoDBPartnerTokenAsyncDAO dynamoDBPartnerTokenAsyncService() {
+        DynamoDBPartnerTokenAsyncDAO partnerTokenDAO = new DynamoDBPartnerTokenAsyncDAO(dynamoDBAsyncMapper,
+            partnerTokenRetention);
+        partnerTokenDAO.setLegacyFallback(partnerTokenMigrationEnabled);
+        return partnerTokenDAO;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.migration.enabled", havingValue = "true")
+    public ThreadPoolTaskExecutor partnerTokenMigrationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(partnerTokenMigrationSegments);
+        executor.setMaxPoolSize(partnerTokenMigrationSegments);
+        executor.setThreadNamePrefix("partner-token-migration-");
+        return executor;
+    }
+
+    /**
+     * Copy of the partner tokens keyed by access token to the table keyed by authentication id, run once at startup
+     * while the DAOs read the tokens not copied yet from the legacy table.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.migration.enabled", havingValue = "true")
+    public DynamoDBPartnerTokenMigration partnerTokenMigration() {
+        return new DynamoDBPartnerTokenMigration(amazonDynamoDB, partnerTokenMigrationSegments,
+            partnerTokenMigrationWritesPerSecond, partnerTokenMigrationExecutor());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.migration.enabled", havingValue = "true")
+    public ScheduledTask partnerTokenMigrationRun() {
+        return ScheduledTask.once(taskScheduler(), partnerTokenMigration()::migrate);
+    }
+
+    /**
+     * Pooled HTTP connections to partner OAuth servers, kept alive between exchanges.
+     */
+    @Bean
+    public PartnerHttpRequestFactory partnerHttpRequestFactory() {
+        return new PartnerHttpRequestFactory(partnerHttpMaxConnections, partnerHttpMaxConnectionsPerPartner,
+            partnerHttpConnectTimeout, partnerHttpReadTimeout, partnerHttpConnectionRequestTimeout,
+            partnerHttpKeepAlive);
+    }
+
+    @Bean
+    public PartnerExchangeMetricsInterceptor partnerExchangeMetricsInterceptor() {
+        return new PartnerExchangeMetricsInterceptor();
+    }
+
+    /**
+     * Token provider shared by all the code exchanges and token refreshes with partner OAuth servers.
+     */
+    @Bean
+    public AuthorizationCodeAccessTokenProvider partnerAccessTokenProvider() {
+        AuthorizationCodeAccessTokenProvider tokenProvider = new AuthorizationCodeAccessTokenProvider();
+        tokenProvider.setStateMandatory(false);
+        tokenProvider.setRequestFactory(partnerHttpRequestFactory());
+        tokenProvider.setInterceptors(Collections.singletonList(partnerExchangeMetricsInterceptor()));
+        return tokenProvider;
+    }
+
+    /**
+     * Bulkhead and circuit breaker of each partner, so that a slow or failing partner does not affect the others.
+     */
+    @Bean
+    public PartnerExchangeGuard partnerExchangeGuard() {
+        return new PartnerExchangeGuard(partnerExchangeMaxConcurrent, partnerCircuitFailureRateThreshold,
+            partnerCircuitWindowSize, partnerCircuitMinimumExchanges, partnerCircuitOpenDuration,
+            partnerCircuitProbeExchanges);
+    }
+
+    @Bean
+    public PartnerTokenService partnerTokenService() {
+        PartnerTokenService partnerTokenService = new PartnerTokenService(dynamoDBPartnerDetailsAsyncService(),
+            dynamoDBPartnerTokenAsyncService(), partnerAccessTokenProvider(), partnerExchangeGuard(),
+            partnerExchangeExecutor(), partnerTokenRefreshMargin);
+        partnerTokenService.setBatchRefreshConcurrency(partnerTokenBatchRefreshConcurrency);
+        if (partnerTokenRefreshLeaseEnabled) {
+            partnerTokenService.setRefreshLease(dynamoDBLeaseDAO(), partnerTokenRefreshLeaseWait,
+                partnerTokenRefreshLeasePollInterval, taskScheduler().getScheduledExecutor());
+        }
+        return partnerTokenService;
+    }
+
+    /**
+     * Durable queue of the reciprocal authorization codes, exchanged after the reciprocal authorization endpoint
+     * answered.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.reciprocal-exchange.queue.enabled", havingValue = "true")
+    public ReciprocalExchangeQueue reciprocalExchangeQueue() {
+        return new ReciprocalExchangeQueue(
+            new DynamoDBReciprocalExchangeDAO(dynamoDBMapper, dynamoDBAsyncMapper),
+            dynamoDBPartnerDetailsAsyncService(), dynamoDBPartnerTokenAsyncService(), partnerAccessTokenProvider(),
+            partnerExchangeGuard(), partnerExchangeExecutor(), taskScheduler().getScheduledExecutor(),
+            reciprocalExchangeWorkers, reciprocalExchangeMaxAttempts, reciprocalExchangeInitialBackoff,
+            reciprocalExchangeMaxBackoff, reciprocalExchangeVisibilityTimeout, reciprocalExchangeRetention);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.reciprocal-exchange.queue.enabled", havingValue = "true")
+    public ScheduledTask reciprocalExchangePoll() {
+        return ScheduledTask.withFixedDelay(taskScheduler(), reciprocalExchangeQueue()::poll,
+            reciprocalExchangePollInterval);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.reciprocal-exchange.queue.enabled", havingValue = "true")
+    public ScheduledTask reciprocalExchangeDepthRefresh() {
+        return ScheduledTask.withFixedDelay(taskScheduler(), reciprocalExchangeQueue()::refreshDepth,
+            reciprocalExchangeDepthInterval);
+    }
+
+    /**
+     * Leases shared by the nodes of the cluster, so that a partner token is refreshed by a single node at a time.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.refresh-lease.enabled", havingValue = "true")
+    public DynamoDBLeaseDAO dynamoDBLeaseDAO() {
+        return new DynamoDBLeaseDAO(dynamoDBAsyncMapper, partnerTokenRefreshLeaseDuration);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.proactive-refresh.enabled", havingValue = "true")
+    public ThreadPoolTaskExecutor partnerTokenRefreshExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(partnerTokenRefreshThreads);
+        executor.setMaxPoolSize(partnerTokenRefreshThreads);
+        executor.setThreadNamePrefix("partner-token-refresh-");
+        return executor;
+    }
+
+    /**
+     * Scheduler refreshing the partner tokens before they expire, so that the partner token endpoint does not wait for
+     * the partner.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.proactive-refresh.enabled", havingValue = "true")
+    public PartnerTokenRefreshScheduler partnerTokenRefreshScheduler() {
+        return new PartnerTokenRefreshScheduler(dynamoDBPartnerTokenService(), partnerTokenService(),
+            partnerTokenRefreshLookAhead, partnerTokenRefreshLookBehind, partnerTokenRefreshesPerSecond,
+            partnerTokenRefreshesInFlight, partnerTokenRefreshExecutor());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "oauth.partner-token.proactive-refresh.enabled", havingValue = "true")
+    public ScheduledTask partnerTokenRefresh() {
+        return ScheduledTask.withFixedDelay(taskScheduler(), partnerTokenRefreshScheduler()::refreshExpiringTokens,
+            partnerTokenRefreshInterval);
+    }
+
+    private <T, V> DynamoDBTableReplica<T, V> newReplica(Class<T> itemClass, Function<T, V> view) {
+        return new DynamoDBTableReplica<>(amazonDynamoDB, itemClass, view,
+            new DynamoDBStreamsChangeFeed(amazonDynamoDBStreams, amazonDynamoDB, itemClass), registryLoadSegments,
+            registryLoadExecutor());
+    }
+
+    /**
+     * Load the replica while the context starts, before requests are served, then sync it with the table stream.
+     */
+    private ScheduledTask replicaSync(DynamoDBTableReplica<?, ?> replica) {
+        return ScheduledTask.withFixedDelay(taskScheduler(), replica::load, replica::sync, registrySyncInterval);
     }
 
     @Override
@@ -100,7 +851,9 @@ public class AuthorizationServerConfiguration extends AuthorizationServerConfigu
 
     @Override
     public void configure(AuthorizationServerSecurityConfigurer oauthServer) {
-        oauthServer.allowFormAuthenticationForClients();
+        oauthServer
+            .allowFormAuthenticationForClients()
+            .passwordEncoder(clientSecretEncoder());
     }
 
     @Override
@@ -109,6 +862,7 @@ public class AuthorizationServerConfiguration extends AuthorizationServerConfigu
             .approvalStore(approvalStore())
             .authorizationCodeServices(authorizationCodeServices())
             .tokenStore(tokenStore())
+            .tokenServices(dynamoDBTokenServices())
             .authenticationManager(authenticationServiceProvider())
             .userDetailsService(authenticationServiceProvider());
     }
@@ -7,10 +7,17 @@ package com.oauth.server.configuration;
 
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClientBuilder;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClientBuilder;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.oauth.server.dao.DynamoDBAsyncMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 /**
  * Configuration for AWS DynamoDB Client.
@@ -32,4 +39,34 @@ public class DynamoDBConfiguration {
         AmazonDynamoDB amazonDynamoDB = amazonDynamoDB();
         return new DynamoDBMapper(amazonDynamoDB);
     }
+
+    /**
+     * An async client for the non-blocking DAOs. Requests run on the client's own executor, so request threads are
+     * released while waiting for DynamoDB.
+     */
+    @Bean
+    public AmazonDynamoDBAsync amazonDynamoDBAsync() {
+        return AmazonDynamoDBAsyncClientBuilder.standard()
+                   .withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+                   .build();
+    }
+
+    /**
+     * The mapper of the async DAOs, retrying the keys left unprocessed by batch gets on the shared task scheduler.
+     */
+    @Bean
+    public DynamoDBAsyncMapper dynamoDBAsyncMapper(ThreadPoolTaskScheduler taskScheduler) {
+        return new DynamoDBAsyncMapper(amazonDynamoDBAsync(), taskScheduler.getScheduledExecutor());
+    }
+
+    /**
+     * A client for the table streams, read to keep the in-memory registries up to date.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "oauth.registry.enabled", havingValue = "true")
+    public AmazonDynamoDBStreams amazonDynamoDBStreams() {
+        return AmazonDynamoDBStreamsClientBuilder.standard()
+                   .withCredentials(DefaultAWSCredentialsProviderChain.getInstance())
+                   .build();
+    }
 }
@@ -6,10 +6,13 @@
 package com.oauth.server.configuration;
 
 import com.oauth.server.authentication.RoleEnum;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableResourceServer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
+import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 
 /**
  * Configuration for Resource APIs.
@@ -20,12 +23,20 @@ import org.springframework.security.oauth2.config.annotation.web.configuration.R
 @Configuration
 public class ResourceServerConfiguration extends ResourceServerConfigurerAdapter {
 
+    @Autowired
+    private ResourceServerTokenServices resourceServerTokenServices;
+
+    @Override
+    public void configure(ResourceServerSecurityConfigurer resources) {
+        resources.tokenServices(resourceServerTokenServices);
+    }
+
     @Override
     public void configure(HttpSecurity http) throws Exception {
         http.antMatcher("/api/**")
             .csrf().disable()
             .authorizeRequests()
-            .antMatchers("/api/partner/token").hasAuthority(RoleEnum.ROLE_CLIENT_ADMIN.name())
+            .antMatchers("/api/partner/token", "/api/partner/tokens").hasAuthority(RoleEnum.ROLE_CLIENT_ADMIN.name())
             .antMatchers("/api/**").authenticated();
     }
 }
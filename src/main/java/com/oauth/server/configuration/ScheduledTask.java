@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.configuration;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
+import lombok.NonNull;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * A background task of a bean, scheduled once the application context has started and cancelled when it stops.
+ *
+ * <p>
+ * The beans running background tasks are created without scheduling anything, so that a task never runs against a
+ * context that is still being built, and a failing task does not fail the creation of its bean.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public final class ScheduledTask implements SmartLifecycle {
+
+    private final TaskScheduler taskScheduler;
+
+    private final Runnable initialTask;
+
+    private final Function<TaskScheduler, ScheduledFuture<?>> schedule;
+
+    private volatile ScheduledFuture<?> future;
+
+    private ScheduledTask(@NonNull TaskScheduler taskScheduler, Runnable initialTask,
+                          @NonNull Function<TaskScheduler, ScheduledFuture<?>> schedule) {
+        this.taskScheduler = taskScheduler;
+        this.initialTask = initialTask;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Run the task once the context has started.
+     *
+     * @param taskScheduler scheduler.
+     * @param task task.
+     * @return scheduled task.
+     */
+    public static ScheduledTask once(TaskScheduler taskScheduler, @NonNull Runnable task) {
+        return new ScheduledTask(taskScheduler, null, scheduler -> scheduler.schedule(task, new Date()));
+    }
+
+    /**
+     * Run the task once the context has started, then with the given delay between the end of a run and the start of
+     * the next.
+     *
+     * @param taskScheduler scheduler.
+     * @param task task.
+     * @param delay delay between runs.
+     * @return scheduled task.
+     */
+    public static ScheduledTask withFixedDelay(TaskScheduler taskScheduler, @NonNull Runnable task,
+                                               @NonNull Duration delay) {
+        return new ScheduledTask(taskScheduler, null, scheduler -> scheduler.scheduleWithFixedDelay(task, delay));
+    }
+
+    /**
+     * Run the initial task while the context starts, then the task with the given delay between the end of a run and
+     * the start of the next. The context only finishes starting, and the other scheduled tasks only start, once the
+     * initial task completed, and fails to start if it fails.
+     *
+     * @param taskScheduler scheduler.
+     * @param initialTask task run once before the context has started.
+     * @param task task.
+     * @param delay delay between runs, also before the first run.
+     * @return scheduled task.
+     */
+    public static ScheduledTask withFixedDelay(TaskScheduler taskScheduler, @NonNull Runnable initialTask,
+                                               @NonNull Runnable task, @NonNull Duration delay) {
+        return new ScheduledTask(taskScheduler, initialTask,
+            scheduler -> scheduler.scheduleWithFixedDelay(task, Instant.now().plus(delay), delay));
+    }
+
+    /**
+     * Run the task every period, starting one period after the context has started.
+     *
+     * @param taskScheduler scheduler.
+     * @param task task.
+     * @param period period between the starts of two runs.
+     * @return scheduled task.
+     */
+    public static ScheduledTask atFixedRate(TaskScheduler taskScheduler, @NonNull Runnable task,
+                                            @NonNull Duration period) {
+        return new ScheduledTask(taskScheduler, null,
+            scheduler -> scheduler.scheduleAtFixedRate(task, Instant.now().plus(period), period));
+    }
+
+    @Override
+    public synchronized void start() {
+        if (future == null) {
+            if (initialTask != null) {
+                initialTask.run();
+            }
+            future = schedule.apply(taskScheduler);
+        }
+    }
+
+    /**
+     * Cancel the next runs. A run in progress is not interrupted.
+     */
+    @Override
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return future != null;
+    }
+
+    /**
+     * Tasks with an initial task start first, so that the tasks scheduled without one can rely on what it prepared.
+     */
+    @Override
+    public int getPhase() {
+        return initialTask != null ? DEFAULT_PHASE - 1 : DEFAULT_PHASE;
+    }
+}
@@ -6,10 +6,14 @@
 package com.oauth.server.configuration;
 
 import com.oauth.server.authentication.AuthenticationServiceProvider;
+import com.oauth.server.authentication.PasswordVerificationRejectionFilter;
 import com.oauth.server.authentication.RoleEnum;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -30,6 +34,9 @@ public class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Autowired
     private AuthenticationServiceProvider authenticationServiceProvider;
 
+    @Value("${oauth.password-verification.retry-after-seconds:1}")
+    private long passwordVerificationRetryAfterSeconds;
+
     @Override
     public void configure(WebSecurity web) throws Exception {
         web.ignoring().antMatchers("/webjars/**", "/resources/**");
@@ -40,8 +47,9 @@ public class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
     protected void configure(HttpSecurity http) throws Exception {
         http
             .authorizeRequests()
-            .mvcMatchers("/login", "/logout.do", "/css/**", "/js/**", "/actuator/**").permitAll()
-            .mvcMatchers("/clients/**", "/partners/**").hasAuthority(RoleEnum.ROLE_USER_ADMIN.name())
+            .mvcMatchers("/login", "/logout.do", "/css/**", "/js/**", "/actuator/health", "/actuator/info")
+            .permitAll()
+            .mvcMatchers("/clients/**", "/partners/**", "/actuator/**").hasAuthority(RoleEnum.ROLE_USER_ADMIN.name())
             .anyRequest().authenticated()
             .and()
             .formLogin()
@@ -67,5 +75,17 @@ public class WebSecurityConfiguration extends WebSecurityConfigurerAdapter {
         return super.authenticationManagerBean();
     }
 
+    /**
+     * Answers requests rejected by the password verification executor with 429 or 503. Registered ahead of the
+     * security filter chain, which lets the rejection through.
+     */
+    @Bean
+    public FilterRegistrationBean<PasswordVerificationRejectionFilter> passwordVerificationRejectionFilter() {
+        FilterRegistrationBean<PasswordVerificationRejectionFilter> registration = new FilterRegistrationBean<>(
+            new PasswordVerificationRejectionFilter(passwordVerificationRetryAfterSeconds));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
 
 }
@@ -8,6 +8,7 @@ package com.oauth.server.controller;
 import static java.util.Arrays.asList;
 
 import com.oauth.server.authentication.RoleEnum;
+import com.oauth.server.dao.DynamoDBApprovalStore;
 import com.oauth.server.dao.DynamoDBPartnerDetailsDAO;
 import java.security.Principal;
 import java.util.Collection;
@@ -47,6 +48,9 @@ public class OAuthManagementController {
     @Autowired
     private ApprovalStore approvalStore;
 
+    @Autowired(required = false)
+    private DynamoDBApprovalStore dynamoDBApprovalStore;
+
     @Autowired
     private TokenStore tokenStore;
 
@@ -56,6 +60,8 @@ public class OAuthManagementController {
         if (request.isUserInRole(RoleEnum.ROLE_USER_ADMIN.name())) {
             model.put("clientDetails", clientRegistrationService.listClientDetails());
             model.put("partners", partnerDetailsService.listPartners());
+        } else if (dynamoDBApprovalStore != null) {
+            model.put("approvals", dynamoDBApprovalStore.getApprovals(principal.getName()));
         } else {
             List<Approval> approvals = clientRegistrationService.listClientDetails().stream()
                 .map(clientDetails -> approvalStore.getApprovals(principal.getName(), clientDetails.getClientId()))
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDeleteExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthApproval;
+import com.oauth.server.dto.OAuthApproval.ScopeApproval;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.security.oauth2.provider.approval.ApprovalStore;
+
+/**
+ * An {@link ApprovalStore} keeping the approvals in the OAuthApproval table, keyed by user id with the client id as
+ * sort key, so that the approvals of a user are read with a single query.
+ *
+ * <p>
+ * The approvals of a user for a client are held by one item, written when the user approves or denies scopes and
+ * when approvals are revoked. Concurrent changes of the same item are detected with its version, and made again on
+ * the item read anew.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class DynamoDBApprovalStore implements ApprovalStore {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    @NonNull
+    private final DynamoDBMapper dynamoDBMapper;
+
+    @Override
+    public boolean addApprovals(Collection<Approval> approvals) {
+        groupByUserAndClient(approvals).forEach((key, scopeApprovals) -> update(key, scopes ->
+            scopeApprovals.forEach(approval -> scopes.put(approval.getScope(), ScopeApproval.of(approval)))));
+        return true;
+    }
+
+    @Override
+    public boolean revokeApprovals(Collection<Approval> approvals) {
+        groupByUserAndClient(approvals).forEach((key, scopeApprovals) -> update(key, scopes ->
+            scopeApprovals.forEach(approval -> scopes.remove(approval.getScope()))));
+        return true;
+    }
+
+    @Override
+    public Collection<Approval> getApprovals(String userId, String clientId) {
+        OAuthApproval item = dynamoDBMapper.load(OAuthApproval.class, userId, clientId,
+            ConsistentReads.CONSISTENT.config());
+        return item != null ? item.toApprovals() : Collections.emptyList();
+    }
+
+    /**
+     * Get the approvals of a user for all the clients.
+     *
+     * @param userId user id.
+     * @return approvals.
+     */
+    public List<Approval> getApprovals(String userId) {
+        DynamoDBQueryExpression<OAuthApproval> query = new DynamoDBQueryExpression<OAuthApproval>()
+            .withHashKeyValues(OAuthApproval.builder()
+                .userId(userId)
+                .build());
+        return dynamoDBMapper.query(OAuthApproval.class, query).stream()
+            .flatMap(item -> item.toApprovals().stream())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Apply a change to the scope approvals of a user for a client, and save them, or delete the item if none is
+     * left. The change is applied again if the item was changed concurrently.
+     */
+    private void update(UserAndClient key, Consumer<Map<String, ScopeApproval>> change) {
+        for (int attempt = 1; ; attempt++) {
+            OAuthApproval item = dynamoDBMapper.load(OAuthApproval.class, key.getUserId(), key.getClientId(),
+                ConsistentReads.CONSISTENT.config());
+            Long version = item != null ? item.getVersion() : null;
+            Map<String, ScopeApproval> scopes = item != null && item.getScopes() != null
+                ? new HashMap<>(item.getScopes())
+                : new HashMap<>();
+            change.accept(scopes);
+
+            try {
+                if (!scopes.isEmpty()) {
+                    dynamoDBMapper.save(OAuthApproval.builder()
+                        .userId(key.getUserId())
+                        .clientId(key.getClientId())
+                        .scopes(scopes)
+                        .version(version != null ? version + 1 : 1L)
+                        .expiration(TimeUnit.MILLISECONDS.toSeconds(scopes.values().stream()
+                            .mapToLong(ScopeApproval::getExpiresAt)
+                            .max()
+                            .getAsLong()))
+                        .build(), new DynamoDBSaveExpression().withExpected(expectedVersion(version)));
+                } else if (item != null) {
+                    dynamoDBMapper.delete(item, new DynamoDBDeleteExpression().withExpected(expectedVersion(version)));
+                }
+                return;
+            } catch (ConditionalCheckFailedException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.info("Approvals of user {} for client {} changed concurrently, updating them again",
+                    key.getUserId(), key.getClientId());
+            }
+        }
+    }
+
+    private static Map<String, ExpectedAttributeValue> expectedVersion(Long version) {
+        return ImmutableMap.of("version", version != null
+            ? new ExpectedAttributeValue(new AttributeValue().withN(version.toString()))
+            : new ExpectedAttributeValue(false));
+    }
+
+    private static Map<UserAndClient, List<Approval>> groupByUserAndClient(Collection<Approval> approvals) {
+        return approvals.stream()
+            .collect(Collectors.groupingBy(approval -> new UserAndClient(approval.getUserId(),
+                approval.getClientId())));
+    }
+
+    @Value
+    private static class UserAndClient {
+        String userId;
+        String clientId;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+
+/**
+ * A non-blocking counterpart of the {@link DynamoDBMapper} for the operations used by the async DAOs.
+ *
+ * <p>
+ * Items are converted with the same table models as the {@link DynamoDBMapper}, so both read and write the same
+ * attributes. Requests are sent with the {@link AmazonDynamoDBAsync} client and complete the returned futures from
+ * its callback threads, so the calling thread is not held for the round trip. Dependent stages that block must be
+ * moved to another executor.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBAsyncMapper {
+
+    private static final int MAX_BATCH_GET_ITEMS = 100;
+
+    private static final long UNPROCESSED_KEYS_BACKOFF_MILLIS = 50;
+
+    private static final int MAX_BACKOFF_EXPONENT = 5;
+
+    private final AmazonDynamoDBAsync amazonDynamoDBAsync;
+
+    private final ScheduledExecutorService retryScheduler;
+
+    private final DynamoDBMapper modelMapper;
+
+    /**
+     * Create a mapper.
+     *
+     * @param amazonDynamoDBAsync async client.
+     * @param retryScheduler scheduler delaying the retries of the keys left unprocessed by batch gets.
+     */
+    public DynamoDBAsyncMapper(@NonNull AmazonDynamoDBAsync amazonDynamoDBAsync,
+                               @NonNull ScheduledExecutorService retryScheduler) {
+        this.amazonDynamoDBAsync = amazonDynamoDBAsync;
+        this.retryScheduler = retryScheduler;
+        this.modelMapper = new DynamoDBMapper(amazonDynamoDBAsync);
+    }
+
+    /**
+     * Load an item by its hash key.
+     *
+     * @param clazz item class.
+     * @param hashKey hash key value.
+     * @return future of the item, or of null if not found.
+     */
+    public <T> CompletableFuture<T> load(Class<T> clazz, Object hashKey) {
+        return load(clazz, hashKey, false);
+    }
+
+    /**
+     * Load an item by its hash key, with a strongly consistent read if requested.
+     *
+     * @param clazz item class.
+     * @param hashKey hash key value.
+     * @param consistentRead whether the read must reflect all the writes completed before it.
+     * @return future of the item, or of null if not found.
+     */
+    public <T> CompletableFuture<T> load(Class<T> clazz, Object hashKey, boolean consistentRead) {
+        DynamoDBMapperTableModel<T> model = modelMapper.getTableModel(clazz);
+        GetItemRequest request = new GetItemRequest()
+            .withTableName(tableName(clazz))
+            .withKey(model.convertKey(hashKey, null))
+            .withConsistentRead(consistentRead);
+
+        FutureHandler<GetItemRequest, GetItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.getItemAsync(request, handler);
+
+        return handler.thenApply(result -> result.getItem() == null ? null : model.unconvert(result.getItem()));
+    }
+
+    /**
+     * Load the items with the hash keys provided, with strongly consistent batch gets of up to 100 keys. Keys left
+     * unprocessed by DynamoDB, usually because the table is throttled, are requested again after a delay doubled at
+     * each retry.
+     *
+     * @param clazz item class.
+     * @param hashKeys hash key values.
+     * @return future of the items found, in no particular order.
+     */
+    public <T> CompletableFuture<List<T>> batchLoad(Class<T> clazz, @NonNull Collection<?> hashKeys) {
+        DynamoDBMapperTableModel<T> model = modelMapper.getTableModel(clazz);
+        String tableName = tableName(clazz);
+
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> batches = Lists.partition(
+            new ArrayList<>(hashKeys), MAX_BATCH_GET_ITEMS).stream()
+            .map(batch -> batchGetItems(tableName, new KeysAndAttributes()
+                .withKeys(batch.stream().map(hashKey -> model.convertKey(hashKey, null)).collect(Collectors.toList()))
+                .withConsistentRead(Boolean.TRUE), new ArrayList<>(), 0))
+            .collect(Collectors.toList());
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> batches.stream()
+                .flatMap(batch -> batch.join().stream())
+                .map(model::unconvert)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Save an item, replacing any existing item with the same key.
+     *
+     * @param item item to save.
+     * @return future completed once saved.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Void> save(@NonNull T item) {
+        Class<T> clazz = (Class<T>) item.getClass();
+        PutItemRequest request = new PutItemRequest()
+            .withTableName(tableName(clazz))
+            .withItem(modelMapper.getTableModel(clazz).convert(item));
+
+        FutureHandler<PutItemRequest, PutItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.putItemAsync(request, handler);
+
+        return handler.thenApply(result -> null);
+    }
+
+    /**
+     * Save an item if the condition provided holds for the existing item with the same key.
+     *
+     * @param item item to save.
+     * @param conditionExpression condition expression.
+     * @param names names of the attribute name placeholders of the condition.
+     * @param values values of the attribute value placeholders of the condition.
+     * @return future of true once saved, or of false if the condition did not hold.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Boolean> saveIf(@NonNull T item, @NonNull String conditionExpression,
+                                                 @NonNull Map<String, String> names,
+                                                 @NonNull Map<String, AttributeValue> values) {
+        Class<T> clazz = (Class<T>) item.getClass();
+        PutItemRequest request = new PutItemRequest()
+            .withTableName(tableName(clazz))
+            .withItem(modelMapper.getTableModel(clazz).convert(item))
+            .withConditionExpression(conditionExpression)
+            .withExpressionAttributeNames(names)
+            .withExpressionAttributeValues(values.isEmpty() ? null : values);
+
+        FutureHandler<PutItemRequest, PutItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.putItemAsync(request, handler);
+
+        return conditional(handler);
+    }
+
+    /**
+     * Delete an item by the key of the item provided if the condition provided holds for it.
+     *
+     * @param item item with the key set.
+     * @param conditionExpression condition expression.
+     * @param names names of the attribute name placeholders of the condition.
+     * @param values values of the attribute value placeholders of the condition.
+     * @return future of true once deleted, or of false if the condition did not hold.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Boolean> deleteIf(@NonNull T item, @NonNull String conditionExpression,
+                                                   @NonNull Map<String, String> names,
+                                                   @NonNull Map<String, AttributeValue> values) {
+        Class<T> clazz = (Class<T>) item.getClass();
+        DeleteItemRequest request = new DeleteItemRequest()
+            .withTableName(tableName(clazz))
+            .withKey(modelMapper.getTableModel(clazz).convertKey(item))
+            .withConditionExpression(conditionExpression)
+            .withExpressionAttributeNames(names)
+            .withExpressionAttributeValues(values.isEmpty() ? null : values);
+
+        FutureHandler<DeleteItemRequest, DeleteItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.deleteItemAsync(request, handler);
+
+        return conditional(handler);
+    }
+
+    /**
+     * Delete an item by the key of the item provided.
+     *
+     * @param item item with the key set.
+     * @return future completed once deleted.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Void> delete(@NonNull T item) {
+        Class<T> clazz = (Class<T>) item.getClass();
+        DeleteItemRequest request = new DeleteItemRequest()
+            .withTableName(tableName(clazz))
+            .withKey(modelMapper.getTableModel(clazz).convertKey(item));
+
+        FutureHandler<DeleteItemRequest, DeleteItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.deleteItemAsync(request, handler);
+
+        return handler.thenApply(result -> null);
+    }
+
+    /**
+     * Delete all the items provided concurrently.
+     *
+     * @param items items with the keys set.
+     * @return future completed once all are deleted.
+     */
+    public CompletableFuture<Void> batchDelete(@NonNull Collection<?> items) {
+        return CompletableFuture.allOf(items.stream()
+            .map(this::delete)
+            .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Query all the items of a global secondary index with the hash key value provided.
+     *
+     * @param clazz item class.
+     * @param indexName index name.
+     * @param hashKeyName attribute name of the index hash key.
+     * @param hashKeyValue index hash key value.
+     * @return future of the items found.
+     */
+    public <T> CompletableFuture<List<T>> query(Class<T> clazz, String indexName, String hashKeyName,
+                                                String hashKeyValue) {
+        QueryRequest request = new QueryRequest()
+            .withTableName(tableName(clazz))
+            .withIndexName(indexName)
+            .withConsistentRead(Boolean.FALSE)
+            .withKeyConditionExpression("#hashKey = :hashKey")
+            .withExpressionAttributeNames(ImmutableMap.of("#hashKey", hashKeyName))
+            .withExpressionAttributeValues(ImmutableMap.of(":hashKey", new AttributeValue(hashKeyValue)));
+
+        DynamoDBMapperTableModel<T> model = modelMapper.getTableModel(clazz);
+        return queryPages(request, new ArrayList<>())
+            .thenApply(items -> items.stream().map(model::unconvert).collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> queryPages(QueryRequest request,
+                                                                           List<Map<String, AttributeValue>> items) {
+        FutureHandler<QueryRequest, QueryResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.queryAsync(request, handler);
+
+        return handler.thenCompose(result -> {
+            items.addAll(result.getItems());
+            if (result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty()) {
+                return CompletableFuture.completedFuture(items);
+            }
+            return queryPages(request.clone().withExclusiveStartKey(result.getLastEvaluatedKey()), items);
+        });
+    }
+
+    private CompletableFuture<List<Map<String, AttributeValue>>> batchGetItems(
+        String tableName, KeysAndAttributes keys, List<Map<String, AttributeValue>> items, int retries) {
+        FutureHandler<BatchGetItemRequest, BatchGetItemResult> handler = new FutureHandler<>();
+        amazonDynamoDBAsync.batchGetItemAsync(new BatchGetItemRequest()
+            .withRequestItems(ImmutableMap.of(tableName, keys)), handler);
+
+        return handler.thenCompose(result -> {
+            items.addAll(result.getResponses().getOrDefault(tableName, Collections.emptyList()));
+            KeysAndAttributes unprocessed = result.getUnprocessedKeys() == null
+                ? null
+                : result.getUnprocessedKeys().get(tableName);
+            if (unprocessed == null || unprocessed.getKeys() == null || unprocessed.getKeys().isEmpty()) {
+                return CompletableFuture.completedFuture(items);
+            }
+            return delay(backoff(retries)).thenCompose(ignored -> batchGetItems(tableName,
+                unprocessed.withConsistentRead(keys.getConsistentRead()), items, retries + 1));
+        });
+    }
+
+    /**
+     * Exponential backoff with jitter: between half and all of the initial backoff doubled at each retry.
+     */
+    private static long backoff(int retries) {
+        long backoff = UNPROCESSED_KEYS_BACKOFF_MILLIS << Math.min(retries, MAX_BACKOFF_EXPONENT);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private CompletableFuture<Void> delay(long millis) {
+        CompletableFuture<Void> delayed = new CompletableFuture<>();
+        Runnable complete = () -> delayed.complete(null);
+        retryScheduler.schedule(complete, millis, TimeUnit.MILLISECONDS);
+        return delayed;
+    }
+
+    private static CompletableFuture<Boolean> conditional(CompletableFuture<?> write) {
+        CompletableFuture<Boolean> written = new CompletableFuture<>();
+        write.whenComplete((result, e) -> {
+            if (e == null) {
+                written.complete(Boolean.TRUE);
+            } else if (e instanceof ConditionalCheckFailedException) {
+                written.complete(Boolean.FALSE);
+            } else {
+                written.completeExceptionally(e);
+            }
+        });
+        return written;
+    }
+
+    private static String tableName(Class<?> clazz) {
+        return DynamoDBMapperConfig.DEFAULT.getTableNameResolver().getTableName(clazz, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    /**
+     * An {@link AsyncHandler} completing itself with the result of the request.
+     */
+    private static final class FutureHandler<Q extends AmazonWebServiceRequest, R> extends CompletableFuture<R>
+        implements AsyncHandler<Q, R> {
+
+        @Override
+        public void onError(Exception exception) {
+            completeExceptionally(exception);
+        }
+
+        @Override
+        public void onSuccess(Q request, R result) {
+            complete(result);
+        }
+    }
+}
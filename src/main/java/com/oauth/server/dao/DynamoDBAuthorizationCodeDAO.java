@@ -5,22 +5,50 @@
  */
 package com.oauth.server.dao;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.google.common.collect.ImmutableMap;
 import com.oauth.server.dto.OAuthCode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.code.RandomValueAuthorizationCodeServices;
 
 /**
  * A DAO to access {@link OAuth2Authentication} in DynamoDB.
  *
+ * <p>
+ * Codes expire after the validity period. Expired codes cannot be redeemed, and are deleted by the table time to live.
+ * </p>
+ *
+ * <p>
+ * A code is redeemed with a single delete conditioned on the item existing, which returns the deleted item. DynamoDB
+ * applies the writes to an item one at a time, so when a code is redeemed concurrently only one of the deletes finds
+ * the item, and the code is used exactly once.
+ * </p>
+ *
  * @author Lucun Cai
  */
 public class DynamoDBAuthorizationCodeDAO extends RandomValueAuthorizationCodeServices {
 
+    private AmazonDynamoDB amazonDynamoDB;
+
     private DynamoDBMapper dynamoDBMapper;
 
-    public DynamoDBAuthorizationCodeDAO(DynamoDBMapper dynamoDBMapper) {
+    private Duration codeValidity;
+
+    public DynamoDBAuthorizationCodeDAO(AmazonDynamoDB amazonDynamoDB, DynamoDBMapper dynamoDBMapper,
+                                        Duration codeValidity) {
+        this.amazonDynamoDB = amazonDynamoDB;
         this.dynamoDBMapper = dynamoDBMapper;
+        this.codeValidity = codeValidity;
     }
 
     /**
@@ -31,7 +59,8 @@ public class DynamoDBAuthorizationCodeDAO extends RandomValueAuthorizationCodeSe
      */
     @Override
     protected void store(String code, OAuth2Authentication authentication) {
-        OAuthCode oAuthCode = new OAuthCode(code, authentication);
+        OAuthCode oAuthCode = new OAuthCode(code, authentication,
+            Instant.now().plus(codeValidity).getEpochSecond());
         dynamoDBMapper.save(oAuthCode);
     }
 
@@ -39,18 +68,40 @@ public class DynamoDBAuthorizationCodeDAO extends RandomValueAuthorizationCodeSe
      * Remove/Invalidate the authorization code.
      *
      * @param code authorization code.
-     * @return user authentication.
+     * @return user authentication, or null if the code is unknown, already redeemed or expired.
      */
     @Override
     public OAuth2Authentication remove(String code) {
-        OAuthCode oAuthCode = dynamoDBMapper.load(new OAuthCode(code));
+        DynamoDBMapperTableModel<OAuthCode> model = dynamoDBMapper.getTableModel(OAuthCode.class);
+        DeleteItemRequest request = new DeleteItemRequest()
+            .withTableName(DynamoDBMapperConfig.DEFAULT.getTableNameResolver()
+                .getTableName(OAuthCode.class, DynamoDBMapperConfig.DEFAULT))
+            .withKey(model.convertKey(new OAuthCode(code)))
+            .withConditionExpression("attribute_exists(#code)")
+            .withExpressionAttributeNames(ImmutableMap.of("#code", model.hashKey().name()))
+            .withReturnValues(ReturnValue.ALL_OLD);
 
-        if (oAuthCode == null) {
+        Map<String, AttributeValue> attributes;
+        try {
+            attributes = amazonDynamoDB.deleteItem(request).getAttributes();
+        } catch (ConditionalCheckFailedException e) {
             return null;
         }
 
-        dynamoDBMapper.delete(oAuthCode);
-
+        OAuthCode oAuthCode = model.unconvert(attributes);
+        if (isExpired(oAuthCode)) {
+            return null;
+        }
         return oAuthCode.getAuthentication();
     }
+
+    /**
+     * Whether the code has expired. Codes stored before they had an expiration never expire.
+     *
+     * @param oAuthCode authorization code item.
+     * @return true if expired.
+     */
+    static boolean isExpired(OAuthCode oAuthCode) {
+        return oAuthCode.getExpiration() != null && oAuthCode.getExpiration() <= Instant.now().getEpochSecond();
+    }
 }
@@ -10,14 +10,18 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.SaveBehavior;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.oauth.server.authentication.CachingPasswordEncoder;
+import com.oauth.server.cache.ClientDetailsCache;
 import com.oauth.server.dto.OAuthClientDetails;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.provider.ClientAlreadyExistsException;
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
@@ -29,6 +33,17 @@ import org.springframework.util.StringUtils;
 /**
  * A DAO to access {@link ClientDetails} in DynamoDB.
  *
+ * <p>
+ * Client details are read through the {@link ClientDetailsCache}, and refreshed in the background on the executor
+ * provided. Changes made through this DAO evict the cached client details. If a {@link DynamoDBTableReplica} of the
+ * table is set, client details are read and listed from it instead, and changes made through this DAO are applied to
+ * it at once.
+ * </p>
+ *
+ * <p>
+ * Replacing or removing a client secret also forgets the verifications of the previous secret.
+ * </p>
+ *
  * @author Lucun Cai
  */
 @RequiredArgsConstructor
@@ -36,7 +51,12 @@ import org.springframework.util.StringUtils;
 public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientRegistrationService {
 
     private final DynamoDBMapper dynamoDBMapper;
-    private final PasswordEncoder passwordEncoder;
+    private final CachingPasswordEncoder passwordEncoder;
+    private final ClientDetailsCache clientDetailsCache;
+    private final Executor refreshExecutor;
+
+    @Setter
+    private DynamoDBTableReplica<OAuthClientDetails, ClientDetails> clientDetailsReplica;
 
     /**
      * Load {@link ClientDetails} by clientId provided.
@@ -47,9 +67,15 @@ public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientReg
      */
     @Override
     public ClientDetails loadClientByClientId(String clientId) throws NoSuchClientException {
-        return Optional.ofNullable(dynamoDBMapper.load(OAuthClientDetails.class, clientId))
-            .map(OAuthClientDetails::toClientDetails)
-            .orElseThrow(() -> new NoSuchClientException("Client: " + clientId + " not found."));
+        ClientDetails clientDetails = clientDetailsReplica != null
+            ? clientDetailsReplica.get(clientId)
+            : clientDetailsCache.get(clientId, this::readClientDetails,
+                id -> CompletableFuture.supplyAsync(() -> readClientDetails(id), refreshExecutor));
+
+        if (clientDetails == null) {
+            throw new NoSuchClientException("Client: " + clientId + " not found.");
+        }
+        return clientDetails;
     }
 
     /**
@@ -120,6 +146,7 @@ public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientReg
             .build();
 
         dynamoDBMapper.save(oAuthClientDetails, dynamoDBMapperConfig);
+        invalidate(clientDetails.getClientId());
     }
 
     /**
@@ -140,6 +167,8 @@ public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientReg
         OAuthClientDetails updatedItem = oAuthClientDetails.toBuilder().clientSecret(passwordEncoder.encode(secret))
             .build();
         dynamoDBMapper.save(updatedItem);
+        passwordEncoder.invalidate(oAuthClientDetails.getClientSecret());
+        invalidate(clientId);
     }
 
     /**
@@ -155,7 +184,9 @@ public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientReg
             log.error("clientId {} already deleted.", clientId);
         } else {
             dynamoDBMapper.delete(oAuthClientDetails);
+            passwordEncoder.invalidate(oAuthClientDetails.getClientSecret());
         }
+        invalidate(clientId);
     }
 
     /**
@@ -165,9 +196,25 @@ public class DynamoDBClientDetailsDAO implements ClientDetailsService, ClientReg
      */
     @Override
     public List<ClientDetails> listClientDetails() {
+        if (clientDetailsReplica != null) {
+            return clientDetailsReplica.values();
+        }
         return dynamoDBMapper.scan(OAuthClientDetails.class, new DynamoDBScanExpression())
             .stream()
             .map(OAuthClientDetails::toClientDetails)
             .collect(Collectors.toList());
     }
+
+    private void invalidate(String clientId) {
+        clientDetailsCache.invalidate(clientId);
+        if (clientDetailsReplica != null) {
+            clientDetailsReplica.reload(clientId);
+        }
+    }
+
+    private ClientDetails readClientDetails(String clientId) {
+        return Optional.ofNullable(dynamoDBMapper.load(OAuthClientDetails.class, clientId))
+            .map(OAuthClientDetails::toClientDetails)
+            .orElse(null);
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Deletes the items whose {@code expiration} attribute has passed, for environments where the table time to live is
+ * not available, such as DynamoDB Local.
+ *
+ * <p>
+ * Each table is read with a parallel scan of the key attributes of expired items, one segment per thread, and the
+ * items are deleted with batch writes. Deletes are rate limited across all segments so that a sweep does not consume
+ * the capacity needed to serve requests.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class DynamoDBExpiredItemSweeper implements MeterBinder {
+
+    private static final String EXPIRATION = "expiration";
+
+    private static final int MAX_BATCH_WRITE_ITEMS = 25;
+
+    private final AmazonDynamoDB amazonDynamoDB;
+
+    private final DynamoDBMapper modelMapper;
+
+    private final List<Class<?>> itemClasses;
+
+    private final int segments;
+
+    private final RateLimiter rateLimiter;
+
+    private final Executor executor;
+
+    private final Clock clock;
+
+    private final Map<String, AtomicLong> deletedItems = new LinkedHashMap<>();
+
+    public DynamoDBExpiredItemSweeper(@NonNull AmazonDynamoDB amazonDynamoDB, @NonNull List<Class<?>> itemClasses,
+                                      int segments, double deletesPerSecond, @NonNull Executor executor) {
+        this(amazonDynamoDB, itemClasses, segments, deletesPerSecond, executor, Clock.systemUTC());
+    }
+
+    public DynamoDBExpiredItemSweeper(@NonNull AmazonDynamoDB amazonDynamoDB, @NonNull List<Class<?>> itemClasses,
+                                      int segments, double deletesPerSecond, @NonNull Executor executor,
+                                      @NonNull Clock clock) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("The sweeper needs at least one segment.");
+        }
+
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.modelMapper = new DynamoDBMapper(amazonDynamoDB);
+        this.itemClasses = itemClasses;
+        this.segments = segments;
+        this.rateLimiter = RateLimiter.create(deletesPerSecond);
+        this.executor = executor;
+        this.clock = clock;
+
+        itemClasses.forEach(clazz -> deletedItems.put(tableName(clazz), new AtomicLong()));
+    }
+
+    /**
+     * Delete the items of every table that have expired by now. A table that fails is logged and skipped.
+     */
+    public void sweep() {
+        long now = clock.instant().getEpochSecond();
+
+        for (Class<?> clazz : itemClasses) {
+            String tableName = tableName(clazz);
+            try {
+                List<String> keyNames = modelMapper.getTableModel(clazz).keys().stream()
+                    .map(DynamoDBMapperFieldModel::name)
+                    .collect(Collectors.toList());
+
+                CompletableFuture.allOf(IntStream.range(0, segments)
+                    .mapToObj(segment -> CompletableFuture.runAsync(
+                        () -> sweepSegment(tableName, keyNames, segment, now), executor))
+                    .toArray(CompletableFuture<?>[]::new))
+                    .join();
+            } catch (CompletionException e) {
+                log.error("Failed to sweep expired items from {}.", tableName, e.getCause());
+            } catch (RuntimeException e) {
+                log.error("Failed to sweep expired items from {}.", tableName, e);
+            }
+        }
+    }
+
+    private void sweepSegment(String tableName, List<String> keyNames, int segment, long now) {
+        Map<String, String> attributeNames = new LinkedHashMap<>();
+        for (int i = 0; i < keyNames.size(); i++) {
+            attributeNames.put("#key" + i, keyNames.get(i));
+        }
+        String projection = String.join(",", attributeNames.keySet());
+        attributeNames.put("#expiration", EXPIRATION);
+
+        ScanRequest request = new ScanRequest(tableName)
+            .withSegment(segment)
+            .withTotalSegments(segments)
+            .withFilterExpression("#expiration < :now")
+            .withProjectionExpression(projection)
+            .withExpressionAttributeNames(attributeNames)
+            .withExpressionAttributeValues(ImmutableMap.of(":now",
+                new AttributeValue().withN(Long.toString(now))));
+
+        Map<String, AttributeValue> startKey;
+        do {
+            ScanResult result = amazonDynamoDB.scan(request);
+            Lists.partition(result.getItems(), MAX_BATCH_WRITE_ITEMS)
+                .forEach(keys -> delete(tableName, keys));
+
+            startKey = result.getLastEvaluatedKey();
+            request = request.clone().withExclusiveStartKey(startKey);
+        } while (startKey != null && !startKey.isEmpty());
+    }
+
+    private void delete(String tableName, List<Map<String, AttributeValue>> keys) {
+        Map<String, List<WriteRequest>> requestItems = ImmutableMap.of(tableName, keys.stream()
+            .map(key -> new WriteRequest(new DeleteRequest(key)))
+            .collect(Collectors.toList()));
+
+        while (!requestItems.isEmpty()) {
+            int count = requestItems.values().stream().mapToInt(List::size).sum();
+            rateLimiter.acquire(count);
+
+            requestItems = Optional.ofNullable(amazonDynamoDB.batchWriteItem(requestItems).getUnprocessedItems())
+                .orElse(Collections.emptyMap());
+            deletedItems.get(tableName).addAndGet(count - requestItems.values().stream().mapToInt(List::size).sum());
+        }
+    }
+
+    private static String tableName(Class<?> clazz) {
+        return DynamoDBMapperConfig.DEFAULT.getTableNameResolver().getTableName(clazz, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        deletedItems.forEach((tableName, count) -> FunctionCounter.builder("oauth.expired.items.deleted", count,
+            AtomicLong::get)
+            .description("Expired items deleted by the sweeper")
+            .tag("table", tableName)
+            .register(registry));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthLease;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+
+/**
+ * A DAO to take and release {@link OAuthLease} items in DynamoDB, so that a task is performed by a single node of the
+ * cluster at a time.
+ *
+ * <p>
+ * A lease is taken with a conditional write that only succeeds if the lease does not exist or has expired, and
+ * released with a conditional delete that only succeeds for the node holding it. Leases are short, so that a lease
+ * left by a node that stopped is soon taken over, and their expiration is compared with the clock of the node taking
+ * it, so node clocks should not drift by more than a fraction of the lease duration.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBLeaseDAO {
+
+    private static final ImmutableMap<String, String> LEASE_ATTRIBUTES = ImmutableMap.of(
+        "#leaseId", "leaseId",
+        "#leaseUntil", "leaseUntil");
+
+    private static final ImmutableMap<String, String> OWNER_ATTRIBUTES = ImmutableMap.of("#owner", "owner");
+
+    private final DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    private final Duration leaseDuration;
+
+    private final Clock clock;
+
+    private final String owner = UUID.randomUUID().toString();
+
+    public DynamoDBLeaseDAO(@NonNull DynamoDBAsyncMapper dynamoDBAsyncMapper, @NonNull Duration leaseDuration) {
+        this(dynamoDBAsyncMapper, leaseDuration, Clock.systemUTC());
+    }
+
+    public DynamoDBLeaseDAO(@NonNull DynamoDBAsyncMapper dynamoDBAsyncMapper, @NonNull Duration leaseDuration,
+                            @NonNull Clock clock) {
+        this.dynamoDBAsyncMapper = dynamoDBAsyncMapper;
+        this.leaseDuration = leaseDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Take the lease, unless another node holds it.
+     *
+     * @param leaseId lease id.
+     * @return future of true if this node holds the lease until it is released or expires, of false otherwise.
+     */
+    public CompletableFuture<Boolean> tryAcquire(@NonNull String leaseId) {
+        long now = clock.millis();
+        long leaseUntil = now + leaseDuration.toMillis();
+
+        return dynamoDBAsyncMapper.saveIf(OAuthLease.builder()
+                .leaseId(leaseId)
+                .owner(owner)
+                .leaseUntil(leaseUntil)
+                .expiration(TimeUnit.MILLISECONDS.toSeconds(leaseUntil) + 1)
+                .build(),
+            "attribute_not_exists(#leaseId) OR #leaseUntil < :now", LEASE_ATTRIBUTES,
+            ImmutableMap.of(":now", new AttributeValue().withN(Long.toString(now))));
+    }
+
+    /**
+     * Release the lease, if this node holds it.
+     *
+     * @param leaseId lease id.
+     * @return future of true if released, of false if this node did not hold the lease.
+     */
+    public CompletableFuture<Boolean> release(@NonNull String leaseId) {
+        return dynamoDBAsyncMapper.deleteIf(OAuthLease.builder().leaseId(leaseId).build(), "#owner = :owner",
+            OWNER_ATTRIBUTES, ImmutableMap.of(":owner", new AttributeValue(owner)));
+    }
+}
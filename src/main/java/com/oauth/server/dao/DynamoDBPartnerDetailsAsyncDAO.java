@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.oauth.server.cache.PartnerDetailsCache;
+import com.oauth.server.dto.ImmutablePartnerResourceDetails;
+import com.oauth.server.dto.OAuthPartner;
+import java.util.concurrent.CompletableFuture;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A non-blocking counterpart of the {@link DynamoDBPartnerDetailsDAO} for reading {@link OAuthPartner}. Partner
+ * management stays on the {@link DynamoDBPartnerDetailsDAO}, and both read from the same {@link DynamoDBTableReplica} if
+ * set. The resource details of the partners are read through the {@link PartnerDetailsCache}, loading them from the
+ * replica if set.
+ *
+ * @author Lucun Cai
+ */
+@RequiredArgsConstructor
+public class DynamoDBPartnerDetailsAsyncDAO {
+
+    private final DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    private final PartnerDetailsCache partnerDetailsCache;
+
+    @Setter
+    private DynamoDBTableReplica<OAuthPartner, OAuthPartner> partnerReplica;
+
+    /**
+     * Load the {@link OAuthPartner} with the partnerId provided.
+     *
+     * @param partnerId partnerId.
+     * @return future of the {@link OAuthPartner}, or of null if not found.
+     */
+    public CompletableFuture<OAuthPartner> loadPartnerByPartnerId(@NonNull String partnerId) {
+        if (partnerReplica != null) {
+            return CompletableFuture.completedFuture(partnerReplica.get(partnerId));
+        }
+        return dynamoDBAsyncMapper.load(OAuthPartner.class, partnerId);
+    }
+
+    /**
+     * Load the resource details of the partner with the partnerId provided, built once and shared between requests.
+     *
+     * @param partnerId partnerId.
+     * @return future of the resource details, or of null if not found.
+     */
+    public CompletableFuture<ImmutablePartnerResourceDetails> loadResourceDetailsByPartnerId(
+        @NonNull String partnerId) {
+        return partnerDetailsCache.getAsync(partnerId, this::loadPartnerByPartnerId);
+    }
+}
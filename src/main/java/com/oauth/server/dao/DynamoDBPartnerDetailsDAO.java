@@ -7,14 +7,22 @@ package com.oauth.server.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.oauth.server.cache.PartnerDetailsCache;
 import com.oauth.server.dto.OAuthPartner;
 import java.util.List;
 import lombok.NonNull;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 
 /**
  * A DAO to access {@link OAuthPartner} in DynamoDB.
  *
+ * <p>
+ * If a {@link DynamoDBTableReplica} of the table is set, partners are read and listed from it, and changes made
+ * through this DAO are applied to it at once. Changes also evict the partner from the {@link PartnerDetailsCache}
+ * read by the {@link DynamoDBPartnerDetailsAsyncDAO}.
+ * </p>
+ *
  * @author Lucun Cai
  */
 @Log4j2
@@ -22,8 +30,14 @@ public class DynamoDBPartnerDetailsDAO {
 
     private DynamoDBMapper dynamoDBMapper;
 
-    public DynamoDBPartnerDetailsDAO(DynamoDBMapper dynamoDBMapper) {
+    private PartnerDetailsCache partnerDetailsCache;
+
+    @Setter
+    private DynamoDBTableReplica<OAuthPartner, OAuthPartner> partnerReplica;
+
+    public DynamoDBPartnerDetailsDAO(DynamoDBMapper dynamoDBMapper, PartnerDetailsCache partnerDetailsCache) {
         this.dynamoDBMapper = dynamoDBMapper;
+        this.partnerDetailsCache = partnerDetailsCache;
     }
 
     /**
@@ -33,6 +47,9 @@ public class DynamoDBPartnerDetailsDAO {
      * @return {@link OAuthPartner} or null if not found.
      */
     public OAuthPartner loadPartnerByPartnerId(@NonNull String partnerId) {
+        if (partnerReplica != null) {
+            return partnerReplica.get(partnerId);
+        }
         return dynamoDBMapper.load(OAuthPartner.class, partnerId);
     }
 
@@ -42,6 +59,9 @@ public class DynamoDBPartnerDetailsDAO {
      * @return a list of {@link OAuthPartner}.
      */
     public List<OAuthPartner> listPartners() {
+        if (partnerReplica != null) {
+            return partnerReplica.values();
+        }
         return dynamoDBMapper.scan(OAuthPartner.class, new DynamoDBScanExpression());
     }
 
@@ -52,6 +72,7 @@ public class DynamoDBPartnerDetailsDAO {
      */
     public void savePartner(OAuthPartner partner) {
         dynamoDBMapper.save(partner);
+        invalidate(partner.getPartnerId());
     }
 
     /**
@@ -66,5 +87,17 @@ public class DynamoDBPartnerDetailsDAO {
         } else {
             dynamoDBMapper.delete(partner);
         }
+        invalidate(partnerId);
+    }
+
+    /**
+     * Reload the partner in the replica before evicting it from the cache, so that a lookup missing the cache after
+     * the eviction loads the changed partner from the replica.
+     */
+    private void invalidate(String partnerId) {
+        if (partnerReplica != null) {
+            partnerReplica.reload(partnerId);
+        }
+        partnerDetailsCache.invalidate(partnerId);
     }
 }
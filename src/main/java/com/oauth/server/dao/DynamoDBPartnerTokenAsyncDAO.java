@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthLegacyPartnerToken;
+import com.oauth.server.dto.OAuthPartnerToken;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * A non-blocking counterpart of the {@link DynamoDBPartnerTokenDAO}, reading and writing the same
+ * {@link OAuthPartnerToken} items.
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBPartnerTokenAsyncDAO {
+
+    private static final String REPLACE_CONDITION = "attribute_not_exists(#authenticationId) OR #tokenId = :tokenId";
+
+    private final DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    private final PartnerTokenItems partnerTokenItems;
+
+    private boolean legacyFallback;
+
+    public DynamoDBPartnerTokenAsyncDAO(DynamoDBAsyncMapper dynamoDBAsyncMapper, Duration refreshableTokenRetention) {
+        this.dynamoDBAsyncMapper = dynamoDBAsyncMapper;
+        this.partnerTokenItems = new PartnerTokenItems(refreshableTokenRetention);
+    }
+
+    /**
+     * Get the {@link OAuth2AccessToken} of a protected resource for the {@link Authentication} provided, with a
+     * strongly consistent read.
+     *
+     * @param resource partner protected resource.
+     * @param authentication user authentication.
+     * @return future of the oauth access token, or of null if not found.
+     */
+    public CompletableFuture<OAuth2AccessToken> getAccessToken(OAuth2ProtectedResourceDetails resource,
+                                                               Authentication authentication) {
+        String authenticationId = partnerTokenItems.authenticationId(resource, authentication);
+
+        return dynamoDBAsyncMapper.load(OAuthPartnerToken.class, authenticationId, true)
+            .thenCompose(partnerToken -> partnerToken != null
+                ? CompletableFuture.completedFuture(partnerToken.getToken())
+                : getLegacyAccessToken(authenticationId));
+    }
+
+    /**
+     * Get the {@link OAuth2AccessToken}s of a protected resource for each of the {@link Authentication}s provided,
+     * with strongly consistent batch reads.
+     *
+     * @param resource partner protected resource.
+     * @param authentications user authentications.
+     * @return future of the oauth access tokens found, by authentication name.
+     */
+    public CompletableFuture<Map<String, OAuth2AccessToken>> getAccessTokens(
+        OAuth2ProtectedResourceDetails resource, Collection<? extends Authentication> authentications) {
+        Map<String, String> namesByAuthenticationId = new LinkedHashMap<>();
+        authentications.forEach(authentication ->
+            namesByAuthenticationId.put(partnerTokenItems.authenticationId(resource, authentication),
+                authentication.getName()));
+
+        return dynamoDBAsyncMapper.batchLoad(OAuthPartnerToken.class, namesByAuthenticationId.keySet())
+            .thenCompose(partnerTokens -> {
+                Map<String, CompletableFuture<OAuth2AccessToken>> accessTokens = new LinkedHashMap<>();
+                partnerTokens.forEach(partnerToken -> accessTokens.put(partnerToken.getAuthenticationId(),
+                    CompletableFuture.completedFuture(partnerToken.getToken())));
+                if (legacyFallback) {
+                    namesByAuthenticationId.keySet().forEach(authenticationId ->
+                        accessTokens.computeIfAbsent(authenticationId, this::getLegacyAccessToken));
+                }
+
+                return CompletableFuture.allOf(accessTokens.values().toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> {
+                        Map<String, OAuth2AccessToken> found = new LinkedHashMap<>();
+                        namesByAuthenticationId.forEach((authenticationId, name) -> {
+                            CompletableFuture<OAuth2AccessToken> accessToken = accessTokens.get(authenticationId);
+                            if (accessToken != null && accessToken.join() != null) {
+                                found.put(name, accessToken.join());
+                            }
+                        });
+                        return found;
+                    });
+            });
+    }
+
+    /**
+     * Save the {@link OAuth2AccessToken} of a partner protected resource for the {@link Authentication} provided,
+     * replacing the stored token if any.
+     *
+     * @param resource partner protected resource.
+     * @param authentication user authentication.
+     * @param accessToken oauth access token.
+     * @return future completed once saved.
+     */
+    public CompletableFuture<Void> saveAccessToken(OAuth2ProtectedResourceDetails resource,
+                                                   Authentication authentication,
+                                                   OAuth2AccessToken accessToken) {
+        return dynamoDBAsyncMapper.save(partnerTokenItems.newItem(resource, authentication, accessToken));
+    }
+
+    /**
+     * Replace the {@link OAuth2AccessToken} of a partner protected resource for the {@link Authentication} provided,
+     * if the stored token is still the previous token, or if there is none. A token replaced concurrently since it
+     * was read is kept.
+     *
+     * @param resource partner protected resource.
+     * @param authentication user authentication.
+     * @param previousToken the token being replaced.
+     * @param accessToken oauth access token.
+     * @return future of true once replaced, or of false if the stored token is no longer the previous token.
+     */
+    public CompletableFuture<Boolean> replaceAccessToken(OAuth2ProtectedResourceDetails resource,
+                                                         Authentication authentication,
+                                                         OAuth2AccessToken previousToken,
+                                                         OAuth2AccessToken accessToken) {
+        return dynamoDBAsyncMapper.saveIf(partnerTokenItems.newItem(resource, authentication, accessToken),
+            REPLACE_CONDITION,
+            ImmutableMap.of("#authenticationId", "authenticationId", "#tokenId", "tokenId"),
+            ImmutableMap.of(":tokenId", new AttributeValue(previousToken.getValue())));
+    }
+
+    /**
+     * Remove the access token of the partner protected resource for the {@link Authentication} provided.
+     *
+     * @param resource partner protected resource.
+     * @param authentication user authentication.
+     * @return future completed once removed.
+     */
+    public CompletableFuture<Void> removeAccessToken(OAuth2ProtectedResourceDetails resource,
+                                                     Authentication authentication) {
+        String authenticationId = partnerTokenItems.authenticationId(resource, authentication);
+        CompletableFuture<Void> removed = dynamoDBAsyncMapper.delete(OAuthPartnerToken.builder()
+            .authenticationId(authenticationId)
+            .build());
+
+        // Also remove the legacy tokens, so that they are neither read back nor copied again by the migration.
+        return !legacyFallback ? removed : removed.thenCompose(ignored -> dynamoDBAsyncMapper
+            .query(OAuthLegacyPartnerToken.class, "authenticationId-index", "authenticationId", authenticationId)
+            .thenCompose(dynamoDBAsyncMapper::batchDelete));
+    }
+
+    /**
+     * Read the tokens missing from the table in the {@link OAuthLegacyPartnerToken} table, while they are migrated.
+     *
+     * @param legacyFallback whether to read the legacy table, false by default.
+     */
+    public void setLegacyFallback(boolean legacyFallback) {
+        this.legacyFallback = legacyFallback;
+    }
+
+    private CompletableFuture<OAuth2AccessToken> getLegacyAccessToken(String authenticationId) {
+        if (!legacyFallback) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return dynamoDBAsyncMapper.query(OAuthLegacyPartnerToken.class, "authenticationId-index", "authenticationId",
+            authenticationId)
+            .thenApply(accessTokens -> accessTokens.stream()
+                .map(OAuthLegacyPartnerToken::getToken)
+                .max(Comparator.comparing(OAuth2AccessToken::getExpiration,
+                    Comparator.nullsLast(Comparator.naturalOrder())))
+                .orElse(null));
+    }
+}
@@ -6,14 +6,21 @@
 package com.oauth.server.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.oauth.server.dto.OAuthLegacyPartnerToken;
 import com.oauth.server.dto.OAuthPartnerToken;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
-import org.springframework.security.oauth2.client.token.ClientKeyGenerator;
 import org.springframework.security.oauth2.client.token.ClientTokenServices;
-import org.springframework.security.oauth2.client.token.DefaultClientKeyGenerator;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 
 /**
@@ -25,11 +32,13 @@ public class DynamoDBPartnerTokenDAO implements ClientTokenServices {
 
     private DynamoDBMapper dynamoDBMapper;
 
-    private ClientKeyGenerator keyGenerator;
+    private PartnerTokenItems partnerTokenItems;
 
-    public DynamoDBPartnerTokenDAO(DynamoDBMapper dynamoDBMapper) {
+    private boolean legacyFallback;
+
+    public DynamoDBPartnerTokenDAO(DynamoDBMapper dynamoDBMapper, Duration refreshableTokenRetention) {
         this.dynamoDBMapper = dynamoDBMapper;
-        this.keyGenerator = new DefaultClientKeyGenerator();
+        this.partnerTokenItems = new PartnerTokenItems(refreshableTokenRetention);
     }
 
     /**
@@ -41,14 +50,23 @@ public class DynamoDBPartnerTokenDAO implements ClientTokenServices {
      */
     @Override
     public OAuth2AccessToken getAccessToken(OAuth2ProtectedResourceDetails resource, Authentication authentication) {
-        String authenticationId = keyGenerator.extractKey(resource, authentication);
-        List<OAuthPartnerToken> accessTokens = getOAuthPartnerTokensByAuthenticationId(authenticationId);
+        String authenticationId = partnerTokenItems.authenticationId(resource, authentication);
+        OAuthPartnerToken partnerToken = dynamoDBMapper.load(OAuthPartnerToken.class, authenticationId,
+            DynamoDBMapperConfig.ConsistentReads.CONSISTENT.config());
+        if (partnerToken != null) {
+            return partnerToken.getToken();
+        }
 
-        return accessTokens.stream().findAny().map(OAuthPartnerToken::getToken).orElse(null);
+        return !legacyFallback ? null : getLegacyTokensByAuthenticationId(authenticationId).stream()
+            .map(OAuthLegacyPartnerToken::getToken)
+            .max(Comparator.comparing(OAuth2AccessToken::getExpiration,
+                Comparator.nullsLast(Comparator.naturalOrder())))
+            .orElse(null);
     }
 
     /**
-     * Save the {@link OAuth2AccessToken} of a partner protected resource for the {@link Authentication} provided.
+     * Save the {@link OAuth2AccessToken} of a partner protected resource for the {@link Authentication} provided,
+     * replacing the stored token if any.
      *
      * @param resource partner protected resource.
      * @param authentication user authentication.
@@ -58,42 +76,72 @@ public class DynamoDBPartnerTokenDAO implements ClientTokenServices {
     public void saveAccessToken(OAuth2ProtectedResourceDetails resource,
                                 Authentication authentication,
                                 OAuth2AccessToken accessToken) {
-
-        String userName = authentication != null ? authentication.getName() : null;
-
-        OAuthPartnerToken oauthPartnerToken = OAuthPartnerToken.builder()
-            .tokenId(accessToken.getValue())
-            .token(accessToken)
-            .authenticationId(keyGenerator.extractKey(resource, authentication))
-            .userName(userName)
-            .clientId(resource.getClientId())
-            .build();
-
-        dynamoDBMapper.save(oauthPartnerToken);
+        dynamoDBMapper.save(partnerTokenItems.newItem(resource, authentication, accessToken));
     }
 
     /**
-     * Remove the all the access token of the partner protected resource for the {@link Authentication} provided.
+     * Remove the access token of the partner protected resource for the {@link Authentication} provided.
      *
      * @param resource partner protected resource.
      * @param authentication user authentication.
      */
     @Override
     public void removeAccessToken(OAuth2ProtectedResourceDetails resource, Authentication authentication) {
-        String authenticationId = keyGenerator.extractKey(resource, authentication);
-        List<OAuthPartnerToken> accessTokens = getOAuthPartnerTokensByAuthenticationId(authenticationId);
+        String authenticationId = partnerTokenItems.authenticationId(resource, authentication);
+        dynamoDBMapper.delete(OAuthPartnerToken.builder()
+            .authenticationId(authenticationId)
+            .build());
+
+        if (legacyFallback) {
+            dynamoDBMapper.batchDelete(getLegacyTokensByAuthenticationId(authenticationId));
+        }
+    }
+
+    /**
+     * Read the tokens missing from the table in the {@link OAuthLegacyPartnerToken} table, while they are migrated.
+     *
+     * @param legacyFallback whether to read the legacy table, false by default.
+     */
+    public void setLegacyFallback(boolean legacyFallback) {
+        this.legacyFallback = legacyFallback;
+    }
+
+    /**
+     * Find the tokens that can be refreshed and whose access token expires in the period provided. The items returned
+     * only hold the authentication id, the partner id, the user name and the access token expiration.
+     *
+     * @param from start of the period.
+     * @param until end of the period.
+     * @return partner tokens.
+     */
+    public List<OAuthPartnerToken> findRefreshableTokens(Instant from, Instant until) {
+        Condition period = new Condition()
+            .withComparisonOperator(ComparisonOperator.BETWEEN)
+            .withAttributeValueList(new AttributeValue().withN(Long.toString(from.getEpochSecond())),
+                new AttributeValue().withN(Long.toString(until.getEpochSecond())));
 
-        dynamoDBMapper.batchDelete(accessTokens);
+        List<OAuthPartnerToken> partnerTokens = new ArrayList<>();
+        for (String refreshBucket : OAuthPartnerToken.refreshBuckets(from, until)) {
+            DynamoDBQueryExpression<OAuthPartnerToken> query = new DynamoDBQueryExpression<OAuthPartnerToken>()
+                .withIndexName("refreshBucket-index")
+                .withConsistentRead(Boolean.FALSE)
+                .withHashKeyValues(OAuthPartnerToken.builder()
+                    .refreshBucket(refreshBucket)
+                    .build())
+                .withRangeKeyCondition("accessTokenExpiration", period);
+            partnerTokens.addAll(dynamoDBMapper.query(OAuthPartnerToken.class, query));
+        }
+        return partnerTokens;
     }
 
-    private List<OAuthPartnerToken> getOAuthPartnerTokensByAuthenticationId(String authenticationId) {
-        DynamoDBQueryExpression query = new DynamoDBQueryExpression<OAuthPartnerToken>()
+    private List<OAuthLegacyPartnerToken> getLegacyTokensByAuthenticationId(String authenticationId) {
+        DynamoDBQueryExpression<OAuthLegacyPartnerToken> query = new DynamoDBQueryExpression<OAuthLegacyPartnerToken>()
             .withIndexName("authenticationId-index")
             .withConsistentRead(Boolean.FALSE)
-            .withHashKeyValues(OAuthPartnerToken.builder()
+            .withHashKeyValues(OAuthLegacyPartnerToken.builder()
                 .authenticationId(authenticationId)
                 .build());
-        return dynamoDBMapper.query(OAuthPartnerToken.class, query);
+        return dynamoDBMapper.query(OAuthLegacyPartnerToken.class, query);
     }
 
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.oauth.server.dto.OAuthLegacyPartnerToken;
+import com.oauth.server.dto.OAuthPartnerToken;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Copies the partner tokens of the {@link OAuthLegacyPartnerToken} table, keyed by access token, to the
+ * {@link OAuthPartnerToken} table, keyed by authentication id.
+ *
+ * <p>
+ * The legacy table is read with a parallel scan of its unexpired items, one segment per thread, and each item is
+ * copied as is with a conditional put, rate limited across all segments. A token is only written if the table has no
+ * token for its authentication id, or, for a token that can be refreshed, one whose access token expires earlier. A
+ * token saved since the switch, refreshed from a legacy token or issued anew, expires after the legacy tokens it
+ * replaces and is not overwritten, and of several legacy tokens of the same authentication id, the latest issued is
+ * kept. The retention time of the items is not compared, as it depends on when they were saved rather than on the
+ * token. The migration can therefore be run again, and from several nodes at once.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class DynamoDBPartnerTokenMigration implements MeterBinder {
+
+    private static final String COPY_CONDITION = "attribute_not_exists(#authenticationId)";
+
+    private static final String REFRESHABLE_COPY_CONDITION =
+        COPY_CONDITION + " OR #accessTokenExpiration < :accessTokenExpiration";
+
+    private final AmazonDynamoDB amazonDynamoDB;
+
+    private final int segments;
+
+    private final RateLimiter rateLimiter;
+
+    private final Executor executor;
+
+    private final Clock clock;
+
+    private final AtomicLong copiedItems = new AtomicLong();
+
+    private final AtomicLong skippedItems = new AtomicLong();
+
+    public DynamoDBPartnerTokenMigration(@NonNull AmazonDynamoDB amazonDynamoDB, int segments,
+                                         double writesPerSecond, @NonNull Executor executor) {
+        this(amazonDynamoDB, segments, writesPerSecond, executor, Clock.systemUTC());
+    }
+
+    public DynamoDBPartnerTokenMigration(@NonNull AmazonDynamoDB amazonDynamoDB, int segments,
+                                         double writesPerSecond, @NonNull Executor executor, @NonNull Clock clock) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("The migration needs at least one segment.");
+        }
+
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.segments = segments;
+        this.rateLimiter = RateLimiter.create(writesPerSecond);
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * Copy the unexpired tokens of the legacy table. A failure is logged, and the tokens not copied yet are copied
+     * by the next run.
+     *
+     * @return whether all the tokens were copied.
+     */
+    public boolean migrate() {
+        String legacyTableName = tableName(OAuthLegacyPartnerToken.class);
+        String tableName = tableName(OAuthPartnerToken.class);
+        long now = clock.instant().getEpochSecond();
+
+        log.info("Copying partner tokens from {} to {}.", legacyTableName, tableName);
+        try {
+            CompletableFuture.allOf(IntStream.range(0, segments)
+                .mapToObj(segment -> CompletableFuture.runAsync(
+                    () -> migrateSegment(legacyTableName, tableName, segment, now), executor))
+                .toArray(CompletableFuture<?>[]::new))
+                .join();
+        } catch (CompletionException e) {
+            log.error("Failed to copy partner tokens from {}.", legacyTableName, e.getCause());
+            return false;
+        } catch (RuntimeException e) {
+            log.error("Failed to copy partner tokens from {}.", legacyTableName, e);
+            return false;
+        }
+        log.info("Copied partner tokens from {} to {}: {} copied, {} skipped.", legacyTableName, tableName,
+            copiedItems.get(), skippedItems.get());
+        return true;
+    }
+
+    private void migrateSegment(String legacyTableName, String tableName, int segment, long now) {
+        ScanRequest request = new ScanRequest(legacyTableName)
+            .withSegment(segment)
+            .withTotalSegments(segments)
+            .withFilterExpression("attribute_exists(#authenticationId) AND #expiration > :now")
+            .withExpressionAttributeNames(ImmutableMap.of("#authenticationId", "authenticationId",
+                "#expiration", "expiration"))
+            .withExpressionAttributeValues(ImmutableMap.of(":now", new AttributeValue().withN(Long.toString(now))));
+
+        Map<String, AttributeValue> startKey;
+        do {
+            ScanResult result = amazonDynamoDB.scan(request);
+            result.getItems().forEach(item -> copy(tableName, item));
+
+            startKey = result.getLastEvaluatedKey();
+            request = request.clone().withExclusiveStartKey(startKey);
+        } while (startKey != null && !startKey.isEmpty());
+    }
+
+    private void copy(String tableName, Map<String, AttributeValue> item) {
+        rateLimiter.acquire();
+        AttributeValue accessTokenExpiration = item.get("accessTokenExpiration");
+        PutItemRequest request = accessTokenExpiration == null
+            ? new PutItemRequest(tableName, item)
+                .withConditionExpression(COPY_CONDITION)
+                .withExpressionAttributeNames(ImmutableMap.of("#authenticationId", "authenticationId"))
+            : new PutItemRequest(tableName, item)
+                .withConditionExpression(REFRESHABLE_COPY_CONDITION)
+                .withExpressionAttributeNames(ImmutableMap.of("#authenticationId", "authenticationId",
+                    "#accessTokenExpiration", "accessTokenExpiration"))
+                .withExpressionAttributeValues(ImmutableMap.of(":accessTokenExpiration", accessTokenExpiration));
+        try {
+            amazonDynamoDB.putItem(request);
+            copiedItems.incrementAndGet();
+        } catch (ConditionalCheckFailedException e) {
+            skippedItems.incrementAndGet();
+        }
+    }
+
+    private static String tableName(Class<?> clazz) {
+        return DynamoDBMapperConfig.DEFAULT.getTableNameResolver().getTableName(clazz, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("oauth.partner.token.migration.items", copiedItems, AtomicLong::get)
+            .description("Partner tokens copied from the legacy table")
+            .tag("outcome", "copied")
+            .register(registry);
+        FunctionCounter.builder("oauth.partner.token.migration.items", skippedItems, AtomicLong::get)
+            .description("Partner tokens copied from the legacy table")
+            .tag("outcome", "skipped")
+            .register(registry);
+    }
+}
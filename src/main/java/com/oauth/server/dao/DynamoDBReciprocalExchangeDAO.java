@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthReciprocalExchange;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import lombok.NonNull;
+
+/**
+ * A DAO to access the queue of {@link OAuthReciprocalExchange} in DynamoDB.
+ *
+ * <p>
+ * Pending exchanges are found by the time of their next attempt with the queue index, reading every shard of the
+ * queue. An exchange is claimed, retried
+ * or completed with a conditional write expecting the time of its next attempt to be unchanged, so that an exchange
+ * is attempted by a single node at a time.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBReciprocalExchangeDAO {
+
+    private static final String QUEUE_INDEX = "queueShard-nextAttemptAt-index";
+
+    private static final String UNCHANGED = "#queue = :pending AND #nextAttemptAt = :nextAttemptAt";
+
+    private static final ImmutableMap<String, String> UNCHANGED_ATTRIBUTES = ImmutableMap.of(
+        "#queue", "queue",
+        "#nextAttemptAt", "nextAttemptAt");
+
+    private final DynamoDBMapper dynamoDBMapper;
+
+    private final DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    public DynamoDBReciprocalExchangeDAO(@NonNull DynamoDBMapper dynamoDBMapper,
+                                         @NonNull DynamoDBAsyncMapper dynamoDBAsyncMapper) {
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.dynamoDBAsyncMapper = dynamoDBAsyncMapper;
+    }
+
+    /**
+     * Add an exchange to the queue.
+     *
+     * @param exchange pending exchange.
+     * @return future completed once saved.
+     */
+    public CompletableFuture<Void> enqueue(@NonNull OAuthReciprocalExchange exchange) {
+        return dynamoDBAsyncMapper.save(exchange);
+    }
+
+    /**
+     * Find the pending exchanges whose next attempt is due, the earliest first.
+     *
+     * @param now current time in epoch milliseconds.
+     * @param limit maximum number of exchanges.
+     * @return exchanges due.
+     */
+    public List<OAuthReciprocalExchange> findDue(long now, int limit) {
+        List<OAuthReciprocalExchange> due = new ArrayList<>();
+        for (String queueShard : OAuthReciprocalExchange.queueShards(OAuthReciprocalExchange.PENDING)) {
+            DynamoDBQueryExpression<OAuthReciprocalExchange> query = dueQuery(queueShard, now).withLimit(limit);
+            due.addAll(dynamoDBMapper.queryPage(OAuthReciprocalExchange.class, query).getResults());
+        }
+        due.sort(Comparator.comparing(OAuthReciprocalExchange::getNextAttemptAt));
+        return due.size() > limit ? new ArrayList<>(due.subList(0, limit)) : due;
+    }
+
+    /**
+     * Count the exchanges of a queue. This reads every exchange of the queue from the index.
+     *
+     * @param queue {@link OAuthReciprocalExchange#PENDING} or {@link OAuthReciprocalExchange#DEAD_LETTER}.
+     * @return number of exchanges.
+     */
+    public int count(@NonNull String queue) {
+        int count = 0;
+        for (String queueShard : OAuthReciprocalExchange.queueShards(queue)) {
+            count += dynamoDBMapper.count(OAuthReciprocalExchange.class,
+                new DynamoDBQueryExpression<OAuthReciprocalExchange>()
+                    .withIndexName(QUEUE_INDEX)
+                    .withConsistentRead(Boolean.FALSE)
+                    .withHashKeyValues(OAuthReciprocalExchange.builder().queueShard(queueShard).build()));
+        }
+        return count;
+    }
+
+    /**
+     * Replace a pending exchange, if its next attempt is still at the time provided.
+     *
+     * @param exchange new state of the exchange.
+     * @param nextAttemptAt time of the next attempt of the exchange replaced.
+     * @return future of true once replaced, or of false if the exchange changed or completed.
+     */
+    public CompletableFuture<Boolean> replace(@NonNull OAuthReciprocalExchange exchange, long nextAttemptAt) {
+        return dynamoDBAsyncMapper.saveIf(exchange, UNCHANGED, UNCHANGED_ATTRIBUTES, unchangedValues(nextAttemptAt));
+    }
+
+    /**
+     * Delete a completed exchange, if its next attempt is still at the time provided.
+     *
+     * @param exchange exchange.
+     * @param nextAttemptAt time of the next attempt of the exchange.
+     * @return future of true once deleted, or of false if the exchange changed.
+     */
+    public CompletableFuture<Boolean> delete(@NonNull OAuthReciprocalExchange exchange, long nextAttemptAt) {
+        return dynamoDBAsyncMapper.deleteIf(exchange, UNCHANGED, UNCHANGED_ATTRIBUTES, unchangedValues(nextAttemptAt));
+    }
+
+    private static DynamoDBQueryExpression<OAuthReciprocalExchange> dueQuery(String queueShard, long now) {
+        return new DynamoDBQueryExpression<OAuthReciprocalExchange>()
+            .withIndexName(QUEUE_INDEX)
+            .withConsistentRead(Boolean.FALSE)
+            .withHashKeyValues(OAuthReciprocalExchange.builder().queueShard(queueShard).build())
+            .withRangeKeyCondition("nextAttemptAt", new Condition()
+                .withComparisonOperator(ComparisonOperator.LE)
+                .withAttributeValueList(new AttributeValue().withN(Long.toString(now))));
+    }
+
+    private static ImmutableMap<String, AttributeValue> unchangedValues(long nextAttemptAt) {
+        return ImmutableMap.of(
+            ":pending", new AttributeValue(OAuthReciprocalExchange.PENDING),
+            ":nextAttemptAt", new AttributeValue().withN(Long.toString(nextAttemptAt)));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.NonNull;
+
+/**
+ * A {@link TableChangeFeed} reading the DynamoDB stream of a table. The stream must include the new images of the
+ * items.
+ *
+ * <p>
+ * The shards open when the feed is reset are read from their latest record, and the shards created since from their
+ * first record. A child shard is only read once its parent has been read to the end, so that the changes of an item
+ * are returned in order. The shards of the stream are described again only when a shard has been read to the end.
+ * </p>
+ *
+ * <p>
+ * If reading a shard fails after other shards were read, the changes read so far are returned and the failing shard
+ * is read again from the same position on the next poll, so that a throttled read does not lose changes.
+ * </p>
+ *
+ * <p>
+ * Every process using a feed reads every shard of the stream, and DynamoDB Streams throttles a shard read by more
+ * than two processes at the same time. With more processes, poll rarely enough that few reads of a shard overlap.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBStreamsChangeFeed implements TableChangeFeed {
+
+    private final AmazonDynamoDBStreams amazonDynamoDBStreams;
+
+    private final AmazonDynamoDB amazonDynamoDB;
+
+    private final String tableName;
+
+    /**
+     * Iterators of the shards not read to the end yet, parents before children.
+     */
+    private final Map<String, String> shardIterators = new LinkedHashMap<>();
+
+    /**
+     * Parent shard id by shard id, of all the shards seen.
+     */
+    private final Map<String, String> parentShardIds = new HashMap<>();
+
+    private String streamArn;
+
+    private boolean describeShards;
+
+    public DynamoDBStreamsChangeFeed(@NonNull AmazonDynamoDBStreams amazonDynamoDBStreams,
+                                     @NonNull AmazonDynamoDB amazonDynamoDB, @NonNull Class<?> itemClass) {
+        this.amazonDynamoDBStreams = amazonDynamoDBStreams;
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.tableName = DynamoDBMapperConfig.DEFAULT.getTableNameResolver()
+            .getTableName(itemClass, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    @Override
+    public synchronized void reset() {
+        streamArn = amazonDynamoDB.describeTable(tableName).getTable().getLatestStreamArn();
+        if (streamArn == null) {
+            throw new IllegalStateException("Table " + tableName + " has no stream.");
+        }
+
+        shardIterators.clear();
+        parentShardIds.clear();
+        for (Shard shard : describeShards()) {
+            parentShardIds.put(shard.getShardId(), shard.getParentShardId());
+            if (shard.getSequenceNumberRange().getEndingSequenceNumber() == null) {
+                shardIterators.put(shard.getShardId(), shardIterator(shard, ShardIteratorType.LATEST));
+            }
+        }
+        describeShards = false;
+    }
+
+    @Override
+    public synchronized List<TableChange> poll() {
+        if (streamArn == null) {
+            throw new IllegalStateException("The change feed of " + tableName + " has not been reset.");
+        }
+
+        if (describeShards || shardIterators.isEmpty()) {
+            for (Shard shard : describeShards()) {
+                if (!parentShardIds.containsKey(shard.getShardId())) {
+                    parentShardIds.put(shard.getShardId(), shard.getParentShardId());
+                    shardIterators.put(shard.getShardId(), shardIterator(shard, ShardIteratorType.TRIM_HORIZON));
+                    describeShards = false;
+                }
+            }
+        }
+
+        List<TableChange> changes = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> iterators = shardIterators.entrySet().iterator();
+        while (iterators.hasNext()) {
+            Map.Entry<String, String> iterator = iterators.next();
+            String parentShardId = parentShardIds.get(iterator.getKey());
+            if (parentShardId != null && shardIterators.containsKey(parentShardId)) {
+                continue;
+            }
+
+            GetRecordsResult result;
+            try {
+                result = amazonDynamoDBStreams.getRecords(new GetRecordsRequest()
+                    .withShardIterator(iterator.getValue()));
+            } catch (AmazonClientException e) {
+                if (changes.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+            result.getRecords().forEach(record -> changes.add(toChange(record)));
+
+            if (result.getNextShardIterator() == null) {
+                iterators.remove();
+                describeShards = true;
+            } else {
+                iterator.setValue(result.getNextShardIterator());
+            }
+        }
+        return changes;
+    }
+
+    private List<Shard> describeShards() {
+        List<Shard> shards = new ArrayList<>();
+        String lastEvaluatedShardId = null;
+        do {
+            StreamDescription stream = amazonDynamoDBStreams.describeStream(new DescribeStreamRequest()
+                .withStreamArn(streamArn)
+                .withExclusiveStartShardId(lastEvaluatedShardId))
+                .getStreamDescription();
+            shards.addAll(stream.getShards());
+            lastEvaluatedShardId = stream.getLastEvaluatedShardId();
+        } while (lastEvaluatedShardId != null);
+        return shards;
+    }
+
+    private String shardIterator(Shard shard, ShardIteratorType type) {
+        return amazonDynamoDBStreams.getShardIterator(new GetShardIteratorRequest()
+            .withStreamArn(streamArn)
+            .withShardId(shard.getShardId())
+            .withShardIteratorType(type))
+            .getShardIterator();
+    }
+
+    private static TableChange toChange(Record record) {
+        StreamRecord streamRecord = record.getDynamodb();
+        return new TableChange(streamRecord.getKeys(),
+            OperationType.REMOVE.toString().equals(record.getEventName()) ? null : streamRecord.getNewImage(),
+            streamRecord.getApproximateCreationDateTime());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TrimmedDataAccessException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A complete in-memory copy of a DynamoDB table, so that lookups and listings never leave the process.
+ *
+ * <p>
+ * The table is loaded with a parallel scan, one segment per thread, and then kept up to date by applying the changes
+ * read from a {@link TableChangeFeed} on each {@link #sync()}. The feed is reset before the scan, so that changes made
+ * during the scan are applied after it. Items are stored as the values returned by the view function, so that they
+ * are built once per change instead of once per lookup. Changes made through this process can be applied at once
+ * with {@link #reload(String)}, instead of waiting for the feed.
+ * </p>
+ *
+ * <p>
+ * A sync failing on a transient error, such as throttling, keeps the position in the feed and backs off: the
+ * following syncs are skipped, twice as many after each consecutive failure, up to 31. The table is only loaded
+ * again when the position in the feed is lost, because the shard iterators expired or the changes were trimmed from
+ * the stream, or when applying a change fails.
+ * </p>
+ *
+ * <p>
+ * The number of items, the seconds since the last successful sync, and the delay between a change and its
+ * application are published as the {@code oauth.registry.*} meters.
+ * </p>
+ *
+ * @param <T> item class.
+ * @param <V> value class.
+ * @author Lucun Cai
+ */
+@Log4j2
+public class DynamoDBTableReplica<T, V> implements MeterBinder {
+
+    private static final int MAX_BACKOFF_EXPONENT = 5;
+
+    private final AmazonDynamoDB amazonDynamoDB;
+
+    private final DynamoDBMapperTableModel<T> model;
+
+    private final String tableName;
+
+    private final Function<T, V> view;
+
+    private final TableChangeFeed changeFeed;
+
+    private final int segments;
+
+    private final Executor executor;
+
+    private final Clock clock;
+
+    private final AtomicLong lastSyncMillis = new AtomicLong();
+
+    private final AtomicLong lastChangeLagMillis = new AtomicLong();
+
+    private final AtomicLong appliedChanges = new AtomicLong();
+
+    private volatile Map<String, V> values;
+
+    private volatile boolean reloadRequired = true;
+
+    private int failedSyncs;
+
+    private int skippedSyncs;
+
+    public DynamoDBTableReplica(@NonNull AmazonDynamoDB amazonDynamoDB, @NonNull Class<T> itemClass,
+                                @NonNull Function<T, V> view, @NonNull TableChangeFeed changeFeed, int segments,
+                                @NonNull Executor executor) {
+        this(amazonDynamoDB, itemClass, view, changeFeed, segments, executor, Clock.systemUTC());
+    }
+
+    public DynamoDBTableReplica(@NonNull AmazonDynamoDB amazonDynamoDB, @NonNull Class<T> itemClass,
+                                @NonNull Function<T, V> view, @NonNull TableChangeFeed changeFeed, int segments,
+                                @NonNull Executor executor, @NonNull Clock clock) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("The replica needs at least one segment.");
+        }
+
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.model = new DynamoDBMapper(amazonDynamoDB).getTableModel(itemClass);
+        this.tableName = DynamoDBMapperConfig.DEFAULT.getTableNameResolver()
+            .getTableName(itemClass, DynamoDBMapperConfig.DEFAULT);
+        this.view = view;
+        this.changeFeed = changeFeed;
+        this.segments = segments;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * Load all the items of the table, replacing the items held.
+     */
+    public void load() {
+        changeFeed.reset();
+
+        Map<String, V> loaded = new ConcurrentHashMap<>();
+        CompletableFuture.allOf(IntStream.range(0, segments)
+            .mapToObj(segment -> CompletableFuture.runAsync(() -> scanSegment(segment, loaded), executor))
+            .toArray(CompletableFuture<?>[]::new))
+            .join();
+
+        values = loaded;
+        reloadRequired = false;
+        lastSyncMillis.set(clock.millis());
+        log.info("Loaded {} items of {}.", loaded.size(), tableName);
+    }
+
+    /**
+     * Apply the changes read from the change feed since the last sync, or load the table again if the position in
+     * the feed was lost. Failures are logged, so that this can be scheduled. Runs of this method must not overlap.
+     */
+    public void sync() {
+        if (skippedSyncs > 0) {
+            skippedSyncs--;
+            return;
+        }
+
+        try {
+            if (reloadRequired) {
+                load();
+            } else {
+                for (TableChange change : changeFeed.poll()) {
+                    apply(change.getKeys(), change.getNewImage());
+                    lastChangeLagMillis.set(Math.max(0, clock.millis() - change.getChangedAt().getTime()));
+                    appliedChanges.incrementAndGet();
+                }
+                lastSyncMillis.set(clock.millis());
+            }
+            failedSyncs = 0;
+        } catch (AmazonClientException e) {
+            if (isPositionLost(e)) {
+                reloadRequired = true;
+                log.error("Lost the position in the changes of {}, the table will be loaded again.", tableName, e);
+            } else {
+                failedSyncs++;
+                skippedSyncs = (1 << Math.min(failedSyncs, MAX_BACKOFF_EXPONENT)) - 1;
+                log.warn("Failed to sync {}, skipping the next {} syncs.", tableName, skippedSyncs, e);
+            }
+        } catch (RuntimeException e) {
+            reloadRequired = true;
+            log.error("Failed to sync {}, the table will be loaded again.", tableName, e);
+        }
+    }
+
+    /**
+     * Read the item with the hash key provided from the table with a consistent read, and apply it to the items
+     * held. Used after changing the item, so that this process reads its own changes.
+     *
+     * @param hashKey hash key value.
+     */
+    public void reload(@NonNull String hashKey) {
+        Map<String, AttributeValue> key = model.convertKey(hashKey, null);
+        apply(key, amazonDynamoDB.getItem(new GetItemRequest()
+            .withTableName(tableName)
+            .withKey(key)
+            .withConsistentRead(Boolean.TRUE))
+            .getItem());
+    }
+
+    /**
+     * Get the value of the item with the hash key provided.
+     *
+     * @param hashKey hash key value.
+     * @return value, or null if not found.
+     */
+    public V get(@NonNull String hashKey) {
+        return loadedValues().get(hashKey);
+    }
+
+    /**
+     * List the values of all the items.
+     *
+     * @return values.
+     */
+    public List<V> values() {
+        return new ArrayList<>(loadedValues().values());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("oauth.registry.items", this, replica -> replica.values != null ? replica.values.size() : 0)
+            .description("Items held in memory")
+            .tag("table", tableName)
+            .register(registry);
+        Gauge.builder("oauth.registry.staleness", lastSyncMillis,
+            lastSync -> (clock.millis() - lastSync.get()) / 1000.0)
+            .description("Seconds since the items were last synchronized with the table")
+            .baseUnit("seconds")
+            .tag("table", tableName)
+            .register(registry);
+        Gauge.builder("oauth.registry.sync.lag", lastChangeLagMillis, lag -> lag.get() / 1000.0)
+            .description("Seconds between the last change applied and its application")
+            .baseUnit("seconds")
+            .tag("table", tableName)
+            .register(registry);
+        FunctionCounter.builder("oauth.registry.changes", appliedChanges, AtomicLong::get)
+            .description("Changes applied from the change feed")
+            .tag("table", tableName)
+            .register(registry);
+    }
+
+    private Map<String, V> loadedValues() {
+        Map<String, V> loaded = values;
+        if (loaded == null) {
+            throw new IllegalStateException("The items of " + tableName + " have not been loaded.");
+        }
+        return loaded;
+    }
+
+    private void scanSegment(int segment, Map<String, V> loaded) {
+        ScanRequest request = new ScanRequest(tableName)
+            .withSegment(segment)
+            .withTotalSegments(segments)
+            .withConsistentRead(Boolean.TRUE);
+
+        Map<String, AttributeValue> startKey;
+        do {
+            ScanResult result = amazonDynamoDB.scan(request);
+            result.getItems().forEach(item -> loaded.put(hashKey(item), view.apply(model.unconvert(item))));
+
+            startKey = result.getLastEvaluatedKey();
+            request = request.clone().withExclusiveStartKey(startKey);
+        } while (startKey != null && !startKey.isEmpty());
+    }
+
+    private void apply(Map<String, AttributeValue> key, Map<String, AttributeValue> item) {
+        Map<String, V> current = loadedValues();
+        if (item == null) {
+            current.remove(hashKey(key));
+        } else {
+            current.put(hashKey(key), view.apply(model.unconvert(item)));
+        }
+    }
+
+    private static boolean isPositionLost(AmazonClientException e) {
+        return e instanceof ExpiredIteratorException || e instanceof TrimmedDataAccessException
+            || e instanceof ResourceNotFoundException;
+    }
+
+    private String hashKey(Map<String, AttributeValue> item) {
+        return item.get(model.hashKey().name()).getS();
+    }
+}
@@ -7,22 +7,27 @@ package com.oauth.server.dao;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.oauth.server.cache.AccessTokenCache;
 import com.oauth.server.dto.OAuthAccessToken;
 import com.oauth.server.dto.OAuthRefreshToken;
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import com.oauth.server.token.AccessTokenRevocationList;
+import com.oauth.server.token.HashingAuthenticationKeyGenerator;
+import com.oauth.server.token.TokenKeyHasher;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2RefreshToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
-import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
 import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
 
@@ -30,22 +35,75 @@ import org.springframework.security.oauth2.provider.token.store.JdbcTokenStore;
  * A DAO to access {@link OAuth2AccessToken} in DynamoDB. This is an implementation of token services that stores tokens in
  * DynamoDB. This was primarily based off of the functionality of the {@link JdbcTokenStore}.
  *
+ * <p>
+ * Token values are stored under keys produced by the {@link TokenKeyHasher}. If the hasher has a legacy algorithm,
+ * reads and removals also cover items keyed with it, so the algorithm can be switched without invalidating tokens.
+ * </p>
+ *
+ * <p>
+ * If an {@link AccessTokenRevocationList} is set, removed access tokens are also revoked, so that self-contained
+ * access tokens stop being accepted before they expire.
+ * </p>
+ *
+ * <p>
+ * Besides the {@link TokenStore} operations, {@link #replaceTokens} stores newly issued tokens and removes the ones
+ * they supersede in a single transactional write.
+ * </p>
+ *
  * @author Lucun Cai
  */
 public class DynamoDBTokenDAO implements TokenStore {
 
+    /**
+     * Superseded access tokens removed within a token replacement transaction. With their revocations, the two
+     * puts and the refresh token deletes under both keys, this keeps the transaction within the 10 item limit.
+     */
+    private static final int MAX_TRANSACTIONAL_REMOVALS = 2;
+
     private final AuthenticationKeyGenerator authenticationKeyGenerator;
 
     private final DynamoDBMapper dynamoDBMapper;
 
-    public DynamoDBTokenDAO(DynamoDBMapper dynamoDBMapper) {
+    private final AccessTokenCache accessTokenCache;
+
+    private final TokenKeyHasher tokenKeyHasher;
+
+    @Setter
+    private AccessTokenRevocationList accessTokenRevocationList;
+
+    public DynamoDBTokenDAO(DynamoDBMapper dynamoDBMapper, AccessTokenCache accessTokenCache,
+                            TokenKeyHasher tokenKeyHasher) {
         this.dynamoDBMapper = dynamoDBMapper;
-        this.authenticationKeyGenerator = new DefaultAuthenticationKeyGenerator();
+        this.accessTokenCache = accessTokenCache;
+        this.tokenKeyHasher = tokenKeyHasher;
+        this.authenticationKeyGenerator = new HashingAuthenticationKeyGenerator(tokenKeyHasher);
     }
 
     public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
-        String authenticationId = authenticationKeyGenerator.extractKey(authentication);
+        return Optional.ofNullable(getAccessTokenItem(authentication))
+            .map(OAuthAccessToken::getToken)
+            .orElse(null);
+    }
 
+    /**
+     * Find the stored access token item for the authentication provided. The index projects all attributes, so the
+     * item carries the stored authentication as well.
+     *
+     * @param authentication authentication.
+     * @return access token item or null if not found.
+     */
+    public OAuthAccessToken getAccessTokenItem(OAuth2Authentication authentication) {
+        return getAccessTokenItem(extractAuthenticationKey(authentication));
+    }
+
+    /**
+     * Find the stored access token item for the authentication key provided, as returned by
+     * {@link #extractAuthenticationKey}.
+     *
+     * @param authenticationId authentication key.
+     * @return access token item or null if not found.
+     */
+    public OAuthAccessToken getAccessTokenItem(String authenticationId) {
         DynamoDBQueryExpression query = new DynamoDBQueryExpression<OAuthAccessToken>()
             .withIndexName("authenticationId-index")
             .withConsistentRead(Boolean.FALSE)
@@ -55,47 +113,107 @@ public class DynamoDBTokenDAO implements TokenStore {
 
         List<OAuthAccessToken> accessTokens = dynamoDBMapper.query(OAuthAccessToken.class, query);
 
-        return accessTokens.stream().findAny().map(OAuthAccessToken::getToken).orElse(null);
-
+        return accessTokens.stream().findAny().orElse(null);
+    }
 
+    /**
+     * Get the key the access token of an authentication is stored under.
+     *
+     * @param authentication authentication.
+     * @return authentication key.
+     */
+    public String extractAuthenticationKey(OAuth2Authentication authentication) {
+        return authenticationKeyGenerator.extractKey(authentication);
     }
 
     public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        storeAccessToken(token, authentication, extractAuthenticationKey(authentication));
+    }
+
+    /**
+     * Store an access token under the authentication key provided, as returned by {@link #extractAuthenticationKey}.
+     *
+     * @param token access token.
+     * @param authentication authentication the token is issued for.
+     * @param authenticationId authentication key.
+     */
+    public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication,
+                                 String authenticationId) {
+        OAuthAccessToken accessToken = newAccessTokenItem(token, authentication, authenticationId);
+
+        dynamoDBMapper.save(accessToken);
+        accessTokenCache.invalidate(accessToken.getTokenId());
+    }
+
+    /**
+     * Build the item storing an access token, without saving it.
+     *
+     * @param token access token.
+     * @param authentication authentication the token is issued for.
+     * @return access token item.
+     */
+    public OAuthAccessToken newAccessTokenItem(OAuth2AccessToken token, OAuth2Authentication authentication) {
+        return newAccessTokenItem(token, authentication, extractAuthenticationKey(authentication));
+    }
+
+    /**
+     * Build the item storing an access token under the authentication key provided, as returned by
+     * {@link #extractAuthenticationKey}, without saving it.
+     *
+     * @param token access token.
+     * @param authentication authentication the token is issued for.
+     * @param authenticationId authentication key.
+     * @return access token item.
+     */
+    public OAuthAccessToken newAccessTokenItem(OAuth2AccessToken token, OAuth2Authentication authentication,
+                                               String authenticationId) {
         String refreshToken = null;
         if (token.getRefreshToken() != null) {
             refreshToken = token.getRefreshToken().getValue();
         }
 
-        OAuthAccessToken accessToken = OAuthAccessToken.builder()
+        return OAuthAccessToken.builder()
             .tokenId(extractTokenKey(token.getValue()))
             .token(token)
-            .authenticationId(authenticationKeyGenerator.extractKey(authentication))
+            .authenticationId(authenticationId)
             .authentication(authentication)
             .clientId(authentication.getOAuth2Request().getClientId())
             .refreshToken(extractTokenKey(refreshToken))
             .userName(StringUtils.isNotBlank(authentication.getName()) ? authentication.getName() : "#")
+            .expiresAt(token.getExpiration())
             .build();
-
-        dynamoDBMapper.save(accessToken);
     }
 
     public OAuth2AccessToken readAccessToken(String tokenValue) {
-        String tokenId = extractTokenKey(tokenValue);
-
-        return Optional.ofNullable(dynamoDBMapper.load(OAuthAccessToken.class, tokenId))
+        return Optional.ofNullable(loadAccessToken(tokenValue))
             .map(OAuthAccessToken::getToken)
             .orElse(null);
     }
 
+    /**
+     * Read the stored access token item, which carries both the {@link OAuth2AccessToken} and its
+     * {@link OAuth2Authentication}, with a single load.
+     *
+     * @param tokenValue access token value.
+     * @return access token item or null if not found.
+     */
+    public OAuthAccessToken readAccessTokenItem(String tokenValue) {
+        return loadAccessToken(tokenValue);
+    }
+
     public void removeAccessToken(OAuth2AccessToken token) {
         removeAccessToken(token.getValue());
     }
 
     public void removeAccessToken(String tokenValue) {
-        String tokenId = extractTokenKey(tokenValue);
-        OAuthAccessToken itemToDelete = OAuthAccessToken.builder().tokenId(tokenId).build();
+        revoke(tokenValue);
+
+        for (String tokenId : extractTokenKeys(tokenValue)) {
+            OAuthAccessToken itemToDelete = OAuthAccessToken.builder().tokenId(tokenId).build();
 
-        dynamoDBMapper.delete(itemToDelete);
+            dynamoDBMapper.delete(itemToDelete);
+            accessTokenCache.invalidate(tokenId);
+        }
     }
 
     public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
@@ -103,27 +221,47 @@ public class DynamoDBTokenDAO implements TokenStore {
     }
 
     public OAuth2Authentication readAuthentication(String token) {
-        String tokenId = extractTokenKey(token);
-        return Optional.ofNullable(dynamoDBMapper.load(OAuthAccessToken.class, tokenId))
+        return Optional.ofNullable(loadAccessToken(token))
             .map(OAuthAccessToken::getAuthentication)
             .orElse(null);
     }
 
     public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+        dynamoDBMapper.save(newRefreshTokenItem(refreshToken, authentication));
+    }
 
-        OAuthRefreshToken itemToSave = OAuthRefreshToken.builder()
+    /**
+     * Build the item storing a refresh token, without saving it.
+     *
+     * @param refreshToken refresh token.
+     * @param authentication authentication the token is issued for.
+     * @return refresh token item.
+     */
+    public OAuthRefreshToken newRefreshTokenItem(OAuth2RefreshToken refreshToken,
+                                                 OAuth2Authentication authentication) {
+        return OAuthRefreshToken.builder()
             .tokenId(extractTokenKey(refreshToken.getValue()))
             .token(refreshToken)
             .authentication(authentication)
+            .expiresAt(refreshToken instanceof ExpiringOAuth2RefreshToken
+                ? ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration()
+                : null)
             .build();
+    }
 
-        dynamoDBMapper.save(itemToSave);
+    /**
+     * Read the stored refresh token item, which carries the {@link OAuth2RefreshToken}, its
+     * {@link OAuth2Authentication} and the key of the last access token issued with it.
+     *
+     * @param tokenValue refresh token value.
+     * @return refresh token item or null if not found.
+     */
+    public OAuthRefreshToken readRefreshTokenItem(String tokenValue) {
+        return loadRefreshToken(tokenValue);
     }
 
     public OAuth2RefreshToken readRefreshToken(String token) {
-        String tokenId = extractTokenKey(token);
-
-        return Optional.ofNullable(dynamoDBMapper.load(OAuthRefreshToken.class, tokenId))
+        return Optional.ofNullable(loadRefreshToken(token))
             .map(OAuthRefreshToken::getToken)
             .orElse(null);
     }
@@ -133,10 +271,11 @@ public class DynamoDBTokenDAO implements TokenStore {
     }
 
     public void removeRefreshToken(String token) {
-        String tokenId = extractTokenKey(token);
-        OAuthRefreshToken itemToDelete = OAuthRefreshToken.builder().tokenId(tokenId).build();
+        for (String tokenId : extractTokenKeys(token)) {
+            OAuthRefreshToken itemToDelete = OAuthRefreshToken.builder().tokenId(tokenId).build();
 
-        dynamoDBMapper.delete(itemToDelete);
+            dynamoDBMapper.delete(itemToDelete);
+        }
     }
 
     public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
@@ -144,9 +283,7 @@ public class DynamoDBTokenDAO implements TokenStore {
     }
 
     public OAuth2Authentication readAuthenticationForRefreshToken(String value) {
-        String tokenId = extractTokenKey(value);
-
-        return Optional.ofNullable(dynamoDBMapper.load(OAuthRefreshToken.class, tokenId))
+        return Optional.ofNullable(loadRefreshToken(value))
             .map(OAuthRefreshToken::getAuthentication)
             .orElse(null);
     }
@@ -156,18 +293,94 @@ public class DynamoDBTokenDAO implements TokenStore {
     }
 
     public void removeAccessTokenUsingRefreshToken(String refreshToken) {
-        String refreshTokenId = extractTokenKey(refreshToken);
+        removeAccessTokens(queryAccessTokens(refreshToken));
+    }
 
-        DynamoDBQueryExpression query = new DynamoDBQueryExpression<OAuthAccessToken>()
-            .withIndexName("refreshToken-index")
-            .withConsistentRead(Boolean.FALSE)
-            .withHashKeyValues(OAuthAccessToken.builder()
-                .refreshToken(refreshTokenId)
-                .build());
+    /**
+     * Find the access token items issued with a refresh token. Refresh token items written since they record the
+     * key of their last access token resolve it without querying the refresh token index, and without a read at all
+     * unless the access token has to be revoked.
+     *
+     * @param refreshToken refresh token item.
+     * @return access token items, only holding the key when not read.
+     */
+    public List<OAuthAccessToken> findAccessTokenItems(OAuthRefreshToken refreshToken) {
+        String accessTokenId = refreshToken.getAccessTokenId();
+        if (accessTokenId == null) {
+            return queryAccessTokens(refreshToken.getToken().getValue());
+        }
+        if (accessTokenRevocationList == null) {
+            return Collections.singletonList(OAuthAccessToken.builder().tokenId(accessTokenId).build());
+        }
 
-        List<OAuthAccessToken> accessTokens = dynamoDBMapper.query(OAuthAccessToken.class, query);
+        OAuthAccessToken accessToken = accessTokenCache.get(accessTokenId,
+            id -> dynamoDBMapper.load(OAuthAccessToken.class, id));
+        return accessToken == null ? Collections.emptyList() : Collections.singletonList(accessToken);
+    }
 
-        dynamoDBMapper.batchDelete(accessTokens);
+    /**
+     * Store a newly issued access token and its refresh token, and remove the tokens they supersede, in a single
+     * transactional write instead of one round trip per item. Either all the changes of the transaction are applied or
+     * none.
+     *
+     * <p>
+     * The refresh token item records the key of the access token. A superseded refresh token is not removed if it is
+     * the one stored again. Removed access tokens are revoked within the same write.
+     * </p>
+     *
+     * <p>
+     * The transaction removes at most {@value #MAX_TRANSACTIONAL_REMOVALS} superseded access tokens. Only refresh
+     * tokens issued before their items recorded the last access token can supersede more. The other ones are removed
+     * and revoked once the transaction has succeeded, so that a failure never leaves the user without a token. If their
+     * removal fails, they stay valid until they expire.
+     * </p>
+     *
+     * @param accessToken access token item to store, or null.
+     * @param refreshToken refresh token item to store, or null.
+     * @param supersededAccessTokens access token items to remove.
+     * @param supersededRefreshToken refresh token value to remove, or null.
+     */
+    public void replaceTokens(OAuthAccessToken accessToken, OAuthRefreshToken refreshToken,
+                              Collection<OAuthAccessToken> supersededAccessTokens, String supersededRefreshToken) {
+        List<OAuthAccessToken> removedAccessTokens = new ArrayList<>(supersededAccessTokens);
+        List<OAuthAccessToken> remainingAccessTokens = Collections.emptyList();
+        if (removedAccessTokens.size() > MAX_TRANSACTIONAL_REMOVALS) {
+            remainingAccessTokens = removedAccessTokens.subList(MAX_TRANSACTIONAL_REMOVALS, removedAccessTokens.size());
+            removedAccessTokens = removedAccessTokens.subList(0, MAX_TRANSACTIONAL_REMOVALS);
+        }
+
+        TransactionWriteRequest transaction = new TransactionWriteRequest();
+        for (OAuthAccessToken removedAccessToken : removedAccessTokens) {
+            transaction.addDelete(OAuthAccessToken.builder().tokenId(removedAccessToken.getTokenId()).build());
+            if (accessTokenRevocationList != null && removedAccessToken.getToken() != null) {
+                accessTokenRevocationList.markRevoked(removedAccessToken.getToken().getValue())
+                    .ifPresent(transaction::addPut);
+            }
+        }
+        if (supersededRefreshToken != null) {
+            extractTokenKeys(supersededRefreshToken).stream()
+                .filter(tokenId -> refreshToken == null || !tokenId.equals(refreshToken.getTokenId()))
+                .forEach(tokenId -> transaction.addDelete(OAuthRefreshToken.builder().tokenId(tokenId).build()));
+        }
+        if (accessToken != null) {
+            transaction.addPut(accessToken);
+        }
+        if (refreshToken != null) {
+            refreshToken.setAccessTokenId(accessToken != null ? accessToken.getTokenId() : null);
+            transaction.addPut(refreshToken);
+        }
+
+        if (!transaction.getTransactionWriteOperations().isEmpty()) {
+            dynamoDBMapper.transactionWrite(transaction);
+        }
+
+        removedAccessTokens.forEach(removedAccessToken -> accessTokenCache.invalidate(removedAccessToken.getTokenId()));
+        if (accessToken != null) {
+            accessTokenCache.invalidate(accessToken.getTokenId());
+        }
+        if (!remainingAccessTokens.isEmpty()) {
+            removeAccessTokens(remainingAccessTokens);
+        }
     }
 
     public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
@@ -195,23 +408,85 @@ public class DynamoDBTokenDAO implements TokenStore {
         return accessTokens.stream().map(OAuthAccessToken::getToken).collect(Collectors.toList());
     }
 
-    protected String extractTokenKey(String value) {
-        if (value == null) {
-            return null;
+    /**
+     * Load the access token item through the access token cache, falling back to the legacy key if configured.
+     *
+     * @param tokenValue access token value.
+     * @return access token item or null if not found.
+     */
+    private OAuthAccessToken loadAccessToken(String tokenValue) {
+        OAuthAccessToken accessToken = accessTokenCache.get(extractTokenKey(tokenValue),
+            id -> dynamoDBMapper.load(OAuthAccessToken.class, id));
+
+        if (accessToken == null && tokenKeyHasher.hasLegacyAlgorithm()) {
+            accessToken = accessTokenCache.get(tokenKeyHasher.legacyHash(tokenValue),
+                id -> dynamoDBMapper.load(OAuthAccessToken.class, id));
         }
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("MD5 algorithm not available.  Fatal (should be in the JDK).");
+        return accessToken;
+    }
+
+    /**
+     * Load the refresh token item, falling back to the legacy key if configured.
+     *
+     * @param tokenValue refresh token value.
+     * @return refresh token item or null if not found.
+     */
+    private OAuthRefreshToken loadRefreshToken(String tokenValue) {
+        OAuthRefreshToken refreshToken = dynamoDBMapper.load(OAuthRefreshToken.class, extractTokenKey(tokenValue));
+
+        if (refreshToken == null && tokenKeyHasher.hasLegacyAlgorithm()) {
+            refreshToken = dynamoDBMapper.load(OAuthRefreshToken.class, tokenKeyHasher.legacyHash(tokenValue));
+        }
+        return refreshToken;
+    }
+
+    private List<OAuthAccessToken> queryAccessTokens(String refreshToken) {
+        List<OAuthAccessToken> accessTokens = new ArrayList<>();
+
+        for (String refreshTokenId : extractTokenKeys(refreshToken)) {
+            DynamoDBQueryExpression query = new DynamoDBQueryExpression<OAuthAccessToken>()
+                .withIndexName("refreshToken-index")
+                .withConsistentRead(Boolean.FALSE)
+                .withHashKeyValues(OAuthAccessToken.builder()
+                    .refreshToken(refreshTokenId)
+                    .build());
+
+            accessTokens.addAll(dynamoDBMapper.query(OAuthAccessToken.class, query));
+        }
+        return accessTokens;
+    }
+
+    private void removeAccessTokens(List<OAuthAccessToken> accessTokens) {
+        accessTokens.stream()
+            .map(OAuthAccessToken::getToken)
+            .filter(Objects::nonNull)
+            .forEach(accessToken -> revoke(accessToken.getValue()));
+        dynamoDBMapper.batchDelete(accessTokens);
+        accessTokenCache.invalidateAll(accessTokens.stream()
+            .map(OAuthAccessToken::getTokenId)
+            .collect(Collectors.toList()));
+    }
+
+    private void revoke(String tokenValue) {
+        if (accessTokenRevocationList != null) {
+            accessTokenRevocationList.revoke(tokenValue);
         }
+    }
 
-        try {
-            byte[] bytes = digest.digest(value.getBytes("UTF-8"));
-            return String.format("%032x", new BigInteger(1, bytes));
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException("UTF-8 encoding not available.  Fatal (should be in the JDK).");
+    /**
+     * All the keys a token value may be stored under, the current one first.
+     */
+    private List<String> extractTokenKeys(String value) {
+        List<String> keys = new ArrayList<>(2);
+        keys.add(extractTokenKey(value));
+        if (tokenKeyHasher.hasLegacyAlgorithm()) {
+            keys.add(tokenKeyHasher.legacyHash(value));
         }
+        return keys;
+    }
+
+    protected String extractTokenKey(String value) {
+        return tokenKeyHasher.hash(value);
     }
 
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.SaveBehavior;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.authentication.DirectoryUser;
+import com.oauth.server.authentication.UserDirectory;
+import com.oauth.server.cache.UserDetailsCache;
+import com.oauth.server.dto.OAuthUser;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * A {@link UserDirectory} reading the users from the OAuthUser table, through a bounded cache.
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class DynamoDBUserDirectory implements UserDirectory {
+
+    @NonNull
+    private final DynamoDBMapper dynamoDBMapper;
+
+    @NonNull
+    private final UserDetailsCache userDetailsCache;
+
+    @Override
+    public UserDetails findUser(String username) {
+        return userDetailsCache.get(username, this::readUser);
+    }
+
+    /**
+     * Replace the password hash of the user, unless the password was changed since the user was read.
+     */
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        OAuthUser item = OAuthUser.builder()
+            .username(user.getUsername())
+            .password(newPassword)
+            .build();
+        DynamoDBSaveExpression unchangedPassword = new DynamoDBSaveExpression()
+            .withExpected(ImmutableMap.of("password",
+                new ExpectedAttributeValue(new AttributeValue(user.getPassword()))));
+        try {
+            dynamoDBMapper.save(item, unchangedPassword, SaveBehavior.UPDATE_SKIP_NULL_ATTRIBUTES.config());
+        } catch (ConditionalCheckFailedException e) {
+            log.info("Password of user {} changed while upgrading its hash", user.getUsername());
+            return user;
+        } finally {
+            userDetailsCache.invalidate(user.getUsername());
+        }
+        return DirectoryUser.copyOf(user).withPassword(newPassword);
+    }
+
+    private UserDetails readUser(String username) {
+        OAuthUser item = dynamoDBMapper.load(OAuthUser.class, username);
+        return item != null ? item.toUserDetails() : null;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.NonNull;
+
+/**
+ * An in-process {@link TableChangeFeed} returning the changes published to it, standing in for the table stream in
+ * tests and local environments.
+ *
+ * @author Lucun Cai
+ */
+public class LocalTableChangeFeed implements TableChangeFeed {
+
+    private final Queue<TableChange> changes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Publish a change, returned by the next poll.
+     *
+     * @param change change of an item.
+     */
+    public void publish(@NonNull TableChange change) {
+        changes.add(change);
+    }
+
+    @Override
+    public void reset() {
+        changes.clear();
+    }
+
+    @Override
+    public List<TableChange> poll() {
+        List<TableChange> polled = new ArrayList<>();
+        TableChange change;
+        while ((change = changes.poll()) != null) {
+            polled.add(change);
+        }
+        return polled;
+    }
+}
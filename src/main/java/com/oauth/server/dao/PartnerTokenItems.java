@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.oauth.server.dto.OAuthPartnerToken;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import lombok.NonNull;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.ClientKeyGenerator;
+import org.springframework.security.oauth2.client.token.DefaultClientKeyGenerator;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * Builds the {@link OAuthPartnerToken} items saved by the partner token DAOs, so that the blocking and the
+ * non-blocking DAOs key and expire them the same way.
+ *
+ * @author Lucun Cai
+ */
+final class PartnerTokenItems {
+
+    private final ClientKeyGenerator keyGenerator = new DefaultClientKeyGenerator();
+
+    private final Duration refreshableTokenRetention;
+
+    PartnerTokenItems(@NonNull Duration refreshableTokenRetention) {
+        this.refreshableTokenRetention = refreshableTokenRetention;
+    }
+
+    /**
+     * The hash key of the token of a partner protected resource for the {@link Authentication} provided.
+     */
+    String authenticationId(OAuth2ProtectedResourceDetails resource, Authentication authentication) {
+        return keyGenerator.extractKey(resource, authentication);
+    }
+
+    /**
+     * The item holding the {@link OAuth2AccessToken} of a partner protected resource for the {@link Authentication}
+     * provided.
+     */
+    OAuthPartnerToken newItem(OAuth2ProtectedResourceDetails resource, Authentication authentication,
+                              OAuth2AccessToken accessToken) {
+        String userName = authentication != null ? authentication.getName() : null;
+
+        return OAuthPartnerToken.builder()
+            .authenticationId(authenticationId(resource, authentication))
+            .tokenId(accessToken.getValue())
+            .token(accessToken)
+            .tokenExpiresAt(accessToken.getExpiration())
+            .userName(userName)
+            .clientId(resource.getClientId())
+            .partnerId(resource.getId())
+            .accessTokenExpiresAt(accessToken.getRefreshToken() != null ? accessToken.getExpiration() : null)
+            .expiresAt(expiresAt(accessToken))
+            .build();
+    }
+
+    /**
+     * Partner access tokens are kept for their refresh token, whose expiration is unknown, for the retention period
+     * after they are saved. Tokens without a refresh token are kept until they expire.
+     */
+    private Date expiresAt(OAuth2AccessToken accessToken) {
+        return accessToken.getRefreshToken() != null
+            ? Date.from(Instant.now().plus(refreshableTokenRetention))
+            : accessToken.getExpiration();
+    }
+}
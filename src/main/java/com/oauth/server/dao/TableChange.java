@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Date;
+import java.util.Map;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A change of one item of a table, read from a {@link TableChangeFeed}.
+ *
+ * @author Lucun Cai
+ */
+@Value
+public class TableChange {
+
+    /**
+     * Key attributes of the item changed.
+     */
+    @NonNull
+    Map<String, AttributeValue> keys;
+
+    /**
+     * All the attributes of the item after the change, or null if the item was removed.
+     */
+    Map<String, AttributeValue> newImage;
+
+    /**
+     * Approximate time of the change.
+     */
+    @NonNull
+    Date changedAt;
+
+    public boolean isRemoval() {
+        return newImage == null;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dao;
+
+import java.util.List;
+
+/**
+ * A feed of the changes made to the items of a table.
+ *
+ * @author Lucun Cai
+ */
+public interface TableChangeFeed {
+
+    /**
+     * Position the feed after the latest change, so that the changes made from now on are returned by {@link #poll()}.
+     */
+    void reset();
+
+    /**
+     * Read the changes made since the previous poll. The changes of an item are returned in the order they were made.
+     *
+     * @return changes, empty if none.
+     */
+    List<TableChange> poll();
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import lombok.NonNull;
+import lombok.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.util.StringUtils;
+
+/**
+ * An immutable copy of {@link ClientDetails}, safe to share between requests from a cache.
+ *
+ * @author Lucun Cai
+ */
+@Value
+public class ImmutableClientDetails implements ClientDetails {
+
+    private static final long serialVersionUID = 1L;
+
+    String clientId;
+
+    Set<String> resourceIds;
+
+    String clientSecret;
+
+    Set<String> scope;
+
+    Set<String> autoApproveScopes;
+
+    Set<String> authorizedGrantTypes;
+
+    Set<String> registeredRedirectUri;
+
+    Collection<GrantedAuthority> authorities;
+
+    Integer accessTokenValiditySeconds;
+
+    Integer refreshTokenValiditySeconds;
+
+    Map<String, Object> additionalInformation;
+
+    /**
+     * Copy the client details provided.
+     *
+     * @param clientDetails client details.
+     * @return immutable client details.
+     */
+    public static ImmutableClientDetails copyOf(@NonNull ClientDetails clientDetails) {
+        if (clientDetails instanceof ImmutableClientDetails) {
+            return (ImmutableClientDetails) clientDetails;
+        }
+
+        Set<String> scope = copyOf(clientDetails.getScope());
+        return new ImmutableClientDetails(
+            clientDetails.getClientId(),
+            copyOf(clientDetails.getResourceIds()),
+            clientDetails.getClientSecret(),
+            scope,
+            scope.stream().filter(clientDetails::isAutoApprove).collect(ImmutableSet.toImmutableSet()),
+            copyOf(clientDetails.getAuthorizedGrantTypes()),
+            copyOf(clientDetails.getRegisteredRedirectUri()),
+            clientDetails.getAuthorities() != null
+                ? ImmutableSet.copyOf(clientDetails.getAuthorities())
+                : ImmutableSet.of(),
+            clientDetails.getAccessTokenValiditySeconds(),
+            clientDetails.getRefreshTokenValiditySeconds(),
+            clientDetails.getAdditionalInformation() != null
+                ? ImmutableMap.copyOf(clientDetails.getAdditionalInformation())
+                : ImmutableMap.of());
+    }
+
+    @Override
+    public boolean isSecretRequired() {
+        return clientSecret != null;
+    }
+
+    @Override
+    public boolean isScoped() {
+        return !scope.isEmpty();
+    }
+
+    @Override
+    public boolean isAutoApprove(String scope) {
+        return autoApproveScopes.contains(scope);
+    }
+
+    private static Set<String> copyOf(Set<String> values) {
+        return values != null
+            ? values.stream().filter(StringUtils::hasText).collect(ImmutableSet.toImmutableSet())
+            : ImmutableSet.of();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import lombok.NonNull;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.grant.code.AuthorizationCodeResourceDetails;
+import org.springframework.security.oauth2.common.AuthenticationScheme;
+
+/**
+ * Immutable {@link AuthorizationCodeResourceDetails} of a partner, built once from the {@link OAuthPartner} and safe
+ * to share between requests from a cache. The setters throw {@link UnsupportedOperationException} once built.
+ *
+ * @author Lucun Cai
+ */
+public final class ImmutablePartnerResourceDetails extends AuthorizationCodeResourceDetails {
+
+    private final boolean built;
+
+    private ImmutablePartnerResourceDetails(OAuthPartner partner) {
+        OAuth2ProtectedResourceDetails resourceDetails = partner.toProtectedResourceDetails();
+
+        super.setId(resourceDetails.getId());
+        super.setClientId(resourceDetails.getClientId());
+        super.setClientSecret(resourceDetails.getClientSecret());
+        super.setAccessTokenUri(resourceDetails.getAccessTokenUri());
+        super.setUserAuthorizationUri(partner.getUserAuthorizationUri());
+        super.setPreEstablishedRedirectUri(partner.getPreEstablishedRedirectUri());
+        super.setScope(resourceDetails.getScope() != null ? ImmutableList.copyOf(resourceDetails.getScope()) : null);
+        super.setClientAuthenticationScheme(resourceDetails.getClientAuthenticationScheme());
+        super.setAuthenticationScheme(resourceDetails.getAuthenticationScheme());
+        super.setTokenName(resourceDetails.getTokenName());
+        this.built = true;
+    }
+
+    /**
+     * Build the resource details of the partner provided.
+     *
+     * @param partner partner.
+     * @return immutable resource details.
+     */
+    public static ImmutablePartnerResourceDetails of(@NonNull OAuthPartner partner) {
+        return new ImmutablePartnerResourceDetails(partner);
+    }
+
+    @Override
+    public void setId(String id) {
+        checkNotBuilt();
+        super.setId(id);
+    }
+
+    @Override
+    public void setClientId(String clientId) {
+        checkNotBuilt();
+        super.setClientId(clientId);
+    }
+
+    @Override
+    public void setClientSecret(String clientSecret) {
+        checkNotBuilt();
+        super.setClientSecret(clientSecret);
+    }
+
+    @Override
+    public void setAccessTokenUri(String accessTokenUri) {
+        checkNotBuilt();
+        super.setAccessTokenUri(accessTokenUri);
+    }
+
+    @Override
+    public void setUserAuthorizationUri(String userAuthorizationUri) {
+        checkNotBuilt();
+        super.setUserAuthorizationUri(userAuthorizationUri);
+    }
+
+    @Override
+    public void setPreEstablishedRedirectUri(String preEstablishedRedirectUri) {
+        checkNotBuilt();
+        super.setPreEstablishedRedirectUri(preEstablishedRedirectUri);
+    }
+
+    @Override
+    public void setUseCurrentUri(boolean useCurrentUri) {
+        checkNotBuilt();
+        super.setUseCurrentUri(useCurrentUri);
+    }
+
+    @Override
+    public void setScope(List<String> scope) {
+        checkNotBuilt();
+        super.setScope(scope);
+    }
+
+    @Override
+    public void setClientAuthenticationScheme(AuthenticationScheme clientAuthenticationScheme) {
+        checkNotBuilt();
+        super.setClientAuthenticationScheme(clientAuthenticationScheme);
+    }
+
+    @Override
+    public void setAuthenticationScheme(AuthenticationScheme authenticationScheme) {
+        checkNotBuilt();
+        super.setAuthenticationScheme(authenticationScheme);
+    }
+
+    @Override
+    public void setTokenName(String tokenName) {
+        checkNotBuilt();
+        super.setTokenName(tokenName);
+    }
+
+    @Override
+    public void setGrantType(String grantType) {
+        checkNotBuilt();
+        super.setGrantType(grantType);
+    }
+
+    /**
+     * The setters stay usable until built, as the superclass constructor sets the grant type.
+     */
+    private void checkNotBuilt() {
+        if (built) {
+            throw new UnsupportedOperationException("Partner resource details are immutable.");
+        }
+    }
+}
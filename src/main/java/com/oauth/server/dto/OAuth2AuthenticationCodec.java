@@ -0,0 +1,243 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+/**
+ * A compact, versioned binary codec for {@link OAuth2Authentication}.
+ *
+ * <p>
+ * Only the fields needed to rebuild the authentication are written: the client id, approval flag, redirect uri,
+ * scopes, resource ids and client authorities of the {@link OAuth2Request}, the request parameters read after the
+ * authorization request (grant type, redirect uri, response type and state), plus the principal name and authorities
+ * of the user authentication if present. The user principal is restored as its name. The redirect uri parameter in
+ * particular must be kept, as the authorization code grant requires the same redirect uri at the token endpoint when
+ * the authorization request had one.
+ * </p>
+ *
+ * <p>
+ * Layout: one format version byte, one flags byte, then the body. The body is DEFLATE compressed (and flagged so)
+ * when it is larger than {@link #COMPRESSION_THRESHOLD} bytes and compression actually makes it smaller.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class OAuth2AuthenticationCodec {
+
+    static final byte FORMAT_VERSION = 2;
+
+    private static final List<String> KEPT_PARAMETERS = Collections.unmodifiableList(Arrays.asList(
+        OAuth2Utils.GRANT_TYPE, OAuth2Utils.REDIRECT_URI, OAuth2Utils.RESPONSE_TYPE, OAuth2Utils.STATE));
+
+    static final int COMPRESSION_THRESHOLD = 256;
+
+    private static final byte FLAG_DEFLATE = 0x01;
+
+    /**
+     * Encode the {@link OAuth2Authentication} into bytes.
+     *
+     * @param authentication authentication to encode.
+     * @return encoded bytes.
+     */
+    public byte[] encode(final OAuth2Authentication authentication) {
+        byte[] body = writeBody(authentication);
+        byte flags = 0;
+
+        if (body.length > COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(body);
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+
+        byte[] bytes = new byte[body.length + 2];
+        bytes[0] = FORMAT_VERSION;
+        bytes[1] = flags;
+        System.arraycopy(body, 0, bytes, 2, body.length);
+        return bytes;
+    }
+
+    /**
+     * Decode the {@link OAuth2Authentication} from bytes produced by {@link #encode(OAuth2Authentication)}.
+     *
+     * @param bytes encoded bytes.
+     * @return decoded authentication.
+     * @throws IllegalArgumentException if the format version is not supported.
+     */
+    public OAuth2Authentication decode(final byte[] bytes) {
+        if (bytes.length < 2 || bytes[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported authentication format: "
+                + (bytes.length == 0 ? "empty" : Byte.toString(bytes[0])));
+        }
+
+        InputStream body = new ByteArrayInputStream(bytes, 2, bytes.length - 2);
+        if ((bytes[1] & FLAG_DEFLATE) != 0) {
+            body = new InflaterInputStream(body);
+        }
+
+        try (DataInputStream in = new DataInputStream(body)) {
+            return readBody(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to decode authentication.", e);
+        }
+    }
+
+    private byte[] writeBody(final OAuth2Authentication authentication) {
+        OAuth2Request request = authentication.getOAuth2Request();
+        Authentication userAuthentication = authentication.getUserAuthentication();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(request.getClientId());
+            out.writeBoolean(request.isApproved());
+            writeNullableString(out, request.getRedirectUri());
+            writeParameters(out, request.getRequestParameters());
+            writeStrings(out, request.getScope());
+            writeStrings(out, request.getResourceIds());
+            writeAuthorities(out, request.getAuthorities());
+
+            out.writeBoolean(userAuthentication != null);
+            if (userAuthentication != null) {
+                out.writeUTF(userAuthentication.getName());
+                writeAuthorities(out, userAuthentication.getAuthorities());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode authentication.", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private OAuth2Authentication readBody(final DataInputStream in) throws IOException {
+        String clientId = in.readUTF();
+        boolean approved = in.readBoolean();
+        String redirectUri = readNullableString(in);
+        Map<String, String> requestParameters = readParameters(in);
+        Set<String> scopes = readStrings(in);
+        Set<String> resourceIds = readStrings(in);
+        List<GrantedAuthority> clientAuthorities = readAuthorities(in);
+
+        OAuth2Request request = new OAuth2Request(requestParameters, clientId, clientAuthorities, approved, scopes,
+            resourceIds, redirectUri, OAuth2Utils.parseParameterList(requestParameters.get(OAuth2Utils.RESPONSE_TYPE)),
+            Collections.emptyMap());
+
+        Authentication userAuthentication = null;
+        if (in.readBoolean()) {
+            String principal = in.readUTF();
+            List<GrantedAuthority> userAuthorities = readAuthorities(in);
+            userAuthentication = new UsernamePasswordAuthenticationToken(principal, null, userAuthorities);
+        }
+
+        return new OAuth2Authentication(request, userAuthentication);
+    }
+
+    private static void writeNullableString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeParameters(final DataOutputStream out, final Map<String, String> parameters)
+        throws IOException {
+        List<String> keys = new ArrayList<>(KEPT_PARAMETERS.size());
+        for (String key : KEPT_PARAMETERS) {
+            if (parameters.get(key) != null) {
+                keys.add(key);
+            }
+        }
+        out.writeByte(keys.size());
+        for (String key : keys) {
+            out.writeUTF(key);
+            out.writeUTF(parameters.get(key));
+        }
+    }
+
+    private static Map<String, String> readParameters(final DataInputStream in) throws IOException {
+        int size = in.readUnsignedByte();
+        Map<String, String> parameters = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            parameters.put(in.readUTF(), in.readUTF());
+        }
+        return parameters;
+    }
+
+    private static void writeStrings(final DataOutputStream out, final Collection<String> values) throws IOException {
+        out.writeShort(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static Set<String> readStrings(final DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        Set<String> values = new LinkedHashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeAuthorities(final DataOutputStream out,
+                                         final Collection<? extends GrantedAuthority> authorities) throws IOException {
+        out.writeShort(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            out.writeUTF(authority.getAuthority());
+        }
+    }
+
+    private static List<GrantedAuthority> readAuthorities(final DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        List<GrantedAuthority> authorities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+        }
+        return authorities;
+    }
+
+    private static byte[] deflate(final byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compress authentication.", e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+}
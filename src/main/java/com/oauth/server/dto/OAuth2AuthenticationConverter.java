@@ -6,26 +6,39 @@
 package com.oauth.server.dto;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverter;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.util.Base64;
+import com.amazonaws.util.BinaryUtils;
+import java.nio.ByteBuffer;
 import org.apache.commons.lang3.SerializationUtils;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 
 /**
- * This is a DynamoDBTypeConverter that converts between OAuth2Authentication to String.
+ * This is a DynamoDBTypeConverter that converts between OAuth2Authentication to a Binary attribute.
+ *
+ * <p>
+ * Authentications are written with the {@link OAuth2AuthenticationCodec}. Items written before the codec was introduced
+ * hold a Base64 encoded, Java serialized authentication in a String attribute, and are still readable.
+ * </p>
  *
  * @author Lucun Cai
  */
-public class OAuth2AuthenticationConverter implements DynamoDBTypeConverter<String, OAuth2Authentication> {
+public class OAuth2AuthenticationConverter implements DynamoDBTypeConverter<AttributeValue, OAuth2Authentication> {
+
+    private static final OAuth2AuthenticationCodec CODEC = new OAuth2AuthenticationCodec();
 
     @Override
-    public String convert(final OAuth2Authentication authentication) {
-        byte[] bytes = SerializationUtils.serialize(authentication);
-        return new String(Base64.encode(bytes));
+    public AttributeValue convert(final OAuth2Authentication authentication) {
+        return new AttributeValue().withB(ByteBuffer.wrap(CODEC.encode(authentication)));
     }
 
     @Override
-    public OAuth2Authentication unconvert(final String authenticationString) {
-        byte[] bytes = Base64.decode(authenticationString.getBytes());
+    public OAuth2Authentication unconvert(final AttributeValue attributeValue) {
+        if (attributeValue.getB() != null) {
+            return CODEC.decode(BinaryUtils.copyAllBytesFrom(attributeValue.getB()));
+        }
+
+        byte[] bytes = Base64.decode(attributeValue.getS().getBytes());
         return SerializationUtils.deserialize(bytes);
     }
 }
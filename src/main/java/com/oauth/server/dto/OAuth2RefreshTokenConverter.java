@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMappingException;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.Date;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.ExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+
+/**
+ * This is a DynamoDBTypeConverter that converts between OAuth2RefreshToken and a JSON String attribute.
+ *
+ * <p>
+ * The JSON has the same {@code value} and {@code expiration} fields as the items written with
+ * {@code DynamoDBTypeConvertedJson}, which could not read them back into the {@link OAuth2RefreshToken} interface.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class OAuth2RefreshTokenConverter implements DynamoDBTypeConverter<String, OAuth2RefreshToken> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String VALUE = "value";
+
+    private static final String EXPIRATION = "expiration";
+
+    @Override
+    public String convert(final OAuth2RefreshToken refreshToken) {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode().put(VALUE, refreshToken.getValue());
+        if (refreshToken instanceof ExpiringOAuth2RefreshToken
+            && ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration() != null) {
+            node.put(EXPIRATION, ((ExpiringOAuth2RefreshToken) refreshToken).getExpiration().getTime());
+        }
+        return node.toString();
+    }
+
+    @Override
+    public OAuth2RefreshToken unconvert(final String json) {
+        JsonNode node;
+        try {
+            node = OBJECT_MAPPER.readTree(json);
+        } catch (IOException e) {
+            throw new DynamoDBMappingException("Unable to read refresh token", e);
+        }
+
+        String value = node.path(VALUE).asText(null);
+        JsonNode expiration = node.path(EXPIRATION);
+        if (expiration.isNumber()) {
+            return new DefaultExpiringOAuth2RefreshToken(value, new Date(expiration.asLong()));
+        }
+        return new DefaultOAuth2RefreshToken(value);
+    }
+}
@@ -5,18 +5,27 @@
  */
 package com.oauth.server.dto;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverted;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedJson;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.FieldDefaults;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 
@@ -32,10 +41,13 @@ import org.springframework.security.oauth2.provider.OAuth2Authentication;
 @AllArgsConstructor
 @DynamoDBTable(tableName = "OAuthAccessToken")
 public class OAuthAccessToken {
+    private static final OAuth2AuthenticationConverter AUTHENTICATION_CONVERTER = new OAuth2AuthenticationConverter();
+
     @DynamoDBHashKey
     String tokenId;
 
     @DynamoDBTypeConvertedJson
+    @Setter(AccessLevel.NONE)
     OAuth2AccessToken token;
 
     @DynamoDBIndexHashKey(globalSecondaryIndexName = "authenticationId-index")
@@ -47,10 +59,112 @@ public class OAuthAccessToken {
     @DynamoDBIndexRangeKey(globalSecondaryIndexName = "clientId-userName-index")
     String userName;
 
-    @DynamoDBTypeConverted(converter = OAuth2AuthenticationConverter.class)
-    OAuth2Authentication authentication;
+    @DynamoDBIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    volatile OAuth2Authentication authentication;
+
+    @DynamoDBAttribute(attributeName = "authentication")
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    volatile AttributeValue authenticationAttribute;
 
     @DynamoDBIndexHashKey(globalSecondaryIndexName = "refreshToken-index")
     String refreshToken;
 
+    /**
+     * Expiration of the access token in epoch seconds, also the time to live attribute of the table.
+     */
+    @Setter(AccessLevel.NONE)
+    Long expiration;
+
+    public void setToken(OAuth2AccessToken token) {
+        this.token = token;
+        restoreExpiration();
+    }
+
+    public void setExpiration(Long expiration) {
+        this.expiration = expiration;
+        restoreExpiration();
+    }
+
+    /**
+     * Get the authentication, decoding it from the stored attribute on first access.
+     *
+     * @return authentication.
+     */
+    public OAuth2Authentication getAuthentication() {
+        if (authentication == null && authenticationAttribute != null) {
+            authentication = AUTHENTICATION_CONVERTER.unconvert(authenticationAttribute);
+        }
+        return authentication;
+    }
+
+    public void setAuthentication(OAuth2Authentication authentication) {
+        this.authentication = authentication;
+        this.authenticationAttribute = null;
+    }
+
+    /**
+     * Get the stored authentication attribute, encoding it from the authentication if it was set directly.
+     *
+     * @return authentication attribute.
+     */
+    public AttributeValue getAuthenticationAttribute() {
+        if (authenticationAttribute == null && authentication != null) {
+            authenticationAttribute = AUTHENTICATION_CONVERTER.convert(authentication);
+        }
+        return authenticationAttribute;
+    }
+
+    public void setAuthenticationAttribute(AttributeValue authenticationAttribute) {
+        this.authenticationAttribute = authenticationAttribute;
+        this.authentication = null;
+    }
+
+    /**
+     * Get a copy of the item with its own token and authentication, for a caller that may change them. The stored
+     * authentication attribute is shared, and decoded once for all the copies.
+     *
+     * @return copy of the item.
+     */
+    public OAuthAccessToken copy() {
+        OAuth2Authentication authentication = getAuthentication();
+        OAuth2Authentication authenticationCopy = null;
+        if (authentication != null) {
+            authenticationCopy = new OAuth2Authentication(authentication.getOAuth2Request(),
+                authentication.getUserAuthentication());
+            authenticationCopy.setDetails(authentication.getDetails());
+        }
+
+        return toBuilder()
+            .token(token != null ? new DefaultOAuth2AccessToken(token) : null)
+            .authentication(authenticationCopy)
+            .build();
+    }
+
+    /**
+     * The JSON of a token only holds its remaining validity at the time it was stored, so a loaded token would expire
+     * that long after every load. The absolute expiration is restored from the expiration attribute instead.
+     */
+    private void restoreExpiration() {
+        if (token instanceof DefaultOAuth2AccessToken && expiration != null) {
+            ((DefaultOAuth2AccessToken) token).setExpiration(new Date(TimeUnit.SECONDS.toMillis(expiration)));
+        }
+    }
+
+    public static class OAuthAccessTokenBuilder {
+        /**
+         * Set the expiration from a date, or leave it unset if the date is null.
+         *
+         * @param expiresAt expiration date.
+         * @return this builder.
+         */
+        public OAuthAccessTokenBuilder expiresAt(Date expiresAt) {
+            this.expiration = expiresAt != null ? TimeUnit.MILLISECONDS.toSeconds(expiresAt.getTime()) : null;
+            return this;
+        }
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDocument;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.security.oauth2.provider.approval.Approval;
+
+/**
+ * An DTO object represents the approvals of the scopes of a client by a user.
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthApproval")
+public class OAuthApproval {
+
+    @DynamoDBHashKey
+    String userId;
+
+    @DynamoDBRangeKey
+    String clientId;
+
+    /**
+     * Approval of each scope, by scope.
+     */
+    Map<String, ScopeApproval> scopes;
+
+    /**
+     * Incremented on each write, so that concurrent changes of the approvals of the same client are not lost.
+     */
+    Long version;
+
+    /**
+     * Time after which the item can be deleted in epoch seconds, the latest expiration of its approvals, also the time
+     * to live attribute of the table.
+     */
+    Long expiration;
+
+    /**
+     * Get the approvals of the item.
+     *
+     * @return approvals.
+     */
+    public List<Approval> toApprovals() {
+        return scopes.entrySet().stream()
+            .map(scope -> new Approval(userId, clientId, scope.getKey(),
+                new Date(scope.getValue().getExpiresAt()),
+                Approval.ApprovalStatus.valueOf(scope.getValue().getStatus()),
+                new Date(scope.getValue().getLastUpdatedAt())))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Approval of a scope.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @DynamoDBDocument
+    public static class ScopeApproval {
+
+        /**
+         * Name of the {@link Approval.ApprovalStatus}.
+         */
+        private String status;
+
+        /**
+         * Expiration of the approval in epoch milliseconds.
+         */
+        private Long expiresAt;
+
+        /**
+         * Time the approval was given or denied in epoch milliseconds.
+         */
+        private Long lastUpdatedAt;
+
+        /**
+         * Get the approval of the scope of an {@link Approval}.
+         *
+         * @param approval approval.
+         * @return scope approval.
+         */
+        public static ScopeApproval of(Approval approval) {
+            return new ScopeApproval(approval.getStatus().name(), approval.getExpiresAt().getTime(),
+                approval.getLastUpdatedAt().getTime());
+        }
+    }
+}
@@ -35,4 +35,9 @@ public class OAuthCode {
 
     @DynamoDBTypeConverted(converter = OAuth2AuthenticationConverter.class)
     OAuth2Authentication authentication;
+
+    /**
+     * Expiration of the code in epoch seconds, also the time to live attribute of the table.
+     */
+    Long expiration;
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * An DTO object represents a lease, held by a single node of the cluster until it is released or expires.
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthLease")
+public class OAuthLease {
+
+    @DynamoDBHashKey
+    String leaseId;
+
+    /**
+     * Id of the node holding the lease.
+     */
+    String owner;
+
+    /**
+     * Time the lease expires at in epoch milliseconds, after which another node can take it.
+     */
+    Long leaseUntil;
+
+    /**
+     * Time after which the lease can be deleted in epoch seconds, also the time to live attribute of the table.
+     */
+    Long expiration;
+}
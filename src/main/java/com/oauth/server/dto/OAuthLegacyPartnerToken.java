@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedJson;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.FieldDefaults;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * An DTO object represents an OAuth partner token of the table keyed by access token, only read while its tokens are
+ * migrated to the {@link OAuthPartnerToken} table. Its items hold the same attributes as the {@link OAuthPartnerToken}
+ * items, of which only those read during the migration are mapped.
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthPartnerToken")
+public class OAuthLegacyPartnerToken {
+
+    @DynamoDBHashKey
+    String tokenId;
+
+    @DynamoDBTypeConvertedJson
+    @Setter(AccessLevel.NONE)
+    OAuth2AccessToken token;
+
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = "authenticationId-index")
+    String authenticationId;
+
+    /**
+     * Expiration of the access token in epoch seconds, only set for tokens that can be refreshed.
+     */
+    @Setter(AccessLevel.NONE)
+    Long accessTokenExpiration;
+
+    /**
+     * Time after which the token can be deleted in epoch seconds, the access token expiration for tokens that cannot
+     * be refreshed.
+     */
+    @Setter(AccessLevel.NONE)
+    Long expiration;
+
+    public void setToken(OAuth2AccessToken token) {
+        this.token = token;
+        restoreExpiration();
+    }
+
+    public void setAccessTokenExpiration(Long accessTokenExpiration) {
+        this.accessTokenExpiration = accessTokenExpiration;
+        restoreExpiration();
+    }
+
+    public void setExpiration(Long expiration) {
+        this.expiration = expiration;
+        restoreExpiration();
+    }
+
+    /**
+     * Restore the absolute expiration of the token, as {@link OAuthPartnerToken} does.
+     */
+    private void restoreExpiration() {
+        OAuthPartnerToken.restoreExpiration(token, null, accessTokenExpiration, expiration);
+    }
+}
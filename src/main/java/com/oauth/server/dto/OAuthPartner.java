@@ -34,6 +34,8 @@ import org.springframework.util.StringUtils;
 @DynamoDBTable(tableName = "OAuthPartner")
 public class OAuthPartner implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     @DynamoDBHashKey
     private String partnerId;
 
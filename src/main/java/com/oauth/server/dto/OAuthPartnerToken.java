@@ -10,17 +10,35 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedJson;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.experimental.FieldDefaults;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 
 /**
  * An DTO object represents an OAuth partner token.
  *
+ * <p>
+ * There is at most one token per user, partner client and scope, keyed by the authentication id of the
+ * {@link org.springframework.security.oauth2.client.token.DefaultClientKeyGenerator}, so that it is read and replaced
+ * in place with single strongly consistent requests. The tokens of the {@link OAuthLegacyPartnerToken} table, keyed by
+ * access token, are copied to this table by the partner token migration.
+ * </p>
+ *
  * @author Lucun Cai
  */
 @FieldDefaults(level = AccessLevel.PRIVATE)
@@ -28,21 +46,171 @@ import org.springframework.security.oauth2.common.OAuth2AccessToken;
 @Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
-@DynamoDBTable(tableName = "OAuthPartnerToken")
+@DynamoDBTable(tableName = "OAuthPartnerTokenV2")
 public class OAuthPartnerToken {
 
+    /**
+     * Tokens expiring in the same hour are spread over this many buckets, so that they are not all in the same index
+     * partition.
+     */
+    private static final int REFRESH_BUCKET_SHARDS = 4;
+
+    private static final DateTimeFormatter REFRESH_BUCKET_HOUR =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH").withZone(ZoneOffset.UTC);
+
     @DynamoDBHashKey
+    String authenticationId;
+
+    /**
+     * Value of the access token, the version of the item checked when the token is replaced.
+     */
     String tokenId;
 
     @DynamoDBTypeConvertedJson
+    @Setter(AccessLevel.NONE)
     OAuth2AccessToken token;
 
-    @DynamoDBIndexHashKey(globalSecondaryIndexName = "authenticationId-index")
-    String authenticationId;
+    /**
+     * Expiration of the access token in epoch seconds, set for every token that expires.
+     */
+    @Setter(AccessLevel.NONE)
+    Long tokenExpiration;
 
     @DynamoDBIndexHashKey(globalSecondaryIndexName = "clientId-userName-index")
     String clientId;
 
     @DynamoDBIndexRangeKey(globalSecondaryIndexName = "clientId-userName-index")
     String userName;
+
+    /**
+     * Id of the partner the token was received from.
+     */
+    String partnerId;
+
+    /**
+     * Bucket of the refresh index, the hour of the access token expiration and a shard, only set for tokens that can
+     * be refreshed.
+     */
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = "refreshBucket-index")
+    String refreshBucket;
+
+    /**
+     * Expiration of the access token in epoch seconds, only set for tokens that can be refreshed.
+     */
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = "refreshBucket-index")
+    @Setter(AccessLevel.NONE)
+    Long accessTokenExpiration;
+
+    /**
+     * Time after which the token can be deleted in epoch seconds, also the time to live attribute of the table.
+     */
+    @Setter(AccessLevel.NONE)
+    Long expiration;
+
+    public void setToken(OAuth2AccessToken token) {
+        this.token = token;
+        restoreExpiration();
+    }
+
+    public void setTokenExpiration(Long tokenExpiration) {
+        this.tokenExpiration = tokenExpiration;
+        restoreExpiration();
+    }
+
+    public void setAccessTokenExpiration(Long accessTokenExpiration) {
+        this.accessTokenExpiration = accessTokenExpiration;
+        restoreExpiration();
+    }
+
+    public void setExpiration(Long expiration) {
+        this.expiration = expiration;
+        restoreExpiration();
+    }
+
+    /**
+     * The JSON of a token only holds its remaining validity at the time it was stored, so a loaded token would expire
+     * that long after every load. The absolute expiration is restored from the token expiration attribute instead, or
+     * for the items saved without it, from the access token expiration of a token that can be refreshed, or the
+     * expiration of the item for a token that cannot.
+     */
+    private void restoreExpiration() {
+        restoreExpiration(token, tokenExpiration, accessTokenExpiration, expiration);
+    }
+
+    static void restoreExpiration(OAuth2AccessToken token, Long tokenExpiration, Long accessTokenExpiration,
+                                  Long expiration) {
+        if (!(token instanceof DefaultOAuth2AccessToken)) {
+            return;
+        }
+        Long expiresAt = tokenExpiration != null ? tokenExpiration
+            : token.getRefreshToken() != null ? accessTokenExpiration
+            : expiration;
+        if (expiresAt != null) {
+            ((DefaultOAuth2AccessToken) token).setExpiration(new Date(TimeUnit.SECONDS.toMillis(expiresAt)));
+        }
+    }
+
+    /**
+     * Get the buckets of the refresh index holding the tokens whose access token expires in the period provided.
+     *
+     * @param from start of the period.
+     * @param until end of the period.
+     * @return refresh buckets.
+     */
+    public static List<String> refreshBuckets(Instant from, Instant until) {
+        List<String> buckets = new ArrayList<>();
+        Instant hour = from.truncatedTo(ChronoUnit.HOURS);
+        for (; !hour.isAfter(until); hour = hour.plus(1, ChronoUnit.HOURS)) {
+            for (int shard = 0; shard < REFRESH_BUCKET_SHARDS; shard++) {
+                buckets.add(refreshBucketOf(hour, shard));
+            }
+        }
+        return buckets;
+    }
+
+    private static String refreshBucketOf(Instant accessTokenExpiration, int shard) {
+        return REFRESH_BUCKET_HOUR.format(accessTokenExpiration) + "#" + shard;
+    }
+
+    public static class OAuthPartnerTokenBuilder {
+        /**
+         * Set the token expiration from a date, or leave it unset if the date is null.
+         *
+         * @param tokenExpiresAt access token expiration date.
+         * @return this builder.
+         */
+        public OAuthPartnerTokenBuilder tokenExpiresAt(Date tokenExpiresAt) {
+            this.tokenExpiration = tokenExpiresAt != null
+                ? TimeUnit.MILLISECONDS.toSeconds(tokenExpiresAt.getTime())
+                : null;
+            return this;
+        }
+
+        /**
+         * Index the token by the expiration of its access token, to be refreshed before it expires, or leave it out of
+         * the refresh index if the date is null.
+         *
+         * @param accessTokenExpiresAt access token expiration date.
+         * @return this builder.
+         */
+        public OAuthPartnerTokenBuilder accessTokenExpiresAt(Date accessTokenExpiresAt) {
+            if (accessTokenExpiresAt != null) {
+                this.accessTokenExpiration = TimeUnit.MILLISECONDS.toSeconds(accessTokenExpiresAt.getTime());
+                this.refreshBucket = refreshBucketOf(accessTokenExpiresAt.toInstant(),
+                    ThreadLocalRandom.current().nextInt(REFRESH_BUCKET_SHARDS));
+            }
+            return this;
+        }
+
+        /**
+         * Set the expiration from a date, or leave it unset if the date is null.
+         *
+         * @param expiresAt expiration date.
+         * @return this builder.
+         */
+        public OAuthPartnerTokenBuilder expiresAt(Date expiresAt) {
+            this.expiration = expiresAt != null ? TimeUnit.MILLISECONDS.toSeconds(expiresAt.getTime()) : null;
+            return this;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * An DTO object represents a reciprocal authorization code waiting to be exchanged with a partner, or that could not
+ * be exchanged.
+ *
+ * <p>
+ * The exchanges of a queue are spread over the shards of the queue index, by exchange id, so that a busy queue is not
+ * held in a single index partition.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthReciprocalExchange")
+public class OAuthReciprocalExchange {
+
+    public static final String PENDING = "pending";
+
+    public static final String DEAD_LETTER = "dead-letter";
+
+    /**
+     * Number of shards of each queue in the queue index.
+     */
+    public static final int QUEUE_SHARDS = 4;
+
+    @DynamoDBHashKey
+    String exchangeId;
+
+    /**
+     * {@link #PENDING} while the code is to be exchanged, {@link #DEAD_LETTER} once the exchange failed for good.
+     */
+    String queue;
+
+    /**
+     * Shard of the queue index, the queue and a shard of the exchange id.
+     */
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = "queueShard-nextAttemptAt-index")
+    String queueShard;
+
+    /**
+     * Time of the next attempt in epoch milliseconds. While an attempt is in progress, the time after which another
+     * attempt can be made if it did not complete.
+     */
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = "queueShard-nextAttemptAt-index")
+    Long nextAttemptAt;
+
+    String partnerId;
+
+    String userName;
+
+    /**
+     * The authorization code, stored in plaintext until it is exchanged, and cleared once dead-lettered.
+     */
+    String authorizationCode;
+
+    Integer attempts;
+
+    /**
+     * Time the code was received in epoch milliseconds.
+     */
+    Long enqueuedAt;
+
+    String lastError;
+
+    /**
+     * Time after which the item can be deleted in epoch seconds, also the time to live attribute of the table.
+     */
+    Long expiration;
+
+    /**
+     * Get the shards of the queue index holding the exchanges of the queue provided.
+     *
+     * @param queue {@link #PENDING} or {@link #DEAD_LETTER}.
+     * @return queue shards.
+     */
+    public static List<String> queueShards(String queue) {
+        return IntStream.range(0, QUEUE_SHARDS)
+            .mapToObj(shard -> queueShardOf(queue, shard))
+            .collect(Collectors.toList());
+    }
+
+    private static String queueShardOf(String queue, int shard) {
+        return queue + "#" + shard;
+    }
+
+    public static class OAuthReciprocalExchangeBuilder {
+        /**
+         * Set the queue of the exchange, and its shard of the queue index. The exchange id must be set first.
+         *
+         * @param queue {@link #PENDING} or {@link #DEAD_LETTER}.
+         * @return this builder.
+         */
+        public OAuthReciprocalExchangeBuilder queue(String queue) {
+            Objects.requireNonNull(exchangeId, "The exchange id must be set before the queue.");
+            this.queue = queue;
+            this.queueShard = queueShardOf(queue, Math.floorMod(exchangeId.hashCode(), QUEUE_SHARDS));
+            return this;
+        }
+    }
+}
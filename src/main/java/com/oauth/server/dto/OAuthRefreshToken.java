@@ -5,15 +5,23 @@
  */
 package com.oauth.server.dto;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIgnore;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConverted;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTypeConvertedJson;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.FieldDefaults;
 import org.springframework.security.oauth2.common.OAuth2RefreshToken;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
@@ -30,12 +38,80 @@ import org.springframework.security.oauth2.provider.OAuth2Authentication;
 @AllArgsConstructor
 @DynamoDBTable(tableName = "OAuthRefreshToken")
 public class OAuthRefreshToken {
+    private static final OAuth2AuthenticationConverter AUTHENTICATION_CONVERTER = new OAuth2AuthenticationConverter();
+
     @DynamoDBHashKey
     String tokenId;
 
-    @DynamoDBTypeConvertedJson
+    @DynamoDBTypeConverted(converter = OAuth2RefreshTokenConverter.class)
     OAuth2RefreshToken token;
 
-    @DynamoDBTypeConverted(converter = OAuth2AuthenticationConverter.class)
-    OAuth2Authentication authentication;
+    /**
+     * Key of the access token last issued with this refresh token, so it can be replaced without a query.
+     */
+    String accessTokenId;
+
+    /**
+     * Expiration of the refresh token in epoch seconds, also the time to live attribute of the table.
+     */
+    Long expiration;
+
+    @DynamoDBIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    volatile OAuth2Authentication authentication;
+
+    @DynamoDBAttribute(attributeName = "authentication")
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    volatile AttributeValue authenticationAttribute;
+
+    /**
+     * Get the authentication, decoding it from the stored attribute on first access.
+     *
+     * @return authentication.
+     */
+    public OAuth2Authentication getAuthentication() {
+        if (authentication == null && authenticationAttribute != null) {
+            authentication = AUTHENTICATION_CONVERTER.unconvert(authenticationAttribute);
+        }
+        return authentication;
+    }
+
+    public void setAuthentication(OAuth2Authentication authentication) {
+        this.authentication = authentication;
+        this.authenticationAttribute = null;
+    }
+
+    /**
+     * Get the stored authentication attribute, encoding it from the authentication if it was set directly.
+     *
+     * @return authentication attribute.
+     */
+    public AttributeValue getAuthenticationAttribute() {
+        if (authenticationAttribute == null && authentication != null) {
+            authenticationAttribute = AUTHENTICATION_CONVERTER.convert(authentication);
+        }
+        return authenticationAttribute;
+    }
+
+    public void setAuthenticationAttribute(AttributeValue authenticationAttribute) {
+        this.authenticationAttribute = authenticationAttribute;
+        this.authentication = null;
+    }
+
+    public static class OAuthRefreshTokenBuilder {
+        /**
+         * Set the expiration from a date, or leave it unset if the date is null.
+         *
+         * @param expiresAt expiration date.
+         * @return this builder.
+         */
+        public OAuthRefreshTokenBuilder expiresAt(Date expiresAt) {
+            this.expiration = expiresAt != null ? TimeUnit.MILLISECONDS.toSeconds(expiresAt.getTime()) : null;
+            return this;
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBIndexRangeKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * An DTO object represents a revoked self-contained access token.
+ *
+ * <p>
+ * Revoked tokens are indexed by the hour and time of their revocation, so that the nodes read the tokens revoked
+ * since their last read instead of the whole table. Revocations are rare, so an hour of revocations fits in one index
+ * partition.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthRevokedToken")
+public class OAuthRevokedToken {
+
+    private static final DateTimeFormatter REVOCATION_BUCKET_HOUR =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH").withZone(ZoneOffset.UTC);
+
+    /**
+     * The jti claim of the revoked token.
+     */
+    @DynamoDBHashKey
+    String tokenId;
+
+    /**
+     * Expiration of the revoked token in epoch seconds, also the time to live attribute of the table.
+     */
+    Long expiration;
+
+    /**
+     * Bucket of the revocation index, the hour of the revocation.
+     */
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = "revocationBucket-index")
+    String revocationBucket;
+
+    /**
+     * Time of the revocation in epoch milliseconds.
+     */
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = "revocationBucket-index")
+    Long revocationTime;
+
+    /**
+     * Get the buckets of the revocation index holding the tokens revoked in the period provided.
+     *
+     * @param from start of the period.
+     * @param until end of the period.
+     * @return revocation buckets.
+     */
+    public static List<String> revocationBuckets(Instant from, Instant until) {
+        List<String> buckets = new ArrayList<>();
+        Instant hour = from.truncatedTo(ChronoUnit.HOURS);
+        for (; !hour.isAfter(until); hour = hour.plus(1, ChronoUnit.HOURS)) {
+            buckets.add(REVOCATION_BUCKET_HOUR.format(hour));
+        }
+        return buckets;
+    }
+
+    public static class OAuthRevokedTokenBuilder {
+        /**
+         * Index the token by the time of its revocation.
+         *
+         * @param revokedAt revocation time.
+         * @return this builder.
+         */
+        public OAuthRevokedTokenBuilder revokedAt(Instant revokedAt) {
+            this.revocationBucket = REVOCATION_BUCKET_HOUR.format(revokedAt);
+            this.revocationTime = revokedAt.toEpochMilli();
+            return this;
+        }
+    }
+}
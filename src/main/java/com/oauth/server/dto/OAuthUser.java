@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.dto;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.oauth.server.authentication.DirectoryUser;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+/**
+ * An DTO object represents a user signing in to this server.
+ *
+ * @author Lucun Cai
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@DynamoDBTable(tableName = "OAuthUser")
+public class OAuthUser {
+
+    @DynamoDBHashKey
+    private String username;
+
+    /**
+     * BCrypt hash of the password.
+     */
+    private String password;
+
+    /**
+     * Comma separated authorities.
+     */
+    private String authorities;
+
+    public DirectoryUser toUserDetails() {
+        return new DirectoryUser(username, password,
+            AuthorityUtils.commaSeparatedStringToAuthorityList(authorities != null ? authorities : ""));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthRevokedToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+/**
+ * The list of revoked self-contained access tokens that have not expired yet.
+ *
+ * <p>
+ * Revoked tokens are written to DynamoDB with their expiration as time to live, so the list only holds tokens that
+ * would otherwise still be valid. Each node keeps the list in memory and refreshes it periodically with
+ * {@link #refresh()}; a token revoked on another node is rejected from the next refresh on.
+ * </p>
+ *
+ * <p>
+ * The first refresh scans the table. The following ones query the revocation index for the tokens revoked since the
+ * previous refresh, less a margin covering the delay of the index and the clock differences between nodes.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class AccessTokenRevocationList implements MeterBinder {
+
+    private static final Duration INDEX_DELAY_MARGIN = Duration.ofMinutes(1);
+
+    private final JsonParser jsonParser = JsonParserFactory.create();
+
+    private final Map<String, Instant> revokedTokens = new ConcurrentHashMap<>();
+
+    private final DynamoDBMapper dynamoDBMapper;
+
+    private final Clock clock;
+
+    /**
+     * Revocation time from which the next refresh reads, or null until the table has been scanned.
+     */
+    private Instant readFrom;
+
+    public AccessTokenRevocationList(@NonNull DynamoDBMapper dynamoDBMapper) {
+        this(dynamoDBMapper, Clock.systemUTC());
+    }
+
+    public AccessTokenRevocationList(@NonNull DynamoDBMapper dynamoDBMapper, @NonNull Clock clock) {
+        this.dynamoDBMapper = dynamoDBMapper;
+        this.clock = clock;
+    }
+
+    /**
+     * Revoke a signed access token until it expires. Opaque and expired tokens are ignored, removing them from the
+     * token store is enough.
+     *
+     * @param tokenValue access token value.
+     */
+    public void revoke(String tokenValue) {
+        markRevoked(tokenValue).ifPresent(dynamoDBMapper::save);
+    }
+
+    /**
+     * Revoke a signed access token on this node only, and return the item that revokes it on the other nodes once
+     * saved. This lets callers save it along with their own writes.
+     *
+     * @param tokenValue access token value.
+     * @return revoked token item to save, or empty if the token does not need to be revoked.
+     */
+    public Optional<OAuthRevokedToken> markRevoked(String tokenValue) {
+        if (tokenValue == null || !RotatingJwtAccessTokenConverter.isSigned(tokenValue)) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> claims = jsonParser.parseMap(JwtHelper.decode(tokenValue).getClaims());
+        Object tokenId = claims.get(JwtAccessTokenConverter.TOKEN_ID);
+        Object expiration = claims.get(AccessTokenConverter.EXP);
+
+        if (tokenId == null || !(expiration instanceof Number)) {
+            return Optional.empty();
+        }
+
+        Instant expiresAt = Instant.ofEpochSecond(((Number) expiration).longValue());
+        if (!expiresAt.isAfter(clock.instant())) {
+            return Optional.empty();
+        }
+
+        revokedTokens.put(tokenId.toString(), expiresAt);
+        return Optional.of(OAuthRevokedToken.builder()
+            .tokenId(tokenId.toString())
+            .expiration(expiresAt.getEpochSecond())
+            .revokedAt(clock.instant())
+            .build());
+    }
+
+    /**
+     * Whether the token with the jti provided has been revoked.
+     *
+     * @param tokenId jti claim of the token.
+     * @return true if revoked.
+     */
+    public boolean isRevoked(String tokenId) {
+        return tokenId != null && revokedTokens.containsKey(tokenId);
+    }
+
+    /**
+     * Load the tokens revoked on any node since the previous refresh, and drop the ones that have expired since. Runs
+     * of this method must not overlap.
+     */
+    public void refresh() {
+        Instant now = clock.instant();
+
+        try {
+            if (readFrom == null) {
+                loadAll(now);
+            } else {
+                loadRevokedSince(readFrom, now);
+            }
+            readFrom = now.minus(INDEX_DELAY_MARGIN);
+        } catch (RuntimeException e) {
+            log.error("Failed to refresh the access token revocation list.", e);
+        }
+
+        revokedTokens.values().removeIf(expiresAt -> !expiresAt.isAfter(now));
+    }
+
+    private void loadAll(Instant now) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+            .withFilterExpression("expiration > :now")
+            .withExpressionAttributeValues(ImmutableMap.of(":now",
+                new AttributeValue().withN(Long.toString(now.getEpochSecond()))));
+
+        for (OAuthRevokedToken revokedToken : dynamoDBMapper.scan(OAuthRevokedToken.class, scanExpression)) {
+            add(revokedToken);
+        }
+    }
+
+    private void loadRevokedSince(Instant from, Instant now) {
+        Condition revokedSince = new Condition()
+            .withComparisonOperator(ComparisonOperator.GE)
+            .withAttributeValueList(new AttributeValue().withN(Long.toString(from.toEpochMilli())));
+
+        for (String revocationBucket : OAuthRevokedToken.revocationBuckets(from, now)) {
+            DynamoDBQueryExpression<OAuthRevokedToken> query = new DynamoDBQueryExpression<OAuthRevokedToken>()
+                .withIndexName("revocationBucket-index")
+                .withConsistentRead(Boolean.FALSE)
+                .withHashKeyValues(OAuthRevokedToken.builder()
+                    .revocationBucket(revocationBucket)
+                    .build())
+                .withRangeKeyCondition("revocationTime", revokedSince);
+            for (OAuthRevokedToken revokedToken : dynamoDBMapper.query(OAuthRevokedToken.class, query)) {
+                add(revokedToken);
+            }
+        }
+    }
+
+    private void add(OAuthRevokedToken revokedToken) {
+        revokedTokens.put(revokedToken.getTokenId(), Instant.ofEpochSecond(revokedToken.getExpiration()));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("oauth.revoked.tokens", revokedTokens, Map::size)
+            .description("Revoked access tokens that have not expired yet")
+            .register(registry);
+    }
+}
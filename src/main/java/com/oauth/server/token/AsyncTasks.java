@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Helpers to run many asynchronous tasks without starting them all at once.
+ *
+ * @author Lucun Cai
+ */
+final class AsyncTasks {
+
+    private AsyncTasks() {
+    }
+
+    /**
+     * Run the task for each item in order, with at most the given number of tasks in progress. No thread waits for
+     * the tasks: the next task starts when one completes.
+     *
+     * @param items items.
+     * @param concurrency maximum number of tasks in progress.
+     * @param task task started for each item.
+     * @return future completed once all the tasks completed, or failed with the first task failing, in which case the
+     *     remaining items are skipped.
+     */
+    static <T> CompletableFuture<Void> forEach(List<T> items, int concurrency,
+                                               Function<? super T, ? extends CompletableFuture<?>> task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (items.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(items.size());
+        for (int i = 0; i < Math.min(concurrency, items.size()); i++) {
+            runNext(items, task, next, remaining, done);
+        }
+        return done;
+    }
+
+    /**
+     * Run the next tasks, looping while they complete synchronously rather than recursing, so that long lists of
+     * items do not overflow the stack.
+     */
+    private static <T> void runNext(List<T> items, Function<? super T, ? extends CompletableFuture<?>> task,
+                                    AtomicInteger next, AtomicInteger remaining, CompletableFuture<Void> done) {
+        int index;
+        while (!done.isDone() && (index = next.getAndIncrement()) < items.size()) {
+            CompletableFuture<?> run;
+            try {
+                run = task.apply(items.get(index));
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+
+            if (!run.isDone()) {
+                run.whenComplete((result, error) -> {
+                    if (error != null) {
+                        done.completeExceptionally(error);
+                    } else if (remaining.decrementAndGet() == 0) {
+                        done.complete(null);
+                    } else {
+                        runNext(items, task, next, remaining, done);
+                    }
+                });
+                return;
+            }
+            if (run.isCompletedExceptionally()) {
+                run.whenComplete((result, error) -> done.completeExceptionally(error));
+                return;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.oauth.server.dao.DynamoDBTokenDAO;
+import com.oauth.server.dto.OAuthAccessToken;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+/**
+ * A {@link ResourceServerTokenServices} that validates a bearer token with a single read of the access token item.
+ *
+ * <p>
+ * The {@link DefaultTokenServices} reads the access token and its authentication through two separate lookups of the
+ * same item. This implementation loads the item once and builds both from it, with the same validation rules.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@RequiredArgsConstructor
+public class DynamoDBResourceServerTokenServices implements ResourceServerTokenServices {
+
+    private final DynamoDBTokenDAO tokenDAO;
+
+    private final ClientDetailsService clientDetailsService;
+
+    /**
+     * Load the {@link OAuth2Authentication} for the access token value provided.
+     *
+     * @param accessTokenValue access token value.
+     * @return user authentication, a new instance on every call.
+     * @throws InvalidTokenException if the token is unknown, expired or issued to an unknown client.
+     */
+    @Override
+    public OAuth2Authentication loadAuthentication(String accessTokenValue)
+        throws AuthenticationException, InvalidTokenException {
+        OAuthAccessToken item = tokenDAO.readAccessTokenItem(accessTokenValue);
+
+        if (item == null || item.getToken() == null) {
+            throw new InvalidTokenException("Invalid access token: " + accessTokenValue);
+        }
+
+        OAuth2AccessToken accessToken = item.getToken();
+        if (accessToken.isExpired()) {
+            tokenDAO.removeAccessToken(accessToken);
+            throw new InvalidTokenException("Access token expired: " + accessTokenValue);
+        }
+
+        OAuth2Authentication authentication = item.getAuthentication();
+        if (authentication == null) {
+            throw new InvalidTokenException("Invalid access token: " + accessTokenValue);
+        }
+
+        String clientId = authentication.getOAuth2Request().getClientId();
+        try {
+            clientDetailsService.loadClientByClientId(clientId);
+        } catch (ClientRegistrationException e) {
+            throw new InvalidTokenException("Client not valid: " + clientId, e);
+        }
+
+        // Spring Security sets the details of the authentication per request, it must not be shared between requests.
+        OAuth2Authentication requestAuthentication = new OAuth2Authentication(authentication.getOAuth2Request(),
+            authentication.getUserAuthentication());
+        requestAuthentication.setDetails(authentication.getDetails());
+        return requestAuthentication;
+    }
+
+    /**
+     * Read the {@link OAuth2AccessToken} for the access token value provided.
+     *
+     * @param accessToken access token value.
+     * @return access token or null if not found.
+     */
+    @Override
+    public OAuth2AccessToken readAccessToken(String accessToken) {
+        OAuthAccessToken item = tokenDAO.readAccessTokenItem(accessToken);
+        return item != null ? item.getToken() : null;
+    }
+}
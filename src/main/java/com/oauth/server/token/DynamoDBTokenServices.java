@@ -0,0 +1,235 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.oauth.server.dao.DynamoDBTokenDAO;
+import com.oauth.server.dto.OAuthAccessToken;
+import com.oauth.server.dto.OAuthRefreshToken;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+
+/**
+ * A {@link DefaultTokenServices} that issues tokens with a single transactional write to DynamoDB.
+ *
+ * <p>
+ * The {@link DefaultTokenServices} removes superseded tokens and stores the new access and refresh tokens one item at
+ * a time, and refreshing a token queries the refresh token index for the access tokens to remove. This implementation
+ * applies the same rules, but writes all the changes with {@link DynamoDBTokenDAO#replaceTokens}, and finds the access
+ * token issued with a refresh token from the refresh token item. A still valid access token is only stored again if
+ * the key of its authentication has changed.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class DynamoDBTokenServices extends DefaultTokenServices {
+
+    private final DynamoDBTokenDAO tokenDAO;
+
+    private boolean supportRefreshToken = false;
+
+    private boolean reuseRefreshToken = true;
+
+    private TokenEnhancer accessTokenEnhancer;
+
+    private AuthenticationManager authenticationManager;
+
+    public DynamoDBTokenServices(DynamoDBTokenDAO tokenDAO) {
+        this.tokenDAO = tokenDAO;
+        setTokenStore(tokenDAO);
+    }
+
+    @Override
+    public OAuth2AccessToken createAccessToken(OAuth2Authentication authentication) throws AuthenticationException {
+        // The key is hashed once per request, and passed to each read and write of the token store.
+        String authenticationKey = tokenDAO.extractAuthenticationKey(authentication);
+        OAuthAccessToken existingAccessToken = tokenDAO.getAccessTokenItem(authenticationKey);
+        List<OAuthAccessToken> supersededAccessTokens = Collections.emptyList();
+        OAuth2RefreshToken refreshToken = null;
+
+        if (existingAccessToken != null && existingAccessToken.getToken() != null) {
+            OAuth2AccessToken accessToken = existingAccessToken.getToken();
+            if (!accessToken.isExpired()) {
+                // The stored authentication is decoded without its user principal and with fewer request parameters,
+                // so it is compared by the key the token is stored under, as the JdbcTokenStore does.
+                OAuth2Authentication storedAuthentication = existingAccessToken.getAuthentication();
+                if (storedAuthentication == null
+                    || !authenticationKey.equals(tokenDAO.extractAuthenticationKey(storedAuthentication))) {
+                    tokenDAO.storeAccessToken(accessToken, authentication, authenticationKey);
+                }
+                return accessToken;
+            }
+            supersededAccessTokens = Collections.singletonList(existingAccessToken);
+            refreshToken = accessToken.getRefreshToken();
+        }
+
+        // Clients might still hold the refresh token of the expired access token, so it is kept unless expired.
+        String supersededRefreshToken = refreshToken != null ? refreshToken.getValue() : null;
+        if (refreshToken == null || isExpired(refreshToken)) {
+            refreshToken = createRefreshToken(authentication);
+        }
+
+        OAuth2AccessToken accessToken = createAccessToken(authentication, refreshToken);
+        OAuthRefreshToken refreshTokenItem = accessToken.getRefreshToken() != null
+            ? tokenDAO.newRefreshTokenItem(accessToken.getRefreshToken(), authentication)
+            : null;
+
+        tokenDAO.replaceTokens(tokenDAO.newAccessTokenItem(accessToken, authentication, authenticationKey),
+            refreshTokenItem, supersededAccessTokens, supersededRefreshToken);
+        return accessToken;
+    }
+
+    @Override
+    public OAuth2AccessToken refreshAccessToken(String refreshTokenValue, TokenRequest tokenRequest)
+        throws AuthenticationException {
+        if (!supportRefreshToken) {
+            throw new InvalidGrantException("Invalid refresh token: " + refreshTokenValue);
+        }
+
+        OAuthRefreshToken refreshTokenItem = tokenDAO.readRefreshTokenItem(refreshTokenValue);
+        if (refreshTokenItem == null || refreshTokenItem.getToken() == null) {
+            throw new InvalidGrantException("Invalid refresh token: " + refreshTokenValue);
+        }
+
+        OAuth2RefreshToken refreshToken = refreshTokenItem.getToken();
+        OAuth2Authentication authentication = reauthenticate(refreshTokenItem.getAuthentication());
+        String clientId = authentication.getOAuth2Request().getClientId();
+        if (clientId == null || !clientId.equals(tokenRequest.getClientId())) {
+            throw new InvalidGrantException("Wrong client for this refresh token: " + refreshTokenValue);
+        }
+
+        List<OAuthAccessToken> supersededAccessTokens = tokenDAO.findAccessTokenItems(refreshTokenItem);
+        if (isExpired(refreshToken)) {
+            tokenDAO.replaceTokens(null, null, supersededAccessTokens, refreshTokenValue);
+            throw new InvalidTokenException("Invalid refresh token (expired): " + refreshToken);
+        }
+
+        authentication = createRefreshedAuthentication(authentication, tokenRequest);
+
+        String supersededRefreshToken = null;
+        if (!reuseRefreshToken) {
+            supersededRefreshToken = refreshTokenValue;
+            refreshToken = createRefreshToken(authentication);
+        }
+
+        OAuth2AccessToken accessToken = createAccessToken(authentication, refreshToken);
+        // A reused refresh token item is stored again as read, keeping the authentication it was issued with.
+        if (!reuseRefreshToken) {
+            refreshTokenItem = accessToken.getRefreshToken() != null
+                ? tokenDAO.newRefreshTokenItem(accessToken.getRefreshToken(), authentication)
+                : null;
+        }
+
+        tokenDAO.replaceTokens(tokenDAO.newAccessTokenItem(accessToken, authentication), refreshTokenItem,
+            supersededAccessTokens, supersededRefreshToken);
+        return accessToken;
+    }
+
+    @Override
+    public void setSupportRefreshToken(boolean supportRefreshToken) {
+        super.setSupportRefreshToken(supportRefreshToken);
+        this.supportRefreshToken = supportRefreshToken;
+    }
+
+    @Override
+    public void setReuseRefreshToken(boolean reuseRefreshToken) {
+        super.setReuseRefreshToken(reuseRefreshToken);
+        this.reuseRefreshToken = reuseRefreshToken;
+    }
+
+    @Override
+    public void setTokenEnhancer(TokenEnhancer accessTokenEnhancer) {
+        super.setTokenEnhancer(accessTokenEnhancer);
+        this.accessTokenEnhancer = accessTokenEnhancer;
+    }
+
+    @Override
+    public void setAuthenticationManager(AuthenticationManager authenticationManager) {
+        super.setAuthenticationManager(authenticationManager);
+        this.authenticationManager = authenticationManager;
+    }
+
+    /**
+     * Authenticate the user of a refresh token again, so that users disabled since cannot refresh their tokens.
+     */
+    private OAuth2Authentication reauthenticate(OAuth2Authentication authentication) {
+        if (authenticationManager == null || authentication.isClientOnly()) {
+            return authentication;
+        }
+
+        Authentication userAuthentication = authentication.getUserAuthentication();
+        PreAuthenticatedAuthenticationToken preAuthentication =
+            new PreAuthenticatedAuthenticationToken(userAuthentication, "", authentication.getAuthorities());
+        if (userAuthentication.getDetails() != null) {
+            preAuthentication.setDetails(userAuthentication.getDetails());
+        }
+
+        OAuth2Authentication reauthenticated = new OAuth2Authentication(authentication.getOAuth2Request(),
+            authenticationManager.authenticate(preAuthentication));
+        reauthenticated.setDetails(authentication.getDetails());
+        return reauthenticated;
+    }
+
+    private OAuth2Authentication createRefreshedAuthentication(OAuth2Authentication authentication,
+                                                               TokenRequest request) {
+        Set<String> scope = request.getScope();
+        OAuth2Request clientAuth = authentication.getOAuth2Request().refresh(request);
+        if (scope != null && !scope.isEmpty()) {
+            Set<String> originalScope = clientAuth.getScope();
+            if (originalScope == null || !originalScope.containsAll(scope)) {
+                throw new InvalidScopeException("Unable to narrow the scope of the client authentication to " + scope
+                    + ".", originalScope);
+            }
+            clientAuth = clientAuth.narrowScope(scope);
+        }
+        return new OAuth2Authentication(clientAuth, authentication.getUserAuthentication());
+    }
+
+    private OAuth2RefreshToken createRefreshToken(OAuth2Authentication authentication) {
+        if (!isSupportRefreshToken(authentication.getOAuth2Request())) {
+            return null;
+        }
+
+        int validitySeconds = getRefreshTokenValiditySeconds(authentication.getOAuth2Request());
+        String value = UUID.randomUUID().toString();
+        if (validitySeconds > 0) {
+            return new DefaultExpiringOAuth2RefreshToken(value,
+                new Date(System.currentTimeMillis() + (validitySeconds * 1000L)));
+        }
+        return new DefaultOAuth2RefreshToken(value);
+    }
+
+    private OAuth2AccessToken createAccessToken(OAuth2Authentication authentication, OAuth2RefreshToken refreshToken) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(UUID.randomUUID().toString());
+        int validitySeconds = getAccessTokenValiditySeconds(authentication.getOAuth2Request());
+        if (validitySeconds > 0) {
+            token.setExpiration(new Date(System.currentTimeMillis() + (validitySeconds * 1000L)));
+        }
+        token.setRefreshToken(refreshToken);
+        token.setScope(authentication.getOAuth2Request().getScope());
+
+        return accessTokenEnhancer != null ? accessTokenEnhancer.enhance(token, authentication) : token;
+    }
+}
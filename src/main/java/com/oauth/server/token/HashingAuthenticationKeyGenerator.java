@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.util.TreeSet;
+import lombok.NonNull;
+import org.springframework.security.oauth2.common.util.OAuth2Utils;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+/**
+ * An {@link AuthenticationKeyGenerator} backed by a {@link TokenKeyHasher}.
+ *
+ * <p>
+ * The key is built from the same values as the {@link DefaultAuthenticationKeyGenerator}, so with the MD5 algorithm
+ * it yields the same keys, but reuses the digests of the {@link TokenKeyHasher} instead of creating one per call.
+ * Keys are not memoized here: the {@link DynamoDBTokenServices} extract the key of a token request once and pass it to
+ * the token store.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class HashingAuthenticationKeyGenerator implements AuthenticationKeyGenerator {
+
+    private static final String CLIENT_ID = "client_id";
+
+    private static final String SCOPE = "scope";
+
+    private static final String USERNAME = "username";
+
+    private final TokenKeyHasher tokenKeyHasher;
+
+    public HashingAuthenticationKeyGenerator(@NonNull TokenKeyHasher tokenKeyHasher) {
+        this.tokenKeyHasher = tokenKeyHasher;
+    }
+
+    @Override
+    public String extractKey(final OAuth2Authentication authentication) {
+        return tokenKeyHasher.hash(values(authentication));
+    }
+
+    /**
+     * Build the same String as {@code LinkedHashMap.toString()} of the values used by
+     * {@link DefaultAuthenticationKeyGenerator}.
+     */
+    private static String values(final OAuth2Authentication authentication) {
+        OAuth2Request request = authentication.getOAuth2Request();
+        StringBuilder values = new StringBuilder(128).append('{');
+
+        if (!authentication.isClientOnly()) {
+            values.append(USERNAME).append('=').append(authentication.getName()).append(", ");
+        }
+        values.append(CLIENT_ID).append('=').append(request.getClientId());
+        if (request.getScope() != null) {
+            values.append(", ").append(SCOPE).append('=')
+                .append(OAuth2Utils.formatParameterList(new TreeSet<>(request.getScope())));
+        }
+
+        return values.append('}').toString();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Isolates the partner OAuth servers from each other, so that a slow or failing partner cannot hold every partner
+ * exchange thread, nor degrade the exchanges with the other partners.
+ *
+ * <p>
+ * Each partner has a bulkhead, limiting the exchanges in progress or waiting for an exchange thread, and a circuit
+ * breaker. The circuit opens when the failure rate of the last exchanges reaches the threshold. Exchanges are then
+ * rejected until the open period has passed, after which a few probe exchanges are let through: the circuit closes
+ * once they all succeeded, and opens again at the first failure. Only failures of the partner count: connection
+ * failures, timeouts, and 5xx or 429 responses, and not OAuth errors such as an invalid grant.
+ * </p>
+ *
+ * <p>
+ * Rejected exchanges fail with a {@link PartnerUnavailableException}. The state of the circuits, the exchanges in
+ * progress and the rejections are published per partner as the {@code oauth.partner.exchange.*} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class PartnerExchangeGuard implements MeterBinder {
+
+    private final int maxConcurrentExchanges;
+
+    private final double failureRateThreshold;
+
+    private final int windowSize;
+
+    private final int minimumExchanges;
+
+    private final long openMillis;
+
+    private final int probeExchanges;
+
+    private final Clock clock;
+
+    private final ConcurrentMap<String, PartnerState> partners = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry registry = new SimpleMeterRegistry();
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrentExchanges exchanges in progress or queued for each partner.
+     * @param failureRateThreshold failure rate, between 0 and 1, opening the circuit.
+     * @param windowSize number of last exchanges the failure rate is computed over.
+     * @param minimumExchanges exchanges needed in the window before the circuit may open.
+     * @param openDuration time the circuit stays open before probing the partner.
+     * @param probeExchanges successful probe exchanges closing the circuit.
+     */
+    public PartnerExchangeGuard(int maxConcurrentExchanges, double failureRateThreshold, int windowSize,
+                                int minimumExchanges, @NonNull Duration openDuration, int probeExchanges) {
+        this(maxConcurrentExchanges, failureRateThreshold, windowSize, minimumExchanges, openDuration,
+            probeExchanges, Clock.systemUTC());
+    }
+
+    public PartnerExchangeGuard(int maxConcurrentExchanges, double failureRateThreshold, int windowSize,
+                                int minimumExchanges, @NonNull Duration openDuration, int probeExchanges,
+                                @NonNull Clock clock) {
+        this.maxConcurrentExchanges = maxConcurrentExchanges;
+        this.failureRateThreshold = failureRateThreshold;
+        this.windowSize = windowSize;
+        this.minimumExchanges = Math.min(minimumExchanges, windowSize);
+        this.openMillis = openDuration.toMillis();
+        this.probeExchanges = probeExchanges;
+        this.clock = clock;
+    }
+
+    /**
+     * Run an exchange with a partner on the executor, unless the circuit of the partner is open or its bulkhead is
+     * full.
+     *
+     * @param partnerId partner id.
+     * @param exchange the blocking exchange with the partner.
+     * @param executor executor running the exchange.
+     * @return future of the result of the exchange, failed with a {@link PartnerUnavailableException} if rejected.
+     */
+    public <T> CompletableFuture<T> execute(String partnerId, Supplier<T> exchange, Executor executor) {
+        PartnerState partner = partners.computeIfAbsent(partnerId, this::newPartnerState);
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        if (!partner.bulkhead.tryAcquire()) {
+            registry.counter("oauth.partner.exchange.rejected", "partner", partnerId, "reason", "bulkhead_full")
+                .increment();
+            result.completeExceptionally(new PartnerUnavailableException(
+                "Too many exchanges in progress with partner: " + partnerId));
+            return result;
+        }
+        long permit = partner.circuit.tryAcquire();
+        if (permit < 0) {
+            partner.bulkhead.release();
+            registry.counter("oauth.partner.exchange.rejected", "partner", partnerId, "reason", "circuit_open")
+                .increment();
+            result.completeExceptionally(new PartnerUnavailableException("Partner is unavailable: " + partnerId));
+            return result;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    T value = exchange.get();
+                    partner.circuit.record(permit, false);
+                    result.complete(value);
+                } catch (RuntimeException e) {
+                    partner.circuit.record(permit, isPartnerFailure(e));
+                    result.completeExceptionally(e);
+                } finally {
+                    partner.bulkhead.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The partner was not contacted, the exchange is neither a success nor a failure.
+            partner.circuit.cancel(permit);
+            partner.bulkhead.release();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        partners.forEach((partnerId, partner) -> registerGauges(partnerId, partner, registry));
+    }
+
+    private PartnerState newPartnerState(String partnerId) {
+        PartnerState partner = new PartnerState(new Semaphore(maxConcurrentExchanges),
+            new CircuitBreaker(partnerId));
+        registerGauges(partnerId, partner, registry);
+        return partner;
+    }
+
+    private void registerGauges(String partnerId, PartnerState partner, MeterRegistry registry) {
+        Gauge.builder("oauth.partner.exchange.active", partner.bulkhead,
+            bulkhead -> maxConcurrentExchanges - bulkhead.availablePermits())
+            .description("Exchanges in progress or queued with the partner")
+            .tag("partner", partnerId)
+            .register(registry);
+        Gauge.builder("oauth.partner.exchange.circuit.state", partner.circuit, circuit -> circuit.state().ordinal())
+            .description("State of the circuit of the partner: 0 closed, 1 open, 2 half-open")
+            .tag("partner", partnerId)
+            .register(registry);
+    }
+
+    /**
+     * Whether an exchange failed because of the partner, rather than because of the request.
+     */
+    static boolean isPartnerFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException) {
+                int status = ((RestClientResponseException) cause).getRawStatusCode();
+                return status >= 500 || status == 429;
+            }
+            if (cause instanceof RestClientException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class PartnerState {
+        private final Semaphore bulkhead;
+        private final CircuitBreaker circuit;
+
+        private PartnerState(Semaphore bulkhead, CircuitBreaker circuit) {
+            this.bulkhead = bulkhead;
+            this.circuit = circuit;
+        }
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Circuit breaker of a partner. Each exchange let through gets the generation of the circuit as its permit, so
+     * that the outcome of an exchange started before the last state change is ignored.
+     */
+    private final class CircuitBreaker {
+
+        private final String partnerId;
+
+        private final boolean[] failures = new boolean[windowSize];
+
+        private State state = State.CLOSED;
+
+        private long generation;
+
+        private int exchanges;
+
+        private int failureCount;
+
+        private int next;
+
+        private long openedAt;
+
+        private int probesStarted;
+
+        private int probesSucceeded;
+
+        private CircuitBreaker(String partnerId) {
+            this.partnerId = partnerId;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * @return the permit of the exchange, or -1 if it is rejected.
+         */
+        synchronized long tryAcquire() {
+            if (state == State.OPEN) {
+                if (clock.millis() - openedAt < openMillis) {
+                    return -1;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesStarted >= probeExchanges) {
+                    return -1;
+                }
+                probesStarted++;
+            }
+            return generation;
+        }
+
+        /**
+         * Give back the permit of an exchange that was not attempted, freeing its probe slot when half-open.
+         */
+        synchronized void cancel(long permit) {
+            if (permit == generation && state == State.HALF_OPEN) {
+                probesStarted--;
+            }
+        }
+
+        synchronized void record(long permit, boolean failure) {
+            if (permit != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (failure) {
+                    transition(State.OPEN);
+                } else if (++probesSucceeded >= probeExchanges) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+
+            if (exchanges == windowSize) {
+                if (failures[next]) {
+                    failureCount--;
+                }
+            } else {
+                exchanges++;
+            }
+            failures[next] = failure;
+            if (failure) {
+                failureCount++;
+            }
+            next = (next + 1) % windowSize;
+
+            if (exchanges >= minimumExchanges && failureCount >= failureRateThreshold * exchanges) {
+                transition(State.OPEN);
+            }
+        }
+
+        private void transition(State newState) {
+            if (newState == State.OPEN) {
+                log.warn("Circuit of partner {} is open", partnerId);
+            } else {
+                log.info("Circuit of partner {} is now {}", partnerId, newState);
+            }
+            state = newState;
+            generation++;
+            exchanges = 0;
+            failureCount = 0;
+            next = 0;
+            probesStarted = 0;
+            probesSucceeded = 0;
+            if (newState == State.OPEN) {
+                openedAt = clock.millis();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import lombok.NonNull;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * The HTTP request factory shared by the exchanges with partner OAuth servers (e.g. LWA).
+ *
+ * <p>
+ * Connections are pooled and kept alive between exchanges, so that most exchanges reuse a connection instead of paying
+ * for a new TCP connection and TLS handshake. Connections are kept alive for as long as the partner allows, up to the
+ * keep-alive limit, and closed once idle for that long. Exchanges wait at most the connection request timeout for a
+ * connection when all the connections to the partner are in use. The connections of the pool are published as the
+ * {@code oauth.partner.http.connections} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class PartnerHttpRequestFactory extends HttpComponentsClientHttpRequestFactory implements MeterBinder {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * Constructor.
+     *
+     * @param maxConnections connections to all partners.
+     * @param maxConnectionsPerPartner connections to each partner host.
+     * @param connectTimeout timeout to establish a connection.
+     * @param readTimeout timeout waiting for data from the partner.
+     * @param connectionRequestTimeout timeout waiting for a connection from the pool.
+     * @param keepAlive longest time an idle connection is kept.
+     */
+    public PartnerHttpRequestFactory(int maxConnections, int maxConnectionsPerPartner,
+                                     @NonNull Duration connectTimeout, @NonNull Duration readTimeout,
+                                     @NonNull Duration connectionRequestTimeout, @NonNull Duration keepAlive) {
+        this(newConnectionManager(maxConnections, maxConnectionsPerPartner), connectTimeout, readTimeout,
+            connectionRequestTimeout, keepAlive);
+    }
+
+    private PartnerHttpRequestFactory(PoolingHttpClientConnectionManager connectionManager, Duration connectTimeout,
+                                      Duration readTimeout, Duration connectionRequestTimeout, Duration keepAlive) {
+        super(HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout((int) connectTimeout.toMillis())
+                .setSocketTimeout((int) readTimeout.toMillis())
+                .setConnectionRequestTimeout((int) connectionRequestTimeout.toMillis())
+                .build())
+            .setKeepAliveStrategy(keepAliveStrategy(keepAlive))
+            .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS)
+            .evictExpiredConnections()
+            .disableCookieManagement()
+            .build());
+        this.connectionManager = connectionManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("oauth.partner.http.connections", connectionManager,
+            manager -> manager.getTotalStats().getLeased())
+            .description("Connections to partner OAuth servers")
+            .tag("state", "leased")
+            .register(registry);
+        Gauge.builder("oauth.partner.http.connections", connectionManager,
+            manager -> manager.getTotalStats().getAvailable())
+            .description("Connections to partner OAuth servers")
+            .tag("state", "available")
+            .register(registry);
+        Gauge.builder("oauth.partner.http.connections.pending", connectionManager,
+            manager -> manager.getTotalStats().getPending())
+            .description("Exchanges waiting for a connection to a partner OAuth server")
+            .register(registry);
+        Gauge.builder("oauth.partner.http.connections.max", connectionManager,
+            manager -> manager.getTotalStats().getMax())
+            .description("Maximum connections to partner OAuth servers")
+            .register(registry);
+    }
+
+    private static PoolingHttpClientConnectionManager newConnectionManager(int maxConnections,
+                                                                           int maxConnectionsPerPartner) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerPartner);
+        return connectionManager;
+    }
+
+    /**
+     * Keep connections alive as long as the partner allows with its Keep-Alive header, and no longer than the
+     * keep-alive limit.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(Duration keepAlive) {
+        long keepAliveMillis = keepAlive.toMillis();
+        return (response, context) -> {
+            long partnerKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return partnerKeepAlive > 0 ? Math.min(partnerKeepAlive, keepAliveMillis) : keepAliveMillis;
+        };
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.oauth.server.dao.DynamoDBPartnerTokenDAO;
+import com.oauth.server.dto.OAuthPartnerToken;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+/**
+ * Refreshes the partner tokens whose access token expires within the look-ahead period, so that the partner token
+ * endpoint almost always returns a stored token without waiting for the partner.
+ *
+ * <p>
+ * The tokens due are found with the refresh index of the partner token table, including those that expired during
+ * the look-behind period without being refreshed. They are grouped by partner and each partner is refreshed in
+ * parallel with the others, with its own rate limit and limit of refreshes in flight, so that a slow partner does not
+ * hold the others back and no partner receives more requests than it allows. Refreshes go through the
+ * {@link PartnerTokenService}, and are shared with the requests refreshing the same token at the same time.
+ * </p>
+ *
+ * <p>
+ * The refresh lag, the time between a token becoming due and its refresh, the tokens refreshed, the tokens found not
+ * due anymore and the failed refreshes are published per partner as the {@code oauth.partner.token.refresh*} meters.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class PartnerTokenRefreshScheduler implements MeterBinder {
+
+    private final DynamoDBPartnerTokenDAO partnerTokenDAO;
+
+    private final PartnerTokenService partnerTokenService;
+
+    private final Duration lookAhead;
+
+    private final Duration lookBehind;
+
+    private final double refreshesPerSecond;
+
+    private final int refreshesInFlight;
+
+    private final Executor executor;
+
+    private final Clock clock;
+
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    private final AtomicInteger tokensDue = new AtomicInteger();
+
+    private volatile MeterRegistry registry = new SimpleMeterRegistry();
+
+    public PartnerTokenRefreshScheduler(@NonNull DynamoDBPartnerTokenDAO partnerTokenDAO,
+                                        @NonNull PartnerTokenService partnerTokenService,
+                                        @NonNull Duration lookAhead, @NonNull Duration lookBehind,
+                                        double refreshesPerSecond, int refreshesInFlight,
+                                        @NonNull Executor executor) {
+        this(partnerTokenDAO, partnerTokenService, lookAhead, lookBehind, refreshesPerSecond, refreshesInFlight,
+            executor, Clock.systemUTC());
+    }
+
+    public PartnerTokenRefreshScheduler(@NonNull DynamoDBPartnerTokenDAO partnerTokenDAO,
+                                        @NonNull PartnerTokenService partnerTokenService,
+                                        @NonNull Duration lookAhead, @NonNull Duration lookBehind,
+                                        double refreshesPerSecond, int refreshesInFlight,
+                                        @NonNull Executor executor, @NonNull Clock clock) {
+        this.partnerTokenDAO = partnerTokenDAO;
+        this.partnerTokenService = partnerTokenService;
+        this.lookAhead = lookAhead;
+        this.lookBehind = lookBehind;
+        this.refreshesPerSecond = refreshesPerSecond;
+        this.refreshesInFlight = refreshesInFlight;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * Refresh the partner tokens due, and wait until they are all refreshed.
+     */
+    public void refreshExpiringTokens() {
+        Instant now = clock.instant();
+        List<OAuthPartnerToken> expiringTokens;
+        try {
+            expiringTokens = partnerTokenDAO.findRefreshableTokens(now.minus(lookBehind), now.plus(lookAhead));
+        } catch (RuntimeException e) {
+            log.warn("Failed to find the partner tokens to refresh", e);
+            return;
+        }
+        tokensDue.set(expiringTokens.size());
+
+        Map<String, List<OAuthPartnerToken>> tokensByPartner = expiringTokens.stream()
+            .filter(partnerToken -> partnerToken.getPartnerId() != null && partnerToken.getUserName() != null)
+            .collect(Collectors.groupingBy(OAuthPartnerToken::getPartnerId));
+
+        CompletableFuture.allOf(tokensByPartner.entrySet().stream()
+            .map(partnerTokens -> CompletableFuture.runAsync(
+                () -> refreshPartnerTokens(partnerTokens.getKey(), partnerTokens.getValue()), executor))
+            .toArray(CompletableFuture<?>[]::new))
+            .join();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("oauth.partner.token.refresh.due", tokensDue, AtomicInteger::get)
+            .description("Partner tokens found due for refresh by the last run")
+            .register(registry);
+    }
+
+    private void refreshPartnerTokens(String partnerId, List<OAuthPartnerToken> partnerTokens) {
+        RateLimiter rateLimiter = rateLimiters.computeIfAbsent(partnerId,
+            id -> RateLimiter.create(refreshesPerSecond));
+        Semaphore inFlight = new Semaphore(refreshesInFlight);
+
+        CompletableFuture<?>[] refreshes = new CompletableFuture<?>[partnerTokens.size()];
+        for (int i = 0; i < refreshes.length; i++) {
+            OAuthPartnerToken partnerToken = partnerTokens.get(i);
+            rateLimiter.acquire();
+            inFlight.acquireUninterruptibly();
+            refreshes[i] = refresh(partnerId, partnerToken).whenComplete((accessToken, error) -> inFlight.release());
+        }
+        CompletableFuture.allOf(refreshes).exceptionally(error -> null).join();
+    }
+
+    /**
+     * Refresh a token due. The service reads the token again and refreshes it unless it no longer expires within the
+     * look-ahead period, as when the eventually consistent index still lists a token another node just refreshed.
+     * Such a token is counted as skipped, and only a token expiring after the indexed expiration as refreshed.
+     */
+    private CompletableFuture<?> refresh(String partnerId, OAuthPartnerToken partnerToken) {
+        long indexedExpiration = TimeUnit.SECONDS.toMillis(partnerToken.getAccessTokenExpiration());
+        long dueAt = indexedExpiration - lookAhead.toMillis();
+
+        CompletableFuture<OAuth2AccessToken> refresh;
+        try {
+            refresh = partnerTokenService.refreshAccessToken(partnerId, partnerToken.getUserName(), lookAhead);
+        } catch (RuntimeException e) {
+            refresh = new CompletableFuture<>();
+            refresh.completeExceptionally(e);
+        }
+
+        return refresh.whenComplete((accessToken, error) -> {
+            if (error == null && (accessToken.getExpiration() == null
+                || accessToken.getExpiration().getTime() <= indexedExpiration)) {
+                registry.counter("oauth.partner.token.refresh.skipped", "partner", partnerId).increment();
+                log.debug("Token of partner {} for user {} was not refreshed, it is not due anymore", partnerId,
+                    partnerToken.getUserName());
+            } else if (error == null) {
+                registry.counter("oauth.partner.token.refreshed", "partner", partnerId).increment();
+                Timer.builder("oauth.partner.token.refresh.lag")
+                    .description("Time between a partner token becoming due for refresh and its refresh")
+                    .tag("partner", partnerId)
+                    .register(registry)
+                    .record(Math.max(0, clock.millis() - dueAt), TimeUnit.MILLISECONDS);
+            } else {
+                registry.counter("oauth.partner.token.refresh.failures", "partner", partnerId).increment();
+                log.warn("Failed to refresh the token of partner {} for user {}", partnerId,
+                    partnerToken.getUserName(), error);
+            }
+        });
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.google.common.collect.Lists;
+import com.oauth.server.authentication.UserIDAuthenticationToken;
+import com.oauth.server.dao.DynamoDBLeaseDAO;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.client.token.DefaultAccessTokenRequest;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidClientException;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+
+/**
+ * Service providing the access tokens received from partner OAuth providers (e.g. LWA) for their users.
+ *
+ * <p>
+ * The stored access token is returned as long as it is valid for longer than the refresh margin. Only then is it
+ * refreshed with the partner, on the partner exchange executor, and replaced in DynamoDB. Concurrent requests for the
+ * token of the same partner and user share a single refresh, and with a lease DAO, so do the nodes of the cluster.
+ * Exchanges go through the {@link PartnerExchangeGuard}, and requests fall back to the stored token while it is valid
+ * when the partner is unavailable.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class PartnerTokenService {
+
+    /**
+     * Users whose stored tokens are read together by batch requests.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Batches of stored tokens read at a time by a batch request.
+     */
+    private static final int BATCH_READ_CONCURRENCY = 4;
+
+    private final DynamoDBPartnerDetailsAsyncDAO partnerDetailsService;
+
+    private final DynamoDBPartnerTokenAsyncDAO partnerTokenService;
+
+    private final AccessTokenProvider tokenProvider;
+
+    private final PartnerExchangeGuard exchangeGuard;
+
+    private final Executor partnerExchangeExecutor;
+
+    private final Duration refreshMargin;
+
+    private final Clock clock;
+
+    private final ConcurrentMap<RefreshKey, CompletableFuture<OAuth2AccessToken>> pendingRefreshes =
+        new ConcurrentHashMap<>();
+
+    private int batchRefreshConcurrency = 4;
+
+    private DynamoDBLeaseDAO leaseDAO;
+
+    private Duration leaseWait;
+
+    private Duration leasePollInterval;
+
+    private ScheduledExecutorService leasePollScheduler;
+
+    public PartnerTokenService(@NonNull DynamoDBPartnerDetailsAsyncDAO partnerDetailsService,
+                               @NonNull DynamoDBPartnerTokenAsyncDAO partnerTokenService,
+                               @NonNull AccessTokenProvider tokenProvider,
+                               @NonNull PartnerExchangeGuard exchangeGuard,
+                               @NonNull Executor partnerExchangeExecutor,
+                               @NonNull Duration refreshMargin) {
+        this(partnerDetailsService, partnerTokenService, tokenProvider, exchangeGuard, partnerExchangeExecutor,
+            refreshMargin, Clock.systemUTC());
+    }
+
+    public PartnerTokenService(@NonNull DynamoDBPartnerDetailsAsyncDAO partnerDetailsService,
+                               @NonNull DynamoDBPartnerTokenAsyncDAO partnerTokenService,
+                               @NonNull AccessTokenProvider tokenProvider,
+                               @NonNull PartnerExchangeGuard exchangeGuard,
+                               @NonNull Executor partnerExchangeExecutor,
+                               @NonNull Duration refreshMargin,
+                               @NonNull Clock clock) {
+        this.partnerDetailsService = partnerDetailsService;
+        this.partnerTokenService = partnerTokenService;
+        this.tokenProvider = tokenProvider;
+        this.exchangeGuard = exchangeGuard;
+        this.partnerExchangeExecutor = partnerExchangeExecutor;
+        this.refreshMargin = refreshMargin;
+        this.clock = clock;
+    }
+
+    /**
+     * Get the access token of the partner for the user, refreshed if it expires within the refresh margin. If the
+     * refresh fails, the stored token is returned as long as it has not expired.
+     *
+     * @param partnerId partner id.
+     * @param userId user id.
+     * @return future of the access token.
+     */
+    public CompletableFuture<OAuth2AccessToken> getAccessToken(String partnerId, String userId) {
+        return getAccessToken(partnerId, userId, refreshMargin, true);
+    }
+
+    /**
+     * Refresh the access token of the partner for the user ahead of time, if it expires within the look-ahead
+     * period provided.
+     *
+     * @param partnerId partner id.
+     * @param userId user id.
+     * @param lookAhead look-ahead period, longer than the refresh margin.
+     * @return future of the access token.
+     */
+    public CompletableFuture<OAuth2AccessToken> refreshAccessToken(String partnerId, String userId,
+                                                                   Duration lookAhead) {
+        return getAccessToken(partnerId, userId, lookAhead, false);
+    }
+
+    /**
+     * Get the access tokens of the partner for many users. The stored tokens are read in batches of users, a few
+     * batches at a time, and the valid ones are returned as soon as read. The tokens expiring within the refresh margin
+     * are then refreshed together, with at most the batch refresh concurrency refreshes in progress. As for a single
+     * user, a stored token is returned if its refresh failed and it has not expired.
+     *
+     * @param partnerId partner id.
+     * @param userIds user ids.
+     * @param results called with the access token of each user, or the error getting it, as soon as it is known and
+     *     from any thread. A result failing to be consumed stops the batch.
+     * @return future completed once the results of all the users were consumed.
+     */
+    public CompletableFuture<Void> getAccessTokens(String partnerId, List<String> userIds,
+                                                   Consumer<UserAccessToken> results) {
+        return partnerDetailsService.loadResourceDetailsByPartnerId(partnerId).thenCompose(resourceDetails -> {
+            if (resourceDetails == null) {
+                throw new InvalidClientException("Invalid partner id: " + partnerId);
+            }
+
+            List<ExpiringToken> expiring = Collections.synchronizedList(new ArrayList<>());
+            return AsyncTasks.forEach(Lists.partition(userIds, BATCH_SIZE), BATCH_READ_CONCURRENCY,
+                batch -> readAccessTokens(resourceDetails, batch, results, expiring))
+                .thenCompose(ignored -> AsyncTasks.forEach(new ArrayList<>(expiring), batchRefreshConcurrency,
+                    token -> refreshAccessToken(partnerId, resourceDetails, token, results)));
+        });
+    }
+
+    /**
+     * Read the stored tokens of a batch of users, pass on the valid ones and collect the expiring ones.
+     */
+    private CompletableFuture<Void> readAccessTokens(OAuth2ProtectedResourceDetails resourceDetails,
+                                                     List<String> userIds, Consumer<UserAccessToken> results,
+                                                     List<ExpiringToken> expiring) {
+        List<Authentication> authentications = userIds.stream()
+            .map(UserIDAuthenticationToken::new)
+            .collect(Collectors.toList());
+
+        return partnerTokenService.getAccessTokens(resourceDetails, authentications).thenAccept(accessTokens -> {
+            for (Authentication authentication : authentications) {
+                String userId = authentication.getName();
+                OAuth2AccessToken accessToken = accessTokens.get(userId);
+                if (accessToken == null) {
+                    results.accept(UserAccessToken.failed(userId,
+                        new OAuth2Exception("No token found for user: " + userId)));
+                } else if (!needsRefresh(accessToken, refreshMargin)) {
+                    results.accept(UserAccessToken.of(userId, accessToken));
+                } else {
+                    expiring.add(new ExpiringToken(authentication, accessToken));
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<Void> refreshAccessToken(String partnerId, OAuth2ProtectedResourceDetails resourceDetails,
+                                                       ExpiringToken expiring, Consumer<UserAccessToken> results) {
+        String userId = expiring.getAuthentication().getName();
+        CompletableFuture<OAuth2AccessToken> refreshed = refresh(new RefreshKey(partnerId, userId),
+            resourceDetails, expiring.getAuthentication(), expiring.getAccessToken(), refreshMargin);
+        return orStoredToken(refreshed, expiring.getAccessToken(), partnerId, userId).handle((token, error) -> {
+            results.accept(error == null ? UserAccessToken.of(userId, token) : UserAccessToken.failed(userId, error));
+            return null;
+        });
+    }
+
+    private CompletableFuture<OAuth2AccessToken> getAccessToken(String partnerId, String userId, Duration margin,
+                                                                boolean storedTokenFallback) {
+        Authentication authentication = new UserIDAuthenticationToken(userId);
+
+        return partnerDetailsService.loadResourceDetailsByPartnerId(partnerId).thenCompose(resourceDetails -> {
+            if (resourceDetails == null) {
+                throw new InvalidClientException("Invalid partner id: " + partnerId);
+            }
+
+            return partnerTokenService.getAccessToken(resourceDetails, authentication).thenCompose(accessToken -> {
+                if (accessToken == null) {
+                    throw new OAuth2Exception("No token found for user: " + userId);
+                }
+                if (!needsRefresh(accessToken, margin)) {
+                    return CompletableFuture.completedFuture(accessToken);
+                }
+                CompletableFuture<OAuth2AccessToken> refreshed = refresh(new RefreshKey(partnerId, userId),
+                    resourceDetails, authentication, accessToken, margin);
+                return storedTokenFallback ? orStoredToken(refreshed, accessToken, partnerId, userId) : refreshed;
+            });
+        });
+    }
+
+    /**
+     * Whether the access token expires within the margin. Tokens without a refresh token are used until they expire,
+     * as refreshing them would fail anyway.
+     */
+    private boolean needsRefresh(OAuth2AccessToken accessToken, Duration margin) {
+        if (accessToken.getExpiration() == null) {
+            return false;
+        }
+        long expiresAt = accessToken.getExpiration().getTime();
+        if (accessToken.getRefreshToken() == null) {
+            return expiresAt <= clock.millis();
+        }
+        return expiresAt - margin.toMillis() <= clock.millis();
+    }
+
+    /**
+     * Complete with the stored token if the refresh failed, typically because the partner is unavailable, and the
+     * stored token has not expired yet.
+     */
+    private CompletableFuture<OAuth2AccessToken> orStoredToken(CompletableFuture<OAuth2AccessToken> refresh,
+                                                               OAuth2AccessToken storedToken,
+                                                               String partnerId, String userId) {
+        return refresh.handle((token, error) -> {
+            if (error == null) {
+                return token;
+            }
+            if (isExpired(storedToken)) {
+                throw error instanceof CompletionException ? (CompletionException) error
+                    : new CompletionException(error);
+            }
+            log.warn("Failed to refresh the token of partner {} for user {}, returning the stored token", partnerId,
+                userId, error);
+            return storedToken;
+        });
+    }
+
+    /**
+     * Refresh the access token, or join the refresh in progress on this node for the same partner and user. With a
+     * lease DAO, the refresh is also coordinated with the other nodes.
+     */
+    private CompletableFuture<OAuth2AccessToken> refresh(RefreshKey key,
+                                                         OAuth2ProtectedResourceDetails resourceDetails,
+                                                         Authentication authentication,
+                                                         OAuth2AccessToken accessToken,
+                                                         Duration margin) {
+        CompletableFuture<OAuth2AccessToken> refresh = new CompletableFuture<>();
+        CompletableFuture<OAuth2AccessToken> pending = pendingRefreshes.putIfAbsent(key, refresh);
+        if (pending != null) {
+            return pending;
+        }
+
+        CompletableFuture<OAuth2AccessToken> refreshed;
+        try {
+            refreshed = leaseDAO == null
+                ? exchange(key, resourceDetails, authentication, accessToken)
+                : exchangeUnderLease(key, resourceDetails, authentication, accessToken, margin,
+                    clock.millis() + leaseWait.toMillis());
+        } catch (RuntimeException e) {
+            refreshed = new CompletableFuture<>();
+            refreshed.completeExceptionally(e);
+        }
+
+        refreshed.whenComplete((token, error) -> {
+            pendingRefreshes.remove(key, refresh);
+            if (error == null) {
+                refresh.complete(token);
+            } else {
+                refresh.completeExceptionally(error);
+            }
+        });
+        return refresh;
+    }
+
+    /**
+     * Refresh the access token with the partner and replace it in DynamoDB, while holding the lease of the token.
+     *
+     * <p>
+     * If another node holds the lease, the stored token is returned while it has not expired. Once expired, the
+     * stored token is read again until the other node replaced it, or the lease can be taken because the other node
+     * released it without replacing the token or stopped. After the wait deadline, the request fails.
+     * </p>
+     */
+    private CompletableFuture<OAuth2AccessToken> exchangeUnderLease(RefreshKey key,
+                                                                    OAuth2ProtectedResourceDetails resourceDetails,
+                                                                    Authentication authentication,
+                                                                    OAuth2AccessToken accessToken,
+                                                                    Duration margin,
+                                                                    long deadline) {
+        String leaseId = key.toLeaseId();
+
+        return leaseDAO.tryAcquire(leaseId).thenCompose(acquired -> {
+            if (acquired) {
+                // Read again, the token may have been replaced between the first read and the lease.
+                CompletableFuture<OAuth2AccessToken> refreshed = partnerTokenService
+                    .getAccessToken(resourceDetails, authentication)
+                    .thenCompose(current -> current != null && !needsRefresh(current, margin)
+                        ? CompletableFuture.completedFuture(current)
+                        : exchange(key, resourceDetails, authentication, current != null ? current : accessToken));
+                refreshed.whenComplete((token, error) -> leaseDAO.release(leaseId).whenComplete((released, e) -> {
+                    if (e != null) {
+                        log.warn("Failed to release lease {}, it will expire", leaseId, e);
+                    }
+                }));
+                return refreshed;
+            }
+
+            if (!isExpired(accessToken)) {
+                return CompletableFuture.completedFuture(accessToken);
+            }
+            if (clock.millis() >= deadline) {
+                throw new OAuth2Exception("Token of user " + key.getUserId() + " is being refreshed by another node");
+            }
+
+            CompletableFuture<Void> delay = new CompletableFuture<>();
+            leasePollScheduler.schedule(() -> delay.complete(null), leasePollInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+            return delay
+                .thenCompose(ignored -> partnerTokenService.getAccessToken(resourceDetails, authentication))
+                .thenCompose(current -> current != null && !needsRefresh(current, margin)
+                    ? CompletableFuture.completedFuture(current)
+                    : exchangeUnderLease(key, resourceDetails, authentication,
+                        current != null ? current : accessToken, margin, deadline));
+        });
+    }
+
+    /**
+     * Refresh the access token with the partner, through the exchange guard of the partner, and replace it in
+     * DynamoDB if it is still the stored token. If another node replaced it meanwhile, its token is kept and returned.
+     * An expired token without a refresh token cannot be refreshed, the user must authorize the partner again.
+     */
+    private CompletableFuture<OAuth2AccessToken> exchange(RefreshKey key,
+                                                          OAuth2ProtectedResourceDetails resourceDetails,
+                                                          Authentication authentication,
+                                                          OAuth2AccessToken accessToken) {
+        if (accessToken.getRefreshToken() == null) {
+            throw new OAuth2Exception("Token of user " + key.getUserId() + " expired and has no refresh token, "
+                + "the partner must be authorized again");
+        }
+
+        return exchangeGuard.execute(key.getPartnerId(), () -> tokenProvider.refreshAccessToken(resourceDetails,
+            accessToken.getRefreshToken(), new DefaultAccessTokenRequest()), partnerExchangeExecutor)
+            .thenCompose(refreshed -> partnerTokenService
+                .replaceAccessToken(resourceDetails, authentication, accessToken, refreshed)
+                .thenCompose(replaced -> {
+                    if (replaced) {
+                        return CompletableFuture.completedFuture(refreshed);
+                    }
+                    log.debug("Token of user {} was replaced by another node", key.getUserId());
+                    return partnerTokenService.getAccessToken(resourceDetails, authentication)
+                        .thenApply(current -> current != null ? current : refreshed);
+                }));
+    }
+
+    private boolean isExpired(OAuth2AccessToken accessToken) {
+        return accessToken.getExpiration() != null && accessToken.getExpiration().getTime() <= clock.millis();
+    }
+
+    /**
+     * Set the maximum number of refreshes in progress for a batch request, 4 by default. It should be kept below the
+     * concurrent exchanges allowed with a partner, so that batches leave room for the other requests.
+     *
+     * @param batchRefreshConcurrency refreshes in progress for a batch request.
+     */
+    public void setBatchRefreshConcurrency(int batchRefreshConcurrency) {
+        this.batchRefreshConcurrency = batchRefreshConcurrency;
+    }
+
+    /**
+     * Coordinate the refreshes with the other nodes of the cluster through leases, so that a token is refreshed by a
+     * single node at a time.
+     *
+     * @param leaseDAO lease DAO.
+     * @param leaseWait how long a request waits for a token that another node is refreshing.
+     * @param leasePollInterval interval between the reads of a token that another node is refreshing.
+     * @param leasePollScheduler scheduler of the reads.
+     */
+    public void setRefreshLease(@NonNull DynamoDBLeaseDAO leaseDAO, @NonNull Duration leaseWait,
+                                @NonNull Duration leasePollInterval,
+                                @NonNull ScheduledExecutorService leasePollScheduler) {
+        this.leaseDAO = leaseDAO;
+        this.leaseWait = leaseWait;
+        this.leasePollInterval = leasePollInterval;
+        this.leasePollScheduler = leasePollScheduler;
+    }
+
+    @Value
+    private static class RefreshKey {
+        String partnerId;
+        String userId;
+
+        String toLeaseId() {
+            return "partner-token:" + partnerId + ":" + userId;
+        }
+    }
+
+    @Value
+    private static class ExpiringToken {
+        Authentication authentication;
+        OAuth2AccessToken accessToken;
+    }
+}
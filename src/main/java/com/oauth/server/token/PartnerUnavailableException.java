@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an exchange with a partner OAuth server is not attempted, because the circuit breaker of the partner is
+ * open or too many exchanges with the partner are in progress. The request should be retried later.
+ *
+ * @author Lucun Cai
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PartnerUnavailableException extends OAuth2Exception {
+
+    public PartnerUnavailableException(String msg) {
+        super(msg);
+    }
+
+    @Override
+    public String getOAuth2ErrorCode() {
+        return "temporarily_unavailable";
+    }
+
+    @Override
+    public int getHttpErrorCode() {
+        return HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.oauth.server.authentication.UserIDAuthenticationToken;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
+import com.oauth.server.dao.DynamoDBReciprocalExchangeDAO;
+import com.oauth.server.dto.OAuthReciprocalExchange;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.client.token.AccessTokenRequest;
+import org.springframework.security.oauth2.client.token.DefaultAccessTokenRequest;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+
+/**
+ * Durable queue of the reciprocal authorization codes to exchange with partners, so that the reciprocal
+ * authorization endpoint can answer as soon as the code is queued instead of waiting for the partner.
+ *
+ * <p>
+ * Codes are saved in the {@link OAuthReciprocalExchange} table and exchanged at once by this node when a worker is
+ * free, or otherwise by the next poll of any node. An exchange failing because of the partner is retried with an
+ * exponential backoff and jitter, up to the maximum attempts, after which it is moved to the dead-letter queue with its
+ * last error and without its code. Exchanges failing for another reason, such as an invalid code, are dead-lettered
+ * at once. An exchange interrupted by a node stopping is attempted again after the visibility timeout. An attempt
+ * still running when its visibility timeout lapses fails as a partner failure and is retried, and the token it may
+ * still obtain is not saved, so that a single attempt at a time owns the exchange.
+ * </p>
+ *
+ * <p>
+ * The depth of the queues, the time from a code being queued to its token being saved and the outcome of the attempts
+ * are published as the {@code oauth.reciprocal.exchange.*} meters. Counting the depth reads every exchange of the
+ * queues from the index, so it is refreshed by {@link #refreshDepth()} much less often than the queue is polled.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class ReciprocalExchangeQueue implements MeterBinder {
+
+    private final DynamoDBReciprocalExchangeDAO queueDAO;
+
+    private final DynamoDBPartnerDetailsAsyncDAO partnerDetailsService;
+
+    private final DynamoDBPartnerTokenAsyncDAO partnerTokenService;
+
+    private final AccessTokenProvider tokenProvider;
+
+    private final PartnerExchangeGuard exchangeGuard;
+
+    private final Executor partnerExchangeExecutor;
+
+    private final ScheduledExecutorService timeoutScheduler;
+
+    private final Semaphore workers;
+
+    private final int maxAttempts;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final Duration visibilityTimeout;
+
+    private final Duration retention;
+
+    private final Clock clock;
+
+    private final AtomicInteger pendingDepth = new AtomicInteger();
+
+    private final AtomicInteger deadLetterDepth = new AtomicInteger();
+
+    private volatile MeterRegistry registry = new SimpleMeterRegistry();
+
+    /**
+     * Constructor.
+     *
+     * @param queueDAO queue DAO.
+     * @param partnerDetailsService partner DAO.
+     * @param partnerTokenService partner token DAO.
+     * @param tokenProvider token provider exchanging the codes.
+     * @param exchangeGuard exchange guard of the partners.
+     * @param partnerExchangeExecutor executor of the exchanges.
+     * @param timeoutScheduler scheduler timing out the attempts at their visibility timeout.
+     * @param workers exchanges in progress on this node.
+     * @param maxAttempts attempts before an exchange is dead-lettered.
+     * @param initialBackoff delay before the first retry, doubled at each retry.
+     * @param maxBackoff maximum delay between retries.
+     * @param visibilityTimeout time after which an attempt that did not complete is made again.
+     * @param retention time the items are kept in the queue table, including dead-lettered ones.
+     */
+    public ReciprocalExchangeQueue(@NonNull DynamoDBReciprocalExchangeDAO queueDAO,
+                                   @NonNull DynamoDBPartnerDetailsAsyncDAO partnerDetailsService,
+                                   @NonNull DynamoDBPartnerTokenAsyncDAO partnerTokenService,
+                                   @NonNull AccessTokenProvider tokenProvider,
+                                   @NonNull PartnerExchangeGuard exchangeGuard,
+                                   @NonNull Executor partnerExchangeExecutor,
+                                   @NonNull ScheduledExecutorService timeoutScheduler,
+                                   int workers, int maxAttempts,
+                                   @NonNull Duration initialBackoff, @NonNull Duration maxBackoff,
+                                   @NonNull Duration visibilityTimeout, @NonNull Duration retention) {
+        this(queueDAO, partnerDetailsService, partnerTokenService, tokenProvider, exchangeGuard,
+            partnerExchangeExecutor, timeoutScheduler, workers, maxAttempts, initialBackoff, maxBackoff,
+            visibilityTimeout, retention, Clock.systemUTC());
+    }
+
+    public ReciprocalExchangeQueue(@NonNull DynamoDBReciprocalExchangeDAO queueDAO,
+                                   @NonNull DynamoDBPartnerDetailsAsyncDAO partnerDetailsService,
+                                   @NonNull DynamoDBPartnerTokenAsyncDAO partnerTokenService,
+                                   @NonNull AccessTokenProvider tokenProvider,
+                                   @NonNull PartnerExchangeGuard exchangeGuard,
+                                   @NonNull Executor partnerExchangeExecutor,
+                                   @NonNull ScheduledExecutorService timeoutScheduler,
+                                   int workers, int maxAttempts,
+                                   @NonNull Duration initialBackoff, @NonNull Duration maxBackoff,
+                                   @NonNull Duration visibilityTimeout, @NonNull Duration retention,
+                                   @NonNull Clock clock) {
+        this.queueDAO = queueDAO;
+        this.partnerDetailsService = partnerDetailsService;
+        this.partnerTokenService = partnerTokenService;
+        this.tokenProvider = tokenProvider;
+        this.exchangeGuard = exchangeGuard;
+        this.partnerExchangeExecutor = partnerExchangeExecutor;
+        this.timeoutScheduler = timeoutScheduler;
+        this.workers = new Semaphore(workers);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.visibilityTimeout = visibilityTimeout;
+        this.retention = retention;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a reciprocal authorization code to be exchanged with the partner for the user, and start the exchange if a
+     * worker is free.
+     *
+     * @param partnerId partner id.
+     * @param userName name of the user.
+     * @param authorizationCode authorization code.
+     * @return future completed once the code is queued, before it is exchanged.
+     */
+    public CompletableFuture<Void> enqueue(String partnerId, String userName, String authorizationCode) {
+        long now = clock.millis();
+        OAuthReciprocalExchange exchange = OAuthReciprocalExchange.builder()
+            .exchangeId(UUID.randomUUID().toString())
+            .queue(OAuthReciprocalExchange.PENDING)
+            .nextAttemptAt(now)
+            .partnerId(partnerId)
+            .userName(userName)
+            .authorizationCode(authorizationCode)
+            .attempts(0)
+            .enqueuedAt(now)
+            .expiration(TimeUnit.MILLISECONDS.toSeconds(now + retention.toMillis()))
+            .build();
+
+        return queueDAO.enqueue(exchange).thenRun(() -> {
+            if (workers.tryAcquire()) {
+                attempt(exchange).whenComplete((ignored, error) -> workers.release());
+            }
+        });
+    }
+
+    /**
+     * Attempt the pending exchanges due, as many as there are free workers.
+     */
+    public void poll() {
+        try {
+            int freeWorkers = workers.availablePermits();
+            if (freeWorkers == 0) {
+                return;
+            }
+            List<OAuthReciprocalExchange> due = queueDAO.findDue(clock.millis(), freeWorkers);
+            for (OAuthReciprocalExchange exchange : due) {
+                if (!workers.tryAcquire()) {
+                    return;
+                }
+                attempt(exchange).whenComplete((ignored, error) -> workers.release());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to poll the reciprocal exchange queue", e);
+        }
+    }
+
+    /**
+     * Count the exchanges of the pending and dead-letter queues.
+     */
+    public void refreshDepth() {
+        try {
+            pendingDepth.set(queueDAO.count(OAuthReciprocalExchange.PENDING));
+            deadLetterDepth.set(queueDAO.count(OAuthReciprocalExchange.DEAD_LETTER));
+        } catch (RuntimeException e) {
+            log.warn("Failed to count the reciprocal exchange queues", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("oauth.reciprocal.exchange.queue.depth", pendingDepth, AtomicInteger::get)
+            .description("Reciprocal authorization codes waiting to be exchanged")
+            .tag("queue", OAuthReciprocalExchange.PENDING)
+            .register(registry);
+        Gauge.builder("oauth.reciprocal.exchange.queue.depth", deadLetterDepth, AtomicInteger::get)
+            .description("Reciprocal authorization codes waiting to be exchanged")
+            .tag("queue", OAuthReciprocalExchange.DEAD_LETTER)
+            .register(registry);
+    }
+
+    /**
+     * Claim the exchange, exchange the code and complete, retry or dead-letter the exchange.
+     */
+    private CompletableFuture<Void> attempt(OAuthReciprocalExchange exchange) {
+        OAuthReciprocalExchange claimed = exchange.toBuilder()
+            .nextAttemptAt(clock.millis() + visibilityTimeout.toMillis())
+            .attempts(exchange.getAttempts() + 1)
+            .build();
+
+        CompletableFuture<Void> attempt;
+        try {
+            attempt = queueDAO.replace(claimed, exchange.getNextAttemptAt()).thenCompose(won -> {
+                if (!won) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return exchangeWithinVisibilityTimeout(claimed)
+                    .handle((ignored, error) -> error)
+                    .thenCompose(error -> error == null ? succeeded(claimed) : failed(claimed, unwrap(error)));
+            });
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        return attempt.whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.warn("Failed to attempt reciprocal exchange {}, it will be attempted again",
+                    exchange.getExchangeId(), error);
+            }
+        });
+    }
+
+    /**
+     * Exchange the code, failing with a {@link TimeoutException} if the exchange does not complete before the claim
+     * lapses and another attempt may claim the exchange.
+     */
+    private CompletableFuture<Void> exchangeWithinVisibilityTimeout(OAuthReciprocalExchange exchange) {
+        CompletableFuture<Void> attempt = new CompletableFuture<>();
+        Runnable expire = () -> attempt.completeExceptionally(new TimeoutException("Reciprocal exchange "
+            + exchange.getExchangeId() + " did not complete within the visibility timeout"));
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(expire,
+            Math.max(0, exchange.getNextAttemptAt() - clock.millis()), TimeUnit.MILLISECONDS);
+
+        exchange(exchange, attempt).whenComplete((ignored, error) -> {
+            timeout.cancel(false);
+            if (error != null) {
+                attempt.completeExceptionally(error);
+            } else {
+                attempt.complete(null);
+            }
+        });
+        return attempt;
+    }
+
+    private CompletableFuture<Void> exchange(OAuthReciprocalExchange exchange, CompletableFuture<Void> attempt) {
+        String partnerId = exchange.getPartnerId();
+
+        return partnerDetailsService.loadResourceDetailsByPartnerId(partnerId).thenCompose(resourceDetails -> {
+            if (resourceDetails == null) {
+                throw new NoSuchClientException("Invalid partner id: " + partnerId);
+            }
+
+            AccessTokenRequest accessTokenRequest = new DefaultAccessTokenRequest();
+            accessTokenRequest.setAuthorizationCode(exchange.getAuthorizationCode());
+
+            return exchangeGuard.execute(partnerId,
+                () -> tokenProvider.obtainAccessToken(resourceDetails, accessTokenRequest), partnerExchangeExecutor)
+                .thenCompose(accessToken -> {
+                    if (attempt.isDone()) {
+                        // Timed out, the exchange is retried and the next attempt saves its own token.
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return partnerTokenService.saveAccessToken(resourceDetails,
+                        new UserIDAuthenticationToken(exchange.getUserName()), accessToken);
+                });
+        });
+    }
+
+    private CompletableFuture<Void> succeeded(OAuthReciprocalExchange exchange) {
+        registry.counter("oauth.reciprocal.exchange.attempts", "outcome", "succeeded").increment();
+        Timer.builder("oauth.reciprocal.exchange.latency")
+            .description("Time from a reciprocal authorization code being received to its token being saved")
+            .register(registry)
+            .record(Math.max(0, clock.millis() - exchange.getEnqueuedAt()), TimeUnit.MILLISECONDS);
+
+        return queueDAO.delete(exchange, exchange.getNextAttemptAt()).thenAccept(deleted -> {
+            if (!deleted) {
+                registry.counter("oauth.reciprocal.exchange.delete.conflicts").increment();
+                log.warn("Reciprocal exchange {} with partner {} was changed by another attempt before its token was "
+                    + "saved, it was not removed", exchange.getExchangeId(), exchange.getPartnerId());
+            }
+        });
+    }
+
+    private CompletableFuture<Void> failed(OAuthReciprocalExchange exchange, Throwable error) {
+        boolean retryable = error instanceof PartnerUnavailableException || error instanceof RejectedExecutionException
+            || error instanceof TimeoutException || PartnerExchangeGuard.isPartnerFailure(error);
+
+        if (retryable && exchange.getAttempts() < maxAttempts) {
+            registry.counter("oauth.reciprocal.exchange.attempts", "outcome", "retried").increment();
+            log.info("Reciprocal exchange {} with partner {} failed, retrying", exchange.getExchangeId(),
+                exchange.getPartnerId(), error);
+
+            return queueDAO.replace(exchange.toBuilder()
+                .nextAttemptAt(clock.millis() + backoff(exchange.getAttempts()))
+                .lastError(String.valueOf(error))
+                .build(), exchange.getNextAttemptAt())
+                .thenApply(replaced -> null);
+        }
+
+        registry.counter("oauth.reciprocal.exchange.attempts", "outcome", "dead_lettered").increment();
+        log.warn("Reciprocal exchange {} with partner {} for user {} failed after {} attempts, dead-lettering it",
+            exchange.getExchangeId(), exchange.getPartnerId(), exchange.getUserName(), exchange.getAttempts(), error);
+
+        return queueDAO.replace(exchange.toBuilder()
+            .queue(OAuthReciprocalExchange.DEAD_LETTER)
+            .authorizationCode(null)
+            .lastError(String.valueOf(error))
+            .build(), exchange.getNextAttemptAt())
+            .thenApply(replaced -> null);
+    }
+
+    /**
+     * Exponential backoff with jitter: between half and all of the initial backoff doubled at each attempt.
+     */
+    private long backoff(int attempts) {
+        long backoff = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempts - 1, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
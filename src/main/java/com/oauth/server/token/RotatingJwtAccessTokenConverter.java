@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.util.Collections;
+import java.util.Map;
+import lombok.NonNull;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+/**
+ * A {@link JwtAccessTokenConverter} that signs access tokens with the active key of a {@link SigningKeyRing} and
+ * verifies them with the key named in the {@code kid} header.
+ *
+ * <p>
+ * Only the access token becomes self-contained. The refresh token keeps its opaque value, and is stored and validated
+ * through the token store as before.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class RotatingJwtAccessTokenConverter extends JwtAccessTokenConverter {
+
+    private static final String KEY_ID = "kid";
+
+    private final JsonParser jsonParser = JsonParserFactory.create();
+
+    private final SigningKeyRing signingKeyRing;
+
+    public RotatingJwtAccessTokenConverter(@NonNull SigningKeyRing signingKeyRing) {
+        this.signingKeyRing = signingKeyRing;
+    }
+
+    /**
+     * Whether the token value is a signed token rather than an opaque one.
+     *
+     * @param tokenValue token value.
+     * @return true if the value has the three parts of a signed JWT.
+     */
+    public static boolean isSigned(String tokenValue) {
+        return StringUtils.countMatches(tokenValue, '.') == 2;
+    }
+
+    @Override
+    public OAuth2AccessToken enhance(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+        DefaultOAuth2AccessToken withoutRefreshToken = new DefaultOAuth2AccessToken(accessToken);
+        withoutRefreshToken.setRefreshToken(null);
+
+        DefaultOAuth2AccessToken result = (DefaultOAuth2AccessToken) super.enhance(withoutRefreshToken, authentication);
+        result.setRefreshToken(accessToken.getRefreshToken());
+        return result;
+    }
+
+    @Override
+    protected String encode(OAuth2AccessToken accessToken, OAuth2Authentication authentication) {
+        String content;
+        try {
+            content = jsonParser.formatMap(getAccessTokenConverter().convertAccessToken(accessToken, authentication));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot convert access token to JSON", e);
+        }
+
+        SigningKeyRing.SigningKey signingKey = signingKeyRing.getActiveKey();
+        return JwtHelper.encode(content, signingKey.getSigner(),
+            Collections.singletonMap(KEY_ID, signingKey.getKeyId())).getEncoded();
+    }
+
+    /**
+     * Verify the signature of the token and read its claims. The expiry is not checked here.
+     *
+     * @param token signed token value.
+     * @return token claims.
+     * @throws InvalidTokenException if the token is malformed, or not signed by a known key.
+     */
+    @Override
+    public Map<String, Object> decode(String token) {
+        Jwt jwt;
+        try {
+            String keyId = JwtHelper.headers(token).get(KEY_ID);
+            SignatureVerifier verifier = signingKeyRing.getVerifier(keyId);
+            if (verifier == null) {
+                throw new InvalidTokenException("Unknown signing key: " + keyId);
+            }
+            jwt = JwtHelper.decodeAndVerify(token, verifier);
+        } catch (InvalidTokenException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Cannot verify access token", e);
+        }
+
+        Map<String, Object> claims;
+        try {
+            claims = jsonParser.parseMap(jwt.getClaims());
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Cannot convert access token to JSON", e);
+        }
+        if (claims.get(EXP) instanceof Integer) {
+            claims.put(EXP, ((Integer) claims.get(EXP)).longValue());
+        }
+        getJwtClaimsSetVerifier().verify(claims);
+        return claims;
+    }
+}
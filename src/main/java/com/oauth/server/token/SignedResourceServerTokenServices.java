@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+/**
+ * A {@link ResourceServerTokenServices} that validates self-contained access tokens locally.
+ *
+ * <p>
+ * A signed token is accepted if its signature verifies with a known key, it has not expired, it is not on the
+ * {@link AccessTokenRevocationList} and its client is still registered, as for opaque tokens. No token is read from
+ * the database, and the client lookup is served by the client details cache. Opaque tokens issued before signed
+ * tokens were enabled are still validated by the delegate until they expire.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@RequiredArgsConstructor
+public class SignedResourceServerTokenServices implements ResourceServerTokenServices {
+
+    private final RotatingJwtAccessTokenConverter accessTokenConverter;
+
+    private final AccessTokenRevocationList revocationList;
+
+    private final ResourceServerTokenServices opaqueTokenServices;
+
+    private final ClientDetailsService clientDetailsService;
+
+    /**
+     * Load the {@link OAuth2Authentication} for the access token value provided.
+     *
+     * @param accessTokenValue access token value.
+     * @return user authentication.
+     * @throws InvalidTokenException if the token is not signed by a known key, expired, revoked or issued to an
+     *     unknown client.
+     */
+    @Override
+    public OAuth2Authentication loadAuthentication(String accessTokenValue)
+        throws AuthenticationException, InvalidTokenException {
+        if (!RotatingJwtAccessTokenConverter.isSigned(accessTokenValue)) {
+            return opaqueTokenServices.loadAuthentication(accessTokenValue);
+        }
+
+        Map<String, Object> claims = accessTokenConverter.decode(accessTokenValue);
+
+        OAuth2AccessToken accessToken = accessTokenConverter.extractAccessToken(accessTokenValue, claims);
+        if (accessToken.isExpired()) {
+            throw new InvalidTokenException("Access token expired: " + accessTokenValue);
+        }
+
+        if (revocationList.isRevoked((String) claims.get(JwtAccessTokenConverter.TOKEN_ID))) {
+            throw new InvalidTokenException("Access token revoked: " + accessTokenValue);
+        }
+
+        OAuth2Authentication authentication = accessTokenConverter.extractAuthentication(claims);
+        String clientId = authentication.getOAuth2Request().getClientId();
+        try {
+            clientDetailsService.loadClientByClientId(clientId);
+        } catch (ClientRegistrationException e) {
+            throw new InvalidTokenException("Client not valid: " + clientId, e);
+        }
+        return authentication;
+    }
+
+    /**
+     * Read the {@link OAuth2AccessToken} for the access token value provided.
+     *
+     * @param accessToken access token value.
+     * @return access token or null if it cannot be verified.
+     */
+    @Override
+    public OAuth2AccessToken readAccessToken(String accessToken) {
+        if (!RotatingJwtAccessTokenConverter.isSigned(accessToken)) {
+            return opaqueTokenServices.readAccessToken(accessToken);
+        }
+
+        try {
+            return accessTokenConverter.extractAccessToken(accessToken, accessTokenConverter.decode(accessToken));
+        } catch (InvalidTokenException e) {
+            return null;
+        }
+    }
+}
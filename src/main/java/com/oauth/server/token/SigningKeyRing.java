@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+
+/**
+ * The HMAC keys used to sign and verify self-contained access tokens, identified by key id.
+ *
+ * <p>
+ * Keys can be configured as {@code <key id>:<secret>} entries. The first entry signs new tokens and the others are
+ * only used to verify tokens signed before a rotation. Every node sharing the same keys can verify tokens issued by
+ * any of them.
+ * </p>
+ *
+ * <p>
+ * Without configured keys, a random key is generated locally and can be replaced with {@link #rotate()}. A rotated key
+ * still verifies tokens for the retention period, which should not be shorter than the access token validity. Tokens
+ * signed with generated keys can only be verified by the node that issued them, and not after a restart.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+@Log4j2
+public class SigningKeyRing {
+
+    private static final int MINIMUM_SECRET_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, SigningKey> keys = new ConcurrentHashMap<>();
+
+    private final Duration retention;
+
+    private final Clock clock;
+
+    /**
+     * Whether the keys are generated locally rather than configured.
+     */
+    @Getter
+    private final boolean generated;
+
+    private volatile SigningKey activeKey;
+
+    public SigningKeyRing(@NonNull List<String> configuredKeys, @NonNull Duration retention) {
+        this(configuredKeys, retention, Clock.systemUTC());
+    }
+
+    public SigningKeyRing(@NonNull List<String> configuredKeys, @NonNull Duration retention, @NonNull Clock clock) {
+        this.retention = retention;
+        this.clock = clock;
+
+        List<SigningKey> signingKeys = configuredKeys.stream()
+            .filter(StringUtils::isNotBlank)
+            .map(SigningKeyRing::parse)
+            .collect(Collectors.toList());
+
+        this.generated = signingKeys.isEmpty();
+        if (generated) {
+            log.warn("No access token signing keys configured, generating a local key.");
+            signingKeys.add(generate());
+        }
+
+        signingKeys.forEach(key -> keys.put(key.getKeyId(), key));
+        this.activeKey = signingKeys.get(0);
+    }
+
+    /**
+     * Get the key that signs new access tokens.
+     *
+     * @return active signing key.
+     */
+    public SigningKey getActiveKey() {
+        return activeKey;
+    }
+
+    /**
+     * Get the verifier for tokens signed with the key id provided.
+     *
+     * @param keyId key id from the token header.
+     * @return signature verifier, or null if the key is unknown or no longer retained.
+     */
+    public SignatureVerifier getVerifier(String keyId) {
+        SigningKey key = keyId == null ? null : keys.get(keyId);
+        if (key == null || key.isRetired(clock.instant())) {
+            return null;
+        }
+        return key.getSigner();
+    }
+
+    /**
+     * Replace the active key with a newly generated one. The previous key keeps verifying tokens for the retention
+     * period, and keys past their retention are dropped.
+     */
+    public void rotate() {
+        Instant now = clock.instant();
+        SigningKey previousKey = activeKey;
+        SigningKey newKey = generate();
+
+        keys.put(newKey.getKeyId(), newKey);
+        activeKey = newKey;
+        keys.put(previousKey.getKeyId(), previousKey.retireAt(now.plus(retention)));
+        keys.values().removeIf(key -> key.isRetired(now));
+
+        log.info("Rotated access token signing key {} to {}.", previousKey.getKeyId(), newKey.getKeyId());
+    }
+
+    private static SigningKey parse(String configuredKey) {
+        String[] parts = configuredKey.trim().split(":", 2);
+
+        if (parts.length != 2 || StringUtils.isBlank(parts[0])) {
+            throw new IllegalArgumentException("Signing keys must be configured as <key id>:<secret>.");
+        }
+        if (parts[1].length() < MINIMUM_SECRET_LENGTH) {
+            throw new IllegalArgumentException("Signing key " + parts[0] + " must be at least "
+                + MINIMUM_SECRET_LENGTH + " characters long.");
+        }
+        return new SigningKey(parts[0], new MacSigner(parts[1].getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    private static SigningKey generate() {
+        byte[] secret = new byte[MINIMUM_SECRET_LENGTH];
+        RANDOM.nextBytes(secret);
+        try {
+            return new SigningKey(UUID.randomUUID().toString(), new MacSigner(secret), null);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * A signing key and the time after which it no longer verifies tokens, if any.
+     */
+    @Value
+    public static class SigningKey {
+        String keyId;
+        MacSigner signer;
+        Instant retiredAt;
+
+        SigningKey retireAt(Instant instant) {
+            return new SigningKey(keyId, signer, instant);
+        }
+
+        boolean isRetired(Instant now) {
+            return retiredAt != null && !now.isBefore(retiredAt);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Hashes token values and authentication keys into the lower-case hex keys stored in DynamoDB.
+ *
+ * <p>
+ * Each thread reuses its own {@link MessageDigest}, input and output buffers, so hashing a value only allocates the
+ * resulting String. The hex output is identical to {@code String.format("%032x", new BigInteger(1, digest))} for MD5.
+ * </p>
+ *
+ * <p>
+ * An optional legacy algorithm supports migrating keys from one algorithm to another: values are always written with
+ * {@link #hash(String)}, and readers fall back to {@link #legacyHash(String)} for items written before the switch.
+ * </p>
+ *
+ * @author Lucun Cai
+ */
+public class TokenKeyHasher {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The supported digest algorithms.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public enum Algorithm {
+        MD5("MD5"),
+        SHA_256("SHA-256");
+
+        private final String digestName;
+    }
+
+    @Getter
+    private final Algorithm algorithm;
+
+    @Getter
+    private final Algorithm legacyAlgorithm;
+
+    private final ThreadLocal<State> states;
+
+    private final ThreadLocal<State> legacyStates;
+
+    public TokenKeyHasher(@NonNull Algorithm algorithm) {
+        this(algorithm, null);
+    }
+
+    public TokenKeyHasher(@NonNull Algorithm algorithm, Algorithm legacyAlgorithm) {
+        this.algorithm = algorithm;
+        this.legacyAlgorithm = legacyAlgorithm == algorithm ? null : legacyAlgorithm;
+        this.states = ThreadLocal.withInitial(() -> new State(algorithm));
+        this.legacyStates = this.legacyAlgorithm == null
+            ? null
+            : ThreadLocal.withInitial(() -> new State(legacyAlgorithm));
+    }
+
+    /**
+     * Hash the value with the current algorithm.
+     *
+     * @param value value to hash.
+     * @return lower-case hex digest, or null if the value is null.
+     */
+    public String hash(String value) {
+        return value == null ? null : states.get().hash(value);
+    }
+
+    /**
+     * Hash the value with the legacy algorithm.
+     *
+     * @param value value to hash.
+     * @return lower-case hex digest, or null if the value is null or no legacy algorithm is configured.
+     */
+    public String legacyHash(String value) {
+        return value == null || legacyStates == null ? null : legacyStates.get().hash(value);
+    }
+
+    /**
+     * Whether keys written with a legacy algorithm should still be read.
+     *
+     * @return true if a legacy algorithm is configured.
+     */
+    public boolean hasLegacyAlgorithm() {
+        return legacyStates != null;
+    }
+
+    /**
+     * Per-thread hashing state, reused across calls.
+     */
+    private static final class State {
+        private final MessageDigest digest;
+        private final byte[] digestBytes;
+        private final char[] hexChars;
+        private byte[] input = new byte[256];
+
+        State(Algorithm algorithm) {
+            try {
+                this.digest = MessageDigest.getInstance(algorithm.getDigestName());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(algorithm.getDigestName()
+                    + " algorithm not available.  Fatal (should be in the JDK).");
+            }
+            this.digestBytes = new byte[digest.getDigestLength()];
+            this.hexChars = new char[digestBytes.length * 2];
+        }
+
+        String hash(String value) {
+            int length = encodeUtf8(value);
+            digest.update(input, 0, length);
+            try {
+                digest.digest(digestBytes, 0, digestBytes.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException("Failed to compute " + digest.getAlgorithm() + " digest.", e);
+            }
+
+            for (int i = 0; i < digestBytes.length; i++) {
+                hexChars[i * 2] = HEX_DIGITS[(digestBytes[i] >> 4) & 0x0f];
+                hexChars[i * 2 + 1] = HEX_DIGITS[digestBytes[i] & 0x0f];
+            }
+            return new String(hexChars);
+        }
+
+        /**
+         * Encode the value as UTF-8 into the input buffer, the same way {@code String.getBytes("UTF-8")} does.
+         */
+        private int encodeUtf8(String value) {
+            int length = value.length();
+            if (input.length < length * 3) {
+                input = new byte[length * 3];
+            }
+
+            int position = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    input[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    input[position++] = (byte) (0xc0 | (c >> 6));
+                    input[position++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    input[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    input[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    input[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    input[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    input[position++] = (byte) '?';
+                } else {
+                    input[position++] = (byte) (0xe0 | (c >> 12));
+                    input[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    input[position++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return position;
+        }
+    }
+}
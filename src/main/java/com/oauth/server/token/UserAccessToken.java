@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import java.util.concurrent.CompletionException;
+import lombok.Value;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+
+/**
+ * The partner access token of a user, or the error getting it, as provided by the batch requests of the
+ * {@link PartnerTokenService}.
+ *
+ * @author Lucun Cai
+ */
+@Value
+public class UserAccessToken {
+
+    private final String userId;
+
+    /**
+     * The access token, null if it could not be provided.
+     */
+    private final OAuth2AccessToken accessToken;
+
+    /**
+     * The error, null if the access token was provided. An {@link OAuth2Exception} unless the error was unexpected.
+     */
+    private final Throwable error;
+
+    static UserAccessToken of(String userId, OAuth2AccessToken accessToken) {
+        return new UserAccessToken(userId, accessToken, null);
+    }
+
+    static UserAccessToken failed(String userId, Throwable error) {
+        return new UserAccessToken(userId, null,
+            error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+    }
+}
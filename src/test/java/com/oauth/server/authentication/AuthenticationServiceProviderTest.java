@@ -0,0 +1,65 @@
+package com.oauth.server.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+public class AuthenticationServiceProviderTest {
+
+    private InMemoryUserDirectory userDirectory;
+
+    private ProviderManager authenticationManager;
+
+    private String outdatedHash;
+
+    @Before
+    public void setUp() {
+        outdatedHash = new BCryptPasswordEncoder(4).encode("password");
+        userDirectory = new InMemoryUserDirectory(ImmutableList.of(
+            new DirectoryUser("user", outdatedHash, Collections.emptyList())));
+        authenticationManager = new ProviderManager(Collections.singletonList(
+            new AuthenticationServiceProvider(userDirectory, new UpgradingBCryptPasswordEncoder(5))));
+    }
+
+    @Test
+    public void passwordHashedAtOutdatedCostIsHashedAgain() {
+        authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "password"));
+
+        String upgradedHash = userDirectory.findUser("user").getPassword();
+        assertNotEquals(outdatedHash, upgradedHash);
+        assertTrue(upgradedHash.startsWith("$2a$05$"));
+
+        authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "password"));
+        assertEquals(upgradedHash, userDirectory.findUser("user").getPassword());
+    }
+
+    @Test
+    public void directoryUserIsNotErasedByAuthentication() {
+        Authentication authentication =
+            authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "password"));
+
+        assertEquals("user", authentication.getName());
+        authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "password"));
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void wrongPasswordIsRejected() {
+        authenticationManager.authenticate(new UsernamePasswordAuthenticationToken("user", "wrong"));
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void unknownUserIsRejected() {
+        new AuthenticationServiceProvider(userDirectory, new BCryptPasswordEncoder(4)).loadUserByUsername("other");
+    }
+}
@@ -0,0 +1,95 @@
+package com.oauth.server.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+public class BoundedPasswordEncoderTest {
+
+    private final CountDownLatch verificationStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseVerification = new CountDownLatch(1);
+
+    private ThreadPoolExecutor executor;
+
+    private BoundedPasswordEncoder passwordEncoder;
+
+    @Before
+    public void setUp() {
+        PasswordEncoder blockingEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                verificationStarted.countDown();
+                try {
+                    releaseVerification.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        };
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        passwordEncoder = new BoundedPasswordEncoder(blockingEncoder, executor, Duration.ofMillis(100));
+    }
+
+    @After
+    public void tearDown() {
+        releaseVerification.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void verificationRunsOnExecutor() {
+        releaseVerification.countDown();
+
+        assertTrue(passwordEncoder.matches("secret", "secret"));
+    }
+
+    @Test
+    public void verificationWaitingLongerThanBudgetIsRejected() throws Exception {
+        CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(
+            () -> passwordEncoder.matches("secret", "secret"));
+        verificationStarted.await();
+
+        assertRejected(HttpStatus.SERVICE_UNAVAILABLE);
+        assertEquals(0, executor.getQueue().size());
+
+        releaseVerification.countDown();
+        assertTrue(running.get());
+    }
+
+    @Test
+    public void verificationIsRejectedWhenQueueIsFull() throws Exception {
+        CompletableFuture.runAsync(() -> passwordEncoder.matches("secret", "secret"));
+        verificationStarted.await();
+        executor.execute(() -> { });
+
+        assertRejected(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    private void assertRejected(HttpStatus status) {
+        try {
+            passwordEncoder.matches("secret", "secret");
+            fail("Verification should have been rejected.");
+        } catch (PasswordVerificationRejectedException e) {
+            assertEquals(status, e.getStatus());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.oauth.server.authentication;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+public class CachingPasswordEncoderTest {
+
+    private PasswordEncoder bcrypt;
+
+    private CachingPasswordEncoder passwordEncoder;
+
+    private String encodedSecret;
+
+    @Before
+    public void setUp() {
+        bcrypt = spy(new BCryptPasswordEncoder(4));
+        passwordEncoder = new CachingPasswordEncoder(bcrypt, 100, Duration.ofMinutes(5));
+        encodedSecret = passwordEncoder.encode("secret");
+    }
+
+    @Test
+    public void verifiedSecretIsNotVerifiedAgain() {
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+
+        verify(bcrypt, times(1)).matches("secret", encodedSecret);
+    }
+
+    @Test
+    public void wrongSecretIsVerifiedEveryTime() {
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+        assertFalse(passwordEncoder.matches("wrong", encodedSecret));
+        assertFalse(passwordEncoder.matches("wrong", encodedSecret));
+
+        verify(bcrypt, times(2)).matches("wrong", encodedSecret);
+    }
+
+    @Test
+    public void invalidatedSecretIsVerifiedAgain() {
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+        passwordEncoder.invalidate(encodedSecret);
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+
+        verify(bcrypt, times(2)).matches("secret", encodedSecret);
+    }
+
+    @Test
+    public void verificationDoesNotApplyToAnotherHash() {
+        assertTrue(passwordEncoder.matches("secret", encodedSecret));
+
+        String replacedSecret = passwordEncoder.encode("other");
+        assertFalse(passwordEncoder.matches("secret", replacedSecret));
+    }
+}
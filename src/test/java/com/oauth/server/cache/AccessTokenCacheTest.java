@@ -0,0 +1,51 @@
+package com.oauth.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.oauth.server.dto.OAuthAccessToken;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class AccessTokenCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final AccessTokenCache accessTokenCache = new AccessTokenCache(100, Duration.ofMinutes(1));
+
+    @Test
+    public void callersGetTheirOwnAuthentication() {
+        OAuthAccessToken first = accessTokenCache.get("id", this::load);
+        OAuthAccessToken second = accessTokenCache.get("id", this::load);
+
+        assertEquals(1, loads.get());
+        assertNotSame(first.getAuthentication(), second.getAuthentication());
+        assertNotSame(first.getToken(), second.getToken());
+
+        first.getAuthentication().setDetails("first request");
+        assertNull(second.getAuthentication().getDetails());
+        assertEquals("user", second.getAuthentication().getName());
+        assertEquals("token", second.getToken().getValue());
+    }
+
+    private OAuthAccessToken load(String tokenId) {
+        loads.incrementAndGet();
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of(), "client", ImmutableList.of(), true,
+            ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null);
+        return OAuthAccessToken.builder()
+            .tokenId(tokenId)
+            .token(new DefaultOAuth2AccessToken("token"))
+            .authentication(new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of())))
+            .build();
+    }
+}
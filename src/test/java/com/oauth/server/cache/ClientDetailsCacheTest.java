@@ -0,0 +1,90 @@
+package com.oauth.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+public class ClientDetailsCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    private Clock clock;
+
+    private ClientDetailsCache clientDetailsCache;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        clientDetailsCache = new ClientDetailsCache(100, Duration.ofMinutes(1), Duration.ofHours(1), clock);
+    }
+
+    @Test
+    public void staleClientDetailsAreServedWhileRefreshed() {
+        CompletableFuture<ClientDetails> refresh = new CompletableFuture<>();
+        assertEquals("profile", scopeOf(get("client", "profile", refresh)));
+
+        when(clock.millis()).thenReturn(Duration.ofMinutes(2).toMillis());
+        assertEquals("profile", scopeOf(get("client", "profile", refresh)));
+        assertEquals("profile", scopeOf(get("client", "profile", refresh)));
+        assertEquals(1, refreshes.get());
+
+        refresh.complete(new BaseClientDetails("client", null, "profile,email", null, null));
+        assertEquals("profile,email", scopeOf(get("client", "profile", refresh)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void unknownClientIsCached() {
+        assertNull(clientDetailsCache.get("unknown", load(null), refresh(null)));
+        assertNull(clientDetailsCache.get("unknown", load(null), refresh(null)));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidatedClientDetailsAreLoadedAgain() {
+        get("client", "profile", null);
+        clientDetailsCache.invalidate("client");
+
+        assertEquals("email", scopeOf(get("client", "email", null)));
+        assertEquals(2, loads.get());
+    }
+
+    private ClientDetails get(String clientId, String scope, CompletableFuture<ClientDetails> refresh) {
+        return clientDetailsCache.get(clientId, load(new BaseClientDetails(clientId, null, scope, null, null)),
+            refresh(refresh));
+    }
+
+    private Function<String, ClientDetails> load(ClientDetails clientDetails) {
+        return clientId -> {
+            loads.incrementAndGet();
+            return clientDetails;
+        };
+    }
+
+    private Function<String, CompletableFuture<ClientDetails>> refresh(CompletableFuture<ClientDetails> refresh) {
+        return clientId -> {
+            refreshes.incrementAndGet();
+            return refresh;
+        };
+    }
+
+    private static String scopeOf(ClientDetails clientDetails) {
+        return String.join(",", clientDetails.getScope());
+    }
+}
@@ -0,0 +1,114 @@
+package com.oauth.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.oauth.server.dto.ImmutablePartnerResourceDetails;
+import com.oauth.server.dto.OAuthPartner;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartnerDetailsCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Clock clock;
+
+    private PartnerDetailsCache partnerDetailsCache;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        partnerDetailsCache = new PartnerDetailsCache(100, Duration.ofMinutes(1), Duration.ofHours(1), clock);
+    }
+
+    @Test
+    public void resourceDetailsAreBuiltOnce() {
+        ImmutablePartnerResourceDetails resourceDetails = get("alexa", "profile,email", null);
+
+        assertSame(resourceDetails, get("alexa", "profile", null));
+        assertEquals(Arrays.asList("profile", "email"), resourceDetails.getScope());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void staleResourceDetailsAreServedWhileRefreshed() {
+        CompletableFuture<OAuthPartner> refresh = new CompletableFuture<>();
+        get("alexa", "profile", refresh);
+
+        when(clock.millis()).thenReturn(Duration.ofMinutes(2).toMillis());
+        assertEquals("profile", scopeOf(get("alexa", "profile", refresh)));
+        assertEquals("profile", scopeOf(get("alexa", "profile", refresh)));
+        assertEquals(2, loads.get());
+
+        refresh.complete(partner("alexa", "email"));
+        assertEquals("email", scopeOf(get("alexa", "profile", refresh)));
+    }
+
+    @Test
+    public void unknownPartnerIsCached() {
+        assertNull(partnerDetailsCache.getAsync("unknown", load(null, null)).join());
+        assertNull(partnerDetailsCache.getAsync("unknown", load(null, null)).join());
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidatedResourceDetailsAreLoadedAgain() {
+        get("alexa", "profile", null);
+        partnerDetailsCache.invalidate("alexa");
+
+        assertEquals("email", scopeOf(get("alexa", "email", null)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void loadStartedBeforeInvalidationIsNotCached() {
+        CompletableFuture<OAuthPartner> staleLoad = new CompletableFuture<>();
+        CompletableFuture<ImmutablePartnerResourceDetails> lookup =
+            partnerDetailsCache.getAsync("alexa", partnerId -> staleLoad);
+        partnerDetailsCache.invalidate("alexa");
+        staleLoad.complete(partner("alexa", "profile"));
+
+        assertEquals("profile", scopeOf(lookup.join()));
+        assertEquals("email", scopeOf(get("alexa", "email", null)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void resourceDetailsAreImmutable() {
+        get("alexa", "profile", null).setClientSecret("secret");
+    }
+
+    private ImmutablePartnerResourceDetails get(String partnerId, String scopes,
+                                                CompletableFuture<OAuthPartner> refresh) {
+        return partnerDetailsCache.getAsync(partnerId, load(partner(partnerId, scopes), refresh)).join();
+    }
+
+    /**
+     * Loader completing with the partner provided on the first load, and with the refresh future on the next.
+     */
+    private Function<String, CompletableFuture<OAuthPartner>> load(OAuthPartner partner,
+                                                                   CompletableFuture<OAuthPartner> refresh) {
+        return partnerId -> loads.getAndIncrement() == 0 || refresh == null
+            ? CompletableFuture.completedFuture(partner)
+            : refresh;
+    }
+
+    private static OAuthPartner partner(String partnerId, String scopes) {
+        return OAuthPartner.builder().partnerId(partnerId).clientId("client").scopes(scopes).build();
+    }
+
+    private static String scopeOf(ImmutablePartnerResourceDetails resourceDetails) {
+        return String.join(",", resourceDetails.getScope());
+    }
+}
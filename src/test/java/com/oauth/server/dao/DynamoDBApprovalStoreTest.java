@@ -0,0 +1,107 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBDeleteExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthApproval;
+import com.oauth.server.dto.OAuthApproval.ScopeApproval;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.oauth2.provider.approval.Approval;
+import org.springframework.security.oauth2.provider.approval.Approval.ApprovalStatus;
+
+public class DynamoDBApprovalStoreTest {
+
+    private static final long EXPIRES_AT = 1_600_000_000_000L;
+
+    private DynamoDBMapper dynamoDBMapper;
+
+    private DynamoDBApprovalStore approvalStore;
+
+    @Before
+    public void setUp() {
+        dynamoDBMapper = mock(DynamoDBMapper.class);
+        approvalStore = new DynamoDBApprovalStore(dynamoDBMapper);
+    }
+
+    @Test
+    public void approvalsAreAddedToTheItemOfTheClient() {
+        stubItem(OAuthApproval.builder()
+            .userId("user")
+            .clientId("client")
+            .scopes(new HashMap<>(ImmutableMap.of("profile",
+                new ScopeApproval(ApprovalStatus.APPROVED.name(), EXPIRES_AT, 0L))))
+            .version(3L)
+            .build());
+
+        approvalStore.addApprovals(ImmutableList.of(approval("email", EXPIRES_AT + 1000)));
+
+        ArgumentCaptor<OAuthApproval> saved = ArgumentCaptor.forClass(OAuthApproval.class);
+        ArgumentCaptor<DynamoDBSaveExpression> expression = ArgumentCaptor.forClass(DynamoDBSaveExpression.class);
+        verify(dynamoDBMapper).save(saved.capture(), expression.capture());
+        assertEquals(ImmutableList.of("email", "profile"), saved.getValue().getScopes().keySet().stream()
+            .sorted()
+            .collect(Collectors.toList()));
+        assertEquals(Long.valueOf(4), saved.getValue().getVersion());
+        assertEquals(Long.valueOf((EXPIRES_AT + 1000) / 1000), saved.getValue().getExpiration());
+        assertEquals("3", expression.getValue().getExpected().get("version").getValue().getN());
+    }
+
+    @Test
+    public void itemIsDeletedOnceAllApprovalsAreRevoked() {
+        OAuthApproval item = OAuthApproval.builder()
+            .userId("user")
+            .clientId("client")
+            .scopes(new HashMap<>(ImmutableMap.of("profile",
+                new ScopeApproval(ApprovalStatus.APPROVED.name(), EXPIRES_AT, 0L))))
+            .version(1L)
+            .build();
+        stubItem(item);
+
+        approvalStore.revokeApprovals(ImmutableList.of(approval("profile", EXPIRES_AT)));
+
+        verify(dynamoDBMapper).delete(eq(item), any(DynamoDBDeleteExpression.class));
+        verify(dynamoDBMapper, never()).save(any(OAuthApproval.class), any(DynamoDBSaveExpression.class));
+    }
+
+    @Test
+    public void concurrentChangeIsAppliedAgain() {
+        stubItem(null);
+        doThrow(new ConditionalCheckFailedException("changed"))
+            .doNothing()
+            .when(dynamoDBMapper).save(any(OAuthApproval.class), any(DynamoDBSaveExpression.class));
+
+        approvalStore.addApprovals(ImmutableList.of(approval("profile", EXPIRES_AT)));
+
+        verify(dynamoDBMapper, times(2)).load(eq(OAuthApproval.class), eq("user"), eq("client"),
+            any(DynamoDBMapperConfig.class));
+        verify(dynamoDBMapper, times(2)).save(any(OAuthApproval.class), any(DynamoDBSaveExpression.class));
+    }
+
+    private void stubItem(OAuthApproval item) {
+        when(dynamoDBMapper.load(eq(OAuthApproval.class), eq("user"), eq("client"), any(DynamoDBMapperConfig.class)))
+            .thenReturn(item);
+    }
+
+    private static Approval approval(String scope, long expiresAt) {
+        return new Approval("user", "client", scope, new Date(expiresAt), ApprovalStatus.APPROVED, new Date());
+    }
+}
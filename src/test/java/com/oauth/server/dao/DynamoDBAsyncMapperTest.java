@@ -0,0 +1,171 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthLegacyPartnerToken;
+import com.oauth.server.dto.OAuthPartner;
+import com.oauth.server.dto.OAuthPartnerToken;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class DynamoDBAsyncMapperTest {
+
+    private AmazonDynamoDBAsync amazonDynamoDBAsync;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private DynamoDBAsyncMapper dynamoDBAsyncMapper;
+
+    @Before
+    public void setUp() {
+        amazonDynamoDBAsync = mock(AmazonDynamoDBAsync.class);
+        retryScheduler = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(retryScheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        dynamoDBAsyncMapper = new DynamoDBAsyncMapper(amazonDynamoDBAsync, retryScheduler);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void loadUnconvertsItem() throws Exception {
+        doAnswer(invocation -> {
+            GetItemRequest request = invocation.getArgument(0);
+            assertEquals("OAuthPartner", request.getTableName());
+            assertEquals(ImmutableMap.of("partnerId", new AttributeValue("partner")), request.getKey());
+
+            ((AsyncHandler<GetItemRequest, GetItemResult>) invocation.getArgument(1)).onSuccess(request,
+                new GetItemResult().withItem(ImmutableMap.of(
+                    "partnerId", new AttributeValue("partner"),
+                    "clientId", new AttributeValue("client"))));
+            return null;
+        }).when(amazonDynamoDBAsync).getItemAsync(any(GetItemRequest.class), any(AsyncHandler.class));
+
+        OAuthPartner partner = dynamoDBAsyncMapper.load(OAuthPartner.class, "partner").get();
+
+        assertEquals("partner", partner.getPartnerId());
+        assertEquals("client", partner.getClientId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void loadCompletesWithNullIfNotFound() throws Exception {
+        doAnswer(invocation -> {
+            ((AsyncHandler<GetItemRequest, GetItemResult>) invocation.getArgument(1))
+                .onSuccess(invocation.getArgument(0), new GetItemResult());
+            return null;
+        }).when(amazonDynamoDBAsync).getItemAsync(any(GetItemRequest.class), any(AsyncHandler.class));
+
+        assertNull(dynamoDBAsyncMapper.load(OAuthPartner.class, "partner").get());
+    }
+
+    @Test(expected = ExecutionException.class)
+    @SuppressWarnings("unchecked")
+    public void loadCompletesExceptionallyOnError() throws Exception {
+        doAnswer(invocation -> {
+            ((AsyncHandler<GetItemRequest, GetItemResult>) invocation.getArgument(1))
+                .onError(new IllegalStateException("throttled"));
+            return null;
+        }).when(amazonDynamoDBAsync).getItemAsync(any(GetItemRequest.class), any(AsyncHandler.class));
+
+        dynamoDBAsyncMapper.load(OAuthPartner.class, "partner").get();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryReadsAllPages() throws Exception {
+        doAnswer(invocation -> {
+            QueryRequest request = invocation.getArgument(0);
+            QueryResult result = new QueryResult();
+            if (request.getExclusiveStartKey() == null) {
+                result.withItems(Collections.singletonList(ImmutableMap.of("tokenId", new AttributeValue("first"))))
+                    .withLastEvaluatedKey(ImmutableMap.of("tokenId", new AttributeValue("first")));
+            } else {
+                result.withItems(Collections.singletonList(ImmutableMap.of("tokenId", new AttributeValue("second"))));
+            }
+            ((AsyncHandler<QueryRequest, QueryResult>) invocation.getArgument(1)).onSuccess(request, result);
+            return null;
+        }).when(amazonDynamoDBAsync).queryAsync(any(QueryRequest.class), any(AsyncHandler.class));
+
+        List<OAuthLegacyPartnerToken> tokens = dynamoDBAsyncMapper.query(OAuthLegacyPartnerToken.class,
+            "authenticationId-index", "authenticationId", "key").get();
+
+        assertEquals(2, tokens.size());
+        assertEquals("first", tokens.get(0).getTokenId());
+        assertEquals("second", tokens.get(1).getTokenId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void batchLoadRequestsUnprocessedKeysAgainWithBackoff() throws Exception {
+        doAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            KeysAndAttributes keys = request.getRequestItems().get("OAuthPartnerTokenV2");
+            assertTrue(keys.getConsistentRead());
+
+            BatchGetItemResult result = new BatchGetItemResult().withResponses(ImmutableMap.of("OAuthPartnerTokenV2",
+                Collections.singletonList(keys.getKeys().get(0))));
+            if (keys.getKeys().size() > 1) {
+                result.withUnprocessedKeys(ImmutableMap.of("OAuthPartnerTokenV2",
+                    new KeysAndAttributes().withKeys(keys.getKeys().subList(1, keys.getKeys().size()))));
+            }
+            ((AsyncHandler<BatchGetItemRequest, BatchGetItemResult>) invocation.getArgument(1))
+                .onSuccess(request, result);
+            return null;
+        }).when(amazonDynamoDBAsync).batchGetItemAsync(any(BatchGetItemRequest.class), any(AsyncHandler.class));
+
+        List<OAuthPartnerToken> tokens = dynamoDBAsyncMapper.batchLoad(OAuthPartnerToken.class,
+            Arrays.asList("first", "second", "third")).get();
+
+        assertEquals(Arrays.asList("first", "second", "third"), tokens.stream()
+            .map(OAuthPartnerToken::getAuthenticationId)
+            .collect(Collectors.toList()));
+        verify(amazonDynamoDBAsync, times(3)).batchGetItemAsync(any(BatchGetItemRequest.class),
+            any(AsyncHandler.class));
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+        verify(retryScheduler, times(2)).schedule(any(Runnable.class), delays.capture(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(delays.getAllValues().get(0) >= 25 && delays.getAllValues().get(0) <= 50);
+        assertTrue(delays.getAllValues().get(1) >= 50 && delays.getAllValues().get(1) <= 100);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void saveConvertsItem() {
+        dynamoDBAsyncMapper.save(OAuthPartner.builder().partnerId("partner").clientId("client").build());
+
+        ArgumentCaptor<PutItemRequest> request = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(amazonDynamoDBAsync).putItemAsync(request.capture(), any(AsyncHandler.class));
+        assertEquals("OAuthPartner", request.getValue().getTableName());
+        assertEquals(new AttributeValue("client"), request.getValue().getItem().get("clientId"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.oauth.server.dto.OAuthCode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class DynamoDBAuthorizationCodeDAOTest {
+
+    private final OAuth2Authentication authentication = new OAuth2Authentication(
+        new OAuth2Request(ImmutableMap.of(), "test_alexa_client", ImmutableList.of(), true,
+            ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null),
+        new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of()));
+
+    private AmazonDynamoDB amazonDynamoDB;
+
+    private DynamoDBMapperTableModel<OAuthCode> model;
+
+    private DynamoDBAuthorizationCodeDAO authorizationCodeDAO;
+
+    @Before
+    public void setUp() {
+        amazonDynamoDB = mock(AmazonDynamoDB.class);
+        DynamoDBMapper dynamoDBMapper = new DynamoDBMapper(amazonDynamoDB);
+        model = dynamoDBMapper.getTableModel(OAuthCode.class);
+        authorizationCodeDAO = new DynamoDBAuthorizationCodeDAO(amazonDynamoDB, dynamoDBMapper,
+            Duration.ofMinutes(10));
+    }
+
+    @Test
+    public void codeIsRedeemedWithConditionalDelete() {
+        when(amazonDynamoDB.deleteItem(any(DeleteItemRequest.class)))
+            .thenReturn(new DeleteItemResult().withAttributes(item("code", Instant.now().plusSeconds(600))));
+
+        OAuth2Authentication redeemed = authorizationCodeDAO.remove("code");
+
+        ArgumentCaptor<DeleteItemRequest> request = ArgumentCaptor.forClass(DeleteItemRequest.class);
+        verify(amazonDynamoDB).deleteItem(request.capture());
+        assertEquals(new DeleteItemRequest()
+            .withTableName("OAuthCode")
+            .withKey(ImmutableMap.of("code", new AttributeValue("code")))
+            .withConditionExpression("attribute_exists(#code)")
+            .withExpressionAttributeNames(ImmutableMap.of("#code", "code"))
+            .withReturnValues(ReturnValue.ALL_OLD), request.getValue());
+        assertEquals("user", redeemed.getName());
+    }
+
+    @Test
+    public void redeemedCodeIsNotRedeemedAgain() {
+        when(amazonDynamoDB.deleteItem(any(DeleteItemRequest.class)))
+            .thenThrow(new ConditionalCheckFailedException("The conditional request failed"));
+
+        assertNull(authorizationCodeDAO.remove("code"));
+    }
+
+    @Test
+    public void expiredCodeIsDeletedButNotRedeemed() {
+        when(amazonDynamoDB.deleteItem(any(DeleteItemRequest.class)))
+            .thenReturn(new DeleteItemResult().withAttributes(item("expired", Instant.now().minusSeconds(1))));
+
+        assertNull(authorizationCodeDAO.remove("expired"));
+    }
+
+    private Map<String, AttributeValue> item(String code, Instant expiration) {
+        return model.convert(new OAuthCode(code, authentication, expiration.getEpochSecond()));
+    }
+}
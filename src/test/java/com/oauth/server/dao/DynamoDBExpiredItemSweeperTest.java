@@ -0,0 +1,74 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthCode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class DynamoDBExpiredItemSweeperTest {
+
+    @Test
+    public void deletesExpiredItemsOfEverySegment() {
+        AmazonDynamoDB amazonDynamoDB = mock(AmazonDynamoDB.class);
+        when(amazonDynamoDB.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            if (request.getExclusiveStartKey() == null) {
+                return new ScanResult()
+                    .withItems(codes(request.getSegment() + "-", 30))
+                    .withLastEvaluatedKey(ImmutableMap.of("code", new AttributeValue("next")));
+            }
+            return new ScanResult().withItems(codes(request.getSegment() + "-next-", 1));
+        });
+        when(amazonDynamoDB.batchWriteItem(any(Map.class))).thenReturn(new BatchWriteItemResult());
+
+        DynamoDBExpiredItemSweeper sweeper = new DynamoDBExpiredItemSweeper(amazonDynamoDB,
+            Collections.singletonList(OAuthCode.class), 2, 1000, Runnable::run,
+            Clock.fixed(Instant.ofEpochSecond(1000), ZoneOffset.UTC));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        sweeper.bindTo(registry);
+
+        sweeper.sweep();
+
+        ArgumentCaptor<ScanRequest> scans = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(amazonDynamoDB, times(4)).scan(scans.capture());
+        assertEquals("OAuthCode", scans.getValue().getTableName());
+        assertEquals("#key0", scans.getValue().getProjectionExpression());
+        assertEquals("1000", scans.getValue().getExpressionAttributeValues().get(":now").getN());
+
+        ArgumentCaptor<Map<String, List<WriteRequest>>> batches = ArgumentCaptor.forClass(Map.class);
+        verify(amazonDynamoDB, times(6)).batchWriteItem(batches.capture());
+        assertEquals(62, batches.getAllValues().stream()
+            .mapToInt(batch -> batch.get("OAuthCode").size())
+            .sum());
+        assertEquals(62, registry.get("oauth.expired.items.deleted").tag("table", "OAuthCode").functionCounter()
+            .count(), 0);
+    }
+
+    private static List<Map<String, AttributeValue>> codes(String prefix, int count) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> Collections.singletonMap("code", new AttributeValue(prefix + i)))
+            .collect(Collectors.toList());
+    }
+}
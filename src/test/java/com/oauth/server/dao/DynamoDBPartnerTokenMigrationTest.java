@@ -0,0 +1,84 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class DynamoDBPartnerTokenMigrationTest {
+
+    @Test
+    public void copiesLegacyTokensWithoutOverwritingNewerTokens() {
+        AmazonDynamoDB amazonDynamoDB = mock(AmazonDynamoDB.class);
+        when(amazonDynamoDB.scan(any(ScanRequest.class))).thenReturn(new ScanResult().withItems(Arrays.asList(
+            token("copied", "user1", "1500"), token("skipped", "user2", null))));
+        when(amazonDynamoDB.putItem(any(PutItemRequest.class))).thenAnswer(invocation -> {
+            PutItemRequest request = invocation.getArgument(0);
+            if (request.getItem().get("tokenId").getS().equals("skipped")) {
+                throw new ConditionalCheckFailedException("newer token");
+            }
+            return new PutItemResult();
+        });
+
+        DynamoDBPartnerTokenMigration migration = new DynamoDBPartnerTokenMigration(amazonDynamoDB, 1, 1000,
+            Runnable::run, Clock.fixed(Instant.ofEpochSecond(1000), ZoneOffset.UTC));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        migration.bindTo(registry);
+
+        assertTrue(migration.migrate());
+
+        ArgumentCaptor<ScanRequest> scan = ArgumentCaptor.forClass(ScanRequest.class);
+        verify(amazonDynamoDB).scan(scan.capture());
+        assertEquals("OAuthPartnerToken", scan.getValue().getTableName());
+        assertEquals("1000", scan.getValue().getExpressionAttributeValues().get(":now").getN());
+
+        ArgumentCaptor<PutItemRequest> puts = ArgumentCaptor.forClass(PutItemRequest.class);
+        verify(amazonDynamoDB, times(2)).putItem(puts.capture());
+        PutItemRequest refreshable = puts.getAllValues().get(0);
+        assertEquals("OAuthPartnerTokenV2", refreshable.getTableName());
+        assertEquals("attribute_not_exists(#authenticationId) OR #accessTokenExpiration < :accessTokenExpiration",
+            refreshable.getConditionExpression());
+        assertEquals("1500", refreshable.getExpressionAttributeValues().get(":accessTokenExpiration").getN());
+        PutItemRequest notRefreshable = puts.getAllValues().get(1);
+        assertEquals("attribute_not_exists(#authenticationId)", notRefreshable.getConditionExpression());
+        assertNull(notRefreshable.getExpressionAttributeValues());
+
+        assertEquals(1, registry.get("oauth.partner.token.migration.items").tag("outcome", "copied")
+            .functionCounter().count(), 0);
+        assertEquals(1, registry.get("oauth.partner.token.migration.items").tag("outcome", "skipped")
+            .functionCounter().count(), 0);
+    }
+
+    private static Map<String, AttributeValue> token(String tokenId, String authenticationId,
+                                                     String accessTokenExpiration) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("tokenId", new AttributeValue(tokenId));
+        item.put("authenticationId", new AttributeValue(authenticationId));
+        item.put("expiration", new AttributeValue().withN("2000"));
+        if (accessTokenExpiration != null) {
+            item.put("accessTokenExpiration", new AttributeValue().withN(accessTokenExpiration));
+        }
+        return item;
+    }
+}
@@ -0,0 +1,138 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.LimitExceededException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dto.OAuthPartner;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DynamoDBTableReplicaTest {
+
+    private AmazonDynamoDB amazonDynamoDB;
+
+    private LocalTableChangeFeed changeFeed;
+
+    private DynamoDBTableReplica<OAuthPartner, OAuthPartner> replica;
+
+    @Before
+    public void setUp() {
+        amazonDynamoDB = mock(AmazonDynamoDB.class);
+        when(amazonDynamoDB.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+            ScanRequest request = invocation.getArgument(0);
+            if (request.getSegment() == 0) {
+                return new ScanResult().withItems(Collections.singletonList(partner("alexa", "client0")));
+            }
+            return new ScanResult().withItems(Collections.singletonList(partner("other", "client1")));
+        });
+
+        changeFeed = new LocalTableChangeFeed();
+        replica = new DynamoDBTableReplica<>(amazonDynamoDB, OAuthPartner.class, Function.identity(), changeFeed, 2,
+            Runnable::run);
+        replica.load();
+    }
+
+    @Test
+    public void tableIsLoadedFromAllSegments() {
+        assertEquals("client0", replica.get("alexa").getClientId());
+        assertEquals("client1", replica.get("other").getClientId());
+        assertEquals(2, replica.values().size());
+    }
+
+    @Test
+    public void changesAreApplied() {
+        changeFeed.publish(new TableChange(key("alexa"), partner("alexa", "updated"), new Date()));
+        changeFeed.publish(new TableChange(key("new"), partner("new", "client2"), new Date()));
+        changeFeed.publish(new TableChange(key("other"), null, new Date()));
+
+        replica.sync();
+
+        assertEquals("updated", replica.get("alexa").getClientId());
+        assertEquals("client2", replica.get("new").getClientId());
+        assertNull(replica.get("other"));
+        assertEquals(ImmutableMap.of("alexa", "updated", "new", "client2"), replica.values().stream()
+            .collect(Collectors.toMap(OAuthPartner::getPartnerId, OAuthPartner::getClientId)));
+    }
+
+    @Test
+    public void tableIsLoadedAgainAfterFailedSync() {
+        TableChangeFeed failingFeed = mock(TableChangeFeed.class);
+        when(failingFeed.poll()).thenThrow(new IllegalStateException("expired iterator"));
+        replica = new DynamoDBTableReplica<>(amazonDynamoDB, OAuthPartner.class, Function.identity(), failingFeed, 2,
+            Runnable::run);
+        replica.load();
+
+        replica.sync();
+        replica.sync();
+
+        verify(failingFeed, times(2)).reset();
+        verify(amazonDynamoDB, times(6)).scan(any(ScanRequest.class));
+        assertEquals(2, replica.values().size());
+    }
+
+    @Test
+    public void throttledSyncBacksOffWithoutLoadingTheTable() {
+        TableChangeFeed throttledFeed = mock(TableChangeFeed.class);
+        when(throttledFeed.poll())
+            .thenThrow(new LimitExceededException("throttled"))
+            .thenThrow(new LimitExceededException("throttled"))
+            .thenReturn(Collections.singletonList(new TableChange(key("new"), partner("new", "client2"), new Date())));
+        replica = new DynamoDBTableReplica<>(amazonDynamoDB, OAuthPartner.class, Function.identity(), throttledFeed,
+            2, Runnable::run);
+        replica.load();
+
+        // Fails, skips one sync, fails again, skips three syncs, then applies the change.
+        for (int i = 0; i < 6; i++) {
+            replica.sync();
+        }
+        verify(throttledFeed, times(2)).poll();
+        assertNull(replica.get("new"));
+
+        replica.sync();
+        verify(throttledFeed, times(3)).poll();
+        verify(throttledFeed, times(1)).reset();
+        verify(amazonDynamoDB, times(4)).scan(any(ScanRequest.class));
+        assertEquals("client2", replica.get("new").getClientId());
+    }
+
+    @Test
+    public void tableIsLoadedAgainAfterIteratorsExpired() {
+        TableChangeFeed expiredFeed = mock(TableChangeFeed.class);
+        when(expiredFeed.poll()).thenThrow(new ExpiredIteratorException("expired iterator"));
+        replica = new DynamoDBTableReplica<>(amazonDynamoDB, OAuthPartner.class, Function.identity(), expiredFeed, 2,
+            Runnable::run);
+        replica.load();
+
+        replica.sync();
+        replica.sync();
+
+        verify(expiredFeed, times(2)).reset();
+    }
+
+    private static Map<String, AttributeValue> key(String partnerId) {
+        return ImmutableMap.of("partnerId", new AttributeValue(partnerId));
+    }
+
+    private static Map<String, AttributeValue> partner(String partnerId, String clientId) {
+        return ImmutableMap.of(
+            "partnerId", new AttributeValue(partnerId),
+            "clientId", new AttributeValue(clientId));
+    }
+}
@@ -0,0 +1,71 @@
+package com.oauth.server.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.oauth.server.cache.AccessTokenCache;
+import com.oauth.server.dto.OAuthAccessToken;
+import com.oauth.server.token.TokenKeyHasher;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+public class DynamoDBTokenDAOTest {
+
+    private final List<OAuthAccessToken> supersededAccessTokens = Arrays.asList(
+        OAuthAccessToken.builder().tokenId("first").build(),
+        OAuthAccessToken.builder().tokenId("second").build(),
+        OAuthAccessToken.builder().tokenId("third").build());
+
+    private DynamoDBMapper dynamoDBMapper;
+
+    private DynamoDBTokenDAO tokenDAO;
+
+    @Before
+    public void setUp() {
+        dynamoDBMapper = mock(DynamoDBMapper.class);
+        tokenDAO = new DynamoDBTokenDAO(dynamoDBMapper, new AccessTokenCache(100, Duration.ofMinutes(5)),
+            new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void supersededTokensBeyondTheTransactionAreRemovedAfterIt() {
+        tokenDAO.replaceTokens(OAuthAccessToken.builder().tokenId("new").build(), null, supersededAccessTokens, null);
+
+        InOrder order = inOrder(dynamoDBMapper);
+        order.verify(dynamoDBMapper).transactionWrite(any(TransactionWriteRequest.class));
+        ArgumentCaptor<List<OAuthAccessToken>> removed = ArgumentCaptor.forClass(List.class);
+        order.verify(dynamoDBMapper).batchDelete(removed.capture());
+        assertEquals(Collections.singletonList(supersededAccessTokens.get(2)), removed.getValue());
+    }
+
+    @Test
+    public void failedTransactionRemovesNoToken() {
+        doThrow(new TransactionCanceledException("Transaction cancelled"))
+            .when(dynamoDBMapper).transactionWrite(any(TransactionWriteRequest.class));
+
+        try {
+            tokenDAO.replaceTokens(OAuthAccessToken.builder().tokenId("new").build(), null, supersededAccessTokens,
+                null);
+            fail("The transaction failure is not thrown");
+        } catch (TransactionCanceledException e) {
+            verify(dynamoDBMapper, never()).batchDelete(anyList());
+        }
+    }
+}
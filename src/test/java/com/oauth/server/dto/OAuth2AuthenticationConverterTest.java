@@ -0,0 +1,138 @@
+package com.oauth.server.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.util.Base64;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.oauth2.common.exceptions.RedirectMismatchException;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.security.oauth2.provider.code.AuthorizationCodeServices;
+import org.springframework.security.oauth2.provider.code.AuthorizationCodeTokenGranter;
+import org.springframework.security.oauth2.provider.request.DefaultOAuth2RequestFactory;
+import org.springframework.security.oauth2.provider.token.AuthorizationServerTokenServices;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+public class OAuth2AuthenticationConverterTest {
+
+    private static final String REDIRECT_URI = "https://pitangui.amazon.com/api/skill/link/M3KVOEXUO4ALBL";
+
+    private final OAuth2AuthenticationConverter converter = new OAuth2AuthenticationConverter();
+
+    @Test
+    public void convertsToCompactBinaryAttribute() {
+        OAuth2Authentication authentication = userAuthentication();
+
+        AttributeValue attributeValue = converter.convert(authentication);
+        OAuth2Authentication result = converter.unconvert(attributeValue);
+
+        assertNotNull(attributeValue.getB());
+        assertNull(attributeValue.getS());
+        assertTrue(attributeValue.getB().remaining() < 512);
+        assertEquals("user", result.getName());
+        assertEquals("test_alexa_client", result.getOAuth2Request().getClientId());
+        assertEquals(ImmutableSet.of("profile"), result.getOAuth2Request().getScope());
+        assertEquals(REDIRECT_URI, result.getOAuth2Request().getRedirectUri());
+        assertEquals("authorization_code", result.getOAuth2Request().getGrantType());
+        assertTrue(result.getOAuth2Request().isApproved());
+        assertEquals(new DefaultAuthenticationKeyGenerator().extractKey(authentication),
+            new DefaultAuthenticationKeyGenerator().extractKey(result));
+    }
+
+    @Test
+    public void convertsClientOnlyAuthentication() {
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of(), "test_admin_client",
+            ImmutableList.of(new SimpleGrantedAuthority("ROLE_CLIENT_ADMIN")), true, ImmutableSet.of("test_scope"),
+            ImmutableSet.of(), null, null, null);
+
+        OAuth2Authentication result = converter.unconvert(converter.convert(new OAuth2Authentication(request, null)));
+
+        assertTrue(result.isClientOnly());
+        assertEquals("test_admin_client", result.getName());
+        assertEquals(ImmutableSet.of(new SimpleGrantedAuthority("ROLE_CLIENT_ADMIN")),
+            ImmutableSet.copyOf(result.getAuthorities()));
+    }
+
+    @Test
+    public void keepsTheAuthorizationRequestParameters() {
+        OAuth2Authentication result = converter.unconvert(converter.convert(authorizationCodeAuthentication()));
+
+        assertEquals(ImmutableMap.of("redirect_uri", REDIRECT_URI, "response_type", "code", "state", "xyz"),
+            result.getOAuth2Request().getRequestParameters());
+        assertEquals(ImmutableSet.of("code"), result.getOAuth2Request().getResponseTypes());
+    }
+
+    @Test
+    public void authorizationCodeGrantRequiresTheRedirectUriOfTheAuthorizationRequest() {
+        OAuth2Authentication stored = converter.unconvert(converter.convert(authorizationCodeAuthentication()));
+        AuthorizationCodeServices authorizationCodeServices = mock(AuthorizationCodeServices.class);
+        when(authorizationCodeServices.consumeAuthorizationCode("code")).thenReturn(stored);
+        ClientDetailsService clientDetailsService = mock(ClientDetailsService.class);
+        when(clientDetailsService.loadClientByClientId("test_alexa_client")).thenReturn(new BaseClientDetails(
+            "test_alexa_client", null, "profile", "authorization_code", null, REDIRECT_URI));
+        AuthorizationServerTokenServices tokenServices = mock(AuthorizationServerTokenServices.class);
+        AuthorizationCodeTokenGranter granter = new AuthorizationCodeTokenGranter(tokenServices,
+            authorizationCodeServices, clientDetailsService, new DefaultOAuth2RequestFactory(clientDetailsService));
+
+        try {
+            granter.grant("authorization_code", new TokenRequest(ImmutableMap.of("code", "code"),
+                "test_alexa_client", ImmutableSet.of(), "authorization_code"));
+            fail("The token request without redirect uri was granted");
+        } catch (RedirectMismatchException e) {
+            verify(tokenServices, never()).createAccessToken(any());
+        }
+
+        granter.grant("authorization_code", new TokenRequest(ImmutableMap.of("code", "code",
+            "redirect_uri", REDIRECT_URI), "test_alexa_client", ImmutableSet.of(), "authorization_code"));
+        verify(tokenServices).createAccessToken(any());
+    }
+
+    @Test
+    public void readsLegacySerializedAttribute() {
+        OAuth2Authentication authentication = userAuthentication();
+        String legacy = new String(Base64.encode(SerializationUtils.serialize(authentication)));
+
+        OAuth2Authentication result = converter.unconvert(new AttributeValue().withS(legacy));
+
+        assertEquals(authentication, result);
+    }
+
+    private static OAuth2Authentication authorizationCodeAuthentication() {
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of("response_type", "code",
+            "client_id", "test_alexa_client", "redirect_uri", REDIRECT_URI, "state", "xyz"), "test_alexa_client",
+            ImmutableList.of(), true, ImmutableSet.of("profile"), ImmutableSet.of(), REDIRECT_URI,
+            ImmutableSet.of("code"), null);
+        return new OAuth2Authentication(request, new UsernamePasswordAuthenticationToken("user", null,
+            ImmutableList.of()));
+    }
+
+    private static OAuth2Authentication userAuthentication() {
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of("grant_type", "authorization_code"),
+            "test_alexa_client", ImmutableList.of(), true, ImmutableSet.of("profile"), ImmutableSet.of(),
+            REDIRECT_URI, null, null);
+        User user = new User("user", "$2a$10$tNrknh3ZtTQ4IWq.P1KSaOwIar7ToOM1TjQTmuxGIIjYCJvy.55uS",
+            ImmutableList.of());
+        return new OAuth2Authentication(request,
+            new UsernamePasswordAuthenticationToken(user, user.getPassword(), user.getAuthorities()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.oauth.server.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+
+public class OAuthAccessTokenTest {
+
+    private final DynamoDBMapperTableModel<OAuthAccessToken> model =
+        new DynamoDBMapper(mock(AmazonDynamoDB.class)).getTableModel(OAuthAccessToken.class);
+
+    @Test
+    public void loadedTokenKeepsItsExpiration() {
+        // The item was stored an hour ago, when the token JSON still held an hour of validity.
+        long expiresAt = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - 1);
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+        token.setExpiration(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+
+        Map<String, AttributeValue> item = model.convert(OAuthAccessToken.builder()
+            .tokenId("id")
+            .token(token)
+            .expiresAt(new Date(expiresAt))
+            .build());
+        assertEquals(Long.toString(TimeUnit.MILLISECONDS.toSeconds(expiresAt)), item.get("expiration").getN());
+
+        OAuthAccessToken loaded = model.unconvert(item);
+        assertEquals(new Date(expiresAt), loaded.getToken().getExpiration());
+        assertTrue(loaded.getToken().isExpired());
+    }
+
+    @Test
+    public void tokenWithoutExpirationHasNoTimeToLive() {
+        Map<String, AttributeValue> item = model.convert(OAuthAccessToken.builder()
+            .tokenId("id")
+            .token(new DefaultOAuth2AccessToken("token"))
+            .expiresAt(null)
+            .build());
+
+        assertFalse(item.containsKey("expiration"));
+        assertFalse(model.unconvert(item).getToken().isExpired());
+    }
+}
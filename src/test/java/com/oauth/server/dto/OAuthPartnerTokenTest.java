@@ -0,0 +1,85 @@
+package com.oauth.server.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+
+public class OAuthPartnerTokenTest {
+
+    private final DynamoDBMapperTableModel<OAuthPartnerToken> model =
+        new DynamoDBMapper(mock(AmazonDynamoDB.class)).getTableModel(OAuthPartnerToken.class);
+
+    @Test
+    public void loadedTokenKeepsItsExpiration() {
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+        token.setExpiration(new Date(now + 3000));
+
+        Map<String, AttributeValue> item = new HashMap<>(model.convert(OAuthPartnerToken.builder()
+            .authenticationId("id")
+            .token(token)
+            .tokenExpiresAt(token.getExpiration())
+            .build()));
+        assertEquals(Long.toString(TimeUnit.MILLISECONDS.toSeconds(now + 3000)), item.get("tokenExpiration").getN());
+
+        // Same JSON, as if the token had been stored 4 seconds ago with a validity of 3 seconds.
+        item.put("tokenExpiration", new AttributeValue().withN(Long.toString(TimeUnit.MILLISECONDS.toSeconds(now)
+            - 1)));
+
+        OAuthPartnerToken loaded = model.unconvert(item);
+        assertEquals(new Date(now - 1000), loaded.getToken().getExpiration());
+        assertTrue(loaded.getToken().isExpired());
+    }
+
+    @Test
+    public void itemsSavedWithoutTokenExpirationUseTheAccessTokenExpiration() {
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+        token.setExpiration(new Date(now + 3000));
+        token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+        Map<String, AttributeValue> item = new HashMap<>(model.convert(OAuthPartnerToken.builder()
+            .authenticationId("id")
+            .token(token)
+            .accessTokenExpiresAt(new Date(now - 1000))
+            .expiresAt(new Date(now + 3_600_000))
+            .build()));
+        assertFalse(item.containsKey("tokenExpiration"));
+
+        assertEquals(new Date(now - 1000), model.unconvert(item).getToken().getExpiration());
+    }
+
+    @Test
+    public void legacyTokenKeepsItsAccessTokenExpiration() {
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+        token.setExpiration(new Date(now + 3000));
+        token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+
+        Map<String, AttributeValue> item = new HashMap<>(model.convert(OAuthPartnerToken.builder()
+            .authenticationId("id")
+            .tokenId("token")
+            .token(token)
+            .accessTokenExpiresAt(new Date(now - 1000))
+            .expiresAt(new Date(now + 3_600_000))
+            .build()));
+
+        OAuthLegacyPartnerToken loaded = new DynamoDBMapper(mock(AmazonDynamoDB.class))
+            .getTableModel(OAuthLegacyPartnerToken.class)
+            .unconvert(item);
+        assertEquals(new Date(now - 1000), loaded.getToken().getExpiration());
+    }
+}
@@ -0,0 +1,65 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class AsyncTasksTest {
+
+    @Test
+    public void tasksRunWithBoundedConcurrency() {
+        List<CompletableFuture<Void>> started = new ArrayList<>();
+
+        CompletableFuture<Void> done = AsyncTasks.forEach(Collections.nCopies(5, "item"), 2, item -> {
+            CompletableFuture<Void> task = new CompletableFuture<>();
+            started.add(task);
+            return task;
+        });
+
+        assertEquals(2, started.size());
+        started.get(0).complete(null);
+        assertEquals(3, started.size());
+        started.get(1).complete(null);
+        started.get(2).complete(null);
+        started.get(3).complete(null);
+        assertEquals(5, started.size());
+        started.get(4).complete(null);
+        assertTrue(done.isDone());
+    }
+
+    @Test
+    public void manySynchronousTasksDoNotOverflowTheStack() {
+        List<Integer> items = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+        List<Integer> run = new ArrayList<>();
+
+        AsyncTasks.forEach(items, 1, item -> {
+            run.add(item);
+            return CompletableFuture.completedFuture(null);
+        }).join();
+
+        assertEquals(items, run);
+    }
+
+    @Test
+    public void remainingTasksAreSkippedAfterAFailure() {
+        List<Integer> run = new ArrayList<>();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("client disconnected"));
+
+        CompletableFuture<Void> done = AsyncTasks.forEach(IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+            1, item -> {
+                run.add(item);
+                return item == 2 ? failed : CompletableFuture.completedFuture(null);
+            });
+
+        assertTrue(done.isCompletedExceptionally());
+        assertEquals(3, run.size());
+    }
+}
@@ -0,0 +1,49 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.oauth.server.dao.DynamoDBTokenDAO;
+import com.oauth.server.dto.OAuthAccessToken;
+import java.util.Date;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+
+public class DynamoDBResourceServerTokenServicesTest {
+
+    @Test
+    public void everyRequestGetsItsOwnAuthentication() {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+        token.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of(), "client", ImmutableList.of(), true,
+            ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null);
+        OAuthAccessToken item = OAuthAccessToken.builder()
+            .token(token)
+            .authentication(new OAuth2Authentication(request,
+                new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of())))
+            .build();
+        DynamoDBTokenDAO tokenDAO = mock(DynamoDBTokenDAO.class);
+        when(tokenDAO.readAccessTokenItem("token")).thenReturn(item);
+        DynamoDBResourceServerTokenServices tokenServices =
+            new DynamoDBResourceServerTokenServices(tokenDAO, mock(ClientDetailsService.class));
+
+        OAuth2Authentication first = tokenServices.loadAuthentication("token");
+        OAuth2Authentication second = tokenServices.loadAuthentication("token");
+        first.setDetails("first request");
+
+        assertNotSame(first, second);
+        assertNull(second.getDetails());
+        assertNull(item.getAuthentication().getDetails());
+        assertEquals("user", second.getName());
+    }
+}
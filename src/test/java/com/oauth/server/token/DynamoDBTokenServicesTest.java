@@ -0,0 +1,177 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest.TransactionWriteOperation;
+import com.amazonaws.services.dynamodbv2.datamodeling.TransactionWriteRequest.TransactionWriteOperationType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.oauth.server.cache.AccessTokenCache;
+import com.oauth.server.dao.DynamoDBTokenDAO;
+import com.oauth.server.dto.OAuthAccessToken;
+import com.oauth.server.dto.OAuthRefreshToken;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.TokenRequest;
+
+public class DynamoDBTokenServicesTest {
+
+    private final OAuth2Authentication authentication = new OAuth2Authentication(
+        new OAuth2Request(ImmutableMap.of(), "test_alexa_client", ImmutableList.of(), true,
+            ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null),
+        new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of()));
+
+    private final TokenKeyHasher tokenKeyHasher = new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5);
+
+    private DynamoDBMapper dynamoDBMapper;
+
+    private PaginatedQueryList<OAuthAccessToken> queryResult;
+
+    private DynamoDBTokenServices tokenServices;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        dynamoDBMapper = mock(DynamoDBMapper.class);
+        queryResult = mock(PaginatedQueryList.class);
+        when(queryResult.stream()).thenAnswer(invocation -> Stream.empty());
+        when(dynamoDBMapper.query(eq(OAuthAccessToken.class), any(DynamoDBQueryExpression.class)))
+            .thenReturn(queryResult);
+
+        tokenServices = new DynamoDBTokenServices(new DynamoDBTokenDAO(dynamoDBMapper,
+            new AccessTokenCache(100, Duration.ofMinutes(5)), tokenKeyHasher));
+        tokenServices.setSupportRefreshToken(true);
+    }
+
+    @Test
+    public void newTokensAreStoredWithOneTransaction() {
+        OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+
+        List<TransactionWriteOperation> operations = transactionOperations();
+        assertEquals(2, operations.size());
+        OAuthAccessToken accessTokenItem = (OAuthAccessToken) put(operations, OAuthAccessToken.class);
+        OAuthRefreshToken refreshTokenItem = (OAuthRefreshToken) put(operations, OAuthRefreshToken.class);
+
+        assertEquals(tokenKeyHasher.hash(accessToken.getValue()), accessTokenItem.getTokenId());
+        assertEquals(tokenKeyHasher.hash(accessToken.getRefreshToken().getValue()), refreshTokenItem.getTokenId());
+        assertEquals(accessTokenItem.getTokenId(), refreshTokenItem.getAccessTokenId());
+        verify(dynamoDBMapper, never()).save(any());
+    }
+
+    @Test
+    public void authenticationKeyIsHashedOncePerRequest() {
+        TokenKeyHasher countingHasher = spy(new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5));
+        tokenServices = new DynamoDBTokenServices(new DynamoDBTokenDAO(dynamoDBMapper,
+            new AccessTokenCache(100, Duration.ofMinutes(5)), countingHasher));
+        tokenServices.setSupportRefreshToken(true);
+
+        tokenServices.createAccessToken(authentication);
+
+        verify(countingHasher, times(1)).hash("{username=user, client_id=test_alexa_client, scope=profile}");
+    }
+
+    @Test
+    public void validTokenIsReturnedWithoutWrites() {
+        DefaultOAuth2AccessToken existing = new DefaultOAuth2AccessToken("existing");
+        when(queryResult.stream()).thenAnswer(invocation -> Stream.of(OAuthAccessToken.builder()
+            .tokenId(tokenKeyHasher.hash("existing"))
+            .token(existing)
+            .authentication(authentication)
+            .build()));
+
+        assertSame(existing, tokenServices.createAccessToken(authentication));
+        verify(dynamoDBMapper, never()).transactionWrite(any(TransactionWriteRequest.class));
+        verify(dynamoDBMapper, never()).save(any());
+    }
+
+    @Test
+    public void validReloadedTokenIsReturnedWithoutWrites() {
+        DynamoDBTokenDAO tokenDAO = new DynamoDBTokenDAO(dynamoDBMapper, new AccessTokenCache(100,
+            Duration.ofMinutes(5)), tokenKeyHasher);
+        DefaultOAuth2AccessToken existing = new DefaultOAuth2AccessToken("existing");
+        existing.setExpiration(new Date(System.currentTimeMillis() + 3_600_000));
+        OAuth2Authentication issued = new OAuth2Authentication(authentication.getOAuth2Request(),
+            new UsernamePasswordAuthenticationToken(new User("user", "password", ImmutableList.of()), null,
+                ImmutableList.of()));
+        DynamoDBMapperTableModel<OAuthAccessToken> model =
+            new DynamoDBMapper(mock(AmazonDynamoDB.class)).getTableModel(OAuthAccessToken.class);
+        OAuthAccessToken reloaded = model.unconvert(model.convert(tokenDAO.newAccessTokenItem(existing, issued)));
+        when(queryResult.stream()).thenAnswer(invocation -> Stream.of(reloaded));
+
+        assertEquals("existing", tokenServices.createAccessToken(issued).getValue());
+        verify(dynamoDBMapper, never()).transactionWrite(any(TransactionWriteRequest.class));
+        verify(dynamoDBMapper, never()).save(any());
+    }
+
+    @Test
+    public void refreshReplacesTheLastAccessTokenWithoutQuery() {
+        when(dynamoDBMapper.load(eq(OAuthRefreshToken.class), anyString())).thenReturn(OAuthRefreshToken.builder()
+            .tokenId(tokenKeyHasher.hash("refresh"))
+            .token(new DefaultOAuth2RefreshToken("refresh"))
+            .accessTokenId("previous")
+            .authentication(authentication)
+            .build());
+
+        OAuth2AccessToken accessToken = tokenServices.refreshAccessToken("refresh",
+            new TokenRequest(ImmutableMap.of(), "test_alexa_client", ImmutableSet.of(), "refresh_token"));
+
+        List<TransactionWriteOperation> operations = transactionOperations();
+        assertEquals(3, operations.size());
+        assertEquals("previous", operations.stream()
+            .filter(operation -> operation.getTransactionWriteOperationType() == TransactionWriteOperationType.Delete)
+            .map(operation -> ((OAuthAccessToken) operation.getObject()).getTokenId())
+            .collect(Collectors.joining()));
+
+        OAuthRefreshToken refreshTokenItem = (OAuthRefreshToken) put(operations, OAuthRefreshToken.class);
+        assertEquals("refresh", accessToken.getRefreshToken().getValue());
+        assertEquals(tokenKeyHasher.hash(accessToken.getValue()), refreshTokenItem.getAccessTokenId());
+        assertNotEquals("previous", refreshTokenItem.getAccessTokenId());
+        verify(dynamoDBMapper, never()).query(eq(OAuthAccessToken.class), any(DynamoDBQueryExpression.class));
+    }
+
+    private List<TransactionWriteOperation> transactionOperations() {
+        ArgumentCaptor<TransactionWriteRequest> transaction = ArgumentCaptor.forClass(TransactionWriteRequest.class);
+        verify(dynamoDBMapper).transactionWrite(transaction.capture());
+        return transaction.getValue().getTransactionWriteOperations();
+    }
+
+    private static Object put(List<TransactionWriteOperation> operations, Class<?> clazz) {
+        return operations.stream()
+            .filter(operation -> operation.getTransactionWriteOperationType() == TransactionWriteOperationType.Put)
+            .map(TransactionWriteOperation::getObject)
+            .filter(clazz::isInstance)
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("No " + clazz.getSimpleName() + " put"));
+    }
+}
@@ -0,0 +1,126 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.web.client.HttpServerErrorException;
+
+public class PartnerExchangeGuardTest {
+
+    private Clock clock;
+
+    private SimpleMeterRegistry registry;
+
+    private PartnerExchangeGuard guard;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        registry = new SimpleMeterRegistry();
+        guard = new PartnerExchangeGuard(2, 0.5, 4, 4, Duration.ofSeconds(30), 1, clock);
+        guard.bindTo(registry);
+    }
+
+    @Test
+    public void circuitOpensOnPartnerFailuresAndClosesAfterProbe() {
+        exchange("alexa", true);
+        exchange("alexa", false);
+        exchange("alexa", true);
+        exchange("other", true);
+        exchange("alexa", false);
+
+        assertUnavailable(guard.execute("alexa", () -> "token", Runnable::run));
+        assertEquals("token", guard.execute("other", () -> "token", Runnable::run).join());
+        assertEquals(1, registry.get("oauth.partner.exchange.circuit.state").tag("partner", "alexa").gauge().value(),
+            0);
+        assertEquals(1, registry.get("oauth.partner.exchange.rejected").tag("reason", "circuit_open").counter()
+            .count(), 0);
+
+        when(clock.millis()).thenReturn(Duration.ofSeconds(30).toMillis());
+        assertEquals("token", guard.execute("alexa", () -> "token", Runnable::run).join());
+        assertEquals(0, registry.get("oauth.partner.exchange.circuit.state").tag("partner", "alexa").gauge().value(),
+            0);
+    }
+
+    @Test
+    public void oauthErrorsDoNotOpenTheCircuit() {
+        for (int i = 0; i < 4; i++) {
+            CompletableFuture<String> exchange = guard.execute("alexa", () -> {
+                throw new InvalidGrantException("Invalid refresh token");
+            }, Runnable::run);
+            assertTrue(exchange.isCompletedExceptionally());
+        }
+
+        assertEquals("token", guard.execute("alexa", () -> "token", Runnable::run).join());
+    }
+
+    @Test
+    public void exchangesBeyondTheBulkheadAreRejected() {
+        List<Runnable> queued = new ArrayList<>();
+        guard.execute("alexa", () -> "first", queued::add);
+        guard.execute("alexa", () -> "second", queued::add);
+
+        assertUnavailable(guard.execute("alexa", () -> "third", queued::add));
+        assertEquals(2, queued.size());
+        assertEquals(2, registry.get("oauth.partner.exchange.active").tag("partner", "alexa").gauge().value(), 0);
+
+        queued.get(0).run();
+        CompletableFuture<String> fourth = guard.execute("alexa", () -> "fourth", queued::add);
+        queued.get(2).run();
+        assertEquals("fourth", fourth.join());
+    }
+
+    @Test
+    public void rejectedProbeDoesNotCloseTheCircuit() {
+        for (int i = 0; i < 4; i++) {
+            exchange("alexa", true);
+        }
+        when(clock.millis()).thenReturn(Duration.ofSeconds(30).toMillis());
+
+        CompletableFuture<String> rejected = guard.execute("alexa", () -> "token", task -> {
+            throw new RejectedExecutionException("executor saturated");
+        });
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(2, registry.get("oauth.partner.exchange.circuit.state").tag("partner", "alexa").gauge().value(),
+            0);
+
+        // The probe slot was given back: the next exchange probes the partner, and its failure opens the circuit.
+        exchange("alexa", true);
+        assertEquals(1, registry.get("oauth.partner.exchange.circuit.state").tag("partner", "alexa").gauge().value(),
+            0);
+    }
+
+    private void exchange(String partnerId, boolean fail) {
+        guard.execute(partnerId, () -> {
+            if (fail) {
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            return "token";
+        }, Runnable::run);
+    }
+
+    private static void assertUnavailable(CompletableFuture<String> exchange) {
+        try {
+            exchange.join();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof PartnerUnavailableException);
+            return;
+        }
+        throw new AssertionError("Exchange was not rejected");
+    }
+}
@@ -0,0 +1,59 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.URI;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+public class PartnerExchangeMetricsInterceptorTest {
+
+    private final MockClientHttpRequest request =
+        new MockClientHttpRequest(HttpMethod.POST, URI.create("https://api.amazon.com/auth/o2/token"));
+
+    private SimpleMeterRegistry registry;
+
+    private PartnerExchangeMetricsInterceptor interceptor;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        interceptor = new PartnerExchangeMetricsInterceptor();
+        interceptor.bindTo(registry);
+    }
+
+    @Test
+    public void requestsAreTimedByHostAndStatus() throws IOException {
+        ClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.BAD_REQUEST);
+
+        assertSame(response, interceptor.intercept(request, new byte[0], (req, body) -> response));
+
+        assertEquals(1, registry.get("oauth.partner.http.requests")
+            .tag("host", "api.amazon.com")
+            .tag("status", "400")
+            .timer().count());
+    }
+
+    @Test
+    public void failedRequestsAreTimedAsIOErrors() {
+        try {
+            interceptor.intercept(request, new byte[0], (req, body) -> {
+                throw new IOException("connection reset");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, registry.get("oauth.partner.http.requests")
+                .tag("status", "IO_ERROR")
+                .timer().count());
+        }
+    }
+}
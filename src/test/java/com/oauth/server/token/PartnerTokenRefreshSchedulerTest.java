@@ -0,0 +1,120 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.oauth.server.dao.DynamoDBPartnerTokenDAO;
+import com.oauth.server.dto.OAuthPartnerToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+
+public class PartnerTokenRefreshSchedulerTest {
+
+    private static final Instant NOW = Instant.parse("2019-06-01T10:58:00Z");
+
+    private static final Duration LOOK_AHEAD = Duration.ofMinutes(10);
+
+    private DynamoDBPartnerTokenDAO partnerTokenDAO;
+
+    private PartnerTokenService partnerTokenService;
+
+    private SimpleMeterRegistry registry;
+
+    private PartnerTokenRefreshScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        partnerTokenDAO = mock(DynamoDBPartnerTokenDAO.class);
+        partnerTokenService = mock(PartnerTokenService.class);
+        registry = new SimpleMeterRegistry();
+
+        scheduler = new PartnerTokenRefreshScheduler(partnerTokenDAO, partnerTokenService, LOOK_AHEAD,
+            Duration.ofHours(1), 100, 2, Runnable::run, Clock.fixed(NOW, ZoneOffset.UTC));
+        scheduler.bindTo(registry);
+    }
+
+    @Test
+    public void expiringTokensAreRefreshedPerPartner() {
+        when(partnerTokenDAO.findRefreshableTokens(NOW.minus(Duration.ofHours(1)), NOW.plus(LOOK_AHEAD)))
+            .thenReturn(ImmutableList.of(
+                partnerToken("alexa", "user1", NOW.plus(Duration.ofMinutes(5))),
+                partnerToken("alexa", "user2", NOW.plus(Duration.ofMinutes(8))),
+                partnerToken("other", "user1", NOW.plus(Duration.ofMinutes(9)))));
+        when(partnerTokenService.refreshAccessToken(anyString(), anyString(), eq(LOOK_AHEAD)))
+            .thenReturn(CompletableFuture.completedFuture(accessToken(NOW.plus(Duration.ofHours(1)))));
+        CompletableFuture<OAuth2AccessToken> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("partner unavailable"));
+        when(partnerTokenService.refreshAccessToken("other", "user1", LOOK_AHEAD)).thenReturn(failed);
+
+        scheduler.refreshExpiringTokens();
+
+        verify(partnerTokenService).refreshAccessToken("alexa", "user1", LOOK_AHEAD);
+        verify(partnerTokenService).refreshAccessToken("alexa", "user2", LOOK_AHEAD);
+        assertEquals(2, registry.get("oauth.partner.token.refreshed").tag("partner", "alexa").counter().count(), 0);
+        assertEquals(1, registry.get("oauth.partner.token.refresh.failures").tag("partner", "other").counter().count(),
+            0);
+        assertEquals(3, registry.get("oauth.partner.token.refresh.due").gauge().value(), 0);
+        // Due 5 minutes ago, as it expires within 5 minutes with a look-ahead of 10 minutes.
+        assertEquals(Duration.ofMinutes(5).toMillis(),
+            registry.get("oauth.partner.token.refresh.lag").tag("partner", "alexa").timer()
+                .max(TimeUnit.MILLISECONDS), 0);
+    }
+
+    @Test
+    public void tokensNotDueAnymoreAreNotCountedAsRefreshed() {
+        Instant expiration = NOW.plus(Duration.ofMinutes(5));
+        when(partnerTokenDAO.findRefreshableTokens(NOW.minus(Duration.ofHours(1)), NOW.plus(LOOK_AHEAD)))
+            .thenReturn(ImmutableList.of(partnerToken("alexa", "user1", expiration)));
+        when(partnerTokenService.refreshAccessToken("alexa", "user1", LOOK_AHEAD))
+            .thenReturn(CompletableFuture.completedFuture(accessToken(expiration)));
+
+        scheduler.refreshExpiringTokens();
+
+        assertEquals(1, registry.get("oauth.partner.token.refresh.skipped").tag("partner", "alexa").counter().count(),
+            0);
+        assertNull(registry.find("oauth.partner.token.refreshed").counter());
+        assertNull(registry.find("oauth.partner.token.refresh.lag").timer());
+    }
+
+    @Test
+    public void refreshBucketsCoverEveryHourOfThePeriod() {
+        assertEquals(ImmutableList.of("2019-06-01T10#0", "2019-06-01T10#1", "2019-06-01T10#2", "2019-06-01T10#3",
+            "2019-06-01T11#0", "2019-06-01T11#1", "2019-06-01T11#2", "2019-06-01T11#3"),
+            OAuthPartnerToken.refreshBuckets(NOW, NOW.plus(LOOK_AHEAD)));
+
+        OAuthPartnerToken partnerToken = OAuthPartnerToken.builder()
+            .accessTokenExpiresAt(Date.from(NOW.plus(Duration.ofMinutes(5))))
+            .build();
+        assertEquals("2019-06-01T11", partnerToken.getRefreshBucket().substring(0, 13));
+    }
+
+    private static OAuth2AccessToken accessToken(Instant expiration) {
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("token");
+        accessToken.setExpiration(Date.from(expiration));
+        return accessToken;
+    }
+
+    private static OAuthPartnerToken partnerToken(String partnerId, String userName, Instant accessTokenExpiration) {
+        return OAuthPartnerToken.builder()
+            .partnerId(partnerId)
+            .userName(userName)
+            .accessTokenExpiration(accessTokenExpiration.getEpochSecond())
+            .build();
+    }
+}
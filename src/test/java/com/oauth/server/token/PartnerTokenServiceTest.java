@@ -0,0 +1,317 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.oauth.server.dao.DynamoDBLeaseDAO;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
+import com.oauth.server.dto.ImmutablePartnerResourceDetails;
+import com.oauth.server.dto.OAuthPartner;
+import com.oauth.server.dto.OAuthPartnerToken;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.web.client.ResourceAccessException;
+
+public class PartnerTokenServiceTest {
+
+    private static final Instant NOW = Instant.parse("2019-06-01T00:00:00Z");
+
+    private static final DynamoDBMapperTableModel<OAuthPartnerToken> PARTNER_TOKEN_MODEL =
+        new DynamoDBMapper(mock(AmazonDynamoDB.class)).getTableModel(OAuthPartnerToken.class);
+
+    private final List<Runnable> exchanges = new ArrayList<>();
+
+    private DynamoDBPartnerTokenAsyncDAO partnerTokenDAO;
+
+    private AccessTokenProvider tokenProvider;
+
+    private PartnerTokenService partnerTokenService;
+
+    @Before
+    public void setUp() {
+        DynamoDBPartnerDetailsAsyncDAO partnerDetailsDAO = mock(DynamoDBPartnerDetailsAsyncDAO.class);
+        when(partnerDetailsDAO.loadResourceDetailsByPartnerId("alexa")).thenReturn(CompletableFuture.completedFuture(
+            ImmutablePartnerResourceDetails.of(OAuthPartner.builder().partnerId("alexa").clientId("client").build())));
+
+        partnerTokenDAO = mock(DynamoDBPartnerTokenAsyncDAO.class);
+        when(partnerTokenDAO.replaceAccessToken(any(), any(), any(), any()))
+            .thenReturn(CompletableFuture.completedFuture(true));
+
+        tokenProvider = mock(AccessTokenProvider.class);
+        when(tokenProvider.refreshAccessToken(any(), any(), any())).thenReturn(token("refreshed", Duration.ofHours(1)));
+
+        partnerTokenService = new PartnerTokenService(partnerDetailsDAO, partnerTokenDAO, tokenProvider,
+            new PartnerExchangeGuard(2, 0.5, 10, 10, Duration.ofSeconds(30), 1), exchanges::add,
+            Duration.ofMinutes(5), Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void validTokenIsReturnedWithoutRefresh() {
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(50));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        assertSame(stored, partnerTokenService.getAccessToken("alexa", "user").join());
+
+        assertEquals(0, exchanges.size());
+        verify(partnerTokenDAO, never()).replaceAccessToken(any(), any(), any(), any());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneRefresh() {
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        CompletableFuture<OAuth2AccessToken> first = partnerTokenService.getAccessToken("alexa", "user");
+        CompletableFuture<OAuth2AccessToken> second = partnerTokenService.getAccessToken("alexa", "user");
+        assertEquals(1, exchanges.size());
+
+        exchanges.get(0).run();
+
+        assertEquals("refreshed", first.join().getValue());
+        assertEquals("refreshed", second.join().getValue());
+        verify(tokenProvider, times(1)).refreshAccessToken(any(), any(), any());
+        verify(partnerTokenDAO, times(1)).replaceAccessToken(any(), any(), eq(stored), eq(first.join()));
+    }
+
+    @Test
+    public void tokenReplacedByAnotherNodeIsKept() {
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        OAuth2AccessToken replaced = token("replaced", Duration.ofHours(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored),
+            CompletableFuture.completedFuture(replaced));
+        when(partnerTokenDAO.replaceAccessToken(any(), any(), any(), any()))
+            .thenReturn(CompletableFuture.completedFuture(false));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+        exchanges.get(0).run();
+
+        assertSame(replaced, accessToken.join());
+    }
+
+    @Test
+    public void tokenIsRefreshedAgainAfterCompletedRefresh() {
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        partnerTokenService.getAccessToken("alexa", "user");
+        exchanges.get(0).run();
+        partnerTokenService.getAccessToken("alexa", "user");
+
+        assertEquals(2, exchanges.size());
+    }
+
+    @Test
+    public void storedTokenIsReturnedWhenPartnerIsUnavailable() {
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+        when(tokenProvider.refreshAccessToken(any(), any(), any()))
+            .thenThrow(new ResourceAccessException("Read timed out"));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+        exchanges.get(0).run();
+
+        assertSame(stored, accessToken.join());
+        verify(partnerTokenDAO, never()).replaceAccessToken(any(), any(), any(), any());
+    }
+
+    @Test
+    public void reloadedExpiredTokenIsNotReturnedWhenPartnerIsUnavailable() {
+        OAuth2AccessToken expired = reloaded("expired", Duration.ofMinutes(-1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(expired));
+        when(tokenProvider.refreshAccessToken(any(), any(), any()))
+            .thenThrow(new ResourceAccessException("Read timed out"));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+        exchanges.get(0).run();
+
+        assertTrue(accessToken.isCompletedExceptionally());
+    }
+
+    @Test
+    public void expiredTokenWithoutRefreshTokenIsNotRefreshed() {
+        DefaultOAuth2AccessToken expired = new DefaultOAuth2AccessToken("expired");
+        expired.setExpiration(Date.from(NOW.minus(Duration.ofMinutes(1))));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(expired));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+
+        assertTrue(accessToken.isCompletedExceptionally());
+        assertEquals(0, exchanges.size());
+        verify(tokenProvider, never()).refreshAccessToken(any(), any(), any());
+    }
+
+    @Test
+    public void batchRefreshesOnlyExpiringTokens() {
+        OAuth2AccessToken valid = token("valid", Duration.ofMinutes(50));
+        OAuth2AccessToken expiring = token("expiring", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessTokens(any(), any())).thenReturn(CompletableFuture.completedFuture(
+            ImmutableMap.of("user1", valid, "user2", expiring)));
+        List<UserAccessToken> results = new ArrayList<>();
+
+        CompletableFuture<Void> batch = partnerTokenService.getAccessTokens("alexa",
+            ImmutableList.of("user1", "user2", "user3"), results::add);
+        assertEquals(2, results.size());
+        assertEquals(1, exchanges.size());
+        exchanges.get(0).run();
+
+        batch.join();
+        assertEquals(ImmutableList.of("user1", "user3", "user2"),
+            results.stream().map(UserAccessToken::getUserId).collect(Collectors.toList()));
+        assertSame(valid, results.get(0).getAccessToken());
+        assertTrue(results.get(1).getError() instanceof OAuth2Exception);
+        assertEquals("refreshed", results.get(2).getAccessToken().getValue());
+        verify(partnerTokenDAO, never()).getAccessToken(any(), any());
+    }
+
+    @Test
+    public void tokenRefreshedByAnotherNodeIsReadAfterItsLease() {
+        DynamoDBLeaseDAO leaseDAO = mock(DynamoDBLeaseDAO.class);
+        when(leaseDAO.tryAcquire(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        partnerTokenService.setRefreshLease(leaseDAO, Duration.ofSeconds(10), Duration.ofMillis(10), scheduler);
+
+        OAuth2AccessToken expired = token("expired", Duration.ofMinutes(-1));
+        OAuth2AccessToken replaced = token("replaced", Duration.ofHours(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(expired),
+            CompletableFuture.completedFuture(expired), CompletableFuture.completedFuture(replaced));
+
+        try {
+            assertSame(replaced, partnerTokenService.getAccessToken("alexa", "user").join());
+        } finally {
+            scheduler.shutdownNow();
+        }
+        assertEquals(0, exchanges.size());
+        verify(leaseDAO, times(2)).tryAcquire("partner-token:alexa:user");
+    }
+
+    @Test
+    public void validTokenIsReturnedWhileAnotherNodeRefreshesIt() {
+        DynamoDBLeaseDAO leaseDAO = mock(DynamoDBLeaseDAO.class);
+        when(leaseDAO.tryAcquire(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        partnerTokenService.setRefreshLease(leaseDAO, Duration.ofSeconds(10), Duration.ofMillis(10), scheduler);
+
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        assertSame(stored, partnerTokenService.getAccessToken("alexa", "user").join());
+        assertEquals(0, exchanges.size());
+        verifyZeroInteractions(scheduler);
+    }
+
+    @Test
+    public void tokenIsRefreshedUnderLeaseAndLeaseReleased() {
+        DynamoDBLeaseDAO leaseDAO = mock(DynamoDBLeaseDAO.class);
+        when(leaseDAO.tryAcquire(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        when(leaseDAO.release(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        partnerTokenService.setRefreshLease(leaseDAO, Duration.ofSeconds(10), Duration.ofMillis(10),
+            mock(ScheduledExecutorService.class));
+
+        OAuth2AccessToken stored = token("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+        exchanges.get(0).run();
+
+        assertEquals("refreshed", accessToken.join().getValue());
+        verify(leaseDAO).release("partner-token:alexa:user");
+    }
+
+    @Test
+    public void reloadedTokenIsRefreshedUnderLease() {
+        DynamoDBLeaseDAO leaseDAO = mock(DynamoDBLeaseDAO.class);
+        when(leaseDAO.tryAcquire(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        when(leaseDAO.release(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+        partnerTokenService.setRefreshLease(leaseDAO, Duration.ofSeconds(10), Duration.ofMillis(10),
+            mock(ScheduledExecutorService.class));
+
+        OAuth2AccessToken stored = reloaded("stored", Duration.ofMinutes(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(stored));
+
+        CompletableFuture<OAuth2AccessToken> accessToken = partnerTokenService.getAccessToken("alexa", "user");
+        assertEquals(1, exchanges.size());
+        exchanges.get(0).run();
+
+        assertEquals("refreshed", accessToken.join().getValue());
+        verify(partnerTokenDAO).replaceAccessToken(any(), any(), eq(stored), any());
+    }
+
+    @Test
+    public void reloadedExpiredTokenIsNotReturnedWhileAnotherNodeRefreshesIt() {
+        DynamoDBLeaseDAO leaseDAO = mock(DynamoDBLeaseDAO.class);
+        when(leaseDAO.tryAcquire(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        partnerTokenService.setRefreshLease(leaseDAO, Duration.ofSeconds(10), Duration.ofMillis(10), scheduler);
+
+        OAuth2AccessToken expired = reloaded("expired", Duration.ofMinutes(-1));
+        OAuth2AccessToken replaced = reloaded("replaced", Duration.ofHours(1));
+        when(partnerTokenDAO.getAccessToken(any(), any())).thenReturn(CompletableFuture.completedFuture(expired),
+            CompletableFuture.completedFuture(expired), CompletableFuture.completedFuture(replaced));
+
+        try {
+            assertEquals("replaced", partnerTokenService.getAccessToken("alexa", "user").join().getValue());
+        } finally {
+            scheduler.shutdownNow();
+        }
+        assertEquals(0, exchanges.size());
+    }
+
+    /**
+     * A token loaded from its item, saved when it was valid for an hour and now valid for the validity provided.
+     */
+    private static OAuth2AccessToken reloaded(String value, Duration validity) {
+        DefaultOAuth2AccessToken saved = new DefaultOAuth2AccessToken(value);
+        saved.setExpiration(new Date(System.currentTimeMillis() + Duration.ofHours(1).toMillis()));
+        saved.setRefreshToken(new DefaultOAuth2RefreshToken("refresh-" + value));
+
+        Map<String, AttributeValue> item = new HashMap<>(PARTNER_TOKEN_MODEL.convert(OAuthPartnerToken.builder()
+            .authenticationId("user")
+            .tokenId(value)
+            .token(saved)
+            .build()));
+        item.put("tokenExpiration", new AttributeValue().withN(Long.toString(NOW.plus(validity).getEpochSecond())));
+        return PARTNER_TOKEN_MODEL.unconvert(item).getToken();
+    }
+
+    private static OAuth2AccessToken token(String value, Duration validity) {
+        DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+        token.setExpiration(Date.from(NOW.plus(validity)));
+        token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh-" + value));
+        return token;
+    }
+}
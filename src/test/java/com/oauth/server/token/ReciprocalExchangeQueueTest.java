@@ -0,0 +1,172 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.oauth.server.dao.DynamoDBPartnerDetailsAsyncDAO;
+import com.oauth.server.dao.DynamoDBPartnerTokenAsyncDAO;
+import com.oauth.server.dao.DynamoDBReciprocalExchangeDAO;
+import com.oauth.server.dto.ImmutablePartnerResourceDetails;
+import com.oauth.server.dto.OAuthPartner;
+import com.oauth.server.dto.OAuthReciprocalExchange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.client.token.AccessTokenProvider;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidGrantException;
+import org.springframework.web.client.HttpServerErrorException;
+
+public class ReciprocalExchangeQueueTest {
+
+    private static final Instant NOW = Instant.parse("2019-06-01T00:00:00Z");
+
+    private DynamoDBReciprocalExchangeDAO queueDAO;
+
+    private DynamoDBPartnerDetailsAsyncDAO partnerDetailsDAO;
+
+    private DynamoDBPartnerTokenAsyncDAO partnerTokenDAO;
+
+    private AccessTokenProvider tokenProvider;
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    private SimpleMeterRegistry registry;
+
+    private ReciprocalExchangeQueue queue;
+
+    @Before
+    public void setUp() {
+        queueDAO = mock(DynamoDBReciprocalExchangeDAO.class);
+        when(queueDAO.enqueue(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(queueDAO.replace(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(true));
+        when(queueDAO.delete(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(true));
+
+        partnerDetailsDAO = mock(DynamoDBPartnerDetailsAsyncDAO.class);
+        when(partnerDetailsDAO.loadResourceDetailsByPartnerId("alexa")).thenReturn(CompletableFuture.completedFuture(
+            ImmutablePartnerResourceDetails.of(OAuthPartner.builder().partnerId("alexa").clientId("client").build())));
+
+        partnerTokenDAO = mock(DynamoDBPartnerTokenAsyncDAO.class);
+        when(partnerTokenDAO.saveAccessToken(any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        tokenProvider = mock(AccessTokenProvider.class);
+        timeoutScheduler = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(timeoutScheduler).schedule(any(Runnable.class), anyLong(), any());
+        registry = new SimpleMeterRegistry();
+
+        queue = new ReciprocalExchangeQueue(queueDAO, partnerDetailsDAO, partnerTokenDAO, tokenProvider,
+            new PartnerExchangeGuard(8, 0.5, 10, 10, Duration.ofSeconds(30), 1), Runnable::run, timeoutScheduler, 2, 2,
+            Duration.ofSeconds(1), Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofDays(7),
+            Clock.fixed(NOW, ZoneOffset.UTC));
+        queue.bindTo(registry);
+    }
+
+    @Test
+    public void queuedCodeIsExchangedAndRemoved() {
+        when(tokenProvider.obtainAccessToken(any(), any())).thenReturn(new DefaultOAuth2AccessToken("token"));
+
+        queue.enqueue("alexa", "user", "code").join();
+
+        verify(partnerTokenDAO).saveAccessToken(any(), any(), eq(new DefaultOAuth2AccessToken("token")));
+        ArgumentCaptor<OAuthReciprocalExchange> claimed = ArgumentCaptor.forClass(OAuthReciprocalExchange.class);
+        verify(queueDAO).replace(claimed.capture(), eq(NOW.toEpochMilli()));
+        assertEquals(1, (int) claimed.getValue().getAttempts());
+        verify(queueDAO).delete(any(), eq(NOW.plusSeconds(30).toEpochMilli()));
+        assertEquals(1, registry.get("oauth.reciprocal.exchange.latency").timer().count());
+    }
+
+    @Test
+    public void partnerFailuresAreRetriedThenDeadLettered() {
+        when(tokenProvider.obtainAccessToken(any(), any()))
+            .thenThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE));
+
+        queue.enqueue("alexa", "user", "code").join();
+
+        ArgumentCaptor<OAuthReciprocalExchange> retried = ArgumentCaptor.forClass(OAuthReciprocalExchange.class);
+        verify(queueDAO).replace(retried.capture(), eq(NOW.plusSeconds(30).toEpochMilli()));
+        OAuthReciprocalExchange retry = retried.getValue();
+        assertEquals(OAuthReciprocalExchange.PENDING, retry.getQueue());
+        assertTrue(OAuthReciprocalExchange.queueShards(OAuthReciprocalExchange.PENDING)
+            .contains(retry.getQueueShard()));
+        assertTrue(retry.getNextAttemptAt() >= NOW.plusMillis(500).toEpochMilli());
+        assertTrue(retry.getNextAttemptAt() <= NOW.plusSeconds(1).toEpochMilli());
+
+        when(queueDAO.findDue(anyLong(), eq(2))).thenReturn(ImmutableList.of(retry));
+        queue.poll();
+
+        ArgumentCaptor<OAuthReciprocalExchange> deadLettered = ArgumentCaptor.forClass(OAuthReciprocalExchange.class);
+        verify(queueDAO, times(4)).replace(deadLettered.capture(), anyLong());
+        OAuthReciprocalExchange deadLetter = deadLettered.getValue();
+        assertEquals(OAuthReciprocalExchange.DEAD_LETTER, deadLetter.getQueue());
+        assertTrue(OAuthReciprocalExchange.queueShards(OAuthReciprocalExchange.DEAD_LETTER)
+            .contains(deadLetter.getQueueShard()));
+        assertEquals(2, (int) deadLetter.getAttempts());
+        assertNull(deadLetter.getAuthorizationCode());
+        verify(partnerTokenDAO, never()).saveAccessToken(any(), any(), any());
+    }
+
+    @Test
+    public void invalidCodesAreDeadLetteredAtOnce() {
+        when(tokenProvider.obtainAccessToken(any(), any())).thenThrow(new InvalidGrantException("Invalid code"));
+
+        queue.enqueue("alexa", "user", "code").join();
+
+        assertEquals(1, registry.get("oauth.reciprocal.exchange.attempts").tag("outcome", "dead_lettered").counter()
+            .count(), 0);
+    }
+
+    @Test
+    public void attemptsAreTimedOutAtTheVisibilityTimeoutAndRetried() {
+        CompletableFuture<ImmutablePartnerResourceDetails> resourceDetails = new CompletableFuture<>();
+        when(partnerDetailsDAO.loadResourceDetailsByPartnerId("alexa")).thenReturn(resourceDetails);
+        when(tokenProvider.obtainAccessToken(any(), any())).thenReturn(new DefaultOAuth2AccessToken("token"));
+
+        queue.enqueue("alexa", "user", "code").join();
+
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(timeoutScheduler).schedule(timeout.capture(), eq(30000L), eq(TimeUnit.MILLISECONDS));
+        timeout.getValue().run();
+
+        ArgumentCaptor<OAuthReciprocalExchange> retried = ArgumentCaptor.forClass(OAuthReciprocalExchange.class);
+        verify(queueDAO).replace(retried.capture(), eq(NOW.plusSeconds(30).toEpochMilli()));
+        assertEquals(OAuthReciprocalExchange.PENDING, retried.getValue().getQueue());
+        assertTrue(retried.getValue().getLastError().contains("TimeoutException"));
+
+        resourceDetails.complete(ImmutablePartnerResourceDetails.of(
+            OAuthPartner.builder().partnerId("alexa").clientId("client").build()));
+
+        verify(partnerTokenDAO, never()).saveAccessToken(any(), any(), any());
+        verify(queueDAO, never()).delete(any(), anyLong());
+    }
+
+    @Test
+    public void failedConditionalDeletesAreCounted() {
+        when(tokenProvider.obtainAccessToken(any(), any())).thenReturn(new DefaultOAuth2AccessToken("token"));
+        when(queueDAO.delete(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(false));
+
+        queue.enqueue("alexa", "user", "code").join();
+
+        assertEquals(1, registry.get("oauth.reciprocal.exchange.delete.conflicts").counter().count(), 0);
+    }
+}
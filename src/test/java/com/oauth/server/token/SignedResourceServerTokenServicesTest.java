@@ -0,0 +1,191 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedScanList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.oauth.server.dto.OAuthRevokedToken;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.NoSuchClientException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+public class SignedResourceServerTokenServicesTest {
+
+    private static final String SIGNING_KEY = "2019-06:0123456789abcdef0123456789abcdef";
+
+    private final OAuth2Authentication authentication = new OAuth2Authentication(
+        new OAuth2Request(ImmutableMap.of(), "test_alexa_client", ImmutableList.of(), true,
+            ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null),
+        new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of()));
+
+    private DynamoDBMapper dynamoDBMapper;
+
+    private ResourceServerTokenServices opaqueTokenServices;
+
+    private ClientDetailsService clientDetailsService;
+
+    private SigningKeyRing signingKeyRing;
+
+    private RotatingJwtAccessTokenConverter accessTokenConverter;
+
+    private AccessTokenRevocationList revocationList;
+
+    private SignedResourceServerTokenServices tokenServices;
+
+    @Before
+    public void setUp() {
+        dynamoDBMapper = mock(DynamoDBMapper.class);
+        opaqueTokenServices = mock(ResourceServerTokenServices.class);
+        clientDetailsService = mock(ClientDetailsService.class);
+        signingKeyRing = new SigningKeyRing(Collections.singletonList(SIGNING_KEY), Duration.ofHours(1));
+        accessTokenConverter = new RotatingJwtAccessTokenConverter(signingKeyRing);
+        revocationList = new AccessTokenRevocationList(dynamoDBMapper);
+        tokenServices = new SignedResourceServerTokenServices(accessTokenConverter, revocationList,
+            opaqueTokenServices, clientDetailsService);
+    }
+
+    @Test
+    public void signedTokenIsValidatedLocally() {
+        OAuth2AccessToken accessToken = issue(60);
+
+        assertTrue(RotatingJwtAccessTokenConverter.isSigned(accessToken.getValue()));
+        assertEquals("refresh", accessToken.getRefreshToken().getValue());
+
+        OAuth2Authentication loaded = tokenServices.loadAuthentication(accessToken.getValue());
+        assertEquals("user", loaded.getName());
+        assertEquals("test_alexa_client", loaded.getOAuth2Request().getClientId());
+        assertEquals(ImmutableSet.of("profile"), loaded.getOAuth2Request().getScope());
+        verifyZeroInteractions(dynamoDBMapper, opaqueTokenServices);
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void expiredTokenIsRejected() {
+        tokenServices.loadAuthentication(issue(-60).getValue());
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void tamperedTokenIsRejected() {
+        String value = issue(60).getValue();
+        tokenServices.loadAuthentication(value.substring(0, value.length() - 2) + "AA");
+    }
+
+    @Test
+    public void revokedTokenIsRejected() {
+        OAuth2AccessToken accessToken = issue(60);
+        revocationList.revoke(accessToken.getValue());
+
+        verify(dynamoDBMapper).save(any(OAuthRevokedToken.class));
+        try {
+            tokenServices.loadAuthentication(accessToken.getValue());
+        } catch (InvalidTokenException e) {
+            return;
+        }
+        throw new AssertionError("Revoked token accepted");
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void tokenOfRemovedClientIsRejected() {
+        when(clientDetailsService.loadClientByClientId("test_alexa_client"))
+            .thenThrow(new NoSuchClientException("No client with requested id: test_alexa_client"));
+
+        tokenServices.loadAuthentication(issue(60).getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refreshReadsOnlyTheTokensRevokedSincePreviousRefresh() {
+        Instant now = Instant.parse("2019-06-01T10:00:30Z");
+        revocationList = new AccessTokenRevocationList(dynamoDBMapper, Clock.fixed(now, ZoneOffset.UTC));
+        PaginatedScanList<OAuthRevokedToken> all = mock(PaginatedScanList.class);
+        when(all.iterator()).thenReturn(Collections.emptyIterator());
+        when(dynamoDBMapper.scan(eq(OAuthRevokedToken.class), any())).thenReturn(all);
+        PaginatedQueryList<OAuthRevokedToken> revoked = mock(PaginatedQueryList.class);
+        when(revoked.iterator()).thenReturn(Collections.singletonList(OAuthRevokedToken.builder()
+            .tokenId("revoked")
+            .expiration(now.plusSeconds(60).getEpochSecond())
+            .build()).iterator());
+        when(dynamoDBMapper.query(eq(OAuthRevokedToken.class), any())).thenReturn(revoked);
+
+        revocationList.refresh();
+        revocationList.refresh();
+
+        ArgumentCaptor<DynamoDBQueryExpression<OAuthRevokedToken>> queries =
+            ArgumentCaptor.forClass(DynamoDBQueryExpression.class);
+        verify(dynamoDBMapper).scan(any(), any());
+        verify(dynamoDBMapper, times(2)).query(any(), queries.capture());
+        assertEquals(ImmutableList.of("2019-06-01T09", "2019-06-01T10"), queries.getAllValues().stream()
+            .map(query -> query.getHashKeyValues().getRevocationBucket())
+            .collect(Collectors.toList()));
+        assertEquals(Long.toString(now.minusSeconds(60).toEpochMilli()), queries.getValue().getRangeKeyConditions()
+            .get("revocationTime").getAttributeValueList().get(0).getN());
+        assertTrue(revocationList.isRevoked("revoked"));
+    }
+
+    @Test
+    public void rotatedKeyStillVerifiesUntilRetired() {
+        SigningKeyRing generatedKeyRing = new SigningKeyRing(Collections.emptyList(), Duration.ofHours(1));
+        accessTokenConverter = new RotatingJwtAccessTokenConverter(generatedKeyRing);
+        tokenServices = new SignedResourceServerTokenServices(accessTokenConverter, revocationList,
+            opaqueTokenServices, clientDetailsService);
+
+        String previousKeyId = generatedKeyRing.getActiveKey().getKeyId();
+        OAuth2AccessToken accessToken = issue(60);
+        generatedKeyRing.rotate();
+
+        assertTrue(generatedKeyRing.isGenerated());
+        assertNotEquals(previousKeyId, generatedKeyRing.getActiveKey().getKeyId());
+        assertEquals("user", tokenServices.loadAuthentication(accessToken.getValue()).getName());
+        assertNull(new SignedResourceServerTokenServices(
+            new RotatingJwtAccessTokenConverter(signingKeyRing), revocationList, opaqueTokenServices,
+            clientDetailsService)
+            .readAccessToken(accessToken.getValue()));
+    }
+
+    @Test
+    public void opaqueTokenIsDelegated() {
+        tokenServices.loadAuthentication("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+
+        verify(opaqueTokenServices).loadAuthentication("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+        verifyZeroInteractions(dynamoDBMapper);
+    }
+
+    private OAuth2AccessToken issue(int expiresInSeconds) {
+        DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + expiresInSeconds * 1000L));
+        accessToken.setScope(ImmutableSet.of("profile"));
+        accessToken.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+        return accessTokenConverter.enhance(accessToken, authentication);
+    }
+}
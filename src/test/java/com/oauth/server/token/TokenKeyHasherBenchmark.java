@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * Licensed under the Amazon Software License
+ * http://aws.amazon.com/asl/
+ */
+package com.oauth.server.token;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.AuthenticationKeyGenerator;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+/**
+ * JMH benchmark of token key hashing, comparing the previous {@code DynamoDBTokenDAO.extractTokenKey} and
+ * {@link DefaultAuthenticationKeyGenerator} with {@link TokenKeyHasher} and {@link HashingAuthenticationKeyGenerator}.
+ *
+ * <p>
+ * Run it from the IDE or with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.oauth.server.token.TokenKeyHasherBenchmark}. The GC profiler reports the allocation rate per
+ * operation as {@code gc.alloc.rate.norm}.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenKeyHasherBenchmark {
+
+    private final String tokenValue = UUID.randomUUID().toString();
+
+    private final TokenKeyHasher md5Hasher = new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5);
+
+    private final TokenKeyHasher sha256Hasher = new TokenKeyHasher(TokenKeyHasher.Algorithm.SHA_256);
+
+    private final AuthenticationKeyGenerator defaultKeyGenerator = new DefaultAuthenticationKeyGenerator();
+
+    private final AuthenticationKeyGenerator hashingKeyGenerator = new HashingAuthenticationKeyGenerator(md5Hasher);
+
+    private final OAuth2Request request = new OAuth2Request(ImmutableMap.of(), "test_alexa_client",
+        ImmutableList.of(), true, ImmutableSet.of("profile"), ImmutableSet.of(), null, null, null);
+
+    /**
+     * Each token request builds its own {@link OAuth2Authentication}, so the benchmarks do the same.
+     */
+    private OAuth2Authentication newAuthentication() {
+        return new OAuth2Authentication(request,
+            new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of()));
+    }
+
+    @Benchmark
+    public String legacyExtractTokenKey() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        byte[] bytes = digest.digest(tokenValue.getBytes(StandardCharsets.UTF_8));
+        return String.format("%032x", new BigInteger(1, bytes));
+    }
+
+    @Benchmark
+    public String md5Hash() {
+        return md5Hasher.hash(tokenValue);
+    }
+
+    @Benchmark
+    public String sha256Hash() {
+        return sha256Hasher.hash(tokenValue);
+    }
+
+    @Benchmark
+    public String defaultAuthenticationKey() {
+        return defaultKeyGenerator.extractKey(newAuthentication());
+    }
+
+    @Benchmark
+    public String hashingAuthenticationKey() {
+        return hashingKeyGenerator.extractKey(newAuthentication());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TokenKeyHasherBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+}
@@ -0,0 +1,60 @@
+package com.oauth.server.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.DefaultAuthenticationKeyGenerator;
+
+public class TokenKeyHasherTest {
+
+    @Test
+    public void hashMatchesPreviousMd5Keys() throws Exception {
+        TokenKeyHasher hasher = new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5);
+
+        for (String value : ImmutableList.of("", "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0", "naïve €",
+            "🔑 key", "broken \ud83d surrogate")) {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            assertEquals(String.format("%032x", new BigInteger(1, digest)), hasher.hash(value));
+        }
+        assertNull(hasher.hash(null));
+    }
+
+    @Test
+    public void legacyHashUsesLegacyAlgorithm() {
+        TokenKeyHasher hasher = new TokenKeyHasher(TokenKeyHasher.Algorithm.SHA_256, TokenKeyHasher.Algorithm.MD5);
+
+        assertTrue(hasher.hasLegacyAlgorithm());
+        assertEquals(64, hasher.hash("token").length());
+        assertEquals(new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5).hash("token"), hasher.legacyHash("token"));
+        assertFalse(new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5).hasLegacyAlgorithm());
+    }
+
+    @Test
+    public void authenticationKeyMatchesDefaultKeyGenerator() {
+        HashingAuthenticationKeyGenerator keyGenerator =
+            new HashingAuthenticationKeyGenerator(new TokenKeyHasher(TokenKeyHasher.Algorithm.MD5));
+        OAuth2Request request = new OAuth2Request(ImmutableMap.of(), "test_alexa_client", ImmutableList.of(), true,
+            ImmutableSet.of("profile", "alexa::health:profile:write"), ImmutableSet.of(), null, null, null);
+
+        OAuth2Authentication userAuthentication = new OAuth2Authentication(request,
+            new UsernamePasswordAuthenticationToken("user", null, ImmutableList.of()));
+        OAuth2Authentication clientAuthentication = new OAuth2Authentication(request, null);
+
+        assertEquals(new DefaultAuthenticationKeyGenerator().extractKey(userAuthentication),
+            keyGenerator.extractKey(userAuthentication));
+        assertEquals(new DefaultAuthenticationKeyGenerator().extractKey(clientAuthentication),
+            keyGenerator.extractKey(clientAuthentication));
+    }
+}